@@ -0,0 +1,155 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.drawable.BitmapDrawable;
+import android.net.Uri;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.widget.ImageView;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Peak memory of one preview decode on a device: a 12 MP camera JPEG shown in a 512x384 view
+ * must be decoded subsampled, not at full size and scaled down afterwards.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PreviewLoaderTest {
+
+    private static final int PHOTO_WIDTH = 4000;
+    private static final int PHOTO_HEIGHT = 3000;
+    private static final int VIEW_WIDTH = 512;
+    private static final int VIEW_HEIGHT = 384;
+    private static final long TIMEOUT_MS = 10000;
+
+    private Context context;
+    private File dir;
+    private File photo;
+    private PreviewLoader loader;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dir = new File(context.getCacheDir(), "preview-loader-test");
+        delete(dir);
+        if (!dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        photo = writePhoto(new File(dir, "IMG_test.jpg"));
+        // A fresh cache, so the decode is not answered from an earlier run
+        ThumbnailCache cache = new ThumbnailCache(context.getContentResolver(), new File(dir, "thumbnails"),
+                8 * 1024 * 1024, 16 * 1024 * 1024);
+        loader = new PreviewLoader(context, new BitmapPool(16 * 1024 * 1024), cache, new Telemetry(0));
+    }
+
+    @After
+    public void tearDown() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(loader::shutdown);
+        delete(dir);
+    }
+
+    @Test
+    public void decodeIsSubsampledToTheView() throws InterruptedException {
+        long budget = DownsampleMath.decodedByteCount(PHOTO_WIDTH, PHOTO_HEIGHT,
+                DownsampleMath.calculateInSampleSize(PHOTO_WIDTH, PHOTO_HEIGHT, VIEW_WIDTH, VIEW_HEIGHT), 4);
+        long fullSize = (long) PHOTO_WIDTH * PHOTO_HEIGHT * 4;
+
+        final ImageView view = new ImageView(context);
+        final AtomicBoolean sampling = new AtomicBoolean(true);
+        final AtomicLong peak = new AtomicLong();
+        Runtime.getRuntime().gc();
+        final long baseline = usedBytes();
+        // Bitmap pixels live in the native heap, the decoder's buffers in both
+        Thread sampler = new Thread(() -> {
+            while (sampling.get()) {
+                peak.accumulateAndGet(usedBytes() - baseline, Math::max);
+                SystemClock.sleep(1);
+            }
+        });
+        sampler.start();
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            view.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+            loader.load(view, Uri.fromFile(photo));
+        });
+        Bitmap shown = awaitBitmap(view);
+        sampling.set(false);
+        sampler.join();
+
+        assertNotNull("Preview never shown", shown);
+        assertEquals(PHOTO_WIDTH / 4, shown.getWidth());
+        assertEquals(PHOTO_HEIGHT / 4, shown.getHeight());
+        assertEquals(budget, shown.getByteCount());
+        // The decode itself, the cached thumbnail and decoder buffers; far below a full-size decode
+        assertTrue("Peak " + peak.get() / 1024 + " KB for a " + budget / 1024 + " KB decode",
+                peak.get() < 4 * budget && peak.get() < fullSize / 4);
+    }
+
+    private static Bitmap awaitBitmap(final ImageView view) {
+        final AtomicReference<Bitmap> shown = new AtomicReference<>();
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+        while (shown.get() == null && SystemClock.elapsedRealtime() < deadline) {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+                if (view.getDrawable() instanceof BitmapDrawable) {
+                    shown.set(((BitmapDrawable) view.getDrawable()).getBitmap());
+                }
+            });
+            SystemClock.sleep(10);
+        }
+        return shown.get();
+    }
+
+    private static long usedBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+    }
+
+    // A camera-sized JPEG with some detail, so it does not compress to nothing
+    private static File writePhoto(File file) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(PHOTO_WIDTH, PHOTO_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        for (int i = 0; i < 200; i++) {
+            paint.setColor(Color.rgb(i * 37 % 256, i * 91 % 256, i * 53 % 256));
+            canvas.drawCircle(i * 131 % PHOTO_WIDTH, i * 71 % PHOTO_HEIGHT, 40 + i % 200, paint);
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
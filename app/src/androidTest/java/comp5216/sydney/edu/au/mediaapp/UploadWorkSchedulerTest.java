@@ -0,0 +1,228 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.work.Configuration;
+import androidx.work.Constraints;
+import androidx.work.ListenableWorker;
+import androidx.work.NetworkType;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerFactory;
+import androidx.work.WorkerParameters;
+import androidx.work.testing.SynchronousExecutor;
+import androidx.work.testing.TestDriver;
+import androidx.work.testing.WorkManagerTestInitHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link UploadWorkScheduler} against WorkManager's test instance. The queue is kept
+ * offline so nothing it holds is ever sent, and the worker is replaced by one that ends the
+ * way {@link UploadWorker} does when uploads are left: by rescheduling them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class UploadWorkSchedulerTest {
+
+    private static final DeviceConditions OFFLINE = new DeviceConditions(false, false, false, false);
+
+    private Context context;
+    private ScheduledExecutorService dispatcher;
+    private UploadQueue queue;
+    private WorkManager workManager;
+    private TestDriver driver;
+    private UploadWorkScheduler scheduler;
+    private final AtomicInteger runs = new AtomicInteger();
+    // What the worker is told is left, instead of asking the queue
+    private final AtomicReference<List<UploadItem>> leftover = new AtomicReference<>();
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Configuration configuration = new Configuration.Builder()
+                .setMinimumLoggingLevel(Log.DEBUG)
+                .setExecutor(new SynchronousExecutor())
+                .setWorkerFactory(new LeftoverWorkerFactory())
+                .build();
+        WorkManagerTestInitHelper.initializeTestWorkManager(context, configuration);
+        workManager = WorkManager.getInstance(context);
+        driver = WorkManagerTestInitHelper.getTestDriver(context);
+
+        File journal = new File(context.getCacheDir(), "upload-work-scheduler-test.log");
+        journal.delete();
+        dispatcher = Executors.newSingleThreadScheduledExecutor();
+        queue = new UploadQueue(new UploadJournal(journal), (item, callback) -> () -> { }, dispatcher,
+                Executors.newSingleThreadExecutor(), 2, 2, 3, 1000, 1000);
+        queue.setPolicy(UploadPolicy.defaults());
+        queue.updateConditions(OFFLINE);
+        queue.start();
+        scheduler = new UploadWorkScheduler(workManager, queue);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        queue.shutdown();
+        dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void videoWaitsForUnmeteredOrCharging() {
+        Map<String, Constraints> work = UploadWorkScheduler.workFor(
+                UploadPolicy.defaults().ruleFor(UploadItem.forFile("file:///v.mp4", "Sydney/videos/v.mp4")));
+
+        assertEquals(2, work.size());
+        Constraints unmetered = work.get("upload-video-unmetered");
+        assertNotNull(unmetered);
+        assertEquals(NetworkType.UNMETERED, unmetered.getRequiredNetworkType());
+        assertFalse(unmetered.requiresCharging());
+        assertTrue(unmetered.requiresBatteryNotLow());
+        Constraints charging = work.get("upload-video-charging");
+        assertNotNull(charging);
+        assertEquals(NetworkType.CONNECTED, charging.getRequiredNetworkType());
+        assertTrue(charging.requiresCharging());
+        // Charging, a low battery is no reason to wait
+        assertFalse(charging.requiresBatteryNotLow());
+    }
+
+    @Test
+    public void photosGoOnAnyNetwork() {
+        Map<String, Constraints> work = UploadWorkScheduler.workFor(
+                UploadPolicy.defaults().ruleFor(UploadItem.forFile("file:///a.jpg", "Sydney/images/a.jpg")));
+
+        assertEquals(1, work.size());
+        Constraints any = work.get("upload-any");
+        assertNotNull(any);
+        assertEquals(NetworkType.CONNECTED, any.getRequiredNetworkType());
+        assertFalse(any.requiresCharging());
+    }
+
+    @Test
+    public void enqueueSchedulesOneWorkPerAlternative() throws Exception {
+        scheduler.enqueue("file:///v.mp4", "Sydney/videos/v.mp4");
+        scheduler.enqueue("file:///w.mp4", "Sydney/videos/w.mp4");
+        scheduler.enqueue("file:///a.jpg", "Sydney/images/a.jpg");
+
+        // KEEP: the second video did not add work of its own
+        assertEquals(1, unique("upload-video-unmetered").size());
+        assertEquals(1, unique("upload-video-charging").size());
+        assertEquals(1, unique("upload-any").size());
+        assertEquals(WorkInfo.State.ENQUEUED, unique("upload-video-unmetered").get(0).getState());
+        assertTrue(unique("upload-any").get(0).getTags().contains(UploadWorkScheduler.TAG));
+        // Nothing ran, no constraints were met
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void leftoverWorkIsRescheduledBehindTheFinishingRun() throws Exception {
+        scheduler.enqueue("file:///v.mp4", "Sydney/videos/v.mp4");
+        WorkInfo first = unique("upload-video-unmetered").get(0);
+
+        // On Wi-Fi at last, but the queue is still offline so the video is left
+        driver.setAllConstraintsMet(first.getId());
+        assertEquals(1, runs.get());
+        assertEquals(WorkInfo.State.SUCCEEDED, workManager.getWorkInfoById(first.getId()).get().getState());
+
+        WorkInfo next = enqueued("upload-video-unmetered");
+        assertNotNull("Leftover video was not rescheduled", next);
+        assertFalse(next.getId().equals(first.getId()));
+        // Its constraints alone do not start it, the pause has to pass too
+        driver.setAllConstraintsMet(next.getId());
+        assertEquals(1, runs.get());
+        driver.setInitialDelayMet(next.getId());
+        assertEquals(2, runs.get());
+        // The charging alternative was still waiting and is kept as it was
+        assertEquals(1, unique("upload-video-charging").size());
+    }
+
+    @Test
+    public void nothingIsRescheduledOnceEverythingWasSent() throws Exception {
+        scheduler.enqueue("file:///a.jpg", "Sydney/images/a.jpg");
+        WorkInfo first = unique("upload-any").get(0);
+        // As if the run had sent it
+        leftover.set(new ArrayList<UploadItem>());
+
+        driver.setAllConstraintsMet(first.getId());
+        assertEquals(1, runs.get());
+        assertNull(enqueued("upload-any"));
+    }
+
+    private List<WorkInfo> unique(String name) throws ExecutionException, InterruptedException {
+        return workManager.getWorkInfosForUniqueWork(name).get();
+    }
+
+    private WorkInfo enqueued(String name) throws ExecutionException, InterruptedException {
+        for (WorkInfo info : unique(name)) {
+            if (info.getState() == WorkInfo.State.ENQUEUED) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    private List<UploadItem> pending() throws InterruptedException {
+        List<UploadItem> override = leftover.get();
+        if (override != null) {
+            return override;
+        }
+        final AtomicReference<List<UploadItem>> result = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        queue.withPending(items -> {
+            result.set(items);
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    // Ends like UploadWorker with uploads left, without the process-wide queue behind it
+    private final class LeftoverWorkerFactory extends WorkerFactory {
+        @Override
+        public ListenableWorker createWorker(@NonNull Context appContext, @NonNull String workerClassName,
+                                             @NonNull WorkerParameters params) {
+            return new Worker(appContext, params) {
+                @NonNull
+                @Override
+                public Result doWork() {
+                    runs.incrementAndGet();
+                    try {
+                        List<UploadItem> items = pending();
+                        if (!items.isEmpty()) {
+                            scheduler.rescheduleAfter(getInputData().getString(UploadWorkScheduler.KEY_WORK_NAME),
+                                    items);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return Result.retry();
+                    }
+                    return Result.success();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.Context;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaMuxer;
+import android.net.Uri;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compresses a 1080p clip to the 720p profile with software codecs only, as an emulator or a
+ * CI device without hardware codecs would: the upload is switched to the smaller output and
+ * progress is reported while the transcode runs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class VideoCompressionStageTest {
+
+    private static final String AVC_ENCODER = "c2.android.avc.encoder";
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int FRAME_RATE = 30;
+    private static final int FRAMES = 60;
+    // Well above what the profile allows, so the clip is worth compressing
+    private static final int BIT_RATE = 16000000;
+    private static final long TIMEOUT_US = 10000;
+
+    private Context context;
+    private File dir;
+    private File clip;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dir = new File(context.getCacheDir(), "video-compression-test");
+        delete(dir);
+        if (!dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        clip = writeClip(new File(dir, "VID_test.mp4"));
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    @Test
+    public void softwareTranscodeReplacesTheUploadSource() throws Exception {
+        final VideoCompressionStage stage = new VideoCompressionStage(context, new File(dir, "transcoded"),
+                VideoTranscodeProfile.hd720(), true);
+        UploadItem item = UploadItem.forFile(Uri.fromFile(clip).toString(), "Sydney/videos/VID_test.mp4");
+
+        // Watched the way UploadWorker does, from another thread
+        final AtomicInteger highest = new AtomicInteger(VideoCompressionStage.IDLE);
+        Thread watcher = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                highest.accumulateAndGet(stage.getProgress(), Math::max);
+            }
+        });
+        watcher.start();
+        UploadItem prepared;
+        try {
+            prepared = stage.prepare(item);
+        } finally {
+            watcher.interrupt();
+            watcher.join();
+        }
+
+        assertSame(item, prepared);
+        assertTrue(item.hasPreparedSource());
+        assertEquals("video/mp4", item.getContentType());
+        assertTrue("No progress reported", highest.get() > 0);
+        assertEquals(VideoCompressionStage.IDLE, stage.getProgress());
+
+        File output = new File(Uri.parse(item.getUploadSource()).getPath());
+        assertTrue(output.length() > 0);
+        assertTrue(output.length() < clip.length());
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(output.getAbsolutePath());
+            assertEquals("1280", retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+            assertEquals("720", retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+            long durationMs = Long.parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+            assertTrue("Duration " + durationMs + " ms", Math.abs(durationMs - FRAMES * 1000L / FRAME_RATE) < 200);
+        } finally {
+            retriever.release();
+        }
+
+        // A retry uploads the same output instead of transcoding it again
+        assertSame(item, stage.prepare(item));
+        assertEquals(Uri.fromFile(output).toString(), item.getUploadSource());
+
+        stage.onUploaded(item);
+        assertFalse(output.exists());
+    }
+
+    // A moving gradient, encoded by the software AVC encoder at a camera-like bitrate
+    private static File writeClip(File file) throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, WIDTH, HEIGHT);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+        MediaCodec encoder = MediaCodec.createByCodecName(AVC_ENCODER);
+        MediaMuxer muxer = new MediaMuxer(file.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        try {
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            encoder.start();
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            int track = -1;
+            int queued = 0;
+            boolean done = false;
+            while (!done) {
+                if (queued <= FRAMES) {
+                    int index = encoder.dequeueInputBuffer(TIMEOUT_US);
+                    if (index >= 0) {
+                        long ptsUs = queued * 1000000L / FRAME_RATE;
+                        if (queued == FRAMES) {
+                            encoder.queueInputBuffer(index, 0, 0, ptsUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        } else {
+                            Image image = encoder.getInputImage(index);
+                            fill(image, queued);
+                            encoder.queueInputBuffer(index, 0, WIDTH * HEIGHT * 3 / 2, ptsUs, 0);
+                        }
+                        queued++;
+                    }
+                }
+                int index = encoder.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    track = muxer.addTrack(encoder.getOutputFormat());
+                    muxer.start();
+                } else if (index >= 0) {
+                    ByteBuffer encoded = encoder.getOutputBuffer(index);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                        encoded.position(info.offset);
+                        encoded.limit(info.offset + info.size);
+                        muxer.writeSampleData(track, encoded, info);
+                    }
+                    encoder.releaseOutputBuffer(index, false);
+                    done = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                }
+            }
+            muxer.stop();
+        } finally {
+            encoder.release();
+            muxer.release();
+        }
+        return file;
+    }
+
+    private static void fill(Image image, int frame) {
+        Image.Plane[] planes = image.getPlanes();
+        for (int p = 0; p < planes.length; p++) {
+            int shift = p == 0 ? 0 : 1;
+            ByteBuffer buffer = planes[p].getBuffer();
+            int rowStride = planes[p].getRowStride();
+            int pixelStride = planes[p].getPixelStride();
+            for (int y = 0; y < HEIGHT >> shift; y++) {
+                for (int x = 0; x < WIDTH >> shift; x++) {
+                    int value = p == 0 ? (x + y + frame * 8) & 0xff : 128 + ((x - frame) & 0x3f);
+                    buffer.put(y * rowStride + x * pixelStride, (byte) value);
+                }
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
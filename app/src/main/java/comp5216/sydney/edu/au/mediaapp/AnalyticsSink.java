@@ -0,0 +1,75 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.os.Bundle;
+
+import com.google.firebase.analytics.FirebaseAnalytics;
+
+import java.util.Map;
+
+/**
+ * Logs a {@link TelemetryReport} to Firebase Analytics: one "perf_histogram" event per
+ * histogram that recorded anything, and the counters and gauges as "perf_counters" events of
+ * at most {@link #MAX_PARAMS} parameters, the most Analytics accepts. Meant to sit behind a
+ * {@link BatchingSink} so the event count stays small.
+ */
+public class AnalyticsSink implements Telemetry.Sink {
+
+    private static final int MAX_PARAMS = 25;
+    private static final int MAX_NAME = 40;
+
+    private final FirebaseAnalytics analytics;
+
+    public AnalyticsSink(FirebaseAnalytics analytics) {
+        this.analytics = analytics;
+    }
+
+    @Override
+    public void publish(TelemetryReport report) {
+        long intervalSeconds = (report.getEndMillis() - report.getStartMillis()) / 1000;
+        for (Map.Entry<String, Histogram.Snapshot> entry : report.getHistograms().entrySet()) {
+            Histogram.Snapshot snapshot = entry.getValue();
+            if (snapshot.getCount() == 0) {
+                continue;
+            }
+            Bundle params = new Bundle();
+            params.putString("metric", paramName(entry.getKey()));
+            params.putLong("count", snapshot.getCount());
+            params.putLong("p50", snapshot.getValueAtPercentile(50));
+            params.putLong("p90", snapshot.getValueAtPercentile(90));
+            params.putLong("p99", snapshot.getValueAtPercentile(99));
+            params.putLong("max", snapshot.getMax());
+            params.putLong("interval_s", intervalSeconds);
+            analytics.logEvent("perf_histogram", params);
+        }
+
+        Bundle params = new Bundle();
+        params.putLong("interval_s", intervalSeconds);
+        params = putAll(params, report.getCounters(), intervalSeconds);
+        params = putAll(params, report.getGauges(), intervalSeconds);
+        if (params.size() > 1) {
+            analytics.logEvent("perf_counters", params);
+        }
+    }
+
+    // Starts a new event whenever the current one is full, returns the one being filled
+    private Bundle putAll(Bundle params, Map<String, Long> values, long intervalSeconds) {
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            if (entry.getValue() == 0) {
+                continue;
+            }
+            if (params.size() == MAX_PARAMS) {
+                analytics.logEvent("perf_counters", params);
+                params = new Bundle();
+                params.putLong("interval_s", intervalSeconds);
+            }
+            params.putLong(paramName(entry.getKey()), entry.getValue());
+        }
+        return params;
+    }
+
+    // Analytics names are letters, digits and underscores, at most 40 long
+    private static String paramName(String metric) {
+        String name = metric.replaceAll("[^A-Za-z0-9_]", "_");
+        return name.length() > MAX_NAME ? name.substring(0, MAX_NAME) : name;
+    }
+}
@@ -0,0 +1,88 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.annotation.SuppressLint;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link PcmSource} reading 16-bit PCM from the microphone through AudioRecord.
+ */
+public class AudioRecordPcmSource implements PcmSource {
+
+    // Recorders of every source not yet released; one left over keeps the microphone
+    private static final AtomicInteger live = new AtomicInteger();
+
+    private final RecordingConfig config;
+    private AudioRecord audioRecord;
+
+    public AudioRecordPcmSource(RecordingConfig config) {
+        this.config = config;
+    }
+
+    // RECORD_AUDIO is requested by the Activity before recording can start
+    @SuppressLint("MissingPermission")
+    @Override
+    public void start() throws IOException {
+        int channelMask = config.getChannelCount() == 1
+                ? AudioFormat.CHANNEL_IN_MONO : AudioFormat.CHANNEL_IN_STEREO;
+        int minBuffer = AudioRecord.getMinBufferSize(config.getSampleRate(), channelMask,
+                AudioFormat.ENCODING_PCM_16BIT);
+        if (minBuffer <= 0) {
+            throw new IOException("Unsupported capture format " + config.getSampleRate() + " Hz");
+        }
+        // Leave room for a few reads so a late encoder does not drop samples
+        int bufferSize = Math.max(minBuffer, config.getBufferSize() * 4);
+        audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, config.getSampleRate(),
+                channelMask, AudioFormat.ENCODING_PCM_16BIT, bufferSize);
+        live.incrementAndGet();
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            release();
+            throw new IOException("AudioRecord failed to initialise");
+        }
+        audioRecord.startRecording();
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        int position = buffer.position();
+        int read = audioRecord.read(buffer, buffer.remaining(), AudioRecord.READ_BLOCKING);
+        if (read < 0) {
+            if (audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_STOPPED) {
+                return -1;
+            }
+            throw new IOException("AudioRecord.read failed: " + read);
+        }
+        // AudioRecord writes from the position but does not advance it
+        buffer.position(position + read);
+        return read;
+    }
+
+    @Override
+    public void stop() {
+        AudioRecord record = audioRecord;
+        if (record != null && record.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+            record.stop();
+        }
+    }
+
+    @Override
+    public void release() {
+        if (audioRecord != null) {
+            audioRecord.release();
+            audioRecord = null;
+            live.decrementAndGet();
+        }
+    }
+
+    @VisibleForTesting
+    static int getLiveCount() {
+        return live.get();
+    }
+}
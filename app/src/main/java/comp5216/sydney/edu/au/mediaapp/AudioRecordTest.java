@@ -3,32 +3,79 @@ package comp5216.sydney.edu.au.mediaapp;
 import android.Manifest;
 import android.content.pm.PackageManager;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.os.Bundle;
+import android.os.Debug;
 import android.view.ViewGroup;
 import android.view.View;
 import android.content.Context;
 import android.util.Log;
-import android.media.MediaRecorder;
-import android.media.MediaPlayer;
+import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.AppCompatButton;
 import androidx.core.app.ActivityCompat;
 
-import java.io.IOException;
+import java.io.File;
 
 
 public class AudioRecordTest extends AppCompatActivity
 {
     private static final String LOG_TAG = "AudioRecordTest";
     private static final int REQUEST_RECORD_AUDIO_PERMISSION = 200;
+    // AAC-LC or Opus through MediaCodec, by profile; the engine only sees the PcmEncoder interface
+    private static final PcmEncoder.Factory ENCODER_FACTORY = MediaCodecAudioEncoder::new;
+    // Bitrate steps down while uploads back up or storage runs low, see AdaptiveBitrate
+    private static final boolean ADAPTIVE_BITRATE = true;
+    // File size per minute of audio for each profile over this process, and the app-side CPU of feeding the codec
+    private static final RecordingStats sRecordingStats = new RecordingStats();
+    // Drop silence before it is encoded, so recordings carry no dead air at either end
+    private static final boolean TRIM_SILENCE = true;
+    private static final long LEVEL_INTERVAL_US = 50000;  // 20 meter updates a second
+    // While armed the microphone stays open and the last two seconds are kept for the next recording
+    private static final long PRE_ROLL_MS = 2000;
+    // Encoder setup and scheduling hiccups the ring absorbs on top of the pre-roll
+    private static final long PRE_ROLL_HEADROOM_MS = 1000;
     private static String mFileName = null;
+    private static RecordingProfile mProfile = RecordingProfile.VOICE_HIGH;
 
     private RecordButton mRecordButton = null;
-    private MediaRecorder mRecorder = null;
+    private RecordingEngine mEngine = null;
+    private ArmButton mArmButton = null;
+    private PreRollCapture mPreRoll = null;
+    private SilenceTrimmer mTrimmer = null;
+    private ProfileButton mProfileButton = null;
+    private AdaptiveBitrate mAdaptive = null;
+    private RecordingProfile mPreRollProfile = null;  // what the armed capture was opened for
+    private UploadQueue mUploads = null;
+    private File mRecordingDir = null;
+
+    // Read on the recording thread every few seconds of audio
+    private final AdaptiveBitrate.Conditions mConditions = new AdaptiveBitrate.Conditions() {
+        @Override
+        public int getUploadBacklog() {
+            return mUploads.getDepth();
+        }
+
+        @Override
+        public long getFreeStorageBytes() {
+            return mRecordingDir.getUsableSpace();
+        }
+    };
+
+    private ProgressBar mLevelBar = null;
+    private volatile float mLevelDb = LevelMeter.SILENCE_DB;
+    // Posted rather than a new Runnable per update, the meter fires on the recording thread
+    private final Runnable mShowLevel = new Runnable() {
+        public void run() {
+            if (mLevelBar != null) {
+                mLevelBar.setProgress((int) Math.max(0, mLevelDb + 60));
+            }
+        }
+    };
 
     private PlayButton   mPlayButton = null;
-    private MediaPlayer   mPlayer = null;
+    private MediaPlayback mPlayback = null;
 
     // Requesting permission to RECORD_AUDIO
     private boolean permissionToRecordAccepted = false;
@@ -46,6 +93,37 @@ public class AudioRecordTest extends AppCompatActivity
 
     }
 
+    private void onArm(boolean arm) {
+        if (arm) {
+            if (mPreRoll == null) {
+                // Captured in the profile's format, so the pre-roll can go straight to its encoder
+                RecordingConfig config = mProfile.toConfig();
+                mPreRoll = new PreRollCapture(config, new AudioRecordPcmSource(config), PRE_ROLL_MS,
+                        PRE_ROLL_HEADROOM_MS);
+                mPreRollProfile = mProfile;
+            }
+            mPreRoll.arm();
+        } else if (mPreRoll != null) {
+            mPreRoll.disarm();
+        }
+    }
+
+    private void onProfile(RecordingProfile profile) {
+        mProfile = profile;
+        mFileName = outputFor(profile);
+        if (mPreRoll != null) {
+            // Opened for the old profile's sample rate and channels
+            mPreRoll.disarm();
+            mPreRoll = null;
+            mArmButton.reset();
+        }
+    }
+
+    private String outputFor(RecordingProfile profile) {
+        // Record to the external cache directory for visibility
+        return new File(mRecordingDir, "audiorecordtest." + profile.getCodec().getExtension()).getAbsolutePath();
+    }
+
     private void onRecord(boolean start) {
         if (start) {
             startRecording();
@@ -63,41 +141,99 @@ public class AudioRecordTest extends AppCompatActivity
     }
 
     private void startPlaying() {
-        mPlayer = new MediaPlayer();
-        try {
-            mPlayer.setDataSource(mFileName);
-            mPlayer.prepare();
-            mPlayer.start();
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "prepare() failed");
+        if (mPlayback == null) {
+            mPlayback = new MediaPlayback(this, new PlayerPool(1));
         }
+        // Prepared asynchronously, the UI thread does not wait for the file to be parsed
+        mPlayback.play(Uri.fromFile(new File(mFileName)), null, mPlaybackListener);
     }
 
     private void stopPlaying() {
-        mPlayer.release();
-        mPlayer = null;
+        if (mPlayback != null) {
+            mPlayback.stop();
+        }
     }
 
-    private void startRecording() {
-        mRecorder = new MediaRecorder();
-        mRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-        mRecorder.setOutputFormat(MediaRecorder.OutputFormat.THREE_GPP);
-        mRecorder.setOutputFile(mFileName);
-        mRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AMR_NB);
+    private final MediaPlayback.Listener mPlaybackListener = new MediaPlayback.Listener() {
+        @Override
+        public void onStarted(long startupMillis) {
+            Log.d(LOG_TAG, "Playback started after " + startupMillis + " ms");
+        }
+
+        @Override
+        public void onVideoSize(int width, int height) {
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(String message) {
+            Log.e(LOG_TAG, "Playback failed: " + message);
+        }
+    };
+
+    private final RecordingEngine.Listener mRecordingListener = new RecordingEngine.Listener() {
+        @Override
+        public void onRecordingFinished(long framesWritten) {
+            Log.i(LOG_TAG, "Recorded " + framesWritten + " frames to " + mFileName);
+            SilenceTrimmer trimmer = mTrimmer;
+            if (trimmer != null) {
+                Log.i(LOG_TAG, "Trimmed " + trimmer.getFramesDropped() + " of " + trimmer.getFramesIn() + " frames of silence");
+            }
+            AdaptiveBitrate adaptive = mAdaptive;
+            if (adaptive != null) {
+                Log.i(LOG_TAG, "Ended at " + adaptive.getBitRate() + " bit/s after " + adaptive.getSwitches() + " switches");
+            }
+            Log.i(LOG_TAG, sRecordingStats.toString());
+        }
 
-        try {
-            mRecorder.prepare();
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "prepare() failed");
+        @Override
+        public void onRecordingFailed(Exception e) {
+            Log.e(LOG_TAG, "recording failed", e);
         }
+    };
 
-        mRecorder.start();
+    private void startRecording() {
+        // AudioRecord -> the profile's codec; codec setup runs on the engine thread, not here
+        RecordingProfile profile = mProfile;
+        RecordingConfig config = profile.toConfig();
+        mFileName = outputFor(profile);
+        // Armed: opened now, before the encoder exists, so the recording starts PRE_ROLL_MS ago
+        PcmSource source = mPreRoll != null && mPreRoll.isArmed() && mPreRollProfile == profile
+                ? mPreRoll.openRecording() : new AudioRecordPcmSource(config);
+        // Right above the codec; counts this thread's share of encoding, the codec runs in media.swcodec
+        PcmEncoder encoder = new EncodeMeter(ENCODER_FACTORY.create(config, mFileName), profile, config,
+                new File(mFileName), sRecordingStats, Debug::threadCpuTimeNanos);
+        if (ADAPTIVE_BITRATE) {
+            mAdaptive = new AdaptiveBitrate(encoder, profile, mConditions);
+            encoder = mAdaptive;
+        } else {
+            mAdaptive = null;
+        }
+        if (TRIM_SILENCE) {
+            mTrimmer = new SilenceTrimmer(encoder, config);
+            encoder = mTrimmer;
+        } else {
+            mTrimmer = null;
+        }
+        // Metered ahead of the trimmer so the level keeps moving while silence is dropped
+        encoder = new LevelMeter(encoder, new LevelMeter.Listener() {
+            @Override
+            public void onLevel(float rmsDb, float peakDb) {
+                mLevelDb = rmsDb;
+                runOnUiThread(mShowLevel);
+            }
+        }, LEVEL_INTERVAL_US);
+        mEngine = new RecordingEngine(config, source, encoder, mRecordingListener);
+        mEngine.start();
     }
 
     private void stopRecording() {
-        mRecorder.stop();
-        mRecorder.release();
-        mRecorder = null;
+        mEngine.stop();
+        mEngine = null;
+        mLevelBar.setProgress(0);
     }
 
     class RecordButton extends AppCompatButton {
@@ -122,6 +258,52 @@ public class AudioRecordTest extends AppCompatActivity
         }
     }
 
+    class ProfileButton extends AppCompatButton {
+        OnClickListener clicker = new OnClickListener() {
+            public void onClick(View v) {
+                if (mEngine != null) {
+                    return;  // the codec is already configured for this recording
+                }
+                onProfile(mProfile.next());
+                setText(mProfile.getLabel());
+            }
+        };
+
+        public ProfileButton(Context ctx) {
+            super(ctx);
+            setText(mProfile.getLabel());
+            setOnClickListener(clicker);
+        }
+    }
+
+    class ArmButton extends AppCompatButton {
+        boolean mArm = true;
+
+        OnClickListener clicker = new OnClickListener() {
+            public void onClick(View v) {
+                onArm(mArm);
+                if (mArm) {
+                    setText("Disarm pre-roll");
+                } else {
+                    setText("Arm pre-roll");
+                }
+                mArm = !mArm;
+            }
+        };
+
+        public ArmButton(Context ctx) {
+            super(ctx);
+            setText("Arm pre-roll");
+            setOnClickListener(clicker);
+        }
+
+        // The capture stops with the activity, the button has to say so
+        void reset() {
+            mArm = true;
+            setText("Arm pre-roll");
+        }
+    }
+
     class PlayButton extends AppCompatButton {
         boolean mStartPlaying = true;
 
@@ -149,9 +331,10 @@ public class AudioRecordTest extends AppCompatActivity
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
 
-        // Record to the external cache directory for visibility
-        mFileName = getExternalCacheDir().getAbsolutePath();
-        mFileName += "/audiorecordtest.3gp";
+        mRecordingDir = getExternalCacheDir();
+        mFileName = outputFor(mProfile);
+        // Its depth is the upload backlog the bitrate adapts to
+        mUploads = MediaUploads.get(this);
 
         ActivityCompat.requestPermissions(this, permissions, REQUEST_RECORD_AUDIO_PERMISSION);
 
@@ -162,6 +345,26 @@ public class AudioRecordTest extends AppCompatActivity
                         ViewGroup.LayoutParams.WRAP_CONTENT,
                         ViewGroup.LayoutParams.WRAP_CONTENT,
                         0));
+        // RMS level from -60 dBFS (empty) to 0 dBFS (full)
+        mLevelBar = new ProgressBar(this, null, android.R.attr.progressBarStyleHorizontal);
+        mLevelBar.setMax(60);
+        ll.addView(mLevelBar,
+                new LinearLayout.LayoutParams(
+                        0,
+                        ViewGroup.LayoutParams.WRAP_CONTENT,
+                        1));
+        mProfileButton = new ProfileButton(this);
+        ll.addView(mProfileButton,
+                new LinearLayout.LayoutParams(
+                        ViewGroup.LayoutParams.WRAP_CONTENT,
+                        ViewGroup.LayoutParams.WRAP_CONTENT,
+                        0));
+        mArmButton = new ArmButton(this);
+        ll.addView(mArmButton,
+                new LinearLayout.LayoutParams(
+                        ViewGroup.LayoutParams.WRAP_CONTENT,
+                        ViewGroup.LayoutParams.WRAP_CONTENT,
+                        0));
         mPlayButton = new PlayButton(this);
         ll.addView(mPlayButton,
                 new LinearLayout.LayoutParams(
@@ -174,14 +377,19 @@ public class AudioRecordTest extends AppCompatActivity
     @Override
     public void onStop() {
         super.onStop();
-        if (mRecorder != null) {
-            mRecorder.release();
-            mRecorder = null;
+        if (mEngine != null) {
+            mEngine.stop();
+            mEngine = null;
+        }
+        if (mPreRoll != null) {
+            // Never keep the microphone open in the background
+            mPreRoll.disarm();
+            mArmButton.reset();
         }
 
-        if (mPlayer != null) {
-            mPlayer.release();
-            mPlayer = null;
+        if (mPlayback != null) {
+            mPlayback.release();
+            mPlayback = null;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Keeps a few mutable bitmaps around so preview decodes can reuse their memory through
+ * {@code BitmapFactory.Options.inBitmap} instead of allocating a fresh buffer every time.
+ */
+public class BitmapPool {
+
+    private final long maxBytes;
+    private final LinkedList<Bitmap> bitmaps = new LinkedList<>();
+    private long currentBytes;
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Returns the smallest pooled bitmap that can hold byteCount bytes, or null
+    public synchronized Bitmap get(long byteCount, Bitmap.Config config) {
+        Bitmap best = null;
+        for (Bitmap candidate : bitmaps) {
+            if (candidate.getConfig() == config && candidate.getAllocationByteCount() >= byteCount
+                    && (best == null || candidate.getAllocationByteCount() < best.getAllocationByteCount())) {
+                best = candidate;
+            }
+        }
+        if (best != null) {
+            bitmaps.remove(best);
+            currentBytes -= best.getAllocationByteCount();
+        }
+        return best;
+    }
+
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getAllocationByteCount() > maxBytes) {
+            return;
+        }
+        bitmaps.addFirst(bitmap);
+        currentBytes += bitmap.getAllocationByteCount();
+        // Drop the least recently returned bitmaps once over budget
+        Iterator<Bitmap> it = bitmaps.descendingIterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Bitmap evicted = it.next();
+            it.remove();
+            currentBytes -= evicted.getAllocationByteCount();
+        }
+    }
+
+    public synchronized void clear() {
+        bitmaps.clear();
+        currentBytes = 0;
+    }
+}
@@ -0,0 +1,232 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.graphics.ImageFormat;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.camera.core.CameraSelector;
+import androidx.camera.core.ImageCapture;
+import androidx.camera.core.ImageCaptureException;
+import androidx.camera.core.ImageProxy;
+import androidx.camera.core.Preview;
+import androidx.camera.lifecycle.ProcessCameraProvider;
+import androidx.camera.view.PreviewView;
+import androidx.core.content.ContextCompat;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process photo capture with CameraX, for single shots and continuous bursts.
+ *
+ * Images are captured in memory and written on a background thread straight from the
+ * camera's direct JPEG buffer into a FileChannel, so the bytes never pass through the Java
+ * heap. Each file goes to the upload queue as soon as it is on disk. In burst mode up to
+ * {@link #MAX_IN_FLIGHT} captures are outstanding and every completed one requests the next.
+ */
+public class BurstCaptureActivity extends AppCompatActivity {
+
+    public static final String EXTRA_CITY = "city";
+    public static final String EXTRA_MEDIA_DIR = "media_dir";
+
+    private static final String TAG = "BurstCaptureActivity";
+    private static final int MAX_IN_FLIGHT = 2;
+
+    private PreviewView previewView;
+    private TextView statsView;
+    private Button burstButton;
+    private ImageCapture imageCapture;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private Executor mainExecutor;
+    private final ShotLatencyTracker latency = new ShotLatencyTracker(256);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean bursting;
+
+    private MediaCapture mediaCapture;
+    private MediaIndex mediaIndex;
+    private Histogram shotMs;
+    private String city;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_burst_capture);
+        previewView = findViewById(R.id.burstpreview);
+        statsView = findViewById(R.id.burststats);
+        burstButton = findViewById(R.id.burst);
+        mainExecutor = ContextCompat.getMainExecutor(this);
+
+        city = getIntent().getStringExtra(EXTRA_CITY);
+        if (city == null) {
+            city = "";
+        }
+        // Several shots a second, so names carry milliseconds
+        mediaCapture = new MediaCapture(TimestampFileNamer.withMillis(),
+                new PartitionedStorageLayout(new File(getIntent().getStringExtra(EXTRA_MEDIA_DIR)),
+                        MediaUploads.getKeyScheme()), MediaUploads.getScheduler(this));
+        mediaIndex = MediaIndex.get(this);
+        shotMs = MediaTelemetry.get(this).histogram("capture.shot_ms");
+
+        startCamera();
+    }
+
+    private void startCamera() {
+        final ListenableFuture<ProcessCameraProvider> future = ProcessCameraProvider.getInstance(this);
+        future.addListener(() -> {
+            try {
+                ProcessCameraProvider provider = future.get();
+                Preview preview = new Preview.Builder().build();
+                preview.setSurfaceProvider(previewView.getSurfaceProvider());
+                imageCapture = new ImageCapture.Builder()
+                        .setCaptureMode(ImageCapture.CAPTURE_MODE_MINIMIZE_LATENCY)
+                        .setTargetRotation(getDisplay().getRotation())
+                        .build();
+                provider.unbindAll();
+                provider.bindToLifecycle(this, CameraSelector.DEFAULT_BACK_CAMERA, preview, imageCapture);
+            } catch (ExecutionException | InterruptedException | IllegalArgumentException e) {
+                Log.e(TAG, "Could not start the camera", e);
+                Toast.makeText(this, "Camera unavailable", Toast.LENGTH_SHORT).show();
+                finish();
+            }
+        }, mainExecutor);
+    }
+
+    public void onShutterClick(View view) {
+        takeShot();
+    }
+
+    public void onBurstClick(View view) {
+        bursting = !bursting;
+        burstButton.setText(bursting ? "Stop Burst" : "Start Burst");
+        if (bursting) {
+            latency.resetInterval();
+            for (int i = inFlight.get(); i < MAX_IN_FLIGHT; i++) {
+                takeShot();
+            }
+        }
+    }
+
+    // Main thread only, as CameraX requires for takePicture
+    private void takeShot() {
+        if (imageCapture == null || inFlight.get() >= MAX_IN_FLIGHT) {
+            return;
+        }
+        inFlight.incrementAndGet();
+        final long requestedAt = SystemClock.elapsedRealtimeNanos();
+        imageCapture.takePicture(writer, new ImageCapture.OnImageCapturedCallback() {
+            @Override
+            public void onCaptureSuccess(@NonNull ImageProxy image) {
+                try {
+                    save(image, requestedAt);
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not save shot", e);
+                } finally {
+                    // Returns the buffer to the camera before the next shot is requested
+                    image.close();
+                    inFlight.decrementAndGet();
+                }
+                mainExecutor.execute(() -> {
+                    statsView.setText(latency.toString());
+                    if (bursting) {
+                        takeShot();
+                    }
+                });
+            }
+
+            @Override
+            public void onError(@NonNull ImageCaptureException e) {
+                inFlight.decrementAndGet();
+                Log.e(TAG, "Capture failed", e);
+                mainExecutor.execute(() -> {
+                    if (bursting) {
+                        onBurstClick(burstButton);
+                    }
+                });
+            }
+        });
+    }
+
+    // Runs on the writer thread
+    private void save(ImageProxy image, long requestedAt) throws IOException {
+        if (image.getFormat() != ImageFormat.JPEG) {
+            throw new IOException("Unexpected image format " + image.getFormat());
+        }
+        CaptureSession session = mediaCapture.begin(MediaType.PHOTO, System.currentTimeMillis());
+        File file = session.getFile();
+        ByteBuffer jpeg = image.getPlanes()[0].getBuffer();
+        try (FileOutputStream out = new FileOutputStream(file);
+             FileChannel channel = out.getChannel()) {
+            while (jpeg.hasRemaining()) {
+                channel.write(jpeg);
+            }
+        }
+        int rotation = image.getImageInfo().getRotationDegrees();
+        if (rotation != 0) {
+            writeOrientation(file, rotation);
+        }
+        long savedAt = SystemClock.elapsedRealtimeNanos();
+        latency.record(requestedAt, savedAt);
+        shotMs.record((savedAt - requestedAt) / 1000000);
+
+        // Same path as the camera-app photos: indexed, then queued for upload
+        String remotePath = mediaCapture.remotePath(city, MediaType.PHOTO, session.getFileName(),
+                session.getStartedAtMillis());
+        mediaIndex.recordCapture(file.getAbsolutePath(), MediaType.PHOTO, city, file.length(),
+                session.getStartedAtMillis(), null);
+        mediaIndex.markQueued(file.getAbsolutePath(), MediaType.PHOTO, city, remotePath, System.currentTimeMillis());
+        mediaCapture.uploadTo(Uri.fromFile(file).toString(), remotePath, session.getStartedAtMillis());
+    }
+
+    // Rotation is recorded in EXIF rather than applied to the pixels
+    private static void writeOrientation(File file, int rotationDegrees) {
+        int orientation;
+        switch (rotationDegrees) {
+            case 90:
+                orientation = ExifInterface.ORIENTATION_ROTATE_90;
+                break;
+            case 180:
+                orientation = ExifInterface.ORIENTATION_ROTATE_180;
+                break;
+            case 270:
+                orientation = ExifInterface.ORIENTATION_ROTATE_270;
+                break;
+            default:
+                return;
+        }
+        try {
+            ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+            exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(orientation));
+            exif.saveAttributes();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write orientation to " + file, e);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        bursting = false;
+        writer.shutdown();
+        Log.d(TAG, latency.toString());
+    }
+}
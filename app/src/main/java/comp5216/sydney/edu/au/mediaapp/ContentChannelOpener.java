@@ -0,0 +1,32 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link ChannelOpener} for file:// and content:// Uris, reading through the file descriptor
+ * handed out by the ContentResolver rather than copying through a stream.
+ */
+public class ContentChannelOpener implements ChannelOpener {
+
+    private final ContentResolver resolver;
+
+    public ContentChannelOpener(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public FileChannel open(String source) throws IOException {
+        ParcelFileDescriptor descriptor = resolver.openFileDescriptor(Uri.parse(source), "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException("Cannot open " + source);
+        }
+        // Closing the channel closes the stream and with it the descriptor
+        return new ParcelFileDescriptor.AutoCloseInputStream(descriptor).getChannel();
+    }
+}
@@ -0,0 +1,81 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Keeps the upload queue's {@link DeviceConditions} current: the default network and whether
+ * it is metered, charging, and a low battery. Battery low uses the same 15% line as
+ * WorkManager's battery-not-low constraint.
+ */
+public class DeviceMonitor {
+
+    private static final int LOW_BATTERY_PERCENT = 15;
+
+    private final Context context;
+    private final UploadQueue queue;
+
+    private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities capabilities) {
+            publish();
+        }
+
+        @Override
+        public void onLost(@NonNull Network network) {
+            publish();
+        }
+    };
+
+    private final BroadcastReceiver powerReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            publish();
+        }
+    };
+
+    public DeviceMonitor(Context context, UploadQueue queue) {
+        this.context = context.getApplicationContext();
+        this.queue = queue;
+    }
+
+    // Lives as long as the process, like the queue
+    public void start() {
+        context.getSystemService(ConnectivityManager.class).registerDefaultNetworkCallback(networkCallback);
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        filter.addAction(Intent.ACTION_BATTERY_LOW);
+        filter.addAction(Intent.ACTION_BATTERY_OKAY);
+        context.registerReceiver(powerReceiver, filter);
+        publish();
+    }
+
+    private void publish() {
+        queue.updateConditions(read(context));
+    }
+
+    public static DeviceConditions read(Context context) {
+        ConnectivityManager connectivity = context.getSystemService(ConnectivityManager.class);
+        Network network = connectivity.getActiveNetwork();
+        NetworkCapabilities capabilities = network == null ? null : connectivity.getNetworkCapabilities(network);
+        boolean connected = capabilities != null
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        boolean unmetered = connected
+                && (capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)
+                || capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_TEMPORARILY_NOT_METERED));
+
+        BatteryManager battery = context.getSystemService(BatteryManager.class);
+        boolean charging = battery.isCharging();
+        boolean low = battery.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY) <= LOW_BATTERY_PERCENT;
+        return new DeviceConditions(connected, unmetered, charging, low);
+    }
+}
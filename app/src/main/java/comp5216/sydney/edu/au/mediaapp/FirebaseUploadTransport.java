@@ -0,0 +1,95 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.net.Uri;
+
+import com.google.firebase.storage.OnProgressListener;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link UploadTransport} backed by Firebase Cloud Storage resumable uploads.
+ * When an item carries a session Uri from an earlier attempt the upload continues from the
+ * last byte the server acknowledged instead of starting over. Range items are streamed from
+ * a slice of the source's shared mapping, so the chunks of one video do not each open, seek
+ * and read the file again.
+ */
+public class FirebaseUploadTransport implements UploadTransport {
+
+    private final MediaFileRegistry files;
+    private final StorageReference root;
+    private final Executor callbackExecutor;
+
+    public FirebaseUploadTransport(MediaFileRegistry files, StorageReference root, Executor callbackExecutor) {
+        this.files = files;
+        this.root = root;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    @Override
+    public Handle start(UploadItem item, final Callback callback) {
+        StorageReference fileRef = root.child(item.getRemotePath());
+        Uri source = Uri.parse(item.getUploadSource());
+
+        final UploadTask uploadTask;
+        if (item.isRange()) {
+            final MappedMediaFile file;
+            final InputStream range;
+            try {
+                file = files.open(item.getUploadSource());
+            } catch (IOException e) {
+                callbackExecutor.execute(() -> callback.onFailure(e));
+                return () -> { };
+            }
+            try {
+                range = new ByteBufferInputStream(file.slice(item.getOffset(), (int) item.getLength()));
+            } catch (IOException e) {
+                closeQuietly(file);
+                callbackExecutor.execute(() -> callback.onFailure(e));
+                return () -> { };
+            }
+            uploadTask = fileRef.putStream(range);
+            // The slice stays valid until the task is done with it
+            uploadTask.addOnCompleteListener(callbackExecutor, task -> closeQuietly(file));
+        } else {
+            // Whole files keep putFile, the only way to resume a session after a restart
+            StorageMetadata.Builder metadata = new StorageMetadata.Builder();
+            if (item.getContentType() != null) {
+                metadata.setContentType(item.getContentType());
+            }
+            uploadTask = item.getSessionUri() != null
+                    ? fileRef.putFile(source, metadata.build(), Uri.parse(item.getSessionUri()))
+                    : fileRef.putFile(source, metadata.build());
+        }
+
+        final String knownSession = item.getSessionUri();
+        uploadTask.addOnProgressListener(callbackExecutor, new OnProgressListener<UploadTask.TaskSnapshot>() {
+            private boolean sessionReported = knownSession != null;
+
+            @Override
+            public void onProgress(UploadTask.TaskSnapshot snapshot) {
+                Uri session = snapshot.getUploadSessionUri();
+                if (!sessionReported && session != null) {
+                    sessionReported = true;
+                    callback.onSessionStarted(session.toString());
+                }
+                callback.onProgress(snapshot.getBytesTransferred(), snapshot.getTotalByteCount());
+            }
+        });
+        uploadTask.addOnSuccessListener(callbackExecutor, taskSnapshot -> callback.onSuccess());
+        uploadTask.addOnFailureListener(callbackExecutor, callback::onFailure);
+
+        return uploadTask::cancel;
+    }
+
+    private static void closeQuietly(MappedMediaFile file) {
+        try {
+            file.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of the city the device is in without blocking the main looper.
+ *
+ * Location fixes are handed to a background thread, dropped when they are both close to and
+ * soon after the last one that was resolved, and looked up in a geohash-keyed
+ * {@link LocalityCache} before the Geocoder is asked. {@link #getCurrentCity()} can be read
+ * from any thread.
+ */
+public class GeocodingService implements LocationListener {
+
+    private static final String TAG = "GeocodingService";
+    private static final int CELL_PRECISION = 6;
+    public static final long MIN_INTERVAL_MS = 60 * 1000;
+    public static final float MIN_DISTANCE_M = 250;
+
+    private final Geocoder geocoder;
+    private final LocalityCache cache;
+    private final HandlerThread thread = new HandlerThread("GeocodingService");
+    private final Handler handler;
+    private final Histogram lookupMs;
+    private final LongAdder cacheHits;
+    private final LongAdder lookupErrors;
+
+    private volatile String currentCity = "";
+    private Location lastResolved;  // only touched on the geocoding thread
+    private long lastResolvedAt;
+
+    public GeocodingService(Context context, Telemetry telemetry) {
+        this.geocoder = new Geocoder(context.getApplicationContext(), Locale.getDefault());
+        this.cache = new LocalityCache(new File(context.getFilesDir(), "locality-cache.tsv"));
+        this.lookupMs = telemetry.histogram("geocode.lookup_ms");
+        this.cacheHits = telemetry.counter("geocode.cache_hits");
+        this.lookupErrors = telemetry.counter("geocode.errors");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    // Last known city, or "" until the first fix has been resolved
+    public String getCurrentCity() {
+        return currentCity;
+    }
+
+    @Override
+    public void onLocationChanged(final Location location) {
+        handler.post(() -> resolve(location));
+    }
+
+    public void shutdown() {
+        thread.quitSafely();
+    }
+
+    private void resolve(Location location) {
+        long now = location.getElapsedRealtimeNanos() / 1000000;
+        if (lastResolved != null && location.distanceTo(lastResolved) < MIN_DISTANCE_M
+                && now - lastResolvedAt < MIN_INTERVAL_MS) {
+            return;
+        }
+        lastResolved = location;
+        lastResolvedAt = now;
+
+        final String cell = Geohash.encode(location.getLatitude(), location.getLongitude(), CELL_PRECISION);
+        String cached = cache.get(cell);
+        if (cached != null) {
+            cacheHits.increment();
+            currentCity = cached;
+            return;
+        }
+        if (!Geocoder.isPresent()) {
+            return;
+        }
+        final long started = SystemClock.elapsedRealtime();
+        // Asynchronous lookup, the answer is posted back to this thread
+        geocoder.getFromLocation(location.getLatitude(), location.getLongitude(), 1,
+                new Geocoder.GeocodeListener() {
+                    @Override
+                    public void onGeocode(List<Address> addresses) {
+                        lookupMs.record(SystemClock.elapsedRealtime() - started);
+                        if (!addresses.isEmpty() && addresses.get(0).getLocality() != null) {
+                            final String locality = addresses.get(0).getLocality();
+                            handler.post(() -> {
+                                cache.put(cell, locality);
+                                currentCity = locality;
+                            });
+                        }
+                    }
+
+                    @Override
+                    public void onError(String errorMessage) {
+                        lookupErrors.increment();
+                        Log.w(TAG, "Reverse geocoding failed: " + errorMessage);
+                    }
+                });
+    }
+}
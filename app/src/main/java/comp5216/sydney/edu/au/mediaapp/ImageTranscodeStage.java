@@ -0,0 +1,184 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Resizes and re-encodes photos before upload according to an {@link ImageTranscodePolicy}.
+ *
+ * Runs on the queue's stage pool, so several photos are encoded in parallel. The original
+ * EXIF orientation (and capture time, camera and GPS tags) is copied onto the output rather
+ * than baked into the pixels. If re-encoding does not make the file smaller the original is sent.
+ */
+public class ImageTranscodeStage implements UploadStage {
+
+    private static final String TAG = "ImageTranscodeStage";
+    private static final String[] COPIED_TAGS = {
+            ExifInterface.TAG_ORIENTATION,
+            ExifInterface.TAG_DATETIME_ORIGINAL,
+            ExifInterface.TAG_MAKE,
+            ExifInterface.TAG_MODEL,
+            ExifInterface.TAG_GPS_LATITUDE,
+            ExifInterface.TAG_GPS_LATITUDE_REF,
+            ExifInterface.TAG_GPS_LONGITUDE,
+            ExifInterface.TAG_GPS_LONGITUDE_REF,
+    };
+
+    private final ContentResolver resolver;
+    private final File outputDir;
+    private final ImageTranscodePolicy policy;
+    private final TranscodeStats stats;
+
+    public ImageTranscodeStage(ContentResolver resolver, File outputDir, ImageTranscodePolicy policy, TranscodeStats stats) {
+        this.resolver = resolver;
+        this.outputDir = outputDir;
+        this.policy = policy;
+        this.stats = stats;
+    }
+
+    @Override
+    public UploadItem prepare(UploadItem item) throws IOException {
+        if (item.isRange() || item.getGroup() != null) {
+            return item;
+        }
+        if (item.hasPreparedSource()) {
+            // A retry: the earlier output is still on disk, re-encoding it would only lose quality and EXIF
+            return item;
+        }
+        Uri source = Uri.parse(item.getSource());
+        if (!isImage(source)) {
+            return item;
+        }
+
+        long inputBytes = sizeOf(source);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = open(source)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || !policy.shouldTranscode(options.outWidth, options.outHeight, inputBytes)) {
+            return item;
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        int[] target = policy.targetSize(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = DownsampleMath.calculateInSampleSize(options.outWidth, options.outHeight, target[0], target[1]);
+        Bitmap decoded;
+        try (InputStream in = open(source)) {
+            decoded = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (decoded == null) {
+            return item;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, target[0], target[1], true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            scaled.recycle();
+            throw new IOException("failed to create " + outputDir);
+        }
+        File output = new File(outputDir, item.getId() + extension());
+        try (OutputStream out = new FileOutputStream(output)) {
+            scaled.compress(compressFormat(), policy.getQuality(), out);
+        } finally {
+            scaled.recycle();
+        }
+        copyExif(source, output);
+        long nanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        long outputBytes = output.length();
+        stats.record(inputBytes, Math.min(outputBytes, inputBytes), nanos, (long) options.outWidth * options.outHeight);
+        if (inputBytes > 0 && outputBytes >= inputBytes) {
+            output.delete();
+            return item;
+        }
+        Log.d(TAG, item.getId() + ": " + inputBytes / 1024 + " KB -> " + outputBytes / 1024 + " KB; " + stats);
+
+        // The bytes differ from any earlier attempt, a previous resumable session cannot be reused
+        item.setSessionUri(null);
+        item.setPreparedSource(Uri.fromFile(output).toString(), policy.getFormat().getMimeType());
+        return item;
+    }
+
+    @Override
+    public void onUploaded(UploadItem item) {
+        deleteOutput(item);
+    }
+
+    @Override
+    public void onFailed(UploadItem item) {
+        deleteOutput(item);
+    }
+
+    private void deleteOutput(UploadItem item) {
+        if (item.hasPreparedSource()) {
+            new File(outputDir, item.getId() + extension()).delete();
+        }
+    }
+
+    private boolean isImage(Uri uri) {
+        String type = resolver.getType(uri);
+        if (type == null) {
+            String path = uri.getPath() == null ? "" : uri.getPath().toLowerCase(Locale.ROOT);
+            return path.endsWith(".jpg") || path.endsWith(".jpeg") || path.endsWith(".png") || path.endsWith(".webp");
+        }
+        return type.startsWith("image/") && !type.equals("image/gif");
+    }
+
+    private long sizeOf(Uri uri) throws IOException {
+        try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r")) {
+            return descriptor == null ? 0 : descriptor.getStatSize();
+        }
+    }
+
+    private void copyExif(Uri source, File output) {
+        try (InputStream in = open(source)) {
+            ExifInterface original = new ExifInterface(in);
+            ExifInterface copy = new ExifInterface(output.getAbsolutePath());
+            for (String tag : COPIED_TAGS) {
+                String value = original.getAttribute(tag);
+                if (value != null) {
+                    copy.setAttribute(tag, value);
+                }
+            }
+            copy.saveAttributes();
+        } catch (IOException | RuntimeException e) {
+            // Orientation is a nice-to-have, the re-encoded pixels are still valid
+            Log.w(TAG, "Could not copy EXIF from " + source, e);
+        }
+    }
+
+    private InputStream open(Uri uri) throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        return in;
+    }
+
+    private Bitmap.CompressFormat compressFormat() {
+        return policy.getFormat() == ImageTranscodePolicy.Format.WEBP_LOSSY
+                ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.JPEG;
+    }
+
+    private String extension() {
+        return policy.getFormat() == ImageTranscodePolicy.Format.WEBP_LOSSY ? ".webp" : ".jpg";
+    }
+}
@@ -1,44 +1,39 @@
 package comp5216.sydney.edu.au.mediaapp;
 
 import android.app.Activity;
+import android.content.ClipData;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.media.MediaPlayer;
-import android.media.MediaPlayer.OnPreparedListener;
 import android.media.MediaRecorder;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.util.Log;
+import android.view.Gravity;
+import android.view.SurfaceView;
 import android.view.View;
+import android.widget.FrameLayout;
 import android.widget.ImageView;
+import android.widget.ProgressBar;
 import android.widget.Toast;
-import android.widget.VideoView;
 
 import androidx.core.content.FileProvider;
 
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.storage.FirebaseStorage;
-import com.google.firebase.storage.StorageReference;
-import com.google.firebase.storage.UploadTask;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-
-import android.location.Address;
-import android.location.Geocoder;
-import android.location.Location;
-import android.location.LocationListener;
-import android.location.LocationManager;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.location.LocationManager;
 
 public class MainActivity extends Activity {
 
@@ -51,16 +46,31 @@ public class MainActivity extends Activity {
     public final String APP_TAG = "MobileComputingTutorial";
     public String photoFileName = "photo.jpg";
     public String videoFileName = "video.mp4";
-    public String audioFileName = "audio.3gp";
     MarshmallowPermission marshmallowPermission = new MarshmallowPermission(this);
 
     private File file;
     private final MediaRecorder recorder = null;
     private final MediaPlayer player = null;
-    private StorageReference storageReference;  // Firebase Cloud Storage Reference
+    private ThumbnailCache thumbnailCache;  // Memory + disk cache of previews across restarts
+    private PreviewLoader previewLoader;  // Decodes photo previews off the UI thread
+    private UploadQueue uploadQueue;  // Durable queue feeding Firebase Cloud Storage
+    private MediaCapture mediaCapture;  // File naming, storage layout and upload hand-off
+    private CaptureJournal captures;  // Captures in flight, recovered after the process is killed
+    private CaptureSession pendingCapture;  // the one the camera app is writing
+    private static final String STATE_CAPTURE_ID = "captureId";
+    private MediaIndex mediaIndex;  // SQLite index of captured and uploaded media
+    private MediaStoreSync mediaStoreSync;
+    private final ExecutorService indexExecutor = Executors.newSingleThreadExecutor();  // all index I/O
+    private Telemetry telemetry;  // Process-wide counters and latency histograms
+    private long captureLaunchedAt;  // elapsedRealtime when the camera app was started
+    private MediaPlayback playback;  // Pooled, asynchronously prepared players for previews
+    private static final int MAX_PICK_PHOTOS = 100;
+    private static final long BATCH_PROGRESS_INTERVAL_MS = 250;
+    private final List<UploadBatch> batches = new CopyOnWriteArrayList<>();  // multi-select uploads in progress
+    private UploadBatch shownBatch;  // the one the progress bar follows
 
     private LocationManager locationManager;  // <-- ADDED: To manage location updates
-    private String currentCity = "";  // <-- ADDED: Store the current city when taking photo or video
+    private GeocodingService geocodingService;  // Resolves the current city off the main thread
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -69,52 +79,133 @@ public class MainActivity extends Activity {
 
         // Initialize Firebase
         FirebaseApp.initializeApp(this);
-
-        // Initialize Firebase Storage Reference
-        storageReference = FirebaseStorage.getInstance().getReference();
+        telemetry = MediaTelemetry.get(this);
+
+        // Previews are cached by Uri and modification time, 1/8 of the heap in memory and 64 MB on disk
+        thumbnailCache = new ThumbnailCache(getContentResolver(),
+                new File(new File(getExternalMediaDirs()[0], APP_TAG), ".thumbnails"),
+                (int) (Runtime.getRuntime().maxMemory() / 8), 64L * 1024 * 1024);
+
+        // Room for a couple of screen-sized previews to be recycled between decodes
+        previewLoader = new PreviewLoader(this, new BitmapPool(32L * 1024 * 1024), thumbnailCache, telemetry);
+
+        // Uploads are journaled and retried by the shared queue, they survive Activity restarts
+        uploadQueue = MediaUploads.get(this);
+        uploadQueue.addListener(uploadListener);
+        File mediaDir = new File(getExternalMediaDirs()[0], APP_TAG);
+        // Filed by city, date and hour under unique keys; see ObjectKeyScheme
+        mediaCapture = new MediaCapture(new TimestampFileNamer(),
+                new PartitionedStorageLayout(mediaDir, MediaUploads.getKeyScheme()), MediaUploads.getScheduler(this));
+        // The camera app may outlive this process, its result then arrives in a new one
+        captures = MediaUploads.getCaptures(this);
+        final String resumingId = savedInstanceState == null ? null : savedInstanceState.getString(STATE_CAPTURE_ID);
+        pendingCapture = captures.find(resumingId);
+
+        // Catch up with MediaStore changes since the last run, only the rows that changed are read
+        mediaIndex = MediaIndex.get(this);
+        mediaStoreSync = new MediaStoreSync(this, mediaIndex, mediaDir);
+        indexExecutor.execute(mediaStoreSync::sync);
+
+        // Two idle players are kept, so a replay does not pay for a new native player
+        playback = new MediaPlayback(this, new PlayerPool(2));
+        findViewById(R.id.loadvideo).setOnLongClickListener(v -> {
+            streamLatestUpload();
+            return true;
+        });
+        // Long press on Record Video: switch between compressing recorded video and streaming it while recording
+        findViewById(R.id.recordvideo).setOnLongClickListener(v -> {
+            boolean streaming = !MediaUploads.isStreamingRecordedVideo(this);
+            MediaUploads.setStreamingRecordedVideo(this, streaming);
+            Toast.makeText(this, streaming ? "Videos will upload while recording"
+                    : "Videos will be compressed before upload", Toast.LENGTH_SHORT).show();
+            return true;
+        });
 
         // Initialize LocationManager for fetching location
+        geocodingService = new GeocodingService(this, telemetry);
         locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
         try {
-            locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, 0, 0, locationListener);
+            // Throttled at the source too, the service drops fixes that would not change the city
+            locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER,
+                    GeocodingService.MIN_INTERVAL_MS, GeocodingService.MIN_DISTANCE_M, geocodingService);
         } catch (SecurityException e) {
             e.printStackTrace();
         }
+
+        // Anything an earlier process handed to the camera app and never heard back about
+        recoverCaptures(resumingId);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (pendingCapture != null) {
+            outState.putString(STATE_CAPTURE_ID, pendingCapture.getId());
+        }
     }
 
-    LocationListener locationListener = new LocationListener() {
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // The camera app coming to the front stops us, the session is on disk before it can be killed
+        indexExecutor.execute(captures::sync);
+    }
+
+    UploadQueue.Listener uploadListener = new UploadQueue.Listener() {
         @Override
-        public void onLocationChanged(Location location) {
-            Geocoder geocoder = new Geocoder(MainActivity.this, Locale.getDefault());
-            try {
-                List<Address> addresses = geocoder.getFromLocation(location.getLatitude(), location.getLongitude(), 1);
-                if (addresses != null && !addresses.isEmpty()) {
-                    currentCity = addresses.get(0).getLocality(); // Get city name
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+        public void onUploadSucceeded(UploadItem item) {
+            if (inBatch(item) || item.isRange() || ObjectKeyScheme.isManifestKey(item.getRemotePath())) {
+                // Reported once for the whole batch, or for a streamed video by its manifest; sync manifests are not media
+                return;
             }
+            final String message = item.isCommit() ? "Video uploaded" : "Upload successful";
+            runOnUiThread(() -> Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show());
         }
 
         @Override
-        public void onStatusChanged(String provider, int status, Bundle extras) {
+        public void onUploadFailed(UploadItem item, Exception exception, boolean willRetry) {
+            Log.e(APP_TAG, "Upload failed: " + item, exception);
+            // A chunk that fails for good takes its manifest down with it, which is reported instead
+            if (!willRetry && !inBatch(item) && !item.isRange()) {
+                runOnUiThread(() -> Toast.makeText(MainActivity.this, "Upload failed: " + exception.getMessage(), Toast.LENGTH_LONG).show());
+            }
         }
+    };
 
+    MediaPlayback.Listener playbackListener = new MediaPlayback.Listener() {
         @Override
-        public void onProviderEnabled(String provider) {
+        public void onStarted(long startupMillis) {
+            Log.d(APP_TAG, "First frame after " + startupMillis + " ms");
         }
 
         @Override
-        public void onProviderDisabled(String provider) {
+        public void onVideoSize(int width, int height) {
+            // Letterbox the video inside its container instead of stretching it
+            View container = findViewById(R.id.videocontainer);
+            SurfaceView videoView = findViewById(R.id.videoview);
+            float scale = Math.min((float) container.getWidth() / width, (float) container.getHeight() / height);
+            FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+                    Math.round(width * scale), Math.round(height * scale), Gravity.CENTER);
+            videoView.setLayoutParams(params);
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(String message) {
+            Toast.makeText(MainActivity.this, "Could not play video: " + message, Toast.LENGTH_SHORT).show();
         }
     };
 
     public void onLoadPhotoClick(View view) {
 
-        // Create intent for picking a photo from the gallery
-        Intent intent = new Intent(Intent.ACTION_PICK, MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
+        // Photo Picker, up to MAX_PICK_PHOTOS at once so a day's photos are one round-trip
+        Intent intent = new Intent(MediaStore.ACTION_PICK_IMAGES);
+        intent.putExtra(MediaStore.EXTRA_PICK_IMAGES_MAX, MAX_PICK_PHOTOS);
 
-        // Bring up gallery to select a photo
+        // Bring up gallery to select photos
         startActivityForResult(intent, MY_PERMISSIONS_REQUEST_READ_PHOTOS);
 
     }
@@ -137,12 +228,10 @@ public class MainActivity extends Activity {
             // create Intent to take a picture and return control to the calling application
             Intent intent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
 
-            // set file name
-            String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-            photoFileName = "IMG_" + timeStamp + ".jpg";
-
-            // Create a photo file reference
-            Uri file_uri = getFileUri(photoFileName, 0);
+            // set file name and create a photo file reference
+            CaptureSession session = mediaCapture.begin(MediaType.PHOTO, System.currentTimeMillis());
+            photoFileName = session.getFileName();
+            Uri file_uri = getFileUri(session);
 
             // Add extended data to the intent
             intent.putExtra(MediaStore.EXTRA_OUTPUT, file_uri);
@@ -151,11 +240,26 @@ public class MainActivity extends Activity {
             // So as long as the result is not null, it's safe to use the intent.
             if (intent.resolveActivity(getPackageManager()) != null) {
                 // Start the image capture intent to take photo
+                pendingCapture = session;
+                captures.started(session);
+                captureLaunchedAt = SystemClock.elapsedRealtime();
                 startActivityForResult(intent, MY_PERMISSIONS_REQUEST_OPEN_CAMERA);
             }
         }
     }
 
+    public void onBurstCaptureClick(View v) {
+        if (!marshmallowPermission.checkPermissionForCamera()) {
+            marshmallowPermission.requestPermissionForCamera();
+        } else {
+            // Captures in-process with CameraX, no round-trip through the camera app per shot
+            Intent intent = new Intent(this, BurstCaptureActivity.class);
+            intent.putExtra(BurstCaptureActivity.EXTRA_CITY, geocodingService.getCurrentCity());
+            intent.putExtra(BurstCaptureActivity.EXTRA_MEDIA_DIR, new File(getExternalMediaDirs()[0], APP_TAG).getAbsolutePath());
+            startActivity(intent);
+        }
+    }
+
     public void onRecordVideoClick(View v) {
         // Check permissions
         if (!marshmallowPermission.checkPermissionForCamera()) {
@@ -164,17 +268,24 @@ public class MainActivity extends Activity {
             // create Intent to capture a video and return control to the calling application
             Intent intent = new Intent(MediaStore.ACTION_VIDEO_CAPTURE);
 
-            // set file name
-            String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-            videoFileName = "VIDEO_" + timeStamp + ".mp4";
-
-            // Create a video file reference
-            Uri file_uri = getFileUri(videoFileName, 1);
+            // set file name and create a video file reference
+            CaptureSession session = mediaCapture.begin(MediaType.VIDEO, System.currentTimeMillis());
+            videoFileName = session.getFileName();
+            Uri file_uri = getFileUri(session);
 
             // add extended data to the intent
             intent.putExtra(MediaStore.EXTRA_OUTPUT, file_uri);
 
+            // Start sending finished chunks of the file while the camera app is still recording
+            if (MediaUploads.isStreamingRecordedVideo(this)) {
+                MediaUploads.streamVideo(this, session.getId(), file,
+                        mediaCapture.remotePath(geocodingService.getCurrentCity(), MediaType.VIDEO, videoFileName));
+            }
+
             // Start the video record intent to capture video
+            pendingCapture = session;
+            captures.started(session);
+            captureLaunchedAt = SystemClock.elapsedRealtime();
             startActivityForResult(intent, MY_PERMISSIONS_REQUEST_RECORD_VIDEO);
         }
     }
@@ -201,144 +312,366 @@ public class MainActivity extends Activity {
 
                     public void onScanCompleted(String path, Uri uri) {
                         Log.i("TAG", "Finished scanning " + path);
+                        // The scan bumped the MediaStore generation, pick the new row up
+                        indexExecutor.execute(mediaStoreSync::sync);
                     }
                 });
     }
 
+    // Returns the Uri for the file of a capture that was just started
+    public Uri getFileUri(CaptureSession session) {
+        return getFileUri(session.getFileName(), session.getType());
+    }
+
     // Returns the Uri for a photo/media stored on disk given the fileName and type
-    public Uri getFileUri(String fileName, int type) {
+    public Uri getFileUri(String fileName, MediaType type) {
+        file = mediaCapture.localFile(type, fileName);
+        return providerUri(file);
+    }
+
+    // The content Uri the camera app and the uploader are given for a local file
+    private Uri providerUri(File localFile) {
         Uri fileUri = null;
         try {
-            String typestr = "images"; //default to images type
-            if (type == 1) {
-                typestr = "videos";
-            } else if (type != 0) {
-                typestr = "audios";
-            }
+            fileUri = FileProvider.getUriForFile(this.getApplicationContext(), "comp5216.sydney.edu.au.mediaapp.fileProvider", localFile);
+        } catch (Exception ex) {
+            Log.e("getFileUri", ex.getStackTrace().toString());
+        }
+        return fileUri;
+    }
 
-            File mediaStorageDir = new File(getExternalMediaDirs()[0], APP_TAG);
+    // localFile is the capture on disk, or null for media picked from the gallery
+    private void uploadFileToFirebase(final Uri fileUri, final MediaType type, File localFile) {
+        uploadFileToFirebase(fileUri, type, localFile, null);
+    }
 
-            if (!mediaStorageDir.exists() && !mediaStorageDir.mkdirs()) {
-                Log.d(APP_TAG, "failed to create directory");
+    // As above for a journaled capture, which is marked queued once the queue holds it
+    private void uploadFileToFirebase(final Uri fileUri, final MediaType type, File localFile, final String captureId) {
+        if (fileUri != null) {
+            final String city = geocodingService.getCurrentCity();
+            final String path = localFile != null ? localFile.getAbsolutePath() : fileUri.toString();
+            // Captures are timed to upload complete from when the camera app wrote them
+            final long capturedAt = localFile != null ? localFile.lastModified() : 0;
+            indexExecutor.execute(() -> {
+                // Worked out once, every call makes a new key
+                String remotePath = mediaCapture.remotePath(city, type, fileUri.getLastPathSegment(), capturedAt);
+                // Indexed before it is queued, so the upload's outcome always finds its row
+                mediaIndex.markQueued(path, type, city, remotePath, System.currentTimeMillis());
+                // Journaled first, then sent with bounded concurrency and retried with backoff
+                mediaCapture.uploadTo(fileUri.toString(), remotePath, capturedAt);
+                if (captureId != null) {
+                    // Runs on the dispatcher after the enqueue, so the upload journal has the item by then
+                    uploadQueue.withPending(pending -> captures.queued(captureId, remotePath));
+                }
+            });
+        }
+    }
+
+    // Picked photos go out together, as many at once as the queue's adaptive limit allows
+    private void uploadBatch(List<Uri> uris) {
+        final String city = geocodingService.getCurrentCity();
+        final List<UploadItem> items = new ArrayList<>(uris.size());
+        for (Uri uri : uris) {
+            items.add(UploadItem.forFile(uri.toString(),
+                    mediaCapture.remotePath(city, MediaType.PHOTO, uri.getLastPathSegment())));
+        }
+        UploadBatch batch = new UploadBatch(items, finished -> runOnUiThread(() -> onBatchFinished(finished)));
+        // Listening before anything is enqueued, so no outcome is missed
+        batches.add(batch);
+        uploadQueue.addListener(batch);
+        shownBatch = batch;
+        ProgressBar progressBar = findViewById(R.id.uploadprogress);
+        progressBar.setProgress(0);
+        progressBar.setVisibility(View.VISIBLE);
+        progressBar.removeCallbacks(batchProgressTicker);
+        progressBar.post(batchProgressTicker);
+
+        indexExecutor.execute(() -> {
+            long now = System.currentTimeMillis();
+            for (UploadItem item : items) {
+                mediaIndex.markQueued(item.getSource(), MediaType.PHOTO, city, item.getRemotePath(), now);
+                mediaCapture.getUploads().enqueue(item);
             }
+        });
+    }
 
-            file = new File(mediaStorageDir, fileName);
+    private final Runnable batchProgressTicker = new Runnable() {
+        @Override
+        public void run() {
+            ProgressBar progressBar = findViewById(R.id.uploadprogress);
+            if (shownBatch == null) {
+                progressBar.setVisibility(View.GONE);
+                return;
+            }
+            progressBar.setProgress((int) (shownBatch.getProgress().getFraction() * progressBar.getMax()));
+            progressBar.postDelayed(this, BATCH_PROGRESS_INTERVAL_MS);
+        }
+    };
 
-            if (Build.VERSION.SDK_INT >= 24) {
-                fileUri = FileProvider.getUriForFile(this.getApplicationContext(), "comp5216.sydney.edu.au.mediaapp.fileProvider", file);
-            } else {
-                fileUri = Uri.fromFile(mediaStorageDir);
+    private void onBatchFinished(UploadBatch batch) {
+        uploadQueue.removeListener(batch);
+        batches.remove(batch);
+        UploadBatch.Progress progress = batch.getProgress();
+        Log.d(APP_TAG, "Batch finished: " + progress);
+        // One manifest per picked batch, so other devices see it as one sync
+        indexExecutor.execute(() -> {
+            try {
+                MediaUploads.getManifests(this).flush();
+            } catch (IOException e) {
+                Log.w(APP_TAG, "Could not write batch manifest", e);
             }
-        } catch (Exception ex) {
-            Log.e("getFileUri", ex.getStackTrace().toString());
+        });
+        if (batch == shownBatch) {
+            shownBatch = null;
         }
-        return fileUri;
+        Toast.makeText(this, "Uploaded " + progress.getSucceeded() + " of " + progress.getTotal() + " photos"
+                + (progress.getFailed() > 0 ? ", " + progress.getFailed() + " failed" : ""), Toast.LENGTH_LONG).show();
     }
 
-    private void uploadFileToFirebase(Uri fileUri, String folderName) {
-        if (fileUri != null) {
-            StorageReference fileRef = storageReference.child(currentCity + "/" + folderName + "/" + fileUri.getLastPathSegment());
-            UploadTask uploadTask = fileRef.putFile(fileUri);
-            uploadTask.addOnSuccessListener(taskSnapshot -> {
-                // File uploaded successfully
-                Toast.makeText(MainActivity.this, "Upload successful", Toast.LENGTH_SHORT).show();
-            })
-            .addOnFailureListener(exception -> {
-                // Handle unsuccessful uploads
-                Toast.makeText(MainActivity.this, "Upload failed: " + exception.getMessage(), Toast.LENGTH_LONG).show();
-                Log.e(APP_TAG, "Upload failed", exception);
-            });
+    private boolean inBatch(UploadItem item) {
+        for (UploadBatch batch : batches) {
+            if (batch.contains(item)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void indexCapture(final File captured, final MediaType type) {
+        // Time spent in the camera app, from launching it to getting the result back
+        if (captureLaunchedAt > 0) {
+            telemetry.histogram(type == MediaType.VIDEO ? "capture.video_ms" : "capture.photo_ms")
+                    .record(SystemClock.elapsedRealtime() - captureLaunchedAt);
         }
+        telemetry.counter("capture.bytes").add(captured.length());
+        final String city = geocodingService.getCurrentCity();
+        final long takenAt = System.currentTimeMillis();
+        indexExecutor.execute(() -> mediaIndex.recordCapture(captured.getAbsolutePath(), type, city,
+                captured.length(), takenAt, thumbnailCache.keyFor(Uri.fromFile(captured))));
     }
 
+    // The capture the camera app just returned, also when it was started by a process since killed
+    private CaptureSession takePendingCapture() {
+        CaptureSession capture = pendingCapture;
+        pendingCapture = null;
+        if (capture == null) {
+            Log.w(APP_TAG, "Camera result without a capture session");
+        } else {
+            file = capture.getFile();
+        }
+        return capture;
+    }
+
+    // Captures of an earlier process whose result never came back: sent on if the camera app wrote them
+    private void recoverCaptures(final String resumingId) {
+        indexExecutor.execute(() -> {
+            for (CaptureSession orphan : captures.takeOrphans(resumingId)) {
+                File captured = orphan.getFile();
+                if (captured.length() == 0) {
+                    // Cancelled, or killed before anything was written
+                    discardCapture(orphan);
+                    continue;
+                }
+                Log.i(APP_TAG, "Recovered " + orphan);
+                telemetry.counter("capture.recovered").increment();
+                String city = geocodingService.getCurrentCity();
+                mediaIndex.recordCapture(captured.getAbsolutePath(), orphan.getType(), city, captured.length(),
+                        orphan.getStartedAtMillis(), thumbnailCache.keyFor(Uri.fromFile(captured)));
+                scanFile(captured.getAbsolutePath());
+                uploadFileToFirebase(providerUri(captured), orphan.getType(), captured, orphan.getId());
+            }
+        });
+    }
+
+    // A capture that came back cancelled or empty: close its session and drop the placeholder file
+    private void discardCapture(CaptureSession capture) {
+        File captured = capture.getFile();
+        if (captured.exists() && !captured.delete()) {
+            Log.w(APP_TAG, "Could not delete " + captured);
+        }
+        captures.finished(capture.getId());
+    }
+
+    // Long press on Load Video: stream the newest uploaded video back from Cloud Storage
+    private void streamLatestUpload() {
+        indexExecutor.execute(() -> {
+            String remotePath = null;
+            MediaRecord after = null;
+            while (remotePath == null) {
+                List<MediaRecord> page = mediaIndex.pageByState(MediaRecord.UploadState.UPLOADED, after, 50);
+                for (MediaRecord record : page) {
+                    // A streamed recording is stored as chunks, there is no one object to play
+                    if (record.getType() == MediaType.VIDEO && record.getRemotePath() != null
+                            && !ChunkedVideoUpload.isManifestPath(record.getRemotePath())) {
+                        remotePath = record.getRemotePath();
+                        break;
+                    }
+                }
+                if (page.size() < 50) {
+                    break;
+                }
+                after = page.get(page.size() - 1);
+            }
+            final String found = remotePath;
+            runOnUiThread(() -> {
+                if (found == null) {
+                    Toast.makeText(this, "No uploaded videos yet", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                SurfaceView videoView = findViewById(R.id.videoview);
+                findViewById(R.id.photopreview).setVisibility(View.GONE);
+                videoView.setVisibility(View.VISIBLE);
+                playback.playRemote(FirebaseStorage.getInstance().getReference().child(found),
+                        videoView.getHolder(), playbackListener);
+            });
+        });
+    }
 
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
 
-        final VideoView mVideoView = findViewById(R.id.videoview);
+        SurfaceView videoView = findViewById(R.id.videoview);
         ImageView ivPreview = findViewById(R.id.photopreview);
 
-        mVideoView.setVisibility(View.GONE);
+        playback.stop();
+        videoView.setVisibility(View.GONE);
         ivPreview.setVisibility(View.GONE);
+        previewLoader.cancel(ivPreview);
 
         if (requestCode == MY_PERMISSIONS_REQUEST_OPEN_CAMERA) {
+            CaptureSession capture = takePendingCapture();
+            if (capture == null) {
+                return;
+            }
+            photoFileName = capture.getFileName();
             if (resultCode == RESULT_OK) {
+                captures.returned(capture.getId());
                 // by this point we have the camera photo on disk
-                Bitmap takenImage = BitmapFactory.decodeFile(file.getAbsolutePath());
+                previewLoader.load(ivPreview, Uri.fromFile(file));
                 scanFile(file.getAbsolutePath());
-                ivPreview.setImageBitmap(takenImage);
-                ivPreview.setVisibility(View.VISIBLE);
+                indexCapture(file, MediaType.PHOTO);
 
                 // Upload to Firebase
-                uploadFileToFirebase(getFileUri(photoFileName, 1), "images");
+                uploadFileToFirebase(getFileUri(photoFileName, MediaType.PHOTO), MediaType.PHOTO, file, capture.getId());
 
             } else { // Result was a failure
+                discardCapture(capture);
                 Toast.makeText(this, "Picture wasn't taken!", Toast.LENGTH_SHORT).show();
             }
         } else if (requestCode == MY_PERMISSIONS_REQUEST_READ_PHOTOS) {
             if (resultCode == RESULT_OK) {
-                Uri photoUri = data.getData();
-                // Do something with the photo based on Uri
-                Bitmap selectedImage;
-                try {
-                    selectedImage = MediaStore.Images.Media.getBitmap(this.getContentResolver(), photoUri);
-
-                    // Load the selected image into a preview
-                    ivPreview.setImageBitmap(selectedImage);
-                    ivPreview.setVisibility(View.VISIBLE);
-                } catch (FileNotFoundException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (IOException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
+                List<Uri> picked = pickedUris(data);
+                if (picked.isEmpty()) {
+                    return;
                 }
+                // Load the first selected image into a preview, decoded in the background
+                previewLoader.load(ivPreview, picked.get(0));
 
                 // Upload to Firebase
-                uploadFileToFirebase(data.getData(), "images");
+                if (picked.size() == 1) {
+                    uploadFileToFirebase(picked.get(0), MediaType.PHOTO, null);
+                } else {
+                    uploadBatch(picked);
+                }
             }
         } else if (requestCode == MY_PERMISSIONS_REQUEST_READ_VIDEOS) {
             if (resultCode == RESULT_OK) {
-                Uri videoUri = data.getData();
-                mVideoView.setVisibility(View.VISIBLE);
-                mVideoView.setVideoURI(videoUri);
-                mVideoView.requestFocus();
-                mVideoView.setOnPreparedListener(new OnPreparedListener() {
-                    // Close the progress bar and play the video
-                    public void onPrepared(MediaPlayer mp) {
-                        mVideoView.start();
-                    }
-                });
+                // Readable by a queued upload after this process is gone, like picked photos
+                List<Uri> picked = pickedUris(data);
+                if (picked.isEmpty()) {
+                    return;
+                }
+                Uri videoUri = picked.get(0);
+                previewLoader.prefetchVideo(videoUri);
+                videoView.setVisibility(View.VISIBLE);
+                playback.play(videoUri, videoView.getHolder(), playbackListener);
 
-                // Upload to Firebase
-                uploadFileToFirebase(getFileUri(videoFileName, 1), "videos");
+                // Upload the picked video itself, there is no capture on disk
+                uploadFileToFirebase(videoUri, MediaType.VIDEO, null);
             }
         } else if (requestCode == MY_PERMISSIONS_REQUEST_RECORD_VIDEO) {
-            //if you are running on emulator remove the if statement
-            if (resultCode != RESULT_OK) {
-                Uri takenVideoUri = getFileUri(videoFileName, 1);
-                mVideoView.setVisibility(View.VISIBLE);
-                mVideoView.setVideoURI(takenVideoUri);
-                mVideoView.requestFocus();
-                mVideoView.setOnPreparedListener(new OnPreparedListener() {
-                    // Close the progress bar and play the video
-                    public void onPrepared(MediaPlayer mp) {
-                        mVideoView.start();
-                    }
-                });
+            CaptureSession capture = takePendingCapture();
+            if (capture == null) {
+                return;
+            }
+            videoFileName = capture.getFileName();
+            if (resultCode == RESULT_OK) {
+                captures.returned(capture.getId());
+                Uri takenVideoUri = getFileUri(videoFileName, MediaType.VIDEO);
+                previewLoader.prefetchVideo(Uri.fromFile(file));
+                videoView.setVisibility(View.VISIBLE);
+                playback.play(takenVideoUri, videoView.getHolder(), playbackListener);
+
+                indexCapture(file, MediaType.VIDEO);
+
+                // Most chunks are already uploaded, send the rest and commit the manifest
+                final ChunkedVideoUpload upload = MediaUploads.takeStreamingVideo(capture.getId());
+                if (upload != null) {
+                    final String path = file.getAbsolutePath();
+                    final String city = geocodingService.getCurrentCity();
+                    indexExecutor.execute(() -> {
+                        // Indexed under its manifest before that is queued, the commit's outcome finds the row
+                        mediaIndex.markQueued(path, MediaType.VIDEO, city, upload.getManifestPath(),
+                                System.currentTimeMillis());
+                        upload.finish();
+                    });
+                    // The chunks and their manifest are journaled by the queue
+                    captures.finished(capture.getId());
+                } else {
+                    // Compressed in the background, then uploaded
+                    uploadFileToFirebase(takenVideoUri, MediaType.VIDEO, file, capture.getId());
+                }
+            } else { // Recording was cancelled
+                // Nothing to keep, drop the chunks already sent
+                MediaUploads.abortStreamingVideo(capture.getId());
+                discardCapture(capture);
+                Toast.makeText(this, "Video wasn't recorded!", Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
 
-                // Upload to Firebase
-                uploadFileToFirebase(getFileUri(videoFileName, 1), "videos");
+    // The picker returns one Uri as data and several as clip data
+    private List<Uri> pickedUris(Intent data) {
+        List<Uri> uris = new ArrayList<>();
+        if (data == null) {
+            return uris;
+        }
+        ClipData clip = data.getClipData();
+        if (clip != null) {
+            for (int i = 0; i < clip.getItemCount(); i++) {
+                uris.add(clip.getItemAt(i).getUri());
+            }
+        } else if (data.getData() != null) {
+            uris.add(data.getData());
+        }
+        for (Uri uri : uris) {
+            try {
+                // Queued uploads may only run after this process is gone
+                getContentResolver().takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            } catch (SecurityException e) {
+                Log.w(APP_TAG, "No persistable access to " + uri, e);
             }
         }
+        return uris;
     }
 
     // Unregister the location listener to conserve battery
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        uploadQueue.removeListener(uploadListener);
+        for (UploadBatch batch : batches) {
+            // The uploads carry on in the queue, only the progress display goes
+            uploadQueue.removeListener(batch);
+        }
+        findViewById(R.id.uploadprogress).removeCallbacks(batchProgressTicker);
+        previewLoader.shutdown();
+        Log.d(APP_TAG, thumbnailCache.toString());
+        geocodingService.shutdown();
+        indexExecutor.shutdown();
+        playback.release();
         if (locationManager != null) {
-            locationManager.removeUpdates(locationListener);
+            locationManager.removeUpdates(geocodingService);
         }
     }
 }
@@ -0,0 +1,146 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link PcmEncoder} producing AAC-LC in an MP4 (.m4a) or Opus in an Ogg (.ogg) container via
+ * MediaCodec and MediaMuxer, by the config's codec. Codec buffers are filled and drained in
+ * place, so encode() does not allocate.
+ */
+public class MediaCodecAudioEncoder implements PcmEncoder {
+
+    private static final long TIMEOUT_US = 10000;
+
+    private final RecordingConfig config;
+    private final String outputPath;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+    private MediaCodec codec;
+    private MediaMuxer muxer;
+    private int track = -1;
+    private long lastPresentationTimeUs;
+    private int bitRate;
+
+    public MediaCodecAudioEncoder(RecordingConfig config, String outputPath) {
+        this.config = config;
+        this.outputPath = outputPath;
+        this.bitRate = config.getBitRate();
+    }
+
+    @Override
+    public void start() throws IOException {
+        boolean opus = config.getCodec() == RecordingProfile.Codec.OPUS;
+        String mimeType = config.getCodec().getMimeType();
+        MediaFormat format = MediaFormat.createAudioFormat(mimeType, config.getSampleRate(), config.getChannelCount());
+        if (!opus) {
+            format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        }
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, config.getBufferSize());
+
+        codec = MediaCodec.createEncoderByType(mimeType);
+        codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        codec.start();
+        muxer = new MediaMuxer(outputPath, opus
+                ? MediaMuxer.OutputFormat.MUXER_OUTPUT_OGG : MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public void encode(ByteBuffer pcm, long presentationTimeUs) throws IOException {
+        int frameSize = config.getFrameSize();
+        int start = pcm.position();
+        int limit = pcm.limit();
+        while (pcm.position() < limit) {
+            int index = codec.dequeueInputBuffer(TIMEOUT_US);
+            if (index < 0) {
+                drain(false);
+                continue;
+            }
+            ByteBuffer input = codec.getInputBuffer(index);
+            input.clear();
+            int chunk = Math.min(limit - pcm.position(), input.remaining());
+            chunk -= chunk % frameSize;
+            if (chunk <= 0) {
+                throw new IOException("Codec input buffer smaller than one PCM frame");
+            }
+            int offsetFrames = (pcm.position() - start) / frameSize;
+            pcm.limit(pcm.position() + chunk);
+            input.put(pcm);
+            pcm.limit(limit);
+            codec.queueInputBuffer(index, 0, chunk,
+                    presentationTimeUs + config.framesToUs(offsetFrames), 0);
+            drain(false);
+        }
+    }
+
+    @Override
+    public boolean setBitRate(int bitRate) {
+        if (codec != null) {
+            // Codec2 maps PARAMETER_KEY_VIDEO_BITRATE for video encoders only, a running audio
+            // encoder keeps what it was configured with and setParameters() would not say so
+            return false;
+        }
+        // Not configured yet, the codec starts at this bitrate
+        this.bitRate = bitRate;
+        return true;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        int index;
+        while ((index = codec.dequeueInputBuffer(TIMEOUT_US)) < 0) {
+            drain(false);
+        }
+        codec.queueInputBuffer(index, 0, 0, lastPresentationTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        drain(true);
+        codec.stop();
+        if (track >= 0) {
+            muxer.stop();
+        }
+    }
+
+    @Override
+    public void release() {
+        if (codec != null) {
+            codec.release();
+            codec = null;
+        }
+        if (muxer != null) {
+            muxer.release();
+            muxer = null;
+        }
+    }
+
+    private void drain(boolean endOfStream) {
+        while (true) {
+            int index = codec.dequeueOutputBuffer(info, endOfStream ? TIMEOUT_US : 0);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!endOfStream) {
+                    return;
+                }
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                track = muxer.addTrack(codec.getOutputFormat());
+                muxer.start();
+            } else if (index >= 0) {
+                ByteBuffer output = codec.getOutputBuffer(index);
+                boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                if (!config && info.size > 0 && track >= 0) {
+                    output.position(info.offset);
+                    output.limit(info.offset + info.size);
+                    muxer.writeSampleData(track, output, info);
+                    lastPresentationTimeUs = info.presentationTimeUs;
+                }
+                codec.releaseOutputBuffer(index, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQLite index of the media the app has captured or uploaded.
+ *
+ * Lists are paged by keyset rather than OFFSET: a page continues strictly after the
+ * (taken_at, _id) of the last row of the previous one, and every filter has an index ending in
+ * those two columns, so a page costs the same at row 50 000 as at row 0. All methods block and
+ * must be called off the main thread.
+ */
+public class MediaIndex extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "media-index.db";
+    private static final int DB_VERSION = 1;
+
+    private static final String TABLE = "media";
+    private static final String COLUMNS = "_id, path, type, city, size, hash, upload_state, remote_path, thumbnail_key, taken_at";
+    private static final String ORDER = " ORDER BY taken_at DESC, _id DESC LIMIT ?";
+
+    private static MediaIndex instance;
+
+    public static synchronized MediaIndex get(Context context) {
+        if (instance == null) {
+            instance = new MediaIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MediaIndex(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+        // Readers (paging) do not wait for the sync writer
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "path TEXT NOT NULL UNIQUE, "
+                + "media_store_id INTEGER, "
+                + "type TEXT NOT NULL, "
+                + "city TEXT, "
+                + "size INTEGER NOT NULL DEFAULT 0, "
+                + "hash TEXT, "
+                + "upload_state INTEGER NOT NULL DEFAULT 0, "
+                + "remote_path TEXT, "
+                + "thumbnail_key TEXT, "
+                + "taken_at INTEGER NOT NULL, "
+                + "seen_generation INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE INDEX media_by_date ON " + TABLE + " (taken_at DESC, _id DESC)");
+        db.execSQL("CREATE INDEX media_by_city ON " + TABLE + " (city, taken_at DESC, _id DESC)");
+        db.execSQL("CREATE INDEX media_by_state ON " + TABLE + " (upload_state, taken_at DESC, _id DESC)");
+        db.execSQL("CREATE INDEX media_by_remote ON " + TABLE + " (remote_path)");
+        db.execSQL("CREATE TABLE meta (key TEXT PRIMARY KEY, value TEXT)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Everything here can be rebuilt from MediaStore and the upload queue
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        db.execSQL("DROP TABLE IF EXISTS meta");
+        onCreate(db);
+    }
+
+    // A capture the app just wrote, before it is uploaded
+    public void recordCapture(String path, MediaType type, String city, long sizeBytes, long takenAtMillis,
+                              String thumbnailKey) {
+        getWritableDatabase().execSQL("INSERT INTO " + TABLE
+                        + " (path, type, city, size, taken_at, thumbnail_key) VALUES (?, ?, ?, ?, ?, ?)"
+                        + " ON CONFLICT(path) DO UPDATE SET type = excluded.type, city = excluded.city,"
+                        + " size = excluded.size, taken_at = excluded.taken_at, thumbnail_key = excluded.thumbnail_key",
+                new Object[]{path, type.name(), city, sizeBytes, takenAtMillis, thumbnailKey});
+    }
+
+    // Media handed to the upload queue; picked media gets its row here
+    public void markQueued(String path, MediaType type, String city, String remotePath, long nowMillis) {
+        getWritableDatabase().execSQL("INSERT INTO " + TABLE
+                        + " (path, type, city, upload_state, remote_path, taken_at) VALUES (?, ?, ?, ?, ?, ?)"
+                        + " ON CONFLICT(path) DO UPDATE SET city = excluded.city,"
+                        + " upload_state = excluded.upload_state, remote_path = excluded.remote_path",
+                new Object[]{path, type.name(), city, MediaRecord.UploadState.QUEUED.ordinal(), remotePath, nowMillis});
+    }
+
+    // storedPath is where the content is in Storage, an earlier upload's object when it was deduplicated
+    public void markUploaded(String remotePath, String storedPath, String contentHash) {
+        getWritableDatabase().execSQL("UPDATE " + TABLE
+                        + " SET upload_state = ?, hash = COALESCE(?, hash), remote_path = ? WHERE remote_path = ?",
+                new Object[]{MediaRecord.UploadState.UPLOADED.ordinal(), contentHash, storedPath, remotePath});
+    }
+
+    public void markFailed(String remotePath) {
+        getWritableDatabase().execSQL("UPDATE " + TABLE + " SET upload_state = ? WHERE remote_path = ?",
+                new Object[]{MediaRecord.UploadState.FAILED.ordinal(), remotePath});
+    }
+
+    // Newest first; pass the last record of the previous page as after, or null for the first page
+    public List<MediaRecord> page(MediaRecord after, int limit) {
+        return query("1", new String[0], after, limit);
+    }
+
+    public List<MediaRecord> pageByCity(String city, MediaRecord after, int limit) {
+        return query("city = ?", new String[]{city}, after, limit);
+    }
+
+    public List<MediaRecord> pageByState(MediaRecord.UploadState state, MediaRecord after, int limit) {
+        return query("upload_state = ?", new String[]{String.valueOf(state.ordinal())}, after, limit);
+    }
+
+    // Taken in [fromMillis, toMillis)
+    public List<MediaRecord> pageByDate(long fromMillis, long toMillis, MediaRecord after, int limit) {
+        return query("taken_at >= ? AND taken_at < ?",
+                new String[]{String.valueOf(fromMillis), String.valueOf(toMillis)}, after, limit);
+    }
+
+    public long count() {
+        try (SQLiteStatement statement = getReadableDatabase().compileStatement("SELECT COUNT(*) FROM " + TABLE)) {
+            return statement.simpleQueryForLong();
+        }
+    }
+
+    private List<MediaRecord> query(String where, String[] whereArgs, MediaRecord after, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(COLUMNS).append(" FROM ").append(TABLE)
+                .append(" WHERE ").append(where);
+        List<String> args = new ArrayList<>();
+        for (String arg : whereArgs) {
+            args.add(arg);
+        }
+        if (after != null) {
+            // Row-value comparison keeps this a single range scan on the (…, taken_at, _id) index
+            sql.append(" AND (taken_at, _id) < (?, ?)");
+            args.add(String.valueOf(after.getTakenAtMillis()));
+            args.add(String.valueOf(after.getId()));
+        }
+        sql.append(ORDER);
+        args.add(String.valueOf(limit));
+
+        List<MediaRecord> records = new ArrayList<>(limit);
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql.toString(), args.toArray(new String[0]))) {
+            while (cursor.moveToNext()) {
+                records.add(new MediaRecord(
+                        cursor.getLong(0),
+                        cursor.getString(1),
+                        MediaType.valueOf(cursor.getString(2)),
+                        cursor.getString(3),
+                        cursor.getLong(4),
+                        cursor.getString(5),
+                        MediaRecord.UploadState.values()[cursor.getInt(6)],
+                        cursor.getString(7),
+                        cursor.getString(8),
+                        cursor.getLong(9)));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Writes a batch of MediaStore rows in one transaction. Rows that already exist keep their
+     * city and upload state, only what MediaStore knows is refreshed.
+     */
+    void applyMediaStoreRows(List<MediaStoreSync.Row> rows, long generation) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try (SQLiteStatement upsert = db.compileStatement("INSERT INTO " + TABLE
+                + " (path, media_store_id, type, size, taken_at, seen_generation) VALUES (?, ?, ?, ?, ?, ?)"
+                + " ON CONFLICT(path) DO UPDATE SET media_store_id = excluded.media_store_id,"
+                + " size = excluded.size, taken_at = excluded.taken_at, seen_generation = excluded.seen_generation")) {
+            for (MediaStoreSync.Row row : rows) {
+                upsert.clearBindings();
+                upsert.bindString(1, row.path);
+                upsert.bindLong(2, row.mediaStoreId);
+                upsert.bindString(3, row.type.name());
+                upsert.bindLong(4, row.sizeBytes);
+                upsert.bindLong(5, row.takenAtMillis);
+                upsert.bindLong(6, generation);
+                upsert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // After a full rescan: MediaStore rows that were not seen again have been deleted
+    int removeUnseen(long generation) {
+        return getWritableDatabase().delete(TABLE, "media_store_id IS NOT NULL AND seen_generation < ?",
+                new String[]{String.valueOf(generation)});
+    }
+
+    String getMeta(String key) {
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT value FROM meta WHERE key = ?", new String[]{key})) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    void putMeta(String key, String value) {
+        getWritableDatabase().execSQL("INSERT OR REPLACE INTO meta (key, value) VALUES (?, ?)", new Object[]{key, value});
+    }
+}
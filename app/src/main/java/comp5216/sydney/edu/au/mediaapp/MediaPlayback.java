@@ -0,0 +1,209 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import com.google.firebase.storage.StorageReference;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Plays one local or remote media item at a time on a pooled MediaPlayer.
+ *
+ * Players are prepared with prepareAsync, so nothing blocks the main thread. Remote items are
+ * streamed from their Storage download URL through a {@link ReadAheadCache} of
+ * {@link #BLOCK_SIZE} blocks, at most {@link #MAX_BLOCKS} of them in memory. Startup time is
+ * measured from the play call to the first rendered video frame, or to the start of audio for
+ * items without a surface. Main thread only.
+ */
+public class MediaPlayback {
+
+    public interface Listener {
+        void onStarted(long startupMillis);
+
+        void onVideoSize(int width, int height);
+
+        void onCompleted();
+
+        void onError(String message);
+    }
+
+    private static final String TAG = "MediaPlayback";
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final int MAX_BLOCKS = 32;  // 8 MB per stream
+    private static final int READ_AHEAD_BLOCKS = 8;
+
+    private interface SourceSetter {
+        void apply(MediaPlayer player) throws IOException;
+    }
+
+    private final Context context;
+    private final PlayerPool pool;
+    private final ExecutorService fetcher = Executors.newFixedThreadPool(2);
+    private final LatencyRing startup = new LatencyRing(64);
+
+    private MediaPlayer current;
+    private ReadAheadMediaDataSource remoteSource;
+    private SurfaceHolder.Callback pendingSurface;
+    private SurfaceHolder pendingHolder;
+    private int generation;  // bumped by stop(), late callbacks of an older play are ignored
+
+    public MediaPlayback(Context context, PlayerPool pool) {
+        this.context = context.getApplicationContext();
+        this.pool = pool;
+    }
+
+    // holder may be null for audio
+    public void play(final Uri uri, SurfaceHolder holder, Listener listener) {
+        start(player -> player.setDataSource(context, uri), holder, listener);
+    }
+
+    public void playRemote(StorageReference reference, final SurfaceHolder holder, final Listener listener) {
+        stop();
+        final int token = generation;
+        final long requestedAt = SystemClock.elapsedRealtimeNanos();
+        reference.getDownloadUrl()
+                .addOnSuccessListener(url -> {
+                    if (token != generation) {
+                        return;
+                    }
+                    start(player -> {
+                        remoteSource = new ReadAheadMediaDataSource(new ReadAheadCache(
+                                new HttpRangeFetcher(new URL(url.toString())), BLOCK_SIZE, MAX_BLOCKS,
+                                READ_AHEAD_BLOCKS, fetcher));
+                        player.setDataSource(remoteSource);
+                    }, holder, listener, requestedAt);
+                })
+                .addOnFailureListener(e -> {
+                    if (token == generation) {
+                        listener.onError(e.getMessage());
+                    }
+                });
+    }
+
+    public void stop() {
+        generation++;
+        if (pendingHolder != null) {
+            pendingHolder.removeCallback(pendingSurface);
+            pendingHolder = null;
+            pendingSurface = null;
+        }
+        if (current != null) {
+            pool.release(current);
+            current = null;
+        }
+        if (remoteSource != null) {
+            remoteSource.close();
+            remoteSource = null;
+        }
+    }
+
+    public void release() {
+        stop();
+        pool.clear();
+        fetcher.shutdownNow();
+        Log.d(TAG, "startup p50 " + startup.getPercentileMs(50) + " ms, p95 " + startup.getPercentileMs(95)
+                + " ms over " + startup.getCount() + " plays");
+    }
+
+    // Play-to-first-frame times of the recent plays
+    public LatencyRing getStartupStats() {
+        return startup;
+    }
+
+    private void start(SourceSetter source, SurfaceHolder holder, Listener listener) {
+        stop();
+        start(source, holder, listener, SystemClock.elapsedRealtimeNanos());
+    }
+
+    private void start(final SourceSetter source, final SurfaceHolder holder, final Listener listener,
+                       final long requestedAt) {
+        if (holder != null && (holder.getSurface() == null || !holder.getSurface().isValid())) {
+            // The SurfaceView has only just been made visible, wait for its surface
+            final int token = generation;
+            pendingHolder = holder;
+            pendingSurface = new SurfaceHolder.Callback() {
+                @Override
+                public void surfaceCreated(SurfaceHolder created) {
+                    created.removeCallback(this);
+                    pendingHolder = null;
+                    pendingSurface = null;
+                    if (token == generation) {
+                        start(source, holder, listener, requestedAt);
+                    }
+                }
+
+                @Override
+                public void surfaceChanged(SurfaceHolder changed, int format, int width, int height) {
+                }
+
+                @Override
+                public void surfaceDestroyed(SurfaceHolder destroyed) {
+                }
+            };
+            holder.addCallback(pendingSurface);
+            return;
+        }
+
+        final MediaPlayer player = pool.acquire();
+        current = player;
+        player.setOnPreparedListener(mp -> {
+            if (mp != current) {
+                return;
+            }
+            mp.start();
+            if (holder == null) {
+                reportStartup(requestedAt, listener);
+            }
+        });
+        player.setOnInfoListener((mp, what, extra) -> {
+            if (mp == current && what == MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START) {
+                reportStartup(requestedAt, listener);
+            }
+            return false;
+        });
+        player.setOnVideoSizeChangedListener((mp, width, height) -> {
+            if (mp == current && width > 0 && height > 0) {
+                listener.onVideoSize(width, height);
+            }
+        });
+        player.setOnCompletionListener(mp -> {
+            if (mp == current) {
+                listener.onCompleted();
+            }
+        });
+        player.setOnErrorListener((mp, what, extra) -> {
+            if (mp == current) {
+                Log.w(TAG, "Playback error " + what + "/" + extra);
+                stop();
+                listener.onError("Playback error " + what);
+            }
+            return true;
+        });
+        try {
+            source.apply(player);
+            if (holder != null) {
+                player.setDisplay(holder);
+                player.setScreenOnWhilePlaying(true);
+            }
+            player.prepareAsync();
+        } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+            Log.w(TAG, "Could not open media", e);
+            stop();
+            listener.onError(e.getMessage());
+        }
+    }
+
+    private void reportStartup(long requestedAt, Listener listener) {
+        long nanos = SystemClock.elapsedRealtimeNanos() - requestedAt;
+        startup.record(nanos);
+        listener.onStarted(nanos / 1000000);
+    }
+}
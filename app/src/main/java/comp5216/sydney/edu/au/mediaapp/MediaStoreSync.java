@@ -0,0 +1,134 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Brings the {@link MediaIndex} up to date with what MediaStore knows about the app's capture
+ * directory.
+ *
+ * Only rows whose generation_modified is newer than the last sync are read, so a sync after
+ * one new capture reads one row. MediaStore generations are only comparable within one
+ * volume version; when the version changes (volume reformatted or MediaStore wiped) a full
+ * rescan runs instead, and that is also when rows deleted from MediaStore are dropped.
+ */
+public class MediaStoreSync {
+
+    private static final String TAG = "MediaStoreSync";
+    private static final String KEY_VERSION = "mediastore_version";
+    private static final String KEY_GENERATION = "mediastore_generation";
+    private static final int BATCH_SIZE = 500;
+    private static final String[] PROJECTION = {
+            MediaStore.Files.FileColumns._ID,
+            MediaStore.Files.FileColumns.DATA,
+            MediaStore.Files.FileColumns.MEDIA_TYPE,
+            MediaStore.Files.FileColumns.SIZE,
+            MediaStore.Files.FileColumns.DATE_TAKEN,
+            MediaStore.Files.FileColumns.DATE_MODIFIED,
+    };
+
+    static final class Row {
+        final long mediaStoreId;
+        final String path;
+        final MediaType type;
+        final long sizeBytes;
+        final long takenAtMillis;
+
+        Row(long mediaStoreId, String path, MediaType type, long sizeBytes, long takenAtMillis) {
+            this.mediaStoreId = mediaStoreId;
+            this.path = path;
+            this.type = type;
+            this.sizeBytes = sizeBytes;
+            this.takenAtMillis = takenAtMillis;
+        }
+    }
+
+    private final Context context;
+    private final MediaIndex index;
+    private final File mediaDir;
+
+    public MediaStoreSync(Context context, MediaIndex index, File mediaDir) {
+        this.context = context.getApplicationContext();
+        this.index = index;
+        this.mediaDir = mediaDir;
+    }
+
+    // Blocks; returns the number of rows that were added or changed
+    public int sync() {
+        String volume = MediaStore.VOLUME_EXTERNAL_PRIMARY;
+        String version = MediaStore.getVersion(context, volume);
+        long generation = MediaStore.getGeneration(context, volume);
+        boolean full = !version.equals(index.getMeta(KEY_VERSION));
+        long since = full ? -1 : parseLong(index.getMeta(KEY_GENERATION));
+        if (since == generation) {
+            return 0;
+        }
+
+        Uri uri = MediaStore.Files.getContentUri(volume);
+        String selection = MediaStore.Files.FileColumns.GENERATION_MODIFIED + " > ? AND "
+                + MediaStore.Files.FileColumns.DATA + " LIKE ? AND "
+                + MediaStore.Files.FileColumns.MEDIA_TYPE + " IN (?, ?, ?)";
+        String[] args = {
+                String.valueOf(since),
+                mediaDir.getAbsolutePath() + "/%",
+                String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE),
+                String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO),
+                String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_AUDIO),
+        };
+
+        int applied = 0;
+        List<Row> batch = new ArrayList<>(BATCH_SIZE);
+        try (Cursor cursor = context.getContentResolver().query(uri, PROJECTION, selection, args, null)) {
+            if (cursor == null) {
+                return 0;
+            }
+            while (cursor.moveToNext()) {
+                long takenAt = cursor.isNull(4) ? cursor.getLong(5) * 1000 : cursor.getLong(4);
+                batch.add(new Row(cursor.getLong(0), cursor.getString(1), typeOf(cursor.getInt(2)),
+                        cursor.getLong(3), takenAt));
+                if (batch.size() == BATCH_SIZE) {
+                    index.applyMediaStoreRows(batch, generation);
+                    applied += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            index.applyMediaStoreRows(batch, generation);
+            applied += batch.size();
+        }
+        if (full) {
+            int removed = index.removeUnseen(generation);
+            Log.d(TAG, "Full rescan of " + mediaDir + ": " + applied + " rows, " + removed + " removed");
+        }
+        index.putMeta(KEY_VERSION, version);
+        index.putMeta(KEY_GENERATION, String.valueOf(generation));
+        return applied;
+    }
+
+    private static MediaType typeOf(int mediaType) {
+        switch (mediaType) {
+            case MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO:
+                return MediaType.VIDEO;
+            case MediaStore.Files.FileColumns.MEDIA_TYPE_AUDIO:
+                return MediaType.AUDIO;
+            default:
+                return MediaType.PHOTO;
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return value == null ? -1 : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
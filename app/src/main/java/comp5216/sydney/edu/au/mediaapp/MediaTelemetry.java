@@ -0,0 +1,50 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.Context;
+
+import com.google.firebase.analytics.FirebaseAnalytics;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide {@link Telemetry}, flushed once a minute to a rotating file under
+ * files/telemetry and, when the build enables it, to Firebase Analytics in batches.
+ */
+public final class MediaTelemetry {
+
+    private static final long FLUSH_INTERVAL_MS = 60 * 1000;
+    private static final long FILE_MAX_BYTES = 256 * 1024;
+    private static final int FILE_COUNT = 4;
+    // Analytics hears about an aggregate of the last 15 flushes, not every minute
+    private static final int ANALYTICS_BATCH = 15;
+
+    private static Telemetry telemetry;
+
+    private MediaTelemetry() {
+    }
+
+    public static synchronized Telemetry get(Context context) {
+        if (telemetry == null) {
+            Context app = context.getApplicationContext();
+            telemetry = new Telemetry(System.currentTimeMillis());
+            telemetry.addSink(new RotatingFileSink(new File(app.getFilesDir(), "telemetry"), "metrics",
+                    FILE_MAX_BYTES, FILE_COUNT));
+            if (BuildConfig.TELEMETRY_TO_ANALYTICS) {
+                telemetry.addSink(new BatchingSink(new AnalyticsSink(FirebaseAnalytics.getInstance(app)), ANALYTICS_BATCH));
+            }
+
+            ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "MediaTelemetry");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final Telemetry flushed = telemetry;
+            flusher.scheduleWithFixedDelay(() -> flushed.flush(System.currentTimeMillis()),
+                    FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        return telemetry;
+    }
+}
@@ -0,0 +1,275 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.work.WorkManager;
+
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.storage.FirebaseStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide owner of the upload queue, so uploads outlive the Activity that started them.
+ * Capture code enqueues through {@link #getScheduler(Context)}, which also has WorkManager
+ * resume the queue under each media type's {@link UploadPolicy} after the process is gone.
+ */
+public final class MediaUploads {
+
+    // Uploads start two at a time and the limit follows the measured throughput from there
+    private static final int MAX_CONCURRENT_UPLOADS = 2;
+    private static final int MIN_CONCURRENT_UPLOADS = 1;
+    private static final int MAX_ADAPTIVE_UPLOADS = 8;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long BASE_BACKOFF_MS = 2000;
+    private static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+    // Files left open after their last reader, for the upload that usually follows the hashing
+    private static final int IDLE_MEDIA_FILES = 4;
+    // Uploads listed per manifest at most; a settled queue writes one with whatever it has
+    private static final int MANIFEST_MAX_ENTRIES = 200;
+    private static final long CAPTURE_SYNC_DELAY_MS = 500;
+    private static final ObjectKeyScheme keyScheme = new ObjectKeyScheme(BuildConfig.STORAGE_KEY_SCHEME);
+    // Photo encoding is CPU bound, one stage thread per core but no more than four
+    private static final int STAGE_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final String PREFS = "media_uploads";
+    private static final String PREF_STREAM_RECORDED_VIDEO = "stream_recorded_video";
+    private static final int VIDEO_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final long VIDEO_CHUNK_POLL_MS = 1000;
+
+    private static UploadQueue queue;
+    private static UploadWorkScheduler scheduler;
+    private static MediaFileRegistry mediaFiles;
+    private static ManifestWriter manifests;
+    private static CaptureJournal captures;
+    private static VideoCompressionStage videoCompression;
+    private static ScheduledExecutorService dispatcher;
+    private static ExecutorService stageExecutor;
+    private static ScheduledExecutorService captureSyncer;
+    private static UploadTransport transportOverride;
+    // Capture id -> the video streamed while the camera app records it
+    private static final Map<String, ChunkedVideoUpload> streamingVideos = new HashMap<>();
+    private static final TranscodeStats transcodeStats = new TranscodeStats();
+
+    private MediaUploads() {
+    }
+
+    public static synchronized UploadQueue get(Context context) {
+        if (queue == null) {
+            Context app = context.getApplicationContext();
+            FirebaseApp.initializeApp(app);
+
+            dispatcher = Executors.newSingleThreadScheduledExecutor();
+            UploadJournal journal = new UploadJournal(new File(app.getFilesDir(), "upload-journal.log"));
+            // Hashing and chunk uploads share one descriptor and mapping per file
+            mediaFiles = new MediaFileRegistry(new ContentChannelOpener(app.getContentResolver()), IDLE_MEDIA_FILES);
+            UploadTransport transport = transportOverride;
+            if (transport == null) {
+                FirebaseStorage storage = FirebaseStorage.getInstance();
+                // Point the app at a local Storage emulator instead of production when configured
+                if (!TextUtils.isEmpty(BuildConfig.STORAGE_EMULATOR_HOST)) {
+                    storage.useEmulator(BuildConfig.STORAGE_EMULATOR_HOST, BuildConfig.STORAGE_EMULATOR_PORT);
+                }
+                transport = new FirebaseUploadTransport(mediaFiles, storage.getReference(), dispatcher);
+            }
+
+            stageExecutor = Executors.newFixedThreadPool(STAGE_THREADS);
+            queue = new UploadQueue(journal, transport, dispatcher, stageExecutor,
+                    MAX_CONCURRENT_UPLOADS, STAGE_THREADS, MAX_ATTEMPTS, BASE_BACKOFF_MS, MAX_BACKOFF_MS);
+            queue.setTelemetry(MediaTelemetry.get(app));
+            queue.setConcurrencyLimit(new AdaptiveConcurrencyLimit(MAX_CONCURRENT_UPLOADS, MIN_CONCURRENT_UPLOADS,
+                    MAX_ADAPTIVE_UPLOADS));
+            // Photos and audio go on any network, video waits for Wi-Fi or a charger
+            queue.setPolicy(UploadPolicy.defaults());
+            new DeviceMonitor(app, queue).start();
+            // Content already in Storage is never sent twice
+            queue.addStage(new DedupStage(mediaFiles,
+                    new UploadedContentIndex(new File(app.getFilesDir(), "uploaded-content.tsv"))));
+            // Camera JPEGs are scaled down and re-encoded before they go out
+            queue.addStage(new ImageTranscodeStage(app.getContentResolver(), new File(app.getCacheDir(), "transcoded"),
+                    ImageTranscodePolicy.defaults(), transcodeStats));
+            // Camera video is brought down to 720p before upload, the upload waits for it
+            videoCompression = new VideoCompressionStage(app, new File(app.getCacheDir(), "transcoded"),
+                    VideoTranscodeProfile.hd720(), false);
+            queue.addStage(videoCompression);
+            // Upload outcomes are reflected in the media index, written off the dispatcher thread
+            final MediaIndex index = MediaIndex.get(app);
+            final ExecutorService indexWriter = Executors.newSingleThreadExecutor();
+            queue.addListener(new UploadQueue.Listener() {
+                @Override
+                public void onUploadSucceeded(final UploadItem item) {
+                    // A skipped duplicate points at the object that was already there
+                    indexWriter.execute(() -> index.markUploaded(item.getRemotePath(), item.getStoredPath(),
+                            item.getContentHash()));
+                }
+
+                @Override
+                public void onUploadFailed(final UploadItem item, Exception e, boolean willRetry) {
+                    if (!willRetry) {
+                        indexWriter.execute(() -> index.markFailed(item.getRemotePath()));
+                    }
+                }
+            });
+            scheduler = new UploadWorkScheduler(WorkManager.getInstance(app), queue);
+            // Finished uploads are listed in manifests, which other clients sync from
+            manifests = new ManifestWriter(new File(app.getFilesDir(), "manifests"), keyScheme, scheduler,
+                    MANIFEST_MAX_ENTRIES);
+            queue.addListener(manifests);
+            // Captures the camera app was writing when the process died, read back before
+            // anything new is started
+            captureSyncer = Executors.newSingleThreadScheduledExecutor();
+            captures = new CaptureJournal(new File(app.getFilesDir(), "capture-journal.log"), captureSyncer,
+                    CAPTURE_SYNC_DELAY_MS);
+            try {
+                captures.load();
+            } catch (IOException e) {
+                Log.w("MediaUploads", "Could not replay capture journal", e);
+            }
+            queue.addListener(captures);
+            queue.start();
+            // Queued captures whose outcome nobody heard are closed, before anything new is enqueued
+            queue.withPending(captures::settle);
+            // Whatever the journal still holds gets its work back
+            queue.withPending(scheduler::scheduleAll);
+        }
+        return queue;
+    }
+
+    // Uploads go to this transport instead of Firebase Storage from the next get on
+    @VisibleForTesting
+    static synchronized void setTransport(UploadTransport transport) {
+        transportOverride = transport;
+    }
+
+    /**
+     * Drops the queue and everything built with it, as if the process had died: uploads in
+     * flight are cancelled, the journals are closed as they are on disk, and the next
+     * {@link #get(Context)} replays them like a new launch does.
+     */
+    @VisibleForTesting
+    static synchronized void reset() {
+        if (queue == null) {
+            return;
+        }
+        // Their polling threads would outlive the queue
+        for (ChunkedVideoUpload upload : streamingVideos.values()) {
+            upload.abort();
+        }
+        streamingVideos.clear();
+        queue.shutdown();
+        captureSyncer.shutdownNow();
+        try {
+            if (!dispatcher.awaitTermination(5, TimeUnit.SECONDS)
+                    || !stageExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                Log.w("MediaUploads", "Upload threads still running after reset");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            captures.close();
+        } catch (IOException e) {
+            Log.w("MediaUploads", "Could not close capture journal", e);
+        }
+        // The OS closes a dead process's files
+        mediaFiles.evictIdle();
+        queue = null;
+        scheduler = null;
+        mediaFiles = null;
+        manifests = null;
+        captures = null;
+        videoCompression = null;
+        dispatcher = null;
+        stageExecutor = null;
+        captureSyncer = null;
+    }
+
+    public static synchronized UploadWorkScheduler getScheduler(Context context) {
+        get(context);
+        return scheduler;
+    }
+
+    public static synchronized ManifestWriter getManifests(Context context) {
+        get(context);
+        return manifests;
+    }
+
+    public static synchronized CaptureJournal getCaptures(Context context) {
+        get(context);
+        return captures;
+    }
+
+    /**
+     * Whether recorded video is streamed in chunks while the camera app is still recording, at the
+     * camera's full bitrate, instead of being compressed by {@link VideoCompressionStage} and sent
+     * once recording ends. Off unless the user switched it on.
+     */
+    public static boolean isStreamingRecordedVideo(Context context) {
+        return context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+                .getBoolean(PREF_STREAM_RECORDED_VIDEO, false);
+    }
+
+    public static void setStreamingRecordedVideo(Context context, boolean streaming) {
+        context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit()
+                .putBoolean(PREF_STREAM_RECORDED_VIDEO, streaming)
+                .apply();
+    }
+
+    /**
+     * Starts sending the video a capture is recording to remoteDir in chunks. Held here rather
+     * than by the Activity, which may be recreated while the camera app is in front; the
+     * capture's result ends it through {@link #takeStreamingVideo} or {@link #abortStreamingVideo}.
+     * One video is recorded at a time, a stream whose result never came back is dropped.
+     */
+    public static synchronized void streamVideo(Context context, String captureId, File file, String remoteDir) {
+        get(context);
+        for (ChunkedVideoUpload abandoned : streamingVideos.values()) {
+            abandoned.abort();
+        }
+        streamingVideos.clear();
+        ChunkedVideoUpload upload = new ChunkedVideoUpload(file, remoteDir, scheduler, VIDEO_CHUNK_SIZE);
+        streamingVideos.put(captureId, upload);
+        upload.start(VIDEO_CHUNK_POLL_MS);
+    }
+
+    // Hands the capture's stream to the caller to finish; null if it was not streamed in this process
+    public static synchronized ChunkedVideoUpload takeStreamingVideo(String captureId) {
+        return streamingVideos.remove(captureId);
+    }
+
+    // Recording discarded: the chunks already queued are dropped
+    public static synchronized void abortStreamingVideo(String captureId) {
+        ChunkedVideoUpload upload = streamingVideos.remove(captureId);
+        if (upload != null) {
+            upload.abort();
+        }
+    }
+
+    public static ObjectKeyScheme getKeyScheme() {
+        return keyScheme;
+    }
+
+    public static synchronized VideoCompressionStage getVideoCompression(Context context) {
+        get(context);
+        return videoCompression;
+    }
+
+    public static synchronized MediaFileRegistry getMediaFiles(Context context) {
+        get(context);
+        return mediaFiles;
+    }
+
+    // Bytes saved and encode time per megapixel of everything transcoded in this process
+    public static TranscodeStats getTranscodeStats() {
+        return transcodeStats;
+    }
+}
@@ -0,0 +1,63 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.media.MediaPlayer;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps idle MediaPlayers around so a new preview does not pay for creating a native player.
+ * Players come back {@link MediaPlayer#reset() reset}, with no listeners or data source.
+ * Main thread only.
+ */
+public class PlayerPool {
+
+    // Players of every pool not yet released, handed out or idle
+    private static final AtomicInteger live = new AtomicInteger();
+
+    private final int maxIdle;
+    private final ArrayDeque<MediaPlayer> idle = new ArrayDeque<>();
+
+    public PlayerPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public MediaPlayer acquire() {
+        MediaPlayer player = idle.poll();
+        if (player == null) {
+            player = new MediaPlayer();
+            live.incrementAndGet();
+        }
+        return player;
+    }
+
+    public void release(MediaPlayer player) {
+        player.setOnPreparedListener(null);
+        player.setOnInfoListener(null);
+        player.setOnErrorListener(null);
+        player.setOnCompletionListener(null);
+        player.setOnVideoSizeChangedListener(null);
+        player.reset();
+        if (idle.size() < maxIdle) {
+            idle.push(player);
+        } else {
+            player.release();
+            live.decrementAndGet();
+        }
+    }
+
+    public void clear() {
+        for (MediaPlayer player : idle) {
+            player.release();
+            live.decrementAndGet();
+        }
+        idle.clear();
+    }
+
+    @VisibleForTesting
+    static int getLiveCount() {
+        return live.get();
+    }
+}
@@ -0,0 +1,208 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.Size;
+import android.view.View;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decodes photo previews off the UI thread at roughly the size they are shown.
+ *
+ * The {@link ThumbnailCache} is consulted first. On a miss the image bounds are read, the
+ * decode is subsampled to the target view and writes into a pooled bitmap when one fits.
+ * Starting a new load for a view cancels the previous one. Must be called from the main thread.
+ */
+public class PreviewLoader {
+
+    private static final String TAG = "PreviewLoader";
+    private static final int THUMBNAIL_EDGE = 1024;
+
+    private final ContentResolver resolver;
+    private final DisplayMetrics displayMetrics;
+    private final BitmapPool pool;
+    private final ThumbnailCache cache;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<ImageView, Future<?>> pending = new WeakHashMap<>();
+    private final Map<ImageView, Bitmap> shown = new WeakHashMap<>();
+    private final Histogram decodeMs;
+    private final LongAdder cacheHits;
+    private final LongAdder cacheMisses;
+
+    public PreviewLoader(Context context, BitmapPool pool, ThumbnailCache cache, Telemetry telemetry) {
+        this.resolver = context.getContentResolver();
+        this.displayMetrics = context.getResources().getDisplayMetrics();
+        this.pool = pool;
+        this.cache = cache;
+        this.decodeMs = telemetry.histogram("preview.decode_ms");
+        this.cacheHits = telemetry.counter("preview.cache_hits");
+        this.cacheMisses = telemetry.counter("preview.cache_misses");
+    }
+
+    public void load(final ImageView view, final Uri uri) {
+        cancel(view);
+        // A GONE view has no size yet, fall back to the screen
+        final int reqWidth = view.getWidth() > 0 ? view.getWidth() : displayMetrics.widthPixels;
+        final int reqHeight = view.getHeight() > 0 ? view.getHeight() : displayMetrics.heightPixels;
+
+        final Future<?>[] self = new Future<?>[1];
+        self[0] = executor.submit(() -> {
+            String key = cache.keyFor(uri);
+            final Bitmap cached = cache.get(key);
+            if (cached != null) {
+                cacheHits.increment();
+                mainHandler.post(() -> deliver(view, self[0], cached, false));
+                return;
+            }
+            cacheMisses.increment();
+            final Bitmap bitmap;
+            try {
+                long started = SystemClock.elapsedRealtime();
+                bitmap = decode(uri, reqWidth, reqHeight);
+                decodeMs.record(SystemClock.elapsedRealtime() - started);
+            } catch (InterruptedIOException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Could not decode " + uri, e);
+                return;
+            }
+            if (bitmap != null) {
+                cache.put(key, bitmap, THUMBNAIL_EDGE);
+            }
+            mainHandler.post(() -> deliver(view, self[0], bitmap, true));
+        });
+        pending.put(view, self[0]);
+    }
+
+    // Warms the thumbnail cache for a video so later previews skip extracting a frame
+    public void prefetchVideo(final Uri uri) {
+        executor.execute(() -> {
+            String key = cache.keyFor(uri);
+            if (cache.get(key) != null) {
+                return;
+            }
+            Size size = new Size(THUMBNAIL_EDGE, THUMBNAIL_EDGE);
+            try {
+                Bitmap frame = ContentResolver.SCHEME_FILE.equals(uri.getScheme())
+                        ? ThumbnailUtils.createVideoThumbnail(new File(uri.getPath()), size, null)
+                        : resolver.loadThumbnail(uri, size, null);
+                cache.put(key, frame, THUMBNAIL_EDGE);
+                frame.recycle();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not extract a thumbnail for " + uri, e);
+            }
+        });
+    }
+
+    public void cancel(ImageView view) {
+        Future<?> future = pending.remove(view);
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    public void shutdown() {
+        for (Future<?> future : pending.values()) {
+            future.cancel(true);
+        }
+        pending.clear();
+        executor.shutdownNow();
+    }
+
+    // pooled is false for bitmaps owned by the cache, those must never be handed to inBitmap
+    private void deliver(ImageView view, Future<?> future, Bitmap bitmap, boolean pooled) {
+        if (pending.get(view) != future) {
+            // Superseded or cancelled while decoding, keep the memory for the next decode
+            if (pooled) {
+                pool.put(bitmap);
+            }
+            return;
+        }
+        pending.remove(view);
+        if (bitmap == null) {
+            return;
+        }
+        Bitmap previous = pooled ? shown.put(view, bitmap) : shown.remove(view);
+        view.setImageBitmap(bitmap);
+        view.setVisibility(View.VISIBLE);
+        if (previous != null && previous != bitmap) {
+            pool.put(previous);
+        }
+    }
+
+    private Bitmap decode(Uri uri, int reqWidth, int reqHeight) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = open(uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        checkInterrupted();
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = DownsampleMath.calculateInSampleSize(
+                options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        long byteCount = DownsampleMath.decodedByteCount(options.outWidth, options.outHeight, options.inSampleSize, 4);
+        options.inBitmap = pool.get(byteCount, Bitmap.Config.ARGB_8888);
+        boolean reused = options.inBitmap != null;
+
+        Bitmap bitmap;
+        try (InputStream in = open(uri)) {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap could not be reused for this image, decode into a new one
+            options.inBitmap = null;
+            reused = false;
+            try (InputStream in = open(uri)) {
+                bitmap = BitmapFactory.decodeStream(in, null, options);
+            }
+        }
+        checkInterrupted();
+
+        if (bitmap != null) {
+            Log.d(TAG, "Decoded " + options.outWidth + "x" + options.outHeight + " at 1/" + options.inSampleSize
+                    + " into " + bitmap.getWidth() + "x" + bitmap.getHeight() + ", "
+                    + bitmap.getAllocationByteCount() / 1024 + " KB" + (reused ? " (reused)" : ""));
+        }
+        return bitmap;
+    }
+
+    private InputStream open(Uri uri) throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        return in;
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException();
+        }
+    }
+}
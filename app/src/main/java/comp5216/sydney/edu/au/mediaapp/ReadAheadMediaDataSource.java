@@ -0,0 +1,36 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.media.MediaDataSource;
+
+import java.io.IOException;
+
+/**
+ * Feeds MediaPlayer from a {@link ReadAheadCache}, so remote media streams through a bounded
+ * local block cache instead of the player's own HTTP stack.
+ */
+public class ReadAheadMediaDataSource extends MediaDataSource {
+
+    private final ReadAheadCache cache;
+
+    public ReadAheadMediaDataSource(ReadAheadCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (size == 0) {
+            return 0;
+        }
+        return cache.read(position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return cache.size();
+    }
+
+    @Override
+    public void close() {
+        cache.close();
+    }
+}
@@ -0,0 +1,254 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier thumbnail cache keyed by media Uri plus its modification time.
+ *
+ * The memory tier is an LruCache bounded by bitmap bytes. The disk tier stores raw RGB_565
+ * pixels behind a small header, so a hit is a memory map and a single pixel copy with no
+ * image decoding. Disk entries are evicted oldest-access-first once over the byte budget.
+ * Thread safe; disk access must happen off the main thread.
+ */
+public class ThumbnailCache {
+
+    private static final String TAG = "ThumbnailCache";
+    private static final int MAGIC = 0x54484D42;  // "THMB"
+    private static final int HEADER_BYTES = 12;
+
+    private final ContentResolver resolver;
+    private final File directory;
+    private final long maxDiskBytes;
+    private final LruCache<String, Bitmap> memory;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long diskBytes = -1;  // lazily measured, guarded by this
+
+    public ThumbnailCache(ContentResolver resolver, File directory, int maxMemoryBytes, long maxDiskBytes) {
+        this.resolver = resolver;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.memory = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    // Cache key for a Uri; changes whenever the underlying media is modified
+    public String keyFor(Uri uri) {
+        return sha1(uri.toString() + "@" + lastModified(uri));
+    }
+
+    // Memory tier only, cheap enough for the main thread
+    public Bitmap getFromMemory(String key) {
+        Bitmap bitmap = memory.get(key);
+        if (bitmap != null) {
+            memoryHits.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    // Memory tier, then disk tier; counts a miss when neither has the key
+    public Bitmap get(String key) {
+        Bitmap bitmap = getFromMemory(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        bitmap = readFromDisk(key);
+        if (bitmap != null) {
+            diskHits.incrementAndGet();
+            memory.put(key, bitmap);
+        } else {
+            misses.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    // Stores a copy of source scaled to fit maxEdge, in both tiers
+    public Bitmap put(String key, Bitmap source, int maxEdge) {
+        float scale = Math.min(1f, (float) maxEdge / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, Math.round(source.getWidth() * scale));
+        int height = Math.max(1, Math.round(source.getHeight() * scale));
+        Bitmap scaled = Bitmap.createScaledBitmap(source, width, height, true);
+        Bitmap thumbnail = scaled.copy(Bitmap.Config.RGB_565, false);
+        if (scaled != source) {
+            scaled.recycle();
+        }
+        memory.put(key, thumbnail);
+        try {
+            writeToDisk(key, thumbnail);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write thumbnail " + key, e);
+        }
+        return thumbnail;
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long hits = memoryHits.get() + diskHits.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "ThumbnailCache{memory=%d, disk=%d, miss=%d, hitRate=%.2f}",
+                getMemoryHits(), getDiskHits(), getMisses(), getHitRate());
+    }
+
+    private Bitmap readFromDisk(String key) {
+        File entry = new File(directory, key);
+        if (!entry.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(entry, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.BIG_ENDIAN);
+            if (channel.size() < HEADER_BYTES || mapped.getInt() != MAGIC) {
+                entry.delete();
+                return null;
+            }
+            int width = mapped.getInt();
+            int height = mapped.getInt();
+            if (width <= 0 || height <= 0 || mapped.remaining() < (long) width * height * 2) {
+                entry.delete();
+                return null;
+            }
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+            bitmap.copyPixelsFromBuffer(mapped.slice());
+            // Access time drives eviction
+            entry.setLastModified(System.currentTimeMillis());
+            return bitmap;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Dropping unreadable thumbnail " + key, e);
+            entry.delete();
+            return null;
+        }
+    }
+
+    private synchronized void writeToDisk(String key, Bitmap thumbnail) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("failed to create " + directory);
+        }
+        int pixelBytes = thumbnail.getByteCount();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + pixelBytes).order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(MAGIC).putInt(thumbnail.getWidth()).putInt(thumbnail.getHeight());
+        thumbnail.copyPixelsToBuffer(buffer);
+        buffer.flip();
+
+        File entry = new File(directory, key);
+        File tmp = new File(directory, key + ".tmp");
+        long before = currentDiskBytes() - entry.length();
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        if (!tmp.renameTo(entry)) {
+            tmp.delete();
+            throw new IOException("failed to commit " + entry);
+        }
+        diskBytes = before + entry.length();
+        trimDisk();
+    }
+
+    private long currentDiskBytes() {
+        if (diskBytes < 0) {
+            long total = 0;
+            File[] entries = directory.listFiles();
+            if (entries != null) {
+                for (File entry : entries) {
+                    total += entry.length();
+                }
+            }
+            diskBytes = total;
+        }
+        return diskBytes;
+    }
+
+    private void trimDisk() {
+        if (diskBytes <= maxDiskBytes) {
+            return;
+        }
+        File[] entries = directory.listFiles();
+        if (entries == null) {
+            return;
+        }
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (File entry : entries) {
+            if (diskBytes <= maxDiskBytes) {
+                break;
+            }
+            long length = entry.length();
+            if (entry.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private long lastModified(Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            return new File(uri.getPath()).lastModified();
+        }
+        try (Cursor cursor = resolver.query(uri, new String[]{MediaStore.MediaColumns.DATE_MODIFIED}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch (RuntimeException e) {
+            // Providers without a DATE_MODIFIED column, fall back to the Uri alone
+        }
+        return 0;
+    }
+
+    private static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
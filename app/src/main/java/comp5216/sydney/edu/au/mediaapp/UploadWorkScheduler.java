@@ -0,0 +1,130 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link UploadScheduler} the capture screens use: items go to the {@link UploadQueue} as
+ * before, and WorkManager is asked for an {@link UploadWorker} run under the constraints of
+ * the item's {@link UploadPolicy} rule, so pending uploads are resumed once the device can
+ * take them even if the process has died in between.
+ *
+ * WorkManager constraints can only be combined with AND, so a rule that allows
+ * "unmetered or charging" gets one unique work per alternative. Unique work is enqueued with
+ * KEEP, so scheduling on every capture costs one lookup once the work exists.
+ */
+public class UploadWorkScheduler implements UploadScheduler {
+
+    static final String KEY_WORK_NAME = "work_name";
+    // Every upload work carries this tag, e.g. for WorkManager.getWorkInfosByTag in tests
+    public static final String TAG = "uploads";
+    private static final String WORK_PREFIX = "upload-";
+    private static final long BACKOFF_SECONDS = 30;
+
+    private final WorkManager workManager;
+    private final UploadQueue queue;
+
+    // WorkManager is passed in so WorkManagerTestInitHelper's test instance can be used
+    public UploadWorkScheduler(WorkManager workManager, UploadQueue queue) {
+        this.workManager = workManager;
+        this.queue = queue;
+    }
+
+    @Override
+    public UploadItem enqueue(String source, String remotePath) {
+        return enqueue(UploadItem.forFile(source, remotePath));
+    }
+
+    @Override
+    public UploadItem enqueue(UploadItem item) {
+        queue.enqueue(item);
+        for (Map.Entry<String, Constraints> work : workFor(queue.getPolicy().ruleFor(item)).entrySet()) {
+            schedule(work.getKey(), work.getValue(), ExistingWorkPolicy.KEEP, 0);
+        }
+        return item;
+    }
+
+    @Override
+    public void cancelGroup(String group) {
+        queue.cancelGroup(group);
+    }
+
+    // After the journal was replayed: every rule with something pending gets its work
+    public void scheduleAll(List<UploadItem> pending) {
+        for (Map.Entry<String, Constraints> work : workFor(pending).entrySet()) {
+            schedule(work.getKey(), work.getValue(), ExistingWorkPolicy.KEEP, 0);
+        }
+    }
+
+    /**
+     * Called by a worker that is about to finish with items still pending. Its own work is
+     * appended behind it after a pause, as KEEP would see it running and do nothing; the
+     * pause keeps items that are waiting out a retry backoff from spinning the worker.
+     */
+    void rescheduleAfter(String finishing, List<UploadItem> pending) {
+        for (Map.Entry<String, Constraints> work : workFor(pending).entrySet()) {
+            if (work.getKey().equals(finishing)) {
+                schedule(work.getKey(), work.getValue(), ExistingWorkPolicy.APPEND_OR_REPLACE, BACKOFF_SECONDS);
+            } else {
+                schedule(work.getKey(), work.getValue(), ExistingWorkPolicy.KEEP, 0);
+            }
+        }
+    }
+
+    private Map<String, Constraints> workFor(List<UploadItem> items) {
+        Map<String, Constraints> work = new LinkedHashMap<>();
+        for (UploadItem item : items) {
+            work.putAll(workFor(queue.getPolicy().ruleFor(item)));
+        }
+        return work;
+    }
+
+    // Unique work name -> constraints, one entry per way the rule can be satisfied
+    static Map<String, Constraints> workFor(UploadPolicy.Rule rule) {
+        Map<String, Constraints> work = new LinkedHashMap<>();
+        String name = WORK_PREFIX + rule.getName();
+        switch (rule.getNetwork()) {
+            case UNMETERED:
+                work.put(name, constraints(rule, NetworkType.UNMETERED, false));
+                break;
+            case UNMETERED_OR_CHARGING:
+                work.put(name + "-unmetered", constraints(rule, NetworkType.UNMETERED, false));
+                work.put(name + "-charging", constraints(rule, NetworkType.CONNECTED, true));
+                break;
+            default:
+                work.put(name, constraints(rule, NetworkType.CONNECTED, false));
+                break;
+        }
+        return work;
+    }
+
+    private static Constraints constraints(UploadPolicy.Rule rule, NetworkType network, boolean charging) {
+        return new Constraints.Builder()
+                .setRequiredNetworkType(network)
+                .setRequiresCharging(charging)
+                // The policy lets a low battery through while charging, so does this
+                .setRequiresBatteryNotLow(rule.requiresBatteryNotLow() && !charging)
+                .build();
+    }
+
+    private void schedule(String name, Constraints constraints, ExistingWorkPolicy existing, long delaySeconds) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(UploadWorker.class)
+                .setConstraints(constraints)
+                .setInitialDelay(delaySeconds, TimeUnit.SECONDS)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .setInputData(new Data.Builder().putString(KEY_WORK_NAME, name).build())
+                .addTag(TAG)
+                .build();
+        workManager.enqueueUniqueWork(name, existing, request);
+    }
+}
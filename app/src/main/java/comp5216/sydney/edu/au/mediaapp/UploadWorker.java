@@ -0,0 +1,142 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.pm.ServiceInfo;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.core.app.NotificationCompat;
+import androidx.work.ForegroundInfo;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs one batch of uploads once WorkManager's constraints for it are met.
+ *
+ * Getting the queue replays its journal if the process was started for this work. The
+ * worker then holds the process while the queue sends everything the current conditions
+ * allow, and finishes when the queue has settled or its time is up. Work is scheduled again
+ * for whatever is still pending. While a video is being compressed the worker runs in the
+ * foreground, with the compression's progress in its notification.
+ */
+public class UploadWorker extends Worker {
+
+    private static final String TAG = "UploadWorker";
+    // WorkManager stops a worker after ten minutes
+    private static final long MAX_RUN_MS = 9 * 60 * 1000;
+    private static final long POLL_MS = 1000;
+    private static final String CHANNEL_ID = "video_transcode";
+    private static final int NOTIFICATION_ID = 2001;
+
+    private int shownProgress = VideoCompressionStage.IDLE;
+    private boolean foregroundRefused;
+
+    public UploadWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        UploadQueue queue = MediaUploads.get(context);
+        UploadWorkScheduler scheduler = MediaUploads.getScheduler(context);
+        // The monitor may not have caught up with what WorkManager just saw
+        queue.updateConditions(DeviceMonitor.read(context));
+
+        long deadline = SystemClock.elapsedRealtime() + MAX_RUN_MS;
+        try {
+            if (awaitSettled(queue, deadline) && flushManifest(context)) {
+                // The manifest of what was just sent goes out in the same run
+                awaitSettled(queue, deadline);
+            }
+            List<UploadItem> pending = pending(queue);
+            if (!pending.isEmpty()) {
+                Log.d(TAG, pending.size() + " uploads still pending");
+                scheduler.rescheduleAfter(getInputData().getString(UploadWorkScheduler.KEY_WORK_NAME), pending);
+            } else {
+                // Nothing left to read them for
+                MediaUploads.getMediaFiles(context).evictIdle();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
+        return Result.success();
+    }
+
+    private boolean awaitSettled(UploadQueue queue, long deadline) throws InterruptedException {
+        CountDownLatch settled = new CountDownLatch(1);
+        queue.whenSettled(settled::countDown);
+        VideoCompressionStage compression = MediaUploads.getVideoCompression(getApplicationContext());
+        while (!settled.await(POLL_MS, TimeUnit.MILLISECONDS)) {
+            updateForeground(compression.getProgress());
+            if (isStopped() || SystemClock.elapsedRealtime() > deadline) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Polled, so the notification changes at most once a poll. Once in the foreground the worker
+    // stays there until it ends, the compressed video is uploaded next.
+    private void updateForeground(int progress) throws InterruptedException {
+        if (progress == shownProgress || foregroundRefused) {
+            return;
+        }
+        shownProgress = progress;
+        try {
+            setForegroundAsync(new ForegroundInfo(NOTIFICATION_ID, notification(progress),
+                    ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC)).get();
+        } catch (ExecutionException e) {
+            // The job still holds the process until WorkManager's limit, just without the notification
+            Log.w(TAG, "Could not compress video in the foreground", e.getCause());
+            foregroundRefused = true;
+        }
+    }
+
+    private Notification notification(int progress) {
+        Context context = getApplicationContext();
+        context.getSystemService(NotificationManager.class).createNotificationChannel(
+                new NotificationChannel(CHANNEL_ID, "Video compression", NotificationManager.IMPORTANCE_LOW));
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_sys_upload)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true);
+        if (progress == VideoCompressionStage.IDLE) {
+            return builder.setContentTitle("Uploading video").build();
+        }
+        return builder.setContentTitle("Compressing video").setProgress(100, progress, false).build();
+    }
+
+    private static boolean flushManifest(Context context) {
+        try {
+            return MediaUploads.getManifests(context).flush();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write upload manifest", e);
+            return false;
+        }
+    }
+
+    private static List<UploadItem> pending(UploadQueue queue) throws InterruptedException {
+        final AtomicReference<List<UploadItem>> result = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        queue.withPending(items -> {
+            result.set(items);
+            done.countDown();
+        });
+        done.await();
+        return result.get();
+    }
+}
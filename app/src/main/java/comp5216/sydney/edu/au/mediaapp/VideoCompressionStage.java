@@ -0,0 +1,159 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.Context;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Re-encodes videos to a {@link VideoTranscodeProfile} before they are uploaded.
+ *
+ * The upload of an item waits for its transcode, since the queue only sends what a stage has
+ * prepared. Only one video is transcoded at a time, codec instances are scarce and a second
+ * encode would just compete for the same hardware; photos keep flowing on the other stage
+ * threads meanwhile. The progress of the running transcode is read by {@link UploadWorker}, which
+ * holds the process in the foreground while there is one.
+ */
+public class VideoCompressionStage implements UploadStage {
+
+    private static final String TAG = "VideoCompressionStage";
+    public static final int IDLE = -1;
+
+    private final Context context;
+    private final File outputDir;
+    private final VideoTranscodeProfile profile;
+    private final VideoTranscoder transcoder;
+    private final Semaphore codecPermit = new Semaphore(1);
+    private volatile int progress = IDLE;  // percent done of the transcode holding the permit
+
+    public VideoCompressionStage(Context context, File outputDir, VideoTranscodeProfile profile, boolean softwareCodecs) {
+        this.context = context.getApplicationContext();
+        this.outputDir = outputDir;
+        this.profile = profile;
+        this.transcoder = new VideoTranscoder(profile, softwareCodecs);
+    }
+
+    @Override
+    public UploadItem prepare(final UploadItem item) throws IOException {
+        if (item.isRange() || item.getGroup() != null) {
+            return item;
+        }
+        if (item.hasPreparedSource()) {
+            // A retry: the earlier output is still on disk, transcoding it again would write it onto itself
+            return item;
+        }
+        Uri source = Uri.parse(item.getSource());
+        if (!isVideo(source)) {
+            return item;
+        }
+        if (!needsTranscode(source)) {
+            return item;
+        }
+
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            throw new IOException("failed to create " + outputDir);
+        }
+        File output = new File(outputDir, item.getId() + ".mp4");
+        long inputBytes = sizeOf(source);
+        try {
+            codecPermit.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted waiting for the codec");
+        }
+        long start = SystemClock.elapsedRealtime();
+        progress = 0;
+        try {
+            transcoder.transcode(context, source, output.getAbsolutePath(),
+                    fraction -> progress = (int) (fraction * 100));
+        } catch (IOException | RuntimeException e) {
+            // MediaCodec reports most failures as IllegalStateException, the queue retries IOExceptions
+            output.delete();
+            throw e instanceof IOException ? (IOException) e : new IOException("Transcode failed for " + source, e);
+        } finally {
+            progress = IDLE;
+            codecPermit.release();
+        }
+
+        long outputBytes = output.length();
+        Log.d(TAG, item.getId() + ": " + inputBytes / 1024 + " KB -> " + outputBytes / 1024 + " KB in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+        if (outputBytes == 0 || (inputBytes > 0 && outputBytes >= inputBytes)) {
+            output.delete();
+            return item;
+        }
+
+        // The bytes differ from any earlier attempt, a previous resumable session cannot be reused
+        item.setSessionUri(null);
+        item.setPreparedSource(Uri.fromFile(output).toString(), "video/mp4");
+        return item;
+    }
+
+    // Percent done of the video being transcoded, IDLE when none is
+    public int getProgress() {
+        return progress;
+    }
+
+    @Override
+    public void onUploaded(UploadItem item) {
+        deleteOutput(item);
+    }
+
+    @Override
+    public void onFailed(UploadItem item) {
+        deleteOutput(item);
+    }
+
+    private void deleteOutput(UploadItem item) {
+        if (item.hasPreparedSource()) {
+            new File(outputDir, item.getId() + ".mp4").delete();
+        }
+    }
+
+    private boolean needsTranscode(Uri source) throws IOException {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, source);
+            int width = parse(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+            int height = parse(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+            int bitRate = parse(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE));
+            return width > 0 && profile.shouldTranscode(width, height, bitRate);
+        } catch (RuntimeException e) {
+            // Not something the platform can read, upload it as it is
+            Log.w(TAG, "Could not probe " + source, e);
+            return false;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    private static int parse(String value) {
+        try {
+            return value == null ? 0 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private boolean isVideo(Uri uri) {
+        String type = context.getContentResolver().getType(uri);
+        if (type == null) {
+            String path = uri.getPath() == null ? "" : uri.getPath().toLowerCase(Locale.ROOT);
+            return path.endsWith(".mp4") || path.endsWith(".3gp") || path.endsWith(".webm") || path.endsWith(".mkv");
+        }
+        return type.startsWith("video/");
+    }
+
+    private long sizeOf(Uri uri) throws IOException {
+        try (ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "r")) {
+            return descriptor == null ? 0 : descriptor.getStatSize();
+        }
+    }
+}
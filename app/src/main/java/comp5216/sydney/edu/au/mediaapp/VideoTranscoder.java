@@ -0,0 +1,239 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.net.Uri;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Re-encodes the video track of a file to a {@link VideoTranscodeProfile} and copies the
+ * audio track over untouched.
+ *
+ * MediaExtractor feeds the decoder, which renders straight into the encoder's input surface,
+ * so frames never pass through app memory. The decoder scales to the encoder surface size.
+ * With {@code softwareCodecs} set only software codecs are used, which is what emulators and
+ * CI devices without hardware codecs have.
+ */
+public class VideoTranscoder {
+
+    public interface ProgressListener {
+        // fraction of the source duration written so far, 0..1
+        void onProgress(float fraction);
+    }
+
+    private static final long TIMEOUT_US = 10000;
+    private static final String OUTPUT_MIME = MediaFormat.MIMETYPE_VIDEO_AVC;
+
+    private final VideoTranscodeProfile profile;
+    private final boolean softwareCodecs;
+
+    public VideoTranscoder(VideoTranscodeProfile profile, boolean softwareCodecs) {
+        this.profile = profile;
+        this.softwareCodecs = softwareCodecs;
+    }
+
+    public void transcode(Context context, Uri source, String outputPath, ProgressListener listener) throws IOException {
+        MediaExtractor videoExtractor = new MediaExtractor();
+        MediaExtractor audioExtractor = new MediaExtractor();
+        MediaCodec decoder = null;
+        MediaCodec encoder = null;
+        Surface inputSurface = null;
+        MediaMuxer muxer = null;
+        boolean muxerStarted = false;
+        try {
+            videoExtractor.setDataSource(context, source, null);
+            int videoTrack = selectTrack(videoExtractor, "video/");
+            if (videoTrack < 0) {
+                throw new IOException("No video track in " + source);
+            }
+            videoExtractor.selectTrack(videoTrack);
+            MediaFormat inputFormat = videoExtractor.getTrackFormat(videoTrack);
+            long durationUs = inputFormat.containsKey(MediaFormat.KEY_DURATION)
+                    ? inputFormat.getLong(MediaFormat.KEY_DURATION) : 0;
+            int rotation = inputFormat.containsKey(MediaFormat.KEY_ROTATION)
+                    ? inputFormat.getInteger(MediaFormat.KEY_ROTATION) : 0;
+
+            audioExtractor.setDataSource(context, source, null);
+            int audioTrack = selectTrack(audioExtractor, "audio/");
+            MediaFormat audioFormat = null;
+            if (audioTrack >= 0) {
+                audioExtractor.selectTrack(audioTrack);
+                audioFormat = audioExtractor.getTrackFormat(audioTrack);
+            }
+
+            int[] target = profile.targetSize(inputFormat.getInteger(MediaFormat.KEY_WIDTH),
+                    inputFormat.getInteger(MediaFormat.KEY_HEIGHT));
+            MediaFormat outputFormat = MediaFormat.createVideoFormat(OUTPUT_MIME, target[0], target[1]);
+            outputFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            outputFormat.setInteger(MediaFormat.KEY_BIT_RATE, profile.getVideoBitRate());
+            outputFormat.setInteger(MediaFormat.KEY_FRAME_RATE, profile.getFrameRate());
+            outputFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, profile.getKeyFrameIntervalSeconds());
+
+            encoder = createCodec(OUTPUT_MIME, true);
+            encoder.configure(outputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = encoder.createInputSurface();
+            encoder.start();
+
+            decoder = createCodec(inputFormat.getString(MediaFormat.KEY_MIME), false);
+            decoder.configure(inputFormat, inputSurface, null, 0);
+            decoder.setVideoScalingMode(MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT);
+            decoder.start();
+
+            muxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            muxer.setOrientationHint(rotation);
+
+            MediaCodec.BufferInfo decoderInfo = new MediaCodec.BufferInfo();
+            MediaCodec.BufferInfo encoderInfo = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            boolean decoderDone = false;
+            boolean encoderDone = false;
+            int videoOut = -1;
+            int audioOut = -1;
+
+            while (!encoderDone) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Transcode cancelled");
+                }
+                if (!inputDone) {
+                    int index = decoder.dequeueInputBuffer(TIMEOUT_US);
+                    if (index >= 0) {
+                        ByteBuffer buffer = decoder.getInputBuffer(index);
+                        int size = videoExtractor.readSampleData(buffer, 0);
+                        if (size < 0) {
+                            decoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            decoder.queueInputBuffer(index, 0, size, videoExtractor.getSampleTime(), 0);
+                            videoExtractor.advance();
+                        }
+                    }
+                }
+
+                if (!decoderDone) {
+                    int index = decoder.dequeueOutputBuffer(decoderInfo, TIMEOUT_US);
+                    if (index >= 0) {
+                        // Rendering hands the frame to the encoder surface, stamped with its pts
+                        boolean render = decoderInfo.size > 0;
+                        if (render) {
+                            decoder.releaseOutputBuffer(index, decoderInfo.presentationTimeUs * 1000);
+                        } else {
+                            decoder.releaseOutputBuffer(index, false);
+                        }
+                        if ((decoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                            encoder.signalEndOfInputStream();
+                            decoderDone = true;
+                        }
+                    }
+                }
+
+                int index = encoder.dequeueOutputBuffer(encoderInfo, TIMEOUT_US);
+                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    // Every track has to be known before the muxer starts
+                    videoOut = muxer.addTrack(encoder.getOutputFormat());
+                    if (audioFormat != null) {
+                        audioOut = muxer.addTrack(audioFormat);
+                    }
+                    muxer.start();
+                    muxerStarted = true;
+                } else if (index >= 0) {
+                    ByteBuffer encoded = encoder.getOutputBuffer(index);
+                    if ((encoderInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                        encoderInfo.size = 0;
+                    }
+                    if (encoderInfo.size > 0 && muxerStarted) {
+                        encoded.position(encoderInfo.offset);
+                        encoded.limit(encoderInfo.offset + encoderInfo.size);
+                        muxer.writeSampleData(videoOut, encoded, encoderInfo);
+                        if (listener != null && durationUs > 0) {
+                            listener.onProgress(Math.min(1f, (float) encoderInfo.presentationTimeUs / durationUs));
+                        }
+                    }
+                    encoder.releaseOutputBuffer(index, false);
+                    encoderDone = (encoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                }
+            }
+
+            if (audioOut >= 0) {
+                copyTrack(audioExtractor, audioFormat, muxer, audioOut);
+            }
+            if (listener != null) {
+                listener.onProgress(1f);
+            }
+        } finally {
+            if (decoder != null) {
+                decoder.release();
+            }
+            if (encoder != null) {
+                encoder.release();
+            }
+            if (inputSurface != null) {
+                inputSurface.release();
+            }
+            if (muxer != null) {
+                try {
+                    if (muxerStarted) {
+                        muxer.stop();
+                    }
+                } catch (IllegalStateException e) {
+                    // Nothing usable was written, the caller treats the transcode as failed
+                }
+                muxer.release();
+            }
+            videoExtractor.release();
+            audioExtractor.release();
+        }
+    }
+
+    private static void copyTrack(MediaExtractor extractor, MediaFormat format, MediaMuxer muxer, int track) {
+        int capacity = format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                ? format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : 256 * 1024;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        while (true) {
+            int size = extractor.readSampleData(buffer, 0);
+            if (size < 0) {
+                break;
+            }
+            int flags = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                    ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+            info.set(0, size, extractor.getSampleTime(), flags);
+            muxer.writeSampleData(track, buffer, info);
+            extractor.advance();
+        }
+    }
+
+    private static int selectTrack(MediaExtractor extractor, String mimePrefix) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith(mimePrefix)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private MediaCodec createCodec(String mime, boolean encoder) throws IOException {
+        if (softwareCodecs) {
+            for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+                if (info.isEncoder() != encoder || !info.isSoftwareOnly()) {
+                    continue;
+                }
+                for (String type : info.getSupportedTypes()) {
+                    if (type.equalsIgnoreCase(mime)) {
+                        return MediaCodec.createByCodecName(info.getName());
+                    }
+                }
+            }
+        }
+        return encoder ? MediaCodec.createEncoderByType(mime) : MediaCodec.createDecoderByType(mime);
+    }
+}
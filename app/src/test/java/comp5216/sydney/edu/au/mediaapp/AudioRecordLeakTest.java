@@ -0,0 +1,82 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.Manifest;
+import android.app.Application;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.work.testing.WorkManagerTestInitHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Arms and disarms the pre-roll over and over, and stops the activity while it is armed: no
+ * AudioRecord may be left holding the microphone.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class AudioRecordLeakTest {
+
+    private static final int ARMS = 100;
+    private static final long OPEN_TIMEOUT_MS = 5000;
+
+    @Before
+    public void setUp() {
+        Application app = ApplicationProvider.getApplicationContext();
+        WorkManagerTestInitHelper.initializeTestWorkManager(app);
+        shadowOf(app).grantPermissions(Manifest.permission.RECORD_AUDIO);
+        // The activity holds the upload queue, nothing here is sent
+        MediaUploads.setTransport((item, callback) -> () -> { });
+    }
+
+    @After
+    public void tearDown() {
+        MediaUploads.reset();
+        MediaUploads.setTransport(null);
+    }
+
+    @Test
+    public void noRecorderOutlivesDisarmOrStop() throws InterruptedException {
+        int before = AudioRecordPcmSource.getLiveCount();
+        ActivityController<AudioRecordTest> controller = Robolectric.buildActivity(AudioRecordTest.class).setup();
+        ViewGroup content = controller.get().findViewById(android.R.id.content);
+        // Record, level, profile, arm, play
+        View arm = ((ViewGroup) content.getChildAt(0)).getChildAt(3);
+
+        for (int i = 0; i < ARMS; i++) {
+            arm.performClick();
+            if (i == 0) {
+                awaitOpen(before);
+            }
+            arm.performClick();
+            assertEquals("AudioRecord left after disarm", before, AudioRecordPcmSource.getLiveCount());
+        }
+        // Armed when the activity goes to the background
+        arm.performClick();
+        awaitOpen(before);
+        controller.pause().stop();
+        assertEquals("AudioRecord left after onStop", before, AudioRecordPcmSource.getLiveCount());
+        controller.destroy();
+    }
+
+    // The capture thread opens the recorder once it runs
+    private static void awaitOpen(int before) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + OPEN_TIMEOUT_MS;
+        while (AudioRecordPcmSource.getLiveCount() == before) {
+            assertTrue("Pre-roll never opened the microphone", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.Application;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.work.testing.WorkManagerTestInitHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowActivity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Soak of the capture to upload flow through MainActivity: photo and video results are
+ * delivered to onActivityResult as the camera app delivers them, against a stand-in Storage
+ * that injects latency and fails one attempt in ten. Halfway through the process "dies" with
+ * captures still in the camera app, and the activity is recreated from its saved state over
+ * the same journals, as on the next launch. Fails unless every capture reached Storage, no
+ * capture journal session was left open and no MediaPlayer outlived the activity.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class MainActivitySoakTest {
+
+    private static final int CAPTURES = 200;
+    private static final int VIDEO_EVERY = 10;
+    private static final double FAILURE_RATE = 0.1;
+    private static final long MEAN_LATENCY_MS = 20;
+    private static final int CAPTURE_BYTES = 64 * 1024;
+    private static final long SETTLE_TIMEOUT_MS = 60000;
+    // Far below what the queue manages, a stall or lost wake-up still fails it
+    private static final double MIN_CAPTURES_PER_SECOND = 5;
+    // The activities' preview caches included
+    private static final long MAX_RETAINED_HEAP_BYTES = 64 * 1024 * 1024;
+
+    private final Random random = new Random(42);
+    private Application app;
+    private ScheduledExecutorService network;
+    private StandInStorage storage;
+
+    @Before
+    public void setUp() {
+        app = ApplicationProvider.getApplicationContext();
+        WorkManagerTestInitHelper.initializeTestWorkManager(app);
+        shadowOf(app).grantPermissions(Manifest.permission.CAMERA);
+        // A camera app for the photo intent to resolve to
+        ResolveInfo camera = new ResolveInfo();
+        camera.activityInfo = new ActivityInfo();
+        camera.activityInfo.packageName = "com.example.camera";
+        camera.activityInfo.name = "com.example.camera.Capture";
+        shadowOf(app.getPackageManager()).addResolveInfoForIntent(new Intent(MediaStore.ACTION_IMAGE_CAPTURE), camera);
+
+        network = Executors.newScheduledThreadPool(4);
+        storage = new StandInStorage(network);
+        MediaUploads.setTransport(storage);
+    }
+
+    @After
+    public void tearDown() {
+        MediaUploads.reset();
+        MediaUploads.setTransport(null);
+        network.shutdownNow();
+    }
+
+    @Test
+    public void everyCaptureIsUploadedAcrossAProcessDeath() throws IOException, InterruptedException {
+        long heapBefore = usedHeap();
+        int playersBefore = PlayerPool.getLiveCount();
+        long startedAt = System.currentTimeMillis();
+        Set<String> made = new HashSet<>();
+
+        ActivityController<MainActivity> controller = launch(null);
+        int deathAt = CAPTURES / 2;
+        List<String> returned = new ArrayList<>();
+        for (int i = 0; i < deathAt; i++) {
+            returned.add(capture(controller.get(), i).toString());
+        }
+        made.addAll(returned);
+        // In the camera app when the process dies: one written, one never written, and the
+        // last one, whose result arrives in the next process
+        MainActivity dying = controller.get();
+        Uri written = output(startCamera(dying, false));
+        write(written);
+        made.add(written.toString());
+        startCamera(dying, false);
+        ShadowActivity.IntentForResult resumed = startCamera(dying, true);
+        // Each returned capture reached the queue, the kill then catches them anywhere from waiting to sent
+        awaitAttempted(returned);
+
+        Bundle saved = new Bundle();
+        controller.pause().stop().saveInstanceState(saved);
+        // A killed process runs no onDestroy; here it stands in for the OS taking its players and threads
+        controller.destroy();
+        MediaUploads.reset();
+
+        // Next launch: the queue resumes from its journal, orphans are found and sent
+        controller = launch(saved);
+        MainActivity activity = controller.get();
+        Uri resumedOutput = output(resumed);
+        write(resumedOutput);
+        made.add(resumedOutput.toString());
+        activity.onActivityResult(resumed.requestCode, Activity.RESULT_OK, null);
+        for (int i = deathAt; i < CAPTURES; i++) {
+            made.add(capture(activity, i).toString());
+        }
+        awaitUploaded(made);
+        double seconds = (System.currentTimeMillis() - startedAt) / 1000.0;
+        controller.pause().stop().destroy();
+
+        for (String source : made) {
+            assertTrue("Never uploaded: " + source, storage.stored.contains(source));
+        }
+        assertTrue("No failures injected", storage.failures.get() > 0);
+        assertEquals("Capture journal sessions left open", 0, MediaUploads.getCaptures(app).getLiveCount());
+        assertEquals("MediaPlayers left after the activity", playersBefore, PlayerPool.getLiveCount());
+        assertTrue(String.format("%.1f captures/s", made.size() / seconds),
+                made.size() / seconds >= MIN_CAPTURES_PER_SECOND);
+        long retained = usedHeap() - heapBefore;
+        assertTrue("Heap still held after the soak: " + retained / 1024 + " KB", retained < MAX_RETAINED_HEAP_BYTES);
+    }
+
+    private ActivityController<MainActivity> launch(Bundle saved) {
+        ActivityController<MainActivity> controller = Robolectric.buildActivity(MainActivity.class);
+        if (saved == null) {
+            controller.setup();
+        } else {
+            controller.setup(saved);
+        }
+        // Robolectric has no network or battery to speak of, let every media type go
+        MediaUploads.get(app).updateConditions(DeviceConditions.UNRESTRICTED);
+        return controller;
+    }
+
+    // The camera app writing the capture and returning it
+    private Uri capture(MainActivity activity, int index) throws IOException {
+        ShadowActivity.IntentForResult started = startCamera(activity, index % VIDEO_EVERY == VIDEO_EVERY - 1);
+        Uri output = output(started);
+        write(output);
+        shadowOf(activity).receiveResult(started.intent, Activity.RESULT_OK, null);
+        return output;
+    }
+
+    private static ShadowActivity.IntentForResult startCamera(MainActivity activity, boolean video) {
+        if (video) {
+            activity.onRecordVideoClick(null);
+        } else {
+            activity.onTakePhotoClick(null);
+        }
+        ShadowActivity.IntentForResult started = shadowOf(activity).getNextStartedActivityForResult();
+        assertNotNull("Camera app not started", started);
+        return started;
+    }
+
+    private static Uri output(ShadowActivity.IntentForResult started) {
+        Uri output = started.intent.getParcelableExtra(MediaStore.EXTRA_OUTPUT, Uri.class);
+        assertNotNull(output);
+        return output;
+    }
+
+    // Through the FileProvider grant, as the camera app writes it
+    private void write(Uri output) throws IOException {
+        byte[] content = new byte[CAPTURE_BYTES];
+        random.nextBytes(content);
+        try (OutputStream out = app.getContentResolver().openOutputStream(output)) {
+            assertNotNull(out);
+            out.write(content);
+        }
+    }
+
+    private void awaitAttempted(List<String> sources) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+        while (!storage.attempted.containsAll(sources)) {
+            shadowOf(Looper.getMainLooper()).idle();
+            assertTrue("Captures never reached the queue", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitUploaded(Set<String> sources) throws InterruptedException {
+        UploadQueue queue = MediaUploads.get(app);
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+        while (!storage.stored.containsAll(sources) || queue.getDepth() > 0) {
+            shadowOf(Looper.getMainLooper()).idle();
+            assertTrue(queue.getDepth() + " uploads still pending", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        // Outcomes are heard on the dispatcher, one more round trip to see them all
+        final CountDownLatch drained = new CountDownLatch(1);
+        queue.withPending(pending -> drained.countDown());
+        assertTrue(drained.await(SETTLE_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Remembers the source of every upload that succeeded, after a random delay; a tenth of
+     * attempts fail instead. Outlives both processes, as Storage does.
+     */
+    private final class StandInStorage implements UploadTransport {
+        final Set<String> attempted = ConcurrentHashMap.newKeySet();
+        final Set<String> stored = ConcurrentHashMap.newKeySet();
+        final AtomicLong failures = new AtomicLong();
+        private final Random random = new Random(7);
+        private final ScheduledExecutorService network;
+
+        StandInStorage(ScheduledExecutorService network) {
+            this.network = network;
+        }
+
+        @Override
+        public Handle start(final UploadItem item, final Callback callback) {
+            attempted.add(item.getSource());
+            long delayMs = (long) (-MEAN_LATENCY_MS * Math.log(1 - nextDouble()));
+            final boolean fail = nextDouble() < FAILURE_RATE;
+            final ScheduledFuture<?> done = network.schedule(() -> {
+                if (fail) {
+                    failures.incrementAndGet();
+                    callback.onFailure(new IOException("Injected failure"));
+                    return;
+                }
+                long bytes;
+                try (ParcelFileDescriptor file = app.getContentResolver()
+                        .openFileDescriptor(Uri.parse(item.getSource()), "r")) {
+                    bytes = file == null ? 0 : file.getStatSize();
+                } catch (IOException e) {
+                    callback.onFailure(e);
+                    return;
+                }
+                if (bytes == 0) {
+                    callback.onFailure(new IOException("Empty upload " + item.getSource()));
+                    return;
+                }
+                callback.onProgress(bytes, bytes);
+                stored.add(item.getSource());
+                callback.onSuccess();
+            }, delayMs, TimeUnit.MILLISECONDS);
+            return () -> done.cancel(false);
+        }
+
+        private synchronized double nextDouble() {
+            return random.nextDouble();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowMediaPlayer;
+import org.robolectric.shadows.util.DataSource;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Hundreds of previews played back to back, some of them unreadable, on one MediaPlayback:
+ * the pool may keep idle players, but none may outlive release().
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class MediaPlaybackTest {
+
+    private static final int PLAYS = 300;
+    private static final int IDLE_PLAYERS = 2;
+
+    private Context context;
+    private final Uri[] clips = {Uri.parse("content://media/external/video/media/1"),
+            Uri.parse("content://media/external/video/media/2"), Uri.parse("content://media/external/video/media/3")};
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        ShadowMediaPlayer.addMediaInfo(DataSource.toDataSource(context, clips[0]), new ShadowMediaPlayer.MediaInfo(1000, 0));
+        ShadowMediaPlayer.addMediaInfo(DataSource.toDataSource(context, clips[1]), new ShadowMediaPlayer.MediaInfo(500, 0));
+        ShadowMediaPlayer.addException(DataSource.toDataSource(context, clips[2]), new IOException("Unreadable"));
+    }
+
+    @Test
+    public void noPlayerOutlivesRelease() {
+        int before = PlayerPool.getLiveCount();
+        Counting listener = new Counting();
+        MediaPlayback playback = new MediaPlayback(context, new PlayerPool(IDLE_PLAYERS));
+
+        for (int i = 0; i < PLAYS; i++) {
+            playback.play(clips[i % clips.length], null, listener);
+            if (i % 2 == 0) {
+                // Prepared and playing before the next one replaces it
+                shadowOf(Looper.getMainLooper()).idle();
+            }
+            if (i % 5 == 0) {
+                playback.stop();
+            }
+            // One playing and the idle ones, never more
+            assertTrue(PlayerPool.getLiveCount() - before <= IDLE_PLAYERS + 1);
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+        playback.release();
+
+        assertTrue("Nothing started", listener.started.get() > 0);
+        assertEquals(PLAYS / clips.length, listener.errors.get());
+        assertEquals("MediaPlayers left after release", before, PlayerPool.getLiveCount());
+    }
+
+    private static final class Counting implements MediaPlayback.Listener {
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+
+        @Override
+        public void onStarted(long startupMillis) {
+            started.incrementAndGet();
+        }
+
+        @Override
+        public void onVideoSize(int width, int height) {
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(String message) {
+            errors.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wall-clock time to upload a 100-photo multi-select through the queue, against a local
+ * stand-in for Storage rather than the network.
+ *
+ * The stand-in charges a round trip per upload, caps each connection's bandwidth and shares
+ * one link between all of them. Past the point where the link is full, every extra connection
+ * costs some throughput, as retransmits and queueing do on a real uplink. "2" is the queue's
+ * old fixed limit, "16" a fixed limit well past the link, "adaptive" the AIMD limit the app
+ * now uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BatchUploadBenchmark {
+
+    private static final int ITEMS = 100;
+    private static final long ITEM_BYTES = 512 * 1024;
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final long ROUND_TRIP_MS = 40;
+    private static final double CONNECTION_BYTES_PER_SEC = 2e6;
+    private static final double LINK_BYTES_PER_SEC = 12e6;
+    // Share of throughput lost per connection beyond what fills the link
+    private static final double CONGESTION_LOSS = 0.06;
+
+    @Param({"2", "16", "adaptive"})
+    public String limit;
+
+    private File journalFile;
+    private ScheduledExecutorService dispatcher;
+    private ExecutorService stageExecutor;
+    private ScheduledExecutorService network;
+    private UploadQueue queue;
+    private long run;
+
+    @Setup(Level.Invocation)
+    public void open() throws IOException {
+        journalFile = File.createTempFile("batch-bench", ".log");
+        dispatcher = Executors.newSingleThreadScheduledExecutor();
+        stageExecutor = Executors.newSingleThreadExecutor();
+        network = Executors.newScheduledThreadPool(4);
+        queue = new UploadQueue(new UploadJournal(journalFile), new SimulatedStorage(network), dispatcher,
+                stageExecutor, 2, 2, 3, 100, 1000);
+        if ("adaptive".equals(limit)) {
+            queue.setConcurrencyLimit(new AdaptiveConcurrencyLimit(2, 1, 16));
+        } else {
+            queue.setConcurrencyLimit(AdaptiveConcurrencyLimit.fixed(Integer.parseInt(limit)));
+        }
+        queue.start();
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        queue.shutdown();
+        network.shutdownNow();
+        journalFile.delete();
+    }
+
+    @Benchmark
+    public UploadBatch.Progress uploadBatch() throws InterruptedException {
+        long n = run++;
+        List<UploadItem> items = new ArrayList<>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            items.add(UploadItem.forFile("content://media/picker/0/" + n + "/" + i,
+                    "Sydney/images/IMG_" + n + "_" + i + ".jpg"));
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        UploadBatch batch = new UploadBatch(items, finished -> done.countDown());
+        queue.addListener(batch);
+        for (UploadItem item : items) {
+            queue.enqueue(item);
+        }
+        done.await();
+        return batch.getProgress();
+    }
+
+    /**
+     * Sends {@link #ITEM_BYTES} per upload in chunks, each paced at the rate the connection
+     * would get with the connections active right then.
+     */
+    static final class SimulatedStorage implements UploadTransport {
+
+        private final ScheduledExecutorService network;
+        private final AtomicInteger active = new AtomicInteger();
+
+        SimulatedStorage(ScheduledExecutorService network) {
+            this.network = network;
+        }
+
+        @Override
+        public Handle start(UploadItem item, final Callback callback) {
+            active.incrementAndGet();
+            final long[] sent = {0};
+            final Runnable[] chunk = new Runnable[1];
+            chunk[0] = () -> {
+                if (sent[0] == ITEM_BYTES) {
+                    active.decrementAndGet();
+                    callback.onSuccess();
+                    return;
+                }
+                long bytes = Math.min(CHUNK_BYTES, ITEM_BYTES - sent[0]);
+                sent[0] += bytes;
+                callback.onProgress(sent[0], ITEM_BYTES);
+                network.schedule(chunk[0], (long) (bytes * 1e9 / rate(active.get())), TimeUnit.NANOSECONDS);
+            };
+            network.schedule(chunk[0], ROUND_TRIP_MS, TimeUnit.MILLISECONDS);
+            return () -> { };
+        }
+
+        private static double rate(int connections) {
+            double knee = LINK_BYTES_PER_SEC / CONNECTION_BYTES_PER_SEC;
+            double efficiency = Math.max(0.3, 1 - CONGESTION_LOSS * Math.max(0, connections - knee));
+            return Math.min(CONNECTION_BYTES_PER_SEC, LINK_BYTES_PER_SEC / connections) * efficiency;
+        }
+    }
+}
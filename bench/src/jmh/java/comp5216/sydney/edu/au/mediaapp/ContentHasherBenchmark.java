@@ -0,0 +1,62 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SHA-256 of a media-sized file through {@link ContentHasher}, as the dedup stage does it.
+ * The file is in the page cache after the first iteration, so this is hashing cost rather
+ * than disk speed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContentHasherBenchmark {
+
+    @Param({"1048576", "16777216"})
+    public int fileBytes;
+
+    private File file;
+    private final ContentHasher hasher = new ContentHasher();
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        file = File.createTempFile("hash-bench", ".bin");
+        byte[] block = new byte[64 * 1024];
+        new Random(42).nextBytes(block);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (int written = 0; written < fileBytes; written += block.length) {
+                out.write(block, 0, Math.min(block.length, fileBytes - written));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String sha256() throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+             FileChannel channel = in.getChannel()) {
+            return hasher.sha256(channel);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sample size and decoded-size arithmetic for a spread of camera resolutions against the
+ * preview and thumbnail targets, the work done per image before any decode starts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DownsampleMathBenchmark {
+
+    private static final int[][] SOURCES = {
+            {640, 480}, {1920, 1080}, {3024, 4032}, {4000, 3000}, {8160, 6120}, {12000, 9000},
+    };
+    private static final int[][] TARGETS = {{1024, 1024}, {512, 512}, {2048, 2048}};
+
+    @Benchmark
+    public void sampleSizes(Blackhole blackhole) {
+        for (int[] source : SOURCES) {
+            for (int[] target : TARGETS) {
+                int sample = DownsampleMath.calculateInSampleSize(source[0], source[1], target[0], target[1]);
+                blackhole.consume(DownsampleMath.decodedByteCount(source[0], source[1], sample, 4));
+            }
+        }
+    }
+}
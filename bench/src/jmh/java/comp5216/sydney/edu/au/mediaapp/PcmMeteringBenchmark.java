@@ -0,0 +1,100 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Level metering and silence trimming over ten seconds of speech-like PCM: a second of room
+ * noise, two bursts of modulated tone with a short pause between them, and trailing noise.
+ * Returns the bytes that reached the encoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PcmMeteringBenchmark {
+
+    private static final int SECONDS = 10;
+
+    @Param({"false", "true"})
+    public boolean trim;
+
+    private final RecordingConfig config = RecordingConfig.defaults();
+    private ByteBuffer fixture;
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void createFixture() {
+        int rate = config.getSampleRate();
+        fixture = ByteBuffer.allocateDirect(rate * SECONDS * config.getFrameSize()).order(ByteOrder.LITTLE_ENDIAN);
+        Random noise = new Random(7);
+        for (int i = 0; i < rate * SECONDS; i++) {
+            double t = (double) i / rate;
+            // voice from 1-4 s and 4.3-7 s, silence around it
+            boolean voice = (t >= 1 && t < 4) || (t >= 4.3 && t < 7);
+            double sample = noise.nextGaussian() * 30;
+            if (voice) {
+                sample += Math.sin(2 * Math.PI * 180 * t) * (0.5 + 0.5 * Math.sin(2 * Math.PI * 4 * t)) * 8000;
+            }
+            fixture.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample)));
+        }
+        buffer = ByteBuffer.allocateDirect(config.getBufferSize()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Benchmark
+    public long meterAndTrim() throws IOException {
+        CountingEncoder sink = new CountingEncoder();
+        SilenceTrimmer trimmer = trim ? new SilenceTrimmer(sink, config) : null;
+        PcmEncoder encoder = new LevelMeter(trim ? trimmer : sink, null, 50000);
+        encoder.start();
+        long frames = 0;
+        fixture.clear();
+        while (fixture.hasRemaining()) {
+            int n = Math.min(buffer.capacity(), fixture.remaining());
+            ByteBuffer slice = fixture.duplicate();
+            slice.limit(slice.position() + n);
+            buffer.clear();
+            buffer.put(slice);
+            buffer.flip();
+            fixture.position(fixture.position() + n);
+            encoder.encode(buffer, config.framesToUs(frames));
+            frames += n / config.getFrameSize();
+        }
+        encoder.finish();
+        return sink.bytes;
+    }
+
+    static final class CountingEncoder implements PcmEncoder {
+        long bytes;
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void encode(ByteBuffer pcm, long presentationTimeUs) {
+            bytes += pcm.remaining();
+            pcm.position(pcm.limit());
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
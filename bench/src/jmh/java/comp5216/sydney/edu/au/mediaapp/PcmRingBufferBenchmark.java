@@ -0,0 +1,68 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ten seconds of 44.1 kHz mono PCM handed from a capture thread to an encoder thread through
+ * the {@link PcmRingBuffer}, in the engine's 20 ms buffers, after two seconds of pre-roll were
+ * written with nobody reading. The writer retries a full ring rather than dropping, so every
+ * byte crosses; this is the cost of the hand-off itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PcmRingBufferBenchmark {
+
+    private static final int SECONDS = 10;
+    private static final int PRE_ROLL_SECONDS = 2;
+
+    private final RecordingConfig config = RecordingConfig.defaults();
+    private final int secondBytes = config.getSampleRate() * config.getFrameSize();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(config.getBufferSize())
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    @Benchmark
+    public long handOff() throws InterruptedException {
+        final PcmRingBuffer ring = new PcmRingBuffer(secondBytes * (PRE_ROLL_SECONDS + 1),
+                secondBytes * PRE_ROLL_SECONDS);
+        final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(config.getBufferSize())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (long written = 0; written < (long) secondBytes * PRE_ROLL_SECONDS; written += writeBuffer.capacity()) {
+            writeBuffer.clear();
+            ring.write(writeBuffer);
+        }
+        ring.attach();
+        Thread capture = new Thread(() -> {
+            for (long written = 0; written < (long) secondBytes * SECONDS; written += writeBuffer.capacity()) {
+                writeBuffer.clear();
+                while (ring.write(writeBuffer) == 0) {
+                    Thread.yield();
+                }
+            }
+            ring.close();
+        });
+        capture.start();
+        long read = 0;
+        long checksum = 0;
+        int n;
+        while ((n = ring.read(readBuffer, TimeUnit.MILLISECONDS.toNanos(20))) >= 0) {
+            readBuffer.flip();
+            if (readBuffer.hasRemaining()) {
+                checksum += readBuffer.get(0);
+            }
+            readBuffer.clear();
+            read += n;
+        }
+        capture.join();
+        return read + checksum;
+    }
+}
@@ -0,0 +1,193 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One minute of a speech-like PCM fixture per profile, through {@link AdaptiveBitrate} and
+ * {@link EncodeMeter} into a stand-in constant-bitrate codec that writes exactly what its
+ * current bitrate allows. With "adaptive", the upload backlog climbs from empty to 150 items
+ * over the minute, as it does with the queue stalled on a dead network.
+ *
+ * The counters give the recordings made and the bytes written; each recording is one minute,
+ * so bytes / recordings is the file size per minute. The stand-in codec costs next to nothing,
+ * so the time measured is what metering and adaptation add on top of a codec. A device's codec
+ * CPU is not measured anywhere: it encodes in the media.swcodec process, see {@link RecordingStats}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecordingProfileBenchmark {
+
+    private static final int SECONDS = 60;
+    private static final int BACKLOG_AT_END = 150;
+
+    @Param({"VOICE_LOW", "VOICE_HIGH", "MUSIC"})
+    public RecordingProfile profile;
+
+    @Param({"false", "true"})
+    public boolean adaptive;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final RecordingStats stats = new RecordingStats();
+    private RecordingConfig config;
+    private ByteBuffer fixture;
+    private File output;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Output {
+        public long recordings;
+        public long outputBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            recordings = outputBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createFixture() throws IOException {
+        config = profile.toConfig();
+        fixture = speech(config, SECONDS);
+        output = File.createTempFile("recording-bench", "." + profile.getCodec().getExtension());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteOutput() {
+        output.delete();
+    }
+
+    @Benchmark
+    public long record(Output counters) throws IOException {
+        final long totalUs = SECONDS * 1000000L;
+        final long[] clockUs = new long[1];
+        PcmEncoder encoder = new EncodeMeter(new CbrEncoder(config, output), profile, config, output, stats,
+                threads::getCurrentThreadCpuTime);
+        if (adaptive) {
+            encoder = new AdaptiveBitrate(encoder, profile, new AdaptiveBitrate.Conditions() {
+                @Override
+                public int getUploadBacklog() {
+                    return (int) (BACKLOG_AT_END * clockUs[0] / totalUs);
+                }
+
+                @Override
+                public long getFreeStorageBytes() {
+                    return Long.MAX_VALUE;
+                }
+            });
+        }
+        encoder.start();
+        ByteBuffer pcm = fixture.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long frames = 0;
+        for (int position = 0; position < fixture.capacity(); position += config.getBufferSize()) {
+            pcm.limit(Math.min(fixture.capacity(), position + config.getBufferSize())).position(position);
+            clockUs[0] = config.framesToUs(frames);
+            frames += pcm.remaining() / config.getFrameSize();
+            encoder.encode(pcm, clockUs[0]);
+        }
+        encoder.finish();
+        encoder.release();
+        counters.recordings++;
+        counters.outputBytes += output.length();
+        return output.length();
+    }
+
+    // Voiced syllables on a 140 Hz fundamental with a few harmonics, four a second, with gaps
+    private static ByteBuffer speech(RecordingConfig config, int seconds) {
+        int frames = config.getSampleRate() * seconds;
+        ByteBuffer pcm = ByteBuffer.allocateDirect(frames * config.getFrameSize()).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            double t = (double) i / config.getSampleRate();
+            double syllable = Math.max(0, Math.sin(2 * Math.PI * 4 * t));
+            double pause = (t % 3) < 2.4 ? 1 : 0;
+            double voice = 0;
+            for (int h = 1; h <= 5; h++) {
+                voice += Math.sin(2 * Math.PI * 140 * h * t) / h;
+            }
+            short sample = (short) (voice * syllable * pause * Short.MAX_VALUE * 0.25);
+            for (int c = 0; c < config.getChannelCount(); c++) {
+                pcm.putShort(sample);
+            }
+        }
+        pcm.flip();
+        return pcm;
+    }
+
+    // Writes bitRate / 8 bytes per second of audio it is given, derived from the samples
+    static final class CbrEncoder implements PcmEncoder {
+        private final RecordingConfig config;
+        private final File file;
+        private final ByteBuffer packet = ByteBuffer.allocateDirect(64 * 1024);
+        private FileChannel channel;
+        private int bitRate;
+        private double owedBytes;
+
+        CbrEncoder(RecordingConfig config, File file) {
+            this.config = config;
+            this.file = file;
+            this.bitRate = config.getBitRate();
+        }
+
+        @Override
+        public void start() throws IOException {
+            RandomAccessFile out = new RandomAccessFile(file, "rw");
+            out.setLength(0);
+            channel = out.getChannel();
+        }
+
+        @Override
+        public void encode(ByteBuffer pcm, long presentationTimeUs) throws IOException {
+            long frames = pcm.remaining() / config.getFrameSize();
+            long sum = 0;
+            while (pcm.remaining() >= 2) {
+                sum += pcm.getShort();
+            }
+            owedBytes += bitRate / 8.0 * frames / config.getSampleRate();
+            int bytes = (int) owedBytes;
+            owedBytes -= bytes;
+            packet.clear();
+            while (packet.position() < bytes) {
+                packet.put((byte) (sum + packet.position()));
+            }
+            packet.flip();
+            while (packet.hasRemaining()) {
+                channel.write(packet);
+            }
+        }
+
+        @Override
+        public boolean setBitRate(int bitRate) {
+            this.bitRate = bitRate;
+            return true;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cost of recording into the shared telemetry registry from four threads at once, the way the
+ * upload callbacks, preview decoder and geocoder do. Values span 1 ms to about 30 s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class TelemetryBenchmark {
+
+    private Histogram histogram;
+    private LongAdder counter;
+
+    @Setup
+    public void createRegistry() {
+        Telemetry telemetry = new Telemetry(0);
+        histogram = telemetry.histogram("upload.transfer_ms");
+        counter = telemetry.counter("upload.succeeded");
+    }
+
+    @Benchmark
+    public void recordHistogram() {
+        histogram.record(1L << ThreadLocalRandom.current().nextInt(15));
+    }
+
+    @Benchmark
+    public void incrementCounter() {
+        counter.increment();
+    }
+}
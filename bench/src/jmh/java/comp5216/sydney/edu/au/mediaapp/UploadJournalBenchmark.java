@@ -0,0 +1,54 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal cost of one upload's life: the PUT when it is enqueued, the PUT recording its
+ * resumable session, and the DEL once it is done. Compaction kicks in periodically as it
+ * would on a device, so it is part of the average.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UploadJournalBenchmark {
+
+    private File file;
+    private UploadJournal journal;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        file = File.createTempFile("journal-bench", ".log");
+        journal = new UploadJournal(file);
+        journal.load();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        journal.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public void enqueueAndComplete() throws IOException {
+        long n = counter++;
+        UploadItem item = UploadItem.forFile("content://media/external/images/media/" + n,
+                "Sydney/images/IMG_" + n + ".jpg");
+        journal.put(item);
+        item.setSessionUri("https://firebasestorage.googleapis.com/upload/session/" + n);
+        journal.put(item);
+        journal.remove(item.getId());
+    }
+}
@@ -0,0 +1,154 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+
+/**
+ * {@link PcmEncoder} decorator that takes a {@link RecordingProfile}'s bitrate down while the
+ * device is short of room for what it records: uploads backing up, or storage running out.
+ *
+ * Every {@code checkIntervalUs} of audio the {@link Conditions} are read and one of three steps
+ * is picked: the profile's bitrate, halfway to its minimum, or the minimum. A step taken for the
+ * backlog is only given back once the backlog has drained to half of what caused it, so a queue
+ * sitting on a threshold does not toggle the codec. Runs on the recording thread.
+ *
+ * The first step is picked before the delegate starts, so even an encoder that cannot change
+ * its bitrate while running, such as MediaCodec's audio encoders, starts each recording at the
+ * step the device calls for. Once the delegate refuses a change, checking stops for the rest of
+ * the recording and {@link #getBitRate()} stays at what was applied.
+ */
+public class AdaptiveBitrate implements PcmEncoder {
+
+    public interface Conditions {
+        // Uploads not finished yet
+        int getUploadBacklog();
+
+        // Free space where recordings are written
+        long getFreeStorageBytes();
+    }
+
+    public static final int DEFAULT_BACKLOG_HIGH = 20;
+    public static final int DEFAULT_BACKLOG_CRITICAL = 100;
+    public static final long DEFAULT_STORAGE_LOW_BYTES = 1024L * 1024 * 1024;
+    public static final long DEFAULT_STORAGE_CRITICAL_BYTES = 256L * 1024 * 1024;
+    public static final long DEFAULT_CHECK_INTERVAL_US = 5000000;
+
+    private static final Logger LOG = Logger.getLogger("AdaptiveBitrate");
+    private static final int FULL = 0;
+    private static final int REDUCED = 1;
+    private static final int MINIMUM = 2;
+
+    private final PcmEncoder delegate;
+    private final RecordingProfile profile;
+    private final Conditions conditions;
+    private final int backlogHigh;
+    private final int backlogCritical;
+    private final long storageLowBytes;
+    private final long storageCriticalBytes;
+    private final long checkIntervalUs;
+
+    private int backlogLevel = FULL;
+    private int bitRate;
+    private int switches;
+    private boolean adjustable = true;
+    private long lastCheckUs;
+
+    public AdaptiveBitrate(PcmEncoder delegate, RecordingProfile profile, Conditions conditions,
+                           int backlogHigh, int backlogCritical, long storageLowBytes, long storageCriticalBytes,
+                           long checkIntervalUs) {
+        this.delegate = delegate;
+        this.profile = profile;
+        this.conditions = conditions;
+        this.backlogHigh = backlogHigh;
+        this.backlogCritical = backlogCritical;
+        this.storageLowBytes = storageLowBytes;
+        this.storageCriticalBytes = storageCriticalBytes;
+        this.checkIntervalUs = checkIntervalUs;
+        this.bitRate = profile.getBitRate();
+    }
+
+    public AdaptiveBitrate(PcmEncoder delegate, RecordingProfile profile, Conditions conditions) {
+        this(delegate, profile, conditions, DEFAULT_BACKLOG_HIGH, DEFAULT_BACKLOG_CRITICAL,
+                DEFAULT_STORAGE_LOW_BYTES, DEFAULT_STORAGE_CRITICAL_BYTES, DEFAULT_CHECK_INTERVAL_US);
+    }
+
+    @Override
+    public void start() throws IOException {
+        // Before the codec is configured, so it starts at the step picked here
+        lastCheckUs = 0;
+        check();
+        delegate.start();
+    }
+
+    @Override
+    public void encode(ByteBuffer pcm, long presentationTimeUs) throws IOException {
+        if (adjustable && presentationTimeUs - lastCheckUs >= checkIntervalUs) {
+            lastCheckUs = presentationTimeUs;
+            check();
+        }
+        delegate.encode(pcm, presentationTimeUs);
+    }
+
+    @Override
+    public boolean setBitRate(int bitRate) {
+        return delegate.setBitRate(bitRate);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        delegate.finish();
+    }
+
+    @Override
+    public void release() {
+        delegate.release();
+    }
+
+    // The target the encoder was last set to
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    public int getSwitches() {
+        return switches;
+    }
+
+    private void check() {
+        int target = bitRateFor(levelFor(conditions.getUploadBacklog(), conditions.getFreeStorageBytes()));
+        if (target == bitRate) {
+            return;
+        }
+        if (delegate.setBitRate(target)) {
+            bitRate = target;
+            switches++;
+        } else {
+            adjustable = false;
+            LOG.info("Encoder cannot change bitrate, staying at " + bitRate);
+        }
+    }
+
+    private int levelFor(int backlog, long freeBytes) {
+        int byBacklog = backlog >= backlogCritical ? MINIMUM : backlog >= backlogHigh ? REDUCED : FULL;
+        if (byBacklog < backlogLevel) {
+            int release = (backlogLevel == MINIMUM ? backlogCritical : backlogHigh) / 2;
+            if (backlog > release) {
+                byBacklog = backlogLevel;
+            }
+        }
+        backlogLevel = byBacklog;
+        int byStorage = freeBytes < storageCriticalBytes ? MINIMUM : freeBytes < storageLowBytes ? REDUCED : FULL;
+        return Math.max(byBacklog, byStorage);
+    }
+
+    private int bitRateFor(int level) {
+        switch (level) {
+            case MINIMUM:
+                return profile.getMinBitRate();
+            case REDUCED:
+                return (profile.getBitRate() + profile.getMinBitRate()) / 2;
+            default:
+                return profile.getBitRate();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+/**
+ * How many uploads may run at once, adjusted additive-increase / multiplicative-decrease on
+ * measured throughput.
+ *
+ * Completions are grouped into windows of as many uploads as the limit currently allows.
+ * When a window's aggregate throughput (bytes over its wall time) keeps up with the best seen,
+ * one more slot is opened; when it falls clearly below, the extra connections were only
+ * queueing behind each other and the limit is cut by a quarter. A failed upload halves it.
+ * With min == max the limit is fixed. Not thread-safe, the queue calls it from its dispatcher.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private static final double KEEP_UP = 0.9;
+    private static final double BACK_OFF = 0.75;
+
+    private final int min;
+    private final int max;
+    private int limit;
+
+    private long windowStartNanos;
+    private long windowBytes;
+    private int windowCompletions;
+    private double bestBytesPerNano;
+
+    public AdaptiveConcurrencyLimit(int initial, int min, int max) {
+        if (min <= 0 || max < min || initial < min || initial > max) {
+            throw new IllegalArgumentException("Invalid limit " + initial + " in [" + min + ", " + max + "]");
+        }
+        this.min = min;
+        this.max = max;
+        this.limit = initial;
+    }
+
+    public static AdaptiveConcurrencyLimit fixed(int limit) {
+        return new AdaptiveConcurrencyLimit(limit, limit, limit);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    // wasIdle: nothing was in flight, so time before this does not belong to any window
+    public void onStarted(long nowNanos, boolean wasIdle) {
+        if (wasIdle) {
+            resetWindow(nowNanos);
+        }
+    }
+
+    public void onCompleted(long bytes, long nowNanos) {
+        windowBytes += bytes;
+        if (++windowCompletions < limit) {
+            return;
+        }
+        long elapsed = nowNanos - windowStartNanos;
+        if (elapsed > 0 && windowBytes > 0) {
+            double throughput = (double) windowBytes / elapsed;
+            if (throughput >= bestBytesPerNano * KEEP_UP) {
+                limit = Math.min(max, limit + 1);
+                bestBytesPerNano = Math.max(bestBytesPerNano, throughput);
+            } else {
+                limit = Math.max(min, (int) (limit * BACK_OFF));
+                // The link may simply have got slower, measure against what it does now
+                bestBytesPerNano = throughput;
+            }
+        }
+        resetWindow(nowNanos);
+    }
+
+    public void onFailed(long nowNanos) {
+        limit = Math.max(min, limit / 2);
+        resetWindow(nowNanos);
+    }
+
+    private void resetWindow(long nowNanos) {
+        windowStartNanos = nowNanos;
+        windowBytes = 0;
+        windowCompletions = 0;
+    }
+}
@@ -0,0 +1,38 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+
+/**
+ * Merges reports and passes one on to {@code delegate} every {@code reportsPerBatch} of them,
+ * for sinks that are too expensive or too rate-limited to hear about every flush.
+ */
+public class BatchingSink implements Telemetry.Sink {
+
+    private final Telemetry.Sink delegate;
+    private final int reportsPerBatch;
+    private TelemetryReport pending;
+    private int merged;
+
+    public BatchingSink(Telemetry.Sink delegate, int reportsPerBatch) {
+        this.delegate = delegate;
+        this.reportsPerBatch = reportsPerBatch;
+    }
+
+    @Override
+    public synchronized void publish(TelemetryReport report) throws IOException {
+        pending = pending == null ? report : pending.merge(report);
+        if (++merged >= reportsPerBatch) {
+            drain();
+        }
+    }
+
+    // Passes on whatever has been merged so far, e.g. before the process goes away
+    public synchronized void drain() throws IOException {
+        TelemetryReport batch = pending;
+        pending = null;
+        merged = 0;
+        if (batch != null && !batch.isIdle()) {
+            delegate.publish(batch);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+
+/**
+ * Random access to remote bytes, one range per call, for the {@link ReadAheadCache}.
+ */
+public interface BlockFetcher {
+
+    long size() throws IOException;
+
+    // Fills into[0, length) with the bytes starting at offset, or throws
+    void fetch(long offset, byte[] into, int length) throws IOException;
+}
@@ -0,0 +1,325 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only journal of the captures handed to the camera app, so one whose result never
+ * comes back, because the process was killed while the camera was in front, can still be found
+ * and uploaded.
+ *
+ * A session is written as a "START" line with its type and file before the intent is fired,
+ * then "RETURN" when the camera app gives it back, "QUEUE" with its Storage path once the
+ * upload queue has journaled it and "END" when it is uploaded, given up or discarded. Lines go
+ * to the OS as they are written, which is all a killed process needs; the fsync that protects
+ * them from power loss is shared by everything written within {@code syncDelayMillis}.
+ *
+ * Sessions read back by {@link #load()} that had not returned are handed out once by
+ * {@link #takeOrphans}; whether their file was written is for the caller to check. The file is
+ * rewritten with just the open sessions once it grows well past them. A journal that cannot be
+ * written only costs recovery, so writes log instead of throwing. Thread-safe.
+ */
+public class CaptureJournal implements UploadQueue.Listener {
+
+    private static final Logger LOG = Logger.getLogger("CaptureJournal");
+    private static final String START = "START";
+    private static final String RETURN = "RETURN";
+    private static final String QUEUE = "QUEUE";
+    private static final String END = "END";
+    private static final int COMPACT_MIN_LINES = 64;
+
+    private enum State { STARTED, RETURNED, QUEUED }
+
+    private static class Entry {
+        final CaptureSession session;
+        State state = State.STARTED;
+        String remotePath;
+        boolean replayed;  // read back from disk and not touched since
+
+        Entry(CaptureSession session) {
+            this.session = session;
+        }
+    }
+
+    private final File file;
+    private final ScheduledExecutorService syncer;
+    private final long syncDelayMillis;
+    private final Map<String, Entry> live = new LinkedHashMap<>();
+    private FileOutputStream out;
+    private Writer writer;
+    private int lines;
+    private boolean syncScheduled;
+
+    public CaptureJournal(File file, ScheduledExecutorService syncer, long syncDelayMillis) {
+        this.file = file;
+        this.syncer = syncer;
+        this.syncDelayMillis = syncDelayMillis;
+    }
+
+    // Replays the journal from disk; every session still open is from an earlier process
+    public synchronized void load() throws IOException {
+        live.clear();
+        lines = 0;
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    apply(line);
+                }
+            }
+        }
+        for (Entry entry : live.values()) {
+            entry.replayed = true;
+        }
+        compactIfNeeded();
+    }
+
+    // Written before the camera app is started, the file is fixed from here on
+    public synchronized void started(CaptureSession session) {
+        live.put(session.getId(), new Entry(session));
+        append(formatStart(session));
+    }
+
+    public synchronized void returned(String id) {
+        Entry entry = live.get(id);
+        if (entry != null && entry.state == State.STARTED) {
+            entry.state = State.RETURNED;
+            entry.replayed = false;
+            append(RETURN + "\t" + escape(id));
+        }
+    }
+
+    // Call once the upload queue holds the item, the session is then closed by its outcome
+    public synchronized void queued(String id, String remotePath) {
+        Entry entry = live.get(id);
+        if (entry != null) {
+            entry.state = State.QUEUED;
+            entry.remotePath = remotePath;
+            entry.replayed = false;
+            append(QUEUE + "\t" + escape(id) + "\t" + escape(remotePath));
+        }
+    }
+
+    // Uploaded, discarded or handed over to something that tracks it itself
+    public synchronized void finished(String id) {
+        if (live.remove(id) != null) {
+            append(END + "\t" + escape(id));
+            compactIfNeeded();
+        }
+    }
+
+    // Sessions not finished yet, of this process and replayed ones
+    public synchronized int getLiveCount() {
+        return live.size();
+    }
+
+    public synchronized CaptureSession find(String id) {
+        Entry entry = id == null ? null : live.get(id);
+        return entry == null ? null : entry.session;
+    }
+
+    /**
+     * Sessions of an earlier process that never got as far as the upload queue, apart from
+     * exceptId, whose result is still on its way back. Each one is returned only once.
+     */
+    public synchronized List<CaptureSession> takeOrphans(String exceptId) {
+        List<CaptureSession> orphans = new ArrayList<>();
+        for (Entry entry : live.values()) {
+            if (entry.replayed && entry.state != State.QUEUED && !entry.session.getId().equals(exceptId)) {
+                entry.replayed = false;
+                orphans.add(entry.session);
+            }
+        }
+        return orphans;
+    }
+
+    /**
+     * Closes the sessions of an earlier process that were queued but are no longer pending,
+     * whose outcome came while nothing was listening. Give it the queue's pending items from
+     * before anything new was enqueued.
+     */
+    public synchronized void settle(Collection<UploadItem> pending) {
+        Set<String> paths = new HashSet<>();
+        for (UploadItem item : pending) {
+            paths.add(item.getRemotePath());
+        }
+        List<String> done = new ArrayList<>();
+        for (Entry entry : live.values()) {
+            if (entry.replayed && entry.state == State.QUEUED && !paths.contains(entry.remotePath)) {
+                done.add(entry.session.getId());
+            }
+        }
+        for (String id : done) {
+            finished(id);
+        }
+    }
+
+    @Override
+    public void onUploadSucceeded(UploadItem item) {
+        if (!item.isRange()) {
+            finishQueued(item.getRemotePath());
+        }
+    }
+
+    @Override
+    public void onUploadFailed(UploadItem item, Exception e, boolean willRetry) {
+        if (!willRetry && !item.isRange()) {
+            // The file stays on the device and in the index as failed, nothing to recover
+            finishQueued(item.getRemotePath());
+        }
+    }
+
+    // Forces what has been written so far to disk, e.g. before the app goes to the background
+    public void sync() {
+        FileChannel channel;
+        synchronized (this) {
+            syncScheduled = false;
+            channel = out == null ? null : out.getChannel();
+        }
+        if (channel == null) {
+            return;
+        }
+        try {
+            // Outside the lock, capture does not wait for the disk
+            channel.force(false);
+        } catch (IOException e) {
+            // Closed by a compaction, which synced the rewritten file itself
+            LOG.log(Level.FINE, "Capture journal sync skipped", e);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.flush();
+            out.getFD().sync();
+            writer.close();
+            writer = null;
+            out = null;
+        }
+    }
+
+    private synchronized void finishQueued(String remotePath) {
+        for (Entry entry : live.values()) {
+            if (entry.state == State.QUEUED && remotePath.equals(entry.remotePath)) {
+                finished(entry.session.getId());
+                return;
+            }
+        }
+    }
+
+    private void apply(String line) {
+        String[] fields = line.split("\t", -1);
+        try {
+            if (fields.length == 6 && START.equals(fields[0])) {
+                CaptureSession session = new CaptureSession(unescape(fields[1]), MediaType.valueOf(fields[2]),
+                        unescape(fields[3]), new File(unescape(fields[4])), Long.parseLong(fields[5]));
+                live.put(session.getId(), new Entry(session));
+            } else if (fields.length == 2 && RETURN.equals(fields[0])) {
+                Entry entry = live.get(unescape(fields[1]));
+                if (entry != null) {
+                    entry.state = State.RETURNED;
+                }
+            } else if (fields.length == 3 && QUEUE.equals(fields[0])) {
+                Entry entry = live.get(unescape(fields[1]));
+                if (entry != null) {
+                    entry.state = State.QUEUED;
+                    entry.remotePath = unescape(fields[2]);
+                }
+            } else if (fields.length == 2 && END.equals(fields[0])) {
+                live.remove(unescape(fields[1]));
+            }
+        } catch (IllegalArgumentException e) {
+            // torn or corrupted record, skip it
+        }
+    }
+
+    private void append(String record) {
+        try {
+            if (writer == null) {
+                out = new FileOutputStream(file, true);
+                writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            }
+            writer.write(record);
+            writer.write('\n');
+            writer.flush();
+            lines++;
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not journal capture: " + record, e);
+            return;
+        }
+        if (!syncScheduled) {
+            syncScheduled = true;
+            syncer.schedule(this::sync, syncDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (lines < COMPACT_MIN_LINES || lines < live.size() * 4) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            close();
+            int written = 0;
+            try (FileOutputStream tmpOut = new FileOutputStream(tmp)) {
+                Writer w = new OutputStreamWriter(tmpOut, StandardCharsets.UTF_8);
+                for (Entry entry : live.values()) {
+                    w.write(formatStart(entry.session));
+                    w.write('\n');
+                    written++;
+                    if (entry.state == State.RETURNED) {
+                        w.write(RETURN + "\t" + escape(entry.session.getId()) + "\n");
+                        written++;
+                    } else if (entry.state == State.QUEUED) {
+                        w.write(QUEUE + "\t" + escape(entry.session.getId()) + "\t" + escape(entry.remotePath) + "\n");
+                        written++;
+                    }
+                }
+                w.flush();
+                tmpOut.getFD().sync();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("failed to replace " + file);
+            }
+            lines = written;
+        } catch (IOException e) {
+            // The long file is still valid, compaction is tried again later
+            LOG.log(Level.WARNING, "Could not compact capture journal", e);
+        }
+    }
+
+    private static String formatStart(CaptureSession session) {
+        return START + "\t" + escape(session.getId()) + "\t" + session.getType().name() + "\t"
+                + escape(session.getFileName()) + "\t" + escape(session.getFile().getPath()) + "\t"
+                + session.getStartedAtMillis();
+    }
+
+    private static String escape(String value) {
+        return value.replace("%", "%25").replace("\t", "%09").replace("\n", "%0A");
+    }
+
+    private static String unescape(String value) {
+        return value.replace("%0A", "\n").replace("%09", "\t").replace("%25", "%");
+    }
+}
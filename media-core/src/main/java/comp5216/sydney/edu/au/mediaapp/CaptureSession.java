@@ -0,0 +1,49 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.File;
+
+/**
+ * One photo, video or audio capture: what is being captured, the file it is written to and
+ * when it started. The id names it in the {@link CaptureJournal}.
+ */
+public class CaptureSession {
+
+    private final String id;
+    private final MediaType type;
+    private final String fileName;
+    private final File file;
+    private final long startedAtMillis;
+
+    public CaptureSession(String id, MediaType type, String fileName, File file, long startedAtMillis) {
+        this.id = id;
+        this.type = type;
+        this.fileName = fileName;
+        this.file = file;
+        this.startedAtMillis = startedAtMillis;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public MediaType getType() {
+        return type;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getStartedAtMillis() {
+        return startedAtMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureSession{" + id + " " + type + " " + file + "}";
+    }
+}
@@ -0,0 +1,12 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Opens an upload source (file or content Uri string) for reading. The caller closes the channel.
+ */
+public interface ChannelOpener {
+
+    FileChannel open(String source) throws IOException;
+}
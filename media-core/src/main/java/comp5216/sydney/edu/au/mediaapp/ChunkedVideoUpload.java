@@ -0,0 +1,164 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Uploads a video in fixed-size chunks while it is still being recorded.
+ *
+ * The growing file is polled and every chunk that is at least one chunk behind the current end
+ * of the file is queued right away. The first chunk is held back until the end, since MP4 writers
+ * patch the header region (mdat size, reserved moov) when recording stops. On {@link #finish()}
+ * chunks that changed since they were queued are sent again, the remaining tail goes out and a
+ * manifest is committed once all chunks are on the server:
+ *
+ * <pre>
+ *   city/videos/VIDEO_x.mp4/chunks/00000 ... 0000n
+ *   city/videos/VIDEO_x.mp4/manifest.json
+ * </pre>
+ */
+public class ChunkedVideoUpload {
+
+    private static final Logger LOG = Logger.getLogger("ChunkedVideoUpload");
+    private static final String MANIFEST_NAME = "manifest.json";
+
+    private final File file;
+    private final String source;
+    private final String remoteDir;
+    private final UploadScheduler queue;
+    private final int chunkSize;
+    private final String group = UUID.randomUUID().toString();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Map<Integer, Long> queuedCrcs = new TreeMap<>();  // chunk index -> crc32 when queued
+    private final CRC32 crc = new CRC32();
+    private final byte[] readBuffer = new byte[64 * 1024];
+    private int nextIndex = 1;
+
+    public ChunkedVideoUpload(File file, String remoteDir, UploadScheduler queue, int chunkSize) {
+        this.file = file;
+        this.source = file.toURI().toString();
+        this.remoteDir = remoteDir;
+        this.queue = queue;
+        this.chunkSize = chunkSize;
+    }
+
+    // Where the recording is found once it is committed, the object its index row points to
+    public String getManifestPath() {
+        return remoteDir + "/" + MANIFEST_NAME;
+    }
+
+    public static boolean isManifestPath(String remotePath) {
+        return remotePath.endsWith("/" + MANIFEST_NAME);
+    }
+
+    public void start(long pollIntervalMs) {
+        scheduler.scheduleWithFixedDelay(this::poll, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Recording has stopped: send what is left and commit the manifest
+    public void finish() {
+        scheduler.execute(() -> {
+            try {
+                commit();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Could not finish chunked upload of " + file, e);
+                queue.cancelGroup(group);
+            }
+        });
+        scheduler.shutdown();
+    }
+
+    // Recording was discarded: stop polling and drop every chunk not sent yet
+    public void abort() {
+        scheduler.shutdownNow();
+        queue.cancelGroup(group);
+    }
+
+    private void poll() {
+        long size = file.length();
+        try {
+            while ((long) (nextIndex + 2) * chunkSize <= size) {
+                queueChunk(nextIndex, chunkSize, checksum(nextIndex, chunkSize));
+                nextIndex++;
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not read " + file + " while recording", e);
+        }
+    }
+
+    private void commit() throws IOException {
+        long size = file.length();
+        if (size <= 0) {
+            throw new IOException(file + " is empty");
+        }
+        int chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+
+        StringBuilder manifest = new StringBuilder();
+        manifest.append("{\"name\":\"").append(file.getName()).append("\",\"size\":").append(size)
+                .append(",\"chunkSize\":").append(chunkSize).append(",\"chunks\":[");
+        for (int index = 0; index < chunkCount; index++) {
+            int length = (int) Math.min(chunkSize, size - (long) index * chunkSize);
+            long checksum = checksum(index, length);
+            Long queued = queuedCrcs.get(index);
+            if (queued == null || queued != checksum) {
+                // Not sent yet, or rewritten by the recorder after it was queued
+                queueChunk(index, length, checksum);
+            }
+            if (index > 0) {
+                manifest.append(',');
+            }
+            manifest.append("{\"path\":\"").append(chunkName(index)).append("\",\"offset\":")
+                    .append((long) index * chunkSize).append(",\"length\":").append(length)
+                    .append(",\"crc32\":").append(checksum).append('}');
+        }
+        manifest.append("]}");
+
+        File manifestFile = new File(file.getPath() + ".manifest.json");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(manifestFile), StandardCharsets.UTF_8)) {
+            writer.write(manifest.toString());
+        }
+        queue.enqueue(UploadItem.forCommit(manifestFile.toURI().toString(), getManifestPath(), group));
+    }
+
+    private void queueChunk(int index, int length, long checksum) {
+        queuedCrcs.put(index, checksum);
+        long offset = (long) index * chunkSize;
+        queue.enqueue(UploadItem.forRange(source, remoteDir + "/" + chunkName(index), offset, length, group));
+    }
+
+    private long checksum(int index, int length) throws IOException {
+        crc.reset();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek((long) index * chunkSize);
+            int remaining = length;
+            while (remaining > 0) {
+                int read = raf.read(readBuffer, 0, Math.min(readBuffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                crc.update(readBuffer, 0, read);
+                remaining -= read;
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static String chunkName(int index) {
+        return String.format(Locale.ROOT, "chunks/%05d", index);
+    }
+}
@@ -0,0 +1,61 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Streams a file through SHA-256 in fixed-size direct buffer reads, so even multi-GB videos
+ * are hashed without being buffered in memory. A {@link MappedMediaFile} is hashed straight
+ * from its mapping instead, with no read calls at all. One instance per thread.
+ */
+public class ContentHasher {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    // Slices digested at a time from a mapped file; only files past 2 GB map each one separately
+    private static final int MAPPED_REGION = 64 * 1024 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final MessageDigest digest;
+
+    public ContentHasher() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Hex SHA-256 of everything from the channel's current position to its end
+    public String sha256(FileChannel channel) throws IOException {
+        digest.reset();
+        buffer.clear();
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+        return toHex(digest.digest());
+    }
+
+    public String sha256(MappedMediaFile file) throws IOException {
+        digest.reset();
+        long size = file.size();
+        for (long offset = 0; offset < size; offset += MAPPED_REGION) {
+            digest.update(file.slice(offset, (int) Math.min(MAPPED_REGION, size - offset)));
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,59 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Skips uploads whose content is already in Storage.
+ *
+ * Each whole-file item is hashed once with SHA-256, straight from the shared mapping in the
+ * {@link MediaFileRegistry}, and looked up in the {@link UploadedContentIndex}. Known content is not sent again; a request for it under a new
+ * path is recorded as an alias of the original object.
+ */
+public class DedupStage implements UploadStage {
+
+    private static final Logger LOG = Logger.getLogger("DedupStage");
+
+    private final MediaFileRegistry files;
+    private final UploadedContentIndex index;
+    private final ThreadLocal<ContentHasher> hashers = new ThreadLocal<ContentHasher>() {
+        @Override
+        protected ContentHasher initialValue() {
+            return new ContentHasher();
+        }
+    };
+
+    public DedupStage(MediaFileRegistry files, UploadedContentIndex index) {
+        this.files = files;
+        this.index = index;
+    }
+
+    @Override
+    public UploadItem prepare(UploadItem item) throws IOException {
+        if (item.isRange() || item.getGroup() != null) {
+            return item;  // chunks and manifests are tracked by their group
+        }
+        String hash;
+        try (MappedMediaFile file = files.open(item.getSource())) {
+            hash = hashers.get().sha256(file);
+        }
+        item.setContentHash(hash);
+        String existing = index.find(hash);
+        if (existing == null) {
+            return item;
+        }
+        if (!existing.equals(item.getRemotePath())) {
+            index.recordAlias(hash, item.getRemotePath());
+            item.setStoredPath(existing);
+        }
+        LOG.info("Skipping " + item.getSource() + ", content already uploaded to " + existing);
+        return null;
+    }
+
+    @Override
+    public void onUploaded(UploadItem item) {
+        if (item.getContentHash() != null) {
+            index.recordUpload(item.getContentHash(), item.getRemotePath());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+/**
+ * What the device can offer an upload right now: a network, whether it is unmetered, and
+ * the power state. Immutable; a new instance is handed to the queue whenever one changes.
+ */
+public final class DeviceConditions {
+
+    // What the queue assumes until it is told otherwise, so plain JVM use is not gated
+    public static final DeviceConditions UNRESTRICTED = new DeviceConditions(true, true, true, false);
+
+    private final boolean connected;
+    private final boolean unmetered;
+    private final boolean charging;
+    private final boolean batteryLow;
+
+    public DeviceConditions(boolean connected, boolean unmetered, boolean charging, boolean batteryLow) {
+        this.connected = connected;
+        this.unmetered = connected && unmetered;
+        this.charging = charging;
+        this.batteryLow = batteryLow;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public boolean isUnmetered() {
+        return unmetered;
+    }
+
+    public boolean isCharging() {
+        return charging;
+    }
+
+    public boolean isBatteryLow() {
+        return batteryLow;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DeviceConditions)) {
+            return false;
+        }
+        DeviceConditions other = (DeviceConditions) o;
+        return connected == other.connected && unmetered == other.unmetered
+                && charging == other.charging && batteryLow == other.batteryLow;
+    }
+
+    @Override
+    public int hashCode() {
+        return (connected ? 8 : 0) | (unmetered ? 4 : 0) | (charging ? 2 : 0) | (batteryLow ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceConditions{" + (connected ? (unmetered ? "unmetered" : "metered") : "offline")
+                + (charging ? ", charging" : "") + (batteryLow ? ", battery low" : "") + "}";
+    }
+}
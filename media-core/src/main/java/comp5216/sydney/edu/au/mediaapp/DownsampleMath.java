@@ -0,0 +1,35 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+/**
+ * Sizing rules for subsampled image decodes, kept free of Android types.
+ */
+public final class DownsampleMath {
+
+    private DownsampleMath() {
+    }
+
+    /**
+     * Largest power-of-two sample size that still keeps both decoded dimensions at or above
+     * the requested size, the same rounding BitmapFactory applies to inSampleSize.
+     */
+    public static int calculateInSampleSize(int srcWidth, int srcHeight, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (srcWidth <= 0 || srcHeight <= 0 || reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while ((srcWidth / (inSampleSize * 2)) >= reqWidth && (srcHeight / (inSampleSize * 2)) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    // Dimension BitmapFactory produces for a given source dimension and sample size
+    public static int sampledSize(int srcSize, int inSampleSize) {
+        return (srcSize + inSampleSize - 1) / inSampleSize;
+    }
+
+    // Bytes a decode will allocate, used to pick a reusable bitmap and to budget caches
+    public static long decodedByteCount(int srcWidth, int srcHeight, int inSampleSize, int bytesPerPixel) {
+        return (long) sampledSize(srcWidth, inSampleSize) * sampledSize(srcHeight, inSampleSize) * bytesPerPixel;
+    }
+}
@@ -0,0 +1,74 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link PcmEncoder} decorator that adds each finished recording to {@link RecordingStats}: the
+ * audio that reached the encoder, the size of the file it wrote and the CPU time the recording
+ * thread spent inside the delegate, on {@code threadCpuNanos}, a clock of that thread's CPU time
+ * such as {@code Debug.threadCpuTimeNanos()}.
+ *
+ * That is the app's side of encoding: copying PCM into codec buffers, the binder calls, draining
+ * and muxing the output. With MediaCodec the encoding itself runs in the media.swcodec process and
+ * is not charged to this thread, so the figure is the app's overhead, not what the profile costs
+ * to encode. Place it right above the codec so the other decorators are not counted either.
+ */
+public class EncodeMeter implements PcmEncoder {
+
+    private final PcmEncoder delegate;
+    private final RecordingProfile profile;
+    private final RecordingConfig config;
+    private final File output;
+    private final RecordingStats stats;
+    private final LongSupplier threadCpuNanos;
+
+    private long frames;
+    private long feedCpuNanos;
+
+    public EncodeMeter(PcmEncoder delegate, RecordingProfile profile, RecordingConfig config, File output,
+                       RecordingStats stats, LongSupplier threadCpuNanos) {
+        this.delegate = delegate;
+        this.profile = profile;
+        this.config = config;
+        this.output = output;
+        this.stats = stats;
+        this.threadCpuNanos = threadCpuNanos;
+    }
+
+    @Override
+    public void start() throws IOException {
+        long before = threadCpuNanos.getAsLong();
+        delegate.start();
+        feedCpuNanos += threadCpuNanos.getAsLong() - before;
+    }
+
+    @Override
+    public void encode(ByteBuffer pcm, long presentationTimeUs) throws IOException {
+        frames += pcm.remaining() / config.getFrameSize();
+        long before = threadCpuNanos.getAsLong();
+        delegate.encode(pcm, presentationTimeUs);
+        feedCpuNanos += threadCpuNanos.getAsLong() - before;
+    }
+
+    @Override
+    public boolean setBitRate(int bitRate) {
+        return delegate.setBitRate(bitRate);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        long before = threadCpuNanos.getAsLong();
+        delegate.finish();
+        feedCpuNanos += threadCpuNanos.getAsLong() - before;
+        // The output is complete once the delegate has finished
+        stats.record(profile, config.framesToUs(frames), output.length(), feedCpuNanos);
+    }
+
+    @Override
+    public void release() {
+        delegate.release();
+    }
+}
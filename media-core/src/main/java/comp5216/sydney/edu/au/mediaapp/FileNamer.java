@@ -0,0 +1,9 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+/**
+ * Picks the file name for a new capture.
+ */
+public interface FileNamer {
+
+    String name(MediaType type, long timeMillis);
+}
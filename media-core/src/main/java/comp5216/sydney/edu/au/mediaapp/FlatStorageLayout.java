@@ -0,0 +1,32 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+/**
+ * Keeps every capture in one local directory and files them in Storage as
+ * {@code city/images/...}, {@code city/videos/...} and {@code city/audios/...}.
+ */
+public class FlatStorageLayout implements StorageLayout {
+
+    private static final Logger LOG = Logger.getLogger("FlatStorageLayout");
+
+    private final File mediaDir;
+
+    public FlatStorageLayout(File mediaDir) {
+        this.mediaDir = mediaDir;
+    }
+
+    @Override
+    public File localFile(MediaType type, String fileName) {
+        if (!mediaDir.exists() && !mediaDir.mkdirs()) {
+            LOG.warning("failed to create directory " + mediaDir);
+        }
+        return new File(mediaDir, fileName);
+    }
+
+    @Override
+    public String remotePath(String city, MediaType type, String fileName) {
+        return city + "/" + type.getFolder() + "/" + fileName;
+    }
+}
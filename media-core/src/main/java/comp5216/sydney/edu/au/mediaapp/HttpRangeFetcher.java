@@ -0,0 +1,75 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * {@link BlockFetcher} over HTTP range requests, e.g. a Cloud Storage download URL.
+ */
+public class HttpRangeFetcher implements BlockFetcher {
+
+    private static final int TIMEOUT_MS = 15000;
+
+    private final URL url;
+
+    public HttpRangeFetcher(URL url) {
+        this.url = url;
+    }
+
+    @Override
+    public long size() throws IOException {
+        HttpURLConnection connection = open(0, 0);
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                // Content-Range: bytes 0-0/12345
+                String range = connection.getHeaderField("Content-Range");
+                int slash = range == null ? -1 : range.lastIndexOf('/');
+                if (slash >= 0) {
+                    return Long.parseLong(range.substring(slash + 1).trim());
+                }
+            } else if (code == HttpURLConnection.HTTP_OK && connection.getContentLengthLong() >= 0) {
+                return connection.getContentLengthLong();
+            }
+            throw new IOException("Cannot determine size of " + url + " (HTTP " + code + ")");
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad Content-Range from " + url, e);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void fetch(long offset, byte[] into, int length) throws IOException {
+        HttpURLConnection connection = open(offset, offset + length - 1);
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Range request to " + url + " returned HTTP " + code);
+            }
+            try (InputStream in = connection.getInputStream()) {
+                int read = 0;
+                while (read < length) {
+                    int n = in.read(into, read, length - read);
+                    if (n < 0) {
+                        throw new EOFException("Range ended after " + read + " of " + length + " bytes");
+                    }
+                    read += n;
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(long first, long last) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        connection.setRequestProperty("Range", "bytes=" + first + "-" + last);
+        return connection;
+    }
+}
@@ -0,0 +1,74 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+/**
+ * How photos are re-encoded before upload: the longest edge they are scaled down to, the
+ * output format and its quality, and the size below which an image is sent untouched.
+ */
+public class ImageTranscodePolicy {
+
+    public enum Format {
+        JPEG("image/jpeg"),
+        WEBP_LOSSY("image/webp");
+
+        private final String mimeType;
+
+        Format(String mimeType) {
+            this.mimeType = mimeType;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+    }
+
+    private final int maxDimension;
+    private final Format format;
+    private final int quality;
+    private final long minBytesToTranscode;
+
+    public ImageTranscodePolicy(int maxDimension, Format format, int quality, long minBytesToTranscode) {
+        if (maxDimension <= 0 || quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("Invalid transcode policy");
+        }
+        this.maxDimension = maxDimension;
+        this.format = format;
+        this.quality = quality;
+        this.minBytesToTranscode = minBytesToTranscode;
+    }
+
+    // 2048 px JPEG at quality 80 keeps the file extension of camera captures valid
+    public static ImageTranscodePolicy defaults() {
+        return new ImageTranscodePolicy(2048, Format.JPEG, 80, 512 * 1024);
+    }
+
+    public int getMaxDimension() {
+        return maxDimension;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public long getMinBytesToTranscode() {
+        return minBytesToTranscode;
+    }
+
+    // Whether an image of this size needs to go through the encoder at all
+    public boolean shouldTranscode(int width, int height, long bytes) {
+        return Math.max(width, height) > maxDimension || bytes >= minBytesToTranscode;
+    }
+
+    // Output dimensions that fit maxDimension on the longest edge, keeping the aspect ratio
+    public int[] targetSize(int width, int height) {
+        int longest = Math.max(width, height);
+        if (longest <= maxDimension) {
+            return new int[]{width, height};
+        }
+        double scale = (double) maxDimension / longest;
+        return new int[]{Math.max(1, (int) Math.round(width * scale)), Math.max(1, (int) Math.round(height * scale))};
+    }
+}
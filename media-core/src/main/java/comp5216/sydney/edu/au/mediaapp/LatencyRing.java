@@ -0,0 +1,37 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.util.Arrays;
+
+/**
+ * The last {@code capacity} durations of something, for percentiles. Recording writes into a
+ * fixed array and does not allocate; only reading a percentile sorts a copy. Thread-safe.
+ */
+public class LatencyRing {
+
+    private final long[] nanos;
+    private long count;
+
+    public LatencyRing(int capacity) {
+        this.nanos = new long[capacity];
+    }
+
+    public synchronized void record(long durationNanos) {
+        nanos[(int) (count++ % nanos.length)] = durationNanos;
+    }
+
+    // Everything recorded so far, including samples that have left the ring
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getPercentileMs(double percentile) {
+        int size = (int) Math.min(count, nanos.length);
+        if (size == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(nanos, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.min(size - 1, Math.round(percentile / 100 * (size - 1)));
+        return sorted[index] / 1e6;
+    }
+}
@@ -0,0 +1,107 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link PcmEncoder} decorator that measures RMS and peak level of the PCM passing through it
+ * and reports them at most once per {@code intervalUs}.
+ *
+ * Samples are read with absolute gets, so the buffer handed on to the next encoder is untouched
+ * and nothing is allocated per buffer. The listener runs on the recording thread and should
+ * only hand the values over to the UI.
+ */
+public class LevelMeter implements PcmEncoder {
+
+    public interface Listener {
+        // Levels in dBFS over the last interval, SILENCE_DB for digital silence
+        void onLevel(float rmsDb, float peakDb);
+    }
+
+    public static final float SILENCE_DB = -96f;
+    private static final double FULL_SCALE = 32768.0;
+
+    private final PcmEncoder delegate;
+    private final Listener listener;
+    private final long intervalUs;
+
+    private double sumOfSquares;
+    private long samples;
+    private int peak;
+    private long windowStartUs = -1;
+
+    public LevelMeter(PcmEncoder delegate, Listener listener, long intervalUs) {
+        this.delegate = delegate;
+        this.listener = listener;
+        this.intervalUs = intervalUs;
+    }
+
+    @Override
+    public void start() throws IOException {
+        delegate.start();
+    }
+
+    @Override
+    public void encode(ByteBuffer pcm, long presentationTimeUs) throws IOException {
+        int from = pcm.position();
+        int to = pcm.limit() - 1;
+        for (int i = from; i < to; i += RecordingConfig.BYTES_PER_SAMPLE) {
+            int sample = pcm.getShort(i);
+            sumOfSquares += (double) sample * sample;
+            int magnitude = Math.abs(sample);
+            if (magnitude > peak) {
+                peak = magnitude;
+            }
+        }
+        samples += (to + 1 - from) / RecordingConfig.BYTES_PER_SAMPLE;
+
+        if (windowStartUs < 0) {
+            windowStartUs = presentationTimeUs;
+        } else if (presentationTimeUs - windowStartUs >= intervalUs) {
+            if (listener != null && samples > 0) {
+                listener.onLevel(toDb(Math.sqrt(sumOfSquares / samples)), toDb(peak));
+            }
+            sumOfSquares = 0;
+            samples = 0;
+            peak = 0;
+            windowStartUs = presentationTimeUs;
+        }
+        delegate.encode(pcm, presentationTimeUs);
+    }
+
+    @Override
+    public boolean setBitRate(int bitRate) {
+        return delegate.setBitRate(bitRate);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        delegate.finish();
+    }
+
+    @Override
+    public void release() {
+        delegate.release();
+    }
+
+    // RMS level in dBFS of the samples between the buffer's position and limit
+    public static float rmsDb(ByteBuffer pcm) {
+        int from = pcm.position();
+        int to = pcm.limit() - 1;
+        double sum = 0;
+        for (int i = from; i < to; i += RecordingConfig.BYTES_PER_SAMPLE) {
+            int sample = pcm.getShort(i);
+            sum += (double) sample * sample;
+        }
+        int count = (to + 1 - from) / RecordingConfig.BYTES_PER_SAMPLE;
+        return count == 0 ? SILENCE_DB : toDb(Math.sqrt(sum / count));
+    }
+
+    // Converts a 16-bit amplitude to dBFS
+    public static float toDb(double amplitude) {
+        if (amplitude < 1) {
+            return SILENCE_DB;
+        }
+        return (float) Math.max(SILENCE_DB, 20 * Math.log10(amplitude / FULL_SCALE));
+    }
+}
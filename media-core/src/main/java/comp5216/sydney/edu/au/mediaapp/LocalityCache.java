@@ -0,0 +1,68 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Disk-backed map from geohash cell to locality name, so a place is only ever reverse
+ * geocoded once. Entries are appended as "cell\tlocality" lines, the last one for a cell wins.
+ * Not thread safe, owned by the geocoding thread.
+ */
+public class LocalityCache {
+
+    private final File file;
+    private final Map<String, String> cells = new HashMap<>();
+    private boolean loaded;
+
+    public LocalityCache(File file) {
+        this.file = file;
+    }
+
+    public String get(String cell) {
+        load();
+        return cells.get(cell);
+    }
+
+    public void put(String cell, String locality) {
+        load();
+        if (locality.equals(cells.put(cell, locality))) {
+            return;
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            writer.write(cell + "\t" + locality.replace('\t', ' ').replace('\n', ' ') + "\n");
+        } catch (IOException e) {
+            // Still cached in memory for this run
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    cells.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        } catch (IOException e) {
+            // Start from whatever was read
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lists finished uploads in small manifest objects, so other clients can sync by reading the
+ * manifests written since they last looked instead of listing every media prefix.
+ *
+ * Each successful upload is appended to a pending file on disk as it happens. {@link #flush()},
+ * and reaching {@code maxEntries}, turn the pending entries into one manifest:
+ *
+ * <pre>
+ *   {"v":1,"created":1697772615000,"items":[
+ *     {"path":"Sydney/images/2023-10-20/03/01HD5J4DAR..._IMG_x.jpg","folder":"images","capturedAt":1697772615000,"sha256":"9f2c..."}]}
+ * </pre>
+ *
+ * which goes through the upload queue like any other file, to
+ * {@link ObjectKeyScheme#manifestKey}. Chunks of a streamed video are left out, its own
+ * manifest.json is listed instead. An upload skipped as a duplicate is listed with a storedAt
+ * pointing at the object that has its content. Called on the queue's dispatch thread.
+ */
+public class ManifestWriter implements UploadQueue.Listener {
+
+    private static final Logger LOG = Logger.getLogger("ManifestWriter");
+    private static final String PENDING = "pending.jsonl";
+
+    private final File dir;
+    private final ObjectKeyScheme scheme;
+    private final UploadScheduler uploads;
+    private final int maxEntries;
+    private int pending = -1;  // lines in the pending file, counted on first use
+
+    public ManifestWriter(File dir, ObjectKeyScheme scheme, UploadScheduler uploads, int maxEntries) {
+        this.dir = dir;
+        this.scheme = scheme;
+        this.uploads = uploads;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public synchronized void onUploadSucceeded(UploadItem item) {
+        if (ObjectKeyScheme.isManifestKey(item.getRemotePath())) {
+            // Sent, the local copy is no longer needed
+            File local = new File(URI.create(item.getSource()));
+            if (!local.delete()) {
+                LOG.fine("Could not delete " + local);
+            }
+            return;
+        }
+        if (item.isRange()) {
+            return;
+        }
+        try {
+            append(entry(item));
+            if (pending >= maxEntries) {
+                flush();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not record " + item.getRemotePath() + " for the next manifest", e);
+        }
+    }
+
+    @Override
+    public void onUploadFailed(UploadItem item, Exception e, boolean willRetry) {
+    }
+
+    // Writes everything pending into one manifest and queues it; false if there was nothing
+    public synchronized boolean flush() throws IOException {
+        File pendingFile = new File(dir, PENDING);
+        if (countPending() == 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        StringBuilder manifest = new StringBuilder();
+        manifest.append("{\"v\":1,\"created\":").append(now).append(",\"items\":[");
+        boolean first = true;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(pendingFile),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                // A torn last line from a crash mid-append is skipped
+                if (!line.startsWith("{") || !line.endsWith("}")) {
+                    continue;
+                }
+                manifest.append(first ? "" : ",").append(line);
+                first = false;
+            }
+        }
+        manifest.append("]}");
+
+        String key = scheme.manifestKey(now);
+        File manifestFile = new File(dir, key.substring(key.lastIndexOf('/') + 1));
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(manifestFile), StandardCharsets.UTF_8)) {
+            writer.write(manifest.toString());
+        }
+        // Journaled by the queue before the entries are let go
+        uploads.enqueue(manifestFile.toURI().toString(), key);
+        if (!pendingFile.delete()) {
+            throw new IOException("Could not clear " + pendingFile);
+        }
+        pending = 0;
+        return true;
+    }
+
+    private void append(String line) throws IOException {
+        countPending();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, PENDING), true),
+                StandardCharsets.UTF_8)) {
+            writer.write(line);
+            writer.write('\n');
+        }
+        pending++;
+    }
+
+    // Entries left by an earlier process count towards the next manifest too
+    private int countPending() throws IOException {
+        if (pending >= 0) {
+            return pending;
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        pending = 0;
+        File pendingFile = new File(dir, PENDING);
+        if (pendingFile.exists()) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(pendingFile),
+                    StandardCharsets.UTF_8))) {
+                while (in.readLine() != null) {
+                    pending++;
+                }
+            }
+        }
+        return pending;
+    }
+
+    private static String entry(UploadItem item) {
+        StringBuilder entry = new StringBuilder();
+        String path = item.getRemotePath();
+        MediaType type = MediaType.inRemotePath(path);
+        entry.append("{\"path\":").append(quote(path));
+        if (!item.getStoredPath().equals(path)) {
+            // Deduplicated, nothing was written at path
+            entry.append(",\"storedAt\":").append(quote(item.getStoredPath()));
+        }
+        if (type != null) {
+            entry.append(",\"folder\":").append(quote(type.getFolder()));
+        }
+        if (item.getCapturedAtMillis() > 0) {
+            entry.append(",\"capturedAt\":").append(item.getCapturedAtMillis());
+        }
+        if (item.getContentHash() != null) {
+            entry.append(",\"sha256\":").append(quote(item.getContentHash()));
+        }
+        return entry.append('}').toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+}
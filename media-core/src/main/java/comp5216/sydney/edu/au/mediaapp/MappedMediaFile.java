@@ -0,0 +1,78 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One open media file, shared by everyone reading it through the {@link MediaFileRegistry}.
+ *
+ * The file is mapped read-only once and every {@link #slice} is a view of that mapping, so
+ * readers share the page cache instead of each copying the file through read calls. Views have
+ * their own position and limit and may be used from any thread. A file that has grown since it
+ * was mapped (a recording in progress) is mapped again as far as it now goes. Past 2 GB, where
+ * one mapping cannot reach, each slice is mapped on its own.
+ *
+ * Each {@link MediaFileRegistry#open} must be matched by exactly one {@link #close()}; the
+ * descriptor is closed once the last holder has let go. Views must not be used after that.
+ */
+public class MappedMediaFile implements Closeable {
+
+    private static final long MAX_MAPPING = Integer.MAX_VALUE;
+
+    private final String source;
+    private final FileChannel channel;
+    private final MediaFileRegistry registry;
+    private MappedByteBuffer mapping;
+    int references;  // guarded by the registry
+
+    MappedMediaFile(String source, FileChannel channel, MediaFileRegistry registry) {
+        this.source = source;
+        this.channel = channel;
+        this.registry = registry;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    // Read-only view of length bytes from offset, positioned at 0
+    public synchronized ByteBuffer slice(long offset, int length) throws IOException {
+        long end = offset + length;
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid slice " + offset + "+" + length);
+        }
+        if (end > MAX_MAPPING) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+        if (mapping == null || mapping.capacity() < end) {
+            long size = channel.size();
+            if (end > size) {
+                throw new EOFException(source + " has " + size + " bytes, wanted up to " + end);
+            }
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAX_MAPPING));
+        }
+        ByteBuffer view = mapping.duplicate();
+        view.limit((int) end).position((int) offset);
+        return view.slice();
+    }
+
+    // Releases this holder's reference
+    @Override
+    public void close() throws IOException {
+        registry.release(this);
+    }
+
+    // The mapping itself goes when it is garbage collected, the descriptor goes now
+    synchronized void closeChannel() throws IOException {
+        mapping = null;
+        channel.close();
+    }
+}
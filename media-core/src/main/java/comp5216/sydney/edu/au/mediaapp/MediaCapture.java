@@ -0,0 +1,60 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.File;
+
+/**
+ * Starts capture sessions and hands finished media to the uploader. This is everything the
+ * capture screens decide that is not Android UI, so it can be driven from a plain JVM.
+ */
+public class MediaCapture {
+
+    private final FileNamer namer;
+    private final StorageLayout layout;
+    private final UploadScheduler uploads;
+
+    public MediaCapture(FileNamer namer, StorageLayout layout, UploadScheduler uploads) {
+        this.namer = namer;
+        this.layout = layout;
+        this.uploads = uploads;
+    }
+
+    public CaptureSession begin(MediaType type, long nowMillis) {
+        String fileName = namer.name(type, nowMillis);
+        File file = layout.localFile(type, fileName);
+        return new CaptureSession(ObjectKeyScheme.newId(nowMillis), type, fileName, file, nowMillis);
+    }
+
+    public File localFile(MediaType type, String fileName) {
+        return layout.localFile(type, fileName);
+    }
+
+    // A layout may hand out a new path per call, so an item's path is worked out once and kept
+    public String remotePath(String city, MediaType type, String fileName) {
+        return layout.remotePath(city, type, fileName);
+    }
+
+    public String remotePath(String city, MediaType type, String fileName, long capturedAtMillis) {
+        return layout.remotePath(city, type, fileName, capturedAtMillis);
+    }
+
+    // source is a file or content Uri string, fileName the name the object gets in Storage
+    public UploadItem upload(String source, String city, MediaType type, String fileName) {
+        return uploads.enqueue(source, layout.remotePath(city, type, fileName));
+    }
+
+    // As above, for media captured at capturedAtMillis; lets the queue time capture to upload complete
+    public UploadItem upload(String source, String city, MediaType type, String fileName, long capturedAtMillis) {
+        return uploadTo(source, layout.remotePath(city, type, fileName, capturedAtMillis), capturedAtMillis);
+    }
+
+    // For a path already worked out with remotePath, e.g. one that was indexed first
+    public UploadItem uploadTo(String source, String remotePath, long capturedAtMillis) {
+        UploadItem item = UploadItem.forFile(source, remotePath);
+        item.setCapturedAtMillis(capturedAtMillis);
+        return uploads.enqueue(item);
+    }
+
+    public UploadScheduler getUploads() {
+        return uploads;
+    }
+}
@@ -0,0 +1,117 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Opens each media source once, however many stages read it at the same time.
+ *
+ * {@link #open} hands out the {@link MappedMediaFile} already open for a source, or opens it
+ * through the {@link ChannelOpener}, counting references either way. When the last one is
+ * closed the file is kept idle for a while rather than closed, so the upload that usually
+ * follows a stage's hashing finds it still open; at most {@code maxIdle} idle files are kept,
+ * the least recently used is closed first. Sources are expected not to be replaced on disk
+ * under the same name while they are queued. Thread-safe.
+ */
+public class MediaFileRegistry {
+
+    private static final Logger LOG = Logger.getLogger("MediaFileRegistry");
+
+    private final ChannelOpener opener;
+    private final int maxIdle;
+    private final Map<String, MappedMediaFile> files = new HashMap<>();
+    private final LinkedHashMap<String, MappedMediaFile> idle = new LinkedHashMap<>();
+    private long opens;
+
+    public MediaFileRegistry(ChannelOpener opener, int maxIdle) {
+        this.opener = opener;
+        this.maxIdle = maxIdle;
+    }
+
+    public MappedMediaFile open(String source) throws IOException {
+        synchronized (this) {
+            MappedMediaFile file = files.get(source);
+            if (file != null) {
+                retain(file);
+                return file;
+            }
+        }
+        // Opened without the lock, a slow provider must not hold up other sources
+        FileChannel channel = opener.open(source);
+        MappedMediaFile raced;
+        synchronized (this) {
+            raced = files.get(source);
+            if (raced == null) {
+                opens++;
+                MappedMediaFile file = new MappedMediaFile(source, channel, this);
+                files.put(source, file);
+                retain(file);
+                return file;
+            }
+            retain(raced);
+        }
+        // Someone else opened it meanwhile, theirs is used
+        channel.close();
+        return raced;
+    }
+
+    // Descriptors opened so far, for telemetry and benchmarks
+    public synchronized long getOpenCount() {
+        return opens;
+    }
+
+    // Closes every file nobody holds, e.g. once the queue has settled
+    public void evictIdle() {
+        Map<String, MappedMediaFile> evicted;
+        synchronized (this) {
+            evicted = new HashMap<>(idle);
+            idle.clear();
+            files.keySet().removeAll(evicted.keySet());
+        }
+        for (MappedMediaFile file : evicted.values()) {
+            closeQuietly(file);
+        }
+    }
+
+    void release(MappedMediaFile file) {
+        MappedMediaFile evicted = null;
+        synchronized (this) {
+            if (file.references <= 0) {
+                throw new IllegalStateException(file.getSource() + " closed more often than opened");
+            }
+            if (--file.references > 0) {
+                return;
+            }
+            idle.put(file.getSource(), file);
+            if (idle.size() > maxIdle) {
+                Iterator<MappedMediaFile> oldest = idle.values().iterator();
+                evicted = oldest.next();
+                oldest.remove();
+                files.remove(evicted.getSource());
+            }
+        }
+        if (evicted != null) {
+            closeQuietly(evicted);
+        }
+    }
+
+    private void retain(MappedMediaFile file) {
+        if (file.references++ == 0) {
+            idle.remove(file.getSource());
+        }
+    }
+
+    private static void closeQuietly(MappedMediaFile file) {
+        try {
+            file.closeChannel();
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Could not close " + file.getSource(), e);
+        }
+    }
+}
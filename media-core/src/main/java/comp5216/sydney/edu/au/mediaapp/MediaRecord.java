@@ -0,0 +1,82 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+/**
+ * One entry of the local media index: a capture or picked item, where it is, and how far its
+ * upload has got.
+ */
+public class MediaRecord {
+
+    public enum UploadState {
+        LOCAL, QUEUED, UPLOADED, FAILED
+    }
+
+    private final long id;
+    private final String path;  // absolute file path for our captures, content Uri for picked media
+    private final MediaType type;
+    private final String city;
+    private final long sizeBytes;
+    private final String contentHash;
+    private final UploadState uploadState;
+    private final String remotePath;
+    private final String thumbnailKey;
+    private final long takenAtMillis;
+
+    public MediaRecord(long id, String path, MediaType type, String city, long sizeBytes, String contentHash,
+                       UploadState uploadState, String remotePath, String thumbnailKey, long takenAtMillis) {
+        this.id = id;
+        this.path = path;
+        this.type = type;
+        this.city = city;
+        this.sizeBytes = sizeBytes;
+        this.contentHash = contentHash;
+        this.uploadState = uploadState;
+        this.remotePath = remotePath;
+        this.thumbnailKey = thumbnailKey;
+        this.takenAtMillis = takenAtMillis;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public MediaType getType() {
+        return type;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public UploadState getUploadState() {
+        return uploadState;
+    }
+
+    public String getRemotePath() {
+        return remotePath;
+    }
+
+    public String getThumbnailKey() {
+        return thumbnailKey;
+    }
+
+    public long getTakenAtMillis() {
+        return takenAtMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "MediaRecord{" + id + " " + type + " " + path + ", " + uploadState + "}";
+    }
+}
@@ -0,0 +1,46 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+/**
+ * The kinds of media the app captures, with the file naming and Storage folder of each.
+ */
+public enum MediaType {
+    PHOTO("IMG_", ".jpg", "images"),
+    VIDEO("VIDEO_", ".mp4", "videos"),
+    AUDIO("AUDIO_", ".m4a", "audios");
+
+    private final String prefix;
+    private final String extension;
+    private final String folder;
+
+    MediaType(String prefix, String extension, String folder) {
+        this.prefix = prefix;
+        this.extension = extension;
+        this.folder = folder;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    // Folder under the city in Storage
+    public String getFolder() {
+        return folder;
+    }
+
+    // The type whose folder a Storage path is filed under, or null; the last segment is the object name
+    public static MediaType inRemotePath(String remotePath) {
+        String[] segments = remotePath.split("/");
+        for (int i = 0; i < segments.length - 1; i++) {
+            for (MediaType type : values()) {
+                if (type.folder.equals(segments[i])) {
+                    return type;
+                }
+            }
+        }
+        return null;
+    }
+}
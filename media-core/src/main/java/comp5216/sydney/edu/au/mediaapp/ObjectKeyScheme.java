@@ -0,0 +1,151 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns a capture into its Storage object key from a pattern such as the default
+ * {@code {city}/{folder}/{date}/{hour}/{id}_{name}}, giving e.g.
+ * {@code Sydney/images/2023-10-20/03/01HD5J4DAR246KDP0GF25FZ06M_IMG_20231020_143015.jpg}.
+ *
+ * <ul>
+ *   <li>{city}: the locality, or {@value #UNKNOWN_CITY} while it is not known</li>
+ *   <li>{folder}: the media type's folder, required; upload policies are chosen by it</li>
+ *   <li>{date}, {hour}: UTC {@code yyyy-MM-dd} and {@code HH} of the capture</li>
+ *   <li>{id}: 26 characters, capture time in milliseconds then 80 random bits, Crockford
+ *       base32; unique without coordination and sorted by time within a partition. Required.</li>
+ *   <li>{name}: the file name the capture was given on the device</li>
+ * </ul>
+ *
+ * Partitions stay small however busy a city gets, and two devices naming a photo the same
+ * second no longer overwrite each other. Batch manifests are kept apart from the media,
+ * under {@code manifests/{date}/{hour}/{id}.json}. Thread-safe.
+ */
+public class ObjectKeyScheme {
+
+    public static final String DEFAULT_PATTERN = "{city}/{folder}/{date}/{hour}/{id}_{name}";
+    public static final String UNKNOWN_CITY = "unknown";
+    public static final String MANIFEST_DIR = "manifests";
+
+    private static final Pattern TOKEN = Pattern.compile("\\{([a-z]+)\\}");
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter HOUR = DateTimeFormatter.ofPattern("HH").withZone(ZoneOffset.UTC);
+    private static final char[] CROCKFORD = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String pattern;
+
+    public ObjectKeyScheme(String pattern) {
+        Matcher tokens = TOKEN.matcher(pattern);
+        while (tokens.find()) {
+            switch (tokens.group(1)) {
+                case "city":
+                case "folder":
+                case "date":
+                case "hour":
+                case "id":
+                case "name":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown token " + tokens.group() + " in " + pattern);
+            }
+        }
+        if (!pattern.contains("{folder}") || !pattern.contains("{id}")) {
+            throw new IllegalArgumentException("Key pattern needs {folder} and {id}: " + pattern);
+        }
+        if (pattern.startsWith("/") || pattern.startsWith(MANIFEST_DIR + "/")) {
+            throw new IllegalArgumentException("Key pattern must not start with / or " + MANIFEST_DIR + ": " + pattern);
+        }
+        this.pattern = pattern;
+    }
+
+    public static ObjectKeyScheme defaults() {
+        return new ObjectKeyScheme(DEFAULT_PATTERN);
+    }
+
+    public String key(String city, MediaType type, String name, long timeMillis) {
+        Instant time = Instant.ofEpochMilli(timeMillis);
+        Matcher tokens = TOKEN.matcher(pattern);
+        StringBuffer key = new StringBuffer(pattern.length() + 64);
+        while (tokens.find()) {
+            String value;
+            switch (tokens.group(1)) {
+                case "city":
+                    value = city == null || city.trim().isEmpty() ? UNKNOWN_CITY : segment(city);
+                    break;
+                case "folder":
+                    value = type.getFolder();
+                    break;
+                case "date":
+                    value = DATE.format(time);
+                    break;
+                case "hour":
+                    value = HOUR.format(time);
+                    break;
+                case "id":
+                    value = newId(timeMillis);
+                    break;
+                default:
+                    value = segment(name);
+                    break;
+            }
+            tokens.appendReplacement(key, Matcher.quoteReplacement(value));
+        }
+        tokens.appendTail(key);
+        return key.toString();
+    }
+
+    public String manifestKey(long timeMillis) {
+        Instant time = Instant.ofEpochMilli(timeMillis);
+        return MANIFEST_DIR + "/" + DATE.format(time) + "/" + HOUR.format(time) + "/" + newId(timeMillis) + ".json";
+    }
+
+    public static boolean isManifestKey(String key) {
+        return key.startsWith(MANIFEST_DIR + "/");
+    }
+
+    // Time-ordered and unique: 48 bits of milliseconds, then 80 random bits
+    public static String newId(long timeMillis) {
+        byte[] random = new byte[10];
+        RANDOM.nextBytes(random);
+        char[] id = new char[26];
+        long time = timeMillis & 0xFFFFFFFFFFFFL;
+        for (int i = 9; i >= 0; i--) {
+            id[i] = CROCKFORD[(int) (time & 31)];
+            time >>>= 5;
+        }
+        // 80 bits are 16 characters of 5 bits
+        long high = 0;
+        for (int i = 0; i < 5; i++) {
+            high = high << 8 | (random[i] & 0xFF);
+        }
+        long low = 0;
+        for (int i = 5; i < 10; i++) {
+            low = low << 8 | (random[i] & 0xFF);
+        }
+        for (int i = 17; i >= 10; i--) {
+            id[i] = CROCKFORD[(int) (high & 31)];
+            high >>>= 5;
+        }
+        for (int i = 25; i >= 18; i--) {
+            id[i] = CROCKFORD[(int) (low & 31)];
+            low >>>= 5;
+        }
+        return new String(id);
+    }
+
+    // One path segment: no separators, and none of the characters Storage keys should avoid
+    static String segment(String value) {
+        StringBuilder out = new StringBuilder(value.length());
+        String trimmed = value.trim();
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            out.append(c < 0x20 || c == 0x7F || "/\\#[]*?\"".indexOf(c) >= 0 ? '_' : c);
+        }
+        return out.length() == 0 || ".".contentEquals(out) || "..".contentEquals(out) ? "_" : out.toString();
+    }
+}
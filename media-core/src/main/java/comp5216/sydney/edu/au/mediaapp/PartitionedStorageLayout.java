@@ -0,0 +1,36 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.File;
+
+/**
+ * Keeps captures in one local directory like {@link FlatStorageLayout}, but files them in
+ * Storage by city, date and hour under collision-free keys from an {@link ObjectKeyScheme}.
+ *
+ * Every call makes a new key, so work out an item's path once and keep it.
+ */
+public class PartitionedStorageLayout implements StorageLayout {
+
+    private final FlatStorageLayout local;
+    private final ObjectKeyScheme scheme;
+
+    public PartitionedStorageLayout(File mediaDir, ObjectKeyScheme scheme) {
+        this.local = new FlatStorageLayout(mediaDir);
+        this.scheme = scheme;
+    }
+
+    @Override
+    public File localFile(MediaType type, String fileName) {
+        return local.localFile(type, fileName);
+    }
+
+    // Partitioned by now, for media whose capture time is not known
+    @Override
+    public String remotePath(String city, MediaType type, String fileName) {
+        return scheme.key(city, type, fileName, System.currentTimeMillis());
+    }
+
+    @Override
+    public String remotePath(String city, MediaType type, String fileName, long capturedAtMillis) {
+        return scheme.key(city, type, fileName, capturedAtMillis > 0 ? capturedAtMillis : System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,31 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Consumes PCM on the recording thread. Implementations must not keep a reference to the
+ * buffer after {@link #encode} returns, the engine reuses it for the next read.
+ */
+public interface PcmEncoder {
+
+    // Creates the encoder for a recording, so the codec behind it can be swapped off-device
+    interface Factory {
+        PcmEncoder create(RecordingConfig config, String outputPath);
+    }
+
+    void start() throws IOException;
+
+    // Encodes the bytes between the buffer's position and limit
+    void encode(ByteBuffer pcm, long presentationTimeUs) throws IOException;
+
+    // Asks for a new target bitrate mid-recording; false if this encoder cannot change it
+    default boolean setBitRate(int bitRate) {
+        return false;
+    }
+
+    // Flushes everything pending and closes the output
+    void finish() throws IOException;
+
+    void release();
+}
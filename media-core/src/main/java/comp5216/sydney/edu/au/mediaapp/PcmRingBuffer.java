@@ -0,0 +1,197 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed-size off-heap ring of PCM between one capture thread and one encoder thread.
+ *
+ * With no reader attached the writer overwrites the oldest audio, so the ring always holds the
+ * last {@code capacity} bytes. {@link #attach()} asks for the last {@code retainBytes} of that to
+ * be kept: the writer hands over at its next write, and from then on never overwrites what the
+ * reader has not consumed. A write that does not fit is dropped and counted instead.
+ *
+ * Neither side locks. The write index is only ever written by the writer. The read index is
+ * owned by the writer while it overwrites and by the reader once attached; an atomic state passes
+ * it from one to the other, and its volatile write publishes the index along with it.
+ */
+public class PcmRingBuffer {
+
+    private static final int OVERWRITING = 0;
+    private static final int ATTACH_REQUESTED = 1;
+    private static final int ATTACHED = 2;
+
+    private final ByteBuffer writeView;
+    private final ByteBuffer readView;
+    private final int capacity;
+    private final int mask;
+    private final int retainBytes;
+    private final AtomicInteger state = new AtomicInteger(OVERWRITING);
+    private final AtomicLong writeIndex = new AtomicLong();
+    private final AtomicLong readIndex = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private volatile boolean closed;
+    private volatile Thread waitingReader;
+
+    /**
+     * @param minCapacity bytes, rounded up to a power of two
+     * @param retainBytes how much of the past a reader gets when it attaches; at most the capacity
+     */
+    public PcmRingBuffer(int minCapacity, int retainBytes) {
+        if (minCapacity <= 0 || minCapacity > 1 << 30 || retainBytes < 0 || retainBytes > minCapacity) {
+            throw new IllegalArgumentException("Invalid ring size " + minCapacity + ", retain " + retainBytes);
+        }
+        int size = Integer.highestOneBit(minCapacity);
+        capacity = size < minCapacity ? size << 1 : size;
+        mask = capacity - 1;
+        this.retainBytes = retainBytes;
+        ByteBuffer ring = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        writeView = ring.duplicate();
+        readView = ring.duplicate();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Writes that did not fit while a reader was attached
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    /**
+     * Writer side. Copies the bytes between src's position and limit and returns how many were
+     * taken: all of them while overwriting, none if they do not fit while a reader is attached.
+     */
+    public int write(ByteBuffer src) {
+        handOver();
+        int length = src.remaining();
+        if (length == 0) {
+            return 0;
+        }
+        long write = writeIndex.get();
+        if (state.get() == ATTACHED) {
+            if (write + length - readIndex.get() > capacity) {
+                droppedBytes.addAndGet(length);
+                return 0;
+            }
+        } else if (length > capacity) {
+            // Only the newest capacity bytes would survive anyway
+            src.position(src.limit() - capacity);
+            write += length - capacity;
+            length = capacity;
+        }
+        copyIn(src, write, length);
+        if (state.get() != ATTACHED) {
+            long oldest = write + length - capacity;
+            if (readIndex.get() < oldest) {
+                readIndex.set(oldest);
+            }
+        }
+        writeIndex.set(write + length);
+        Thread reader = waitingReader;
+        if (reader != null) {
+            LockSupport.unpark(reader);
+        }
+        return length;
+    }
+
+    // Writer side; the reader sees whatever is left and then the end
+    public void close() {
+        handOver();
+        closed = true;
+        Thread reader = waitingReader;
+        if (reader != null) {
+            LockSupport.unpark(reader);
+        }
+    }
+
+    /**
+     * Reader side. Starts keeping audio from the last {@code retainBytes} before the writer
+     * next writes. One reader at a time.
+     */
+    public void attach() {
+        if (!state.compareAndSet(OVERWRITING, ATTACH_REQUESTED)) {
+            throw new IllegalStateException("Ring already has a reader");
+        }
+    }
+
+    /**
+     * Reader side. Waits up to {@code maxWaitNanos} for audio, then copies as much as fits into
+     * dst. Returns the bytes copied, 0 if none came in time, or -1 once the writer has closed
+     * the ring and everything has been read.
+     */
+    public int read(ByteBuffer dst, long maxWaitNanos) {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        waitingReader = Thread.currentThread();
+        try {
+            while (true) {
+                // Read before looking for data, so a close is only believed once its writes are seen
+                boolean wasClosed = closed;
+                if (state.get() == ATTACHED) {
+                    long read = readIndex.get();
+                    int available = (int) Math.min(writeIndex.get() - read, dst.remaining());
+                    if (available > 0) {
+                        copyOut(dst, read, available);
+                        readIndex.set(read + available);
+                        return available;
+                    }
+                }
+                if (wasClosed) {
+                    return -1;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return 0;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            waitingReader = null;
+        }
+    }
+
+    // Reader side; hands the read index back, the writer overwrites again from its next write
+    public void detach() {
+        state.set(OVERWRITING);
+    }
+
+    // The read index still belongs to the writer here, so it can place it before letting go
+    private void handOver() {
+        if (state.get() == ATTACH_REQUESTED) {
+            long write = writeIndex.get();
+            readIndex.set(Math.max(readIndex.get(), write - retainBytes));
+            state.compareAndSet(ATTACH_REQUESTED, ATTACHED);
+        }
+    }
+
+    private void copyIn(ByteBuffer src, long index, int length) {
+        int offset = (int) (index & mask);
+        int first = Math.min(length, capacity - offset);
+        int end = src.position() + length;
+        src.limit(src.position() + first);
+        writeView.clear();
+        writeView.position(offset);
+        writeView.put(src);
+        if (first < length) {
+            src.limit(end);
+            writeView.clear();
+            writeView.put(src);
+        }
+        src.limit(end);
+    }
+
+    private void copyOut(ByteBuffer dst, long index, int length) {
+        int offset = (int) (index & mask);
+        int first = Math.min(length, capacity - offset);
+        readView.limit(offset + first).position(offset);
+        dst.put(readView);
+        if (first < length) {
+            readView.limit(length - first).position(0);
+            dst.put(readView);
+        }
+    }
+}
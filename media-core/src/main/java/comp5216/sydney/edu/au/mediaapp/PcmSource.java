@@ -0,0 +1,22 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Produces 16-bit little-endian PCM for the {@link RecordingEngine}.
+ */
+public interface PcmSource {
+
+    void start() throws IOException;
+
+    /**
+     * Blocks until data is available and fills the buffer from its position up to its limit.
+     * Returns the number of bytes written, or -1 once the source has ended.
+     */
+    int read(ByteBuffer buffer) throws IOException;
+
+    void stop();
+
+    void release();
+}
@@ -0,0 +1,163 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a {@link PcmSource} running while armed, so a recording can start with the audio from
+ * just before it was asked for.
+ *
+ * A capture thread reads the source into a {@link PcmRingBuffer} holding the last
+ * {@code preRollMs}. {@link #openRecording()} returns a source for the {@link RecordingEngine}
+ * that starts with that pre-roll and carries on live from the same ring, so there is no gap
+ * at the point where the recording was started. The ring has {@code headroomMs} on top for the
+ * encoder to fall behind by, say while its codec is being configured. Memory is the ring,
+ * allocated once when armed and off-heap.
+ */
+public class PreRollCapture {
+
+    private static final Logger LOG = Logger.getLogger("PreRollCapture");
+    // How long the encoder thread waits in one read before checking whether it was stopped
+    private static final long READ_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final RecordingConfig config;
+    private final PcmSource source;
+    private final int preRollBytes;
+    private final int ringBytes;
+
+    private volatile boolean armed;
+    private PcmRingBuffer ring;
+    private Thread thread;
+
+    public PreRollCapture(RecordingConfig config, PcmSource source, long preRollMs, long headroomMs) {
+        if (preRollMs < 0 || headroomMs <= 0) {
+            throw new IllegalArgumentException("Invalid pre-roll " + preRollMs + " ms, headroom " + headroomMs + " ms");
+        }
+        this.config = config;
+        this.source = source;
+        this.preRollBytes = toBytes(preRollMs);
+        this.ringBytes = preRollBytes + Math.max(toBytes(headroomMs), config.getBufferSize());
+    }
+
+    public synchronized void arm() {
+        if (thread != null) {
+            return;
+        }
+        ring = new PcmRingBuffer(ringBytes, preRollBytes);
+        armed = true;
+        thread = new Thread(this::capture, "PreRollCapture");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    // Stops the source; a recording still open sees the end of its audio
+    public void disarm() {
+        Thread worker;
+        synchronized (this) {
+            armed = false;
+            worker = thread;
+            thread = null;
+        }
+        if (worker == null) {
+            return;
+        }
+        source.stop();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isArmed() {
+        return armed;
+    }
+
+    /**
+     * A source for one recording, starting {@code preRollMs} before this call. Call it when the
+     * recording is asked for, not once the encoder is ready. Releasing the source leaves the
+     * capture armed for the next one.
+     */
+    public synchronized PcmSource openRecording() {
+        if (thread == null) {
+            throw new IllegalStateException("Pre-roll capture is not armed");
+        }
+        ring.attach();
+        return new RingSource(ring);
+    }
+
+    private void capture() {
+        PcmRingBuffer target = ring;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(config.getBufferSize()).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            source.start();
+            while (armed) {
+                buffer.clear();
+                int read = source.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                if (read == 0) {
+                    continue;
+                }
+                buffer.flip();
+                target.write(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Pre-roll capture failed", e);
+        } finally {
+            armed = false;
+            target.close();
+            source.stop();
+            source.release();
+            if (target.getDroppedBytes() > 0) {
+                LOG.warning("Encoder fell behind, dropped " + target.getDroppedBytes() + " bytes of PCM");
+            }
+        }
+    }
+
+    private int toBytes(long millis) {
+        long frames = millis * config.getSampleRate() / 1000;
+        return (int) (frames * config.getFrameSize());
+    }
+
+    // The encoder thread's end of the ring
+    private static final class RingSource implements PcmSource {
+        private final PcmRingBuffer ring;
+        private volatile boolean stopped;
+        private boolean attached = true;
+
+        RingSource(PcmRingBuffer ring) {
+            this.ring = ring;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) {
+            if (stopped) {
+                return -1;
+            }
+            return ring.read(buffer, READ_WAIT_NANOS);
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void release() {
+            if (attached) {
+                attached = false;
+                ring.detach();
+            }
+        }
+    }
+}
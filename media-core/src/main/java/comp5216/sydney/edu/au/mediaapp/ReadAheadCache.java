@@ -0,0 +1,147 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Block cache in front of a {@link BlockFetcher} for streaming playback.
+ *
+ * Remote bytes are fetched in fixed-size blocks. Every read schedules the next
+ * {@code readAheadBlocks} blocks on {@code executor}, so sequential playback rarely waits on the
+ * network, and at most {@code maxBlocks} blocks are kept (least recently used go first), which
+ * bounds memory no matter how long the media is. A seek just starts fetching at the new block.
+ */
+public class ReadAheadCache implements Closeable {
+
+    private final BlockFetcher fetcher;
+    private final int blockSize;
+    private final int readAheadBlocks;
+    private final ExecutorService executor;
+    private final Map<Long, Future<byte[]>> blocks;  // guarded by this, in access order
+    private long size = -1;
+
+    public ReadAheadCache(BlockFetcher fetcher, int blockSize, final int maxBlocks, int readAheadBlocks,
+                          ExecutorService executor) {
+        if (maxBlocks <= readAheadBlocks) {
+            throw new IllegalArgumentException("maxBlocks must exceed readAheadBlocks");
+        }
+        this.fetcher = fetcher;
+        this.blockSize = blockSize;
+        this.readAheadBlocks = readAheadBlocks;
+        this.executor = executor;
+        this.blocks = new LinkedHashMap<Long, Future<byte[]>>(maxBlocks * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Future<byte[]>> eldest) {
+                if (size() > maxBlocks) {
+                    eldest.getValue().cancel(true);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized long size() throws IOException {
+        if (size < 0) {
+            size = fetcher.size();
+        }
+        return size;
+    }
+
+    // Blocks until the bytes are there; returns the number copied, or -1 at or past the end
+    public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+        long total = size();
+        if (position >= total) {
+            return -1;
+        }
+        int copied = 0;
+        long index = position / blockSize;
+        while (copied < length && position + copied < total) {
+            long at = position + copied;
+            index = at / blockSize;
+            byte[] block = await(index);
+            int within = (int) (at - index * blockSize);
+            int n = Math.min(length - copied, block.length - within);
+            System.arraycopy(block, within, buffer, offset + copied, n);
+            copied += n;
+        }
+        prefetch(index + 1, total);
+        return copied;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Future<byte[]> block : blocks.values()) {
+            block.cancel(true);
+        }
+        blocks.clear();
+    }
+
+    private byte[] await(long index) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Future<byte[]> future = block(index);
+            try {
+                return future.get();
+            } catch (CancellationException e) {
+                // Evicted by someone else's read-ahead while we waited, fetch it again
+                forget(index, future);
+                if (attempt > 0) {
+                    throw new IOException("Block " + index + " was evicted twice");
+                }
+            } catch (ExecutionException e) {
+                // Failed blocks are not cached, the next read retries
+                forget(index, future);
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for block " + index);
+            }
+        }
+    }
+
+    private synchronized Future<byte[]> block(final long index) {
+        Future<byte[]> future = blocks.get(index);
+        if (future == null) {
+            future = executor.submit(() -> fetchBlock(index));
+            blocks.put(index, future);
+        }
+        return future;
+    }
+
+    private void prefetch(long from, long total) {
+        List<Long> missing = new ArrayList<>(readAheadBlocks);
+        synchronized (this) {
+            for (long index = from; index < from + readAheadBlocks && index * blockSize < total; index++) {
+                if (!blocks.containsKey(index)) {
+                    missing.add(index);
+                }
+            }
+        }
+        for (long index : missing) {
+            block(index);
+        }
+    }
+
+    private synchronized void forget(long index, Future<byte[]> future) {
+        if (blocks.get(index) == future) {
+            blocks.remove(index);
+        }
+    }
+
+    private byte[] fetchBlock(long index) throws IOException {
+        long start = index * blockSize;
+        byte[] data = new byte[(int) Math.min(blockSize, size() - start)];
+        fetcher.fetch(start, data, data.length);
+        return data;
+    }
+}
@@ -0,0 +1,68 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+/**
+ * Encoder and capture settings for the {@link RecordingEngine}. PCM is always 16-bit.
+ */
+public class RecordingConfig {
+
+    public static final int BYTES_PER_SAMPLE = 2;
+
+    private final RecordingProfile.Codec codec;
+    private final int sampleRate;
+    private final int channelCount;
+    private final int bitRate;
+    private final int bufferSize;
+
+    /**
+     * @param bufferSize bytes of PCM moved per read; rounded down to whole frames
+     */
+    public RecordingConfig(int sampleRate, int channelCount, int bitRate, int bufferSize) {
+        this(RecordingProfile.Codec.AAC, sampleRate, channelCount, bitRate, bufferSize);
+    }
+
+    public RecordingConfig(RecordingProfile.Codec codec, int sampleRate, int channelCount, int bitRate, int bufferSize) {
+        if (sampleRate <= 0 || channelCount <= 0 || bitRate <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("Recording settings must be positive");
+        }
+        int frameSize = channelCount * BYTES_PER_SAMPLE;
+        this.codec = codec;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.bitRate = bitRate;
+        this.bufferSize = Math.max(frameSize, bufferSize - bufferSize % frameSize);
+    }
+
+    // 44.1 kHz mono AAC-LC at 96 kbit/s with 20 ms reads
+    public static RecordingConfig defaults() {
+        return new RecordingConfig(44100, 1, 96000, 44100 / 50 * BYTES_PER_SAMPLE);
+    }
+
+    public RecordingProfile.Codec getCodec() {
+        return codec;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getFrameSize() {
+        return channelCount * BYTES_PER_SAMPLE;
+    }
+
+    // Presentation time of the first frame after framesWritten frames
+    public long framesToUs(long framesWritten) {
+        return framesWritten * 1000000L / sampleRate;
+    }
+}
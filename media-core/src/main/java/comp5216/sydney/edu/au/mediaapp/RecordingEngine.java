@@ -0,0 +1,106 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Moves PCM from a {@link PcmSource} into a {@link PcmEncoder} on a dedicated thread.
+ *
+ * The read buffer is a direct ByteBuffer allocated once per engine, so the capture loop does
+ * not allocate. Source and encoder setup happen on the recording thread too, keeping codec
+ * configuration off the caller's (UI) thread.
+ */
+public class RecordingEngine {
+
+    public interface Listener {
+        // Called on the recording thread once the output has been finalised
+        void onRecordingFinished(long framesWritten);
+
+        void onRecordingFailed(Exception e);
+    }
+
+    private final RecordingConfig config;
+    private final PcmSource source;
+    private final PcmEncoder encoder;
+    private final Listener listener;
+    private final ByteBuffer buffer;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public RecordingEngine(RecordingConfig config, PcmSource source, PcmEncoder encoder, Listener listener) {
+        this.config = config;
+        this.source = source;
+        this.encoder = encoder;
+        this.listener = listener;
+        this.buffer = ByteBuffer.allocateDirect(config.getBufferSize()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Engine already started");
+        }
+        running = true;
+        thread = new Thread(this::run, "RecordingEngine");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    // Stops capturing and waits for the encoder to finish writing the output
+    public void stop() {
+        Thread worker;
+        synchronized (this) {
+            running = false;
+            worker = thread;
+        }
+        if (worker == null) {
+            return;
+        }
+        source.stop();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void run() {
+        long frames = 0;
+        int frameSize = config.getFrameSize();
+        try {
+            encoder.start();
+            source.start();
+            while (running) {
+                buffer.clear();
+                int read = source.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                if (read == 0) {
+                    continue;
+                }
+                buffer.flip();
+                encoder.encode(buffer, config.framesToUs(frames));
+                frames += read / frameSize;
+            }
+            source.stop();
+            encoder.finish();
+            if (listener != null) {
+                listener.onRecordingFinished(frames);
+            }
+        } catch (IOException | RuntimeException e) {
+            running = false;
+            if (listener != null) {
+                listener.onRecordingFailed(e);
+            }
+        } finally {
+            source.release();
+            encoder.release();
+        }
+    }
+}
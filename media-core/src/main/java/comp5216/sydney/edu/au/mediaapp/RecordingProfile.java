@@ -0,0 +1,83 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+/**
+ * What an audio recording is for, and the codec, sample rate, channels and bitrate that
+ * suit it. {@code minBitRate} is as far as {@link AdaptiveBitrate} will take the profile down
+ * when uploads back up or storage runs low.
+ */
+public enum RecordingProfile {
+
+    // Notes and dictation: Opus holds speech at 24 kbit/s, about 180 KB a minute
+    VOICE_LOW("voice-low", Codec.OPUS, 16000, 1, 24000, 12000),
+    // Interviews and lectures, full band so sibilants and room tone survive
+    VOICE_HIGH("voice-high", Codec.OPUS, 48000, 1, 48000, 24000),
+    // Live music, stereo AAC-LC as the camera app records it
+    MUSIC("music", Codec.AAC, 44100, 2, 128000, 64000);
+
+    public enum Codec {
+        AAC("audio/mp4a-latm", "m4a"),
+        OPUS("audio/opus", "ogg");
+
+        private final String mimeType;
+        private final String extension;
+
+        Codec(String mimeType, String extension) {
+            this.mimeType = mimeType;
+            this.extension = extension;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        // Of the container the encoded audio is written to: MP4 for AAC, Ogg for Opus
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private static final int READS_PER_SECOND = 50;  // 20 ms reads, as RecordingConfig.defaults()
+
+    private final String label;
+    private final Codec codec;
+    private final int sampleRate;
+    private final int channelCount;
+    private final int bitRate;
+    private final int minBitRate;
+
+    RecordingProfile(String label, Codec codec, int sampleRate, int channelCount, int bitRate, int minBitRate) {
+        this.label = label;
+        this.codec = codec;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.bitRate = bitRate;
+        this.minBitRate = minBitRate;
+    }
+
+    public RecordingConfig toConfig() {
+        return new RecordingConfig(codec, sampleRate, channelCount, bitRate,
+                sampleRate / READS_PER_SECOND * channelCount * RecordingConfig.BYTES_PER_SAMPLE);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    public int getMinBitRate() {
+        return minBitRate;
+    }
+
+    // The profile after this one, for pickers that cycle through them
+    public RecordingProfile next() {
+        RecordingProfile[] all = values();
+        return all[(ordinal() + 1) % all.length];
+    }
+}
@@ -0,0 +1,78 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals per {@link RecordingProfile}, normalised per minute of audio: the file size,
+ * which is what a profile or bitrate costs in storage and upload, and the recording thread's
+ * CPU time spent feeding the encoder.
+ *
+ * The feed CPU is the app's overhead around the codec, not the cost of encoding the profile.
+ * MediaCodec encodes in the media.swcodec process, whose CPU time an app cannot read, so the
+ * codec's own CPU is not measured here at all; see {@link EncodeMeter}.
+ */
+public class RecordingStats {
+
+    private static final double US_PER_MINUTE = 60e6;
+
+    private static final class Totals {
+        final AtomicLong recordings = new AtomicLong();
+        final AtomicLong audioUs = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong feedCpuNanos = new AtomicLong();
+    }
+
+    // Filled once here and never changed, so reads need no lock
+    private final Map<RecordingProfile, Totals> totals = new EnumMap<>(RecordingProfile.class);
+
+    public RecordingStats() {
+        for (RecordingProfile profile : RecordingProfile.values()) {
+            totals.put(profile, new Totals());
+        }
+    }
+
+    public void record(RecordingProfile profile, long audioUs, long outputBytes, long feedCpuNanos) {
+        Totals t = totals.get(profile);
+        t.recordings.incrementAndGet();
+        t.audioUs.addAndGet(audioUs);
+        t.bytes.addAndGet(outputBytes);
+        t.feedCpuNanos.addAndGet(feedCpuNanos);
+    }
+
+    public long getRecordings(RecordingProfile profile) {
+        return totals.get(profile).recordings.get();
+    }
+
+    public double getKilobytesPerMinute(RecordingProfile profile) {
+        Totals t = totals.get(profile);
+        long us = t.audioUs.get();
+        return us == 0 ? 0 : t.bytes.get() / 1024.0 * US_PER_MINUTE / us;
+    }
+
+    // CPU time the recording thread spent handing audio to the encoder, per minute of audio;
+    // the codec's own time is not in it
+    public double getFeedCpuMillisPerMinute(RecordingProfile profile) {
+        Totals t = totals.get(profile);
+        long us = t.audioUs.get();
+        return us == 0 ? 0 : t.feedCpuNanos.get() / 1e6 * US_PER_MINUTE / us;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("RecordingStats{");
+        boolean first = true;
+        for (RecordingProfile profile : RecordingProfile.values()) {
+            long recordings = getRecordings(profile);
+            if (recordings == 0) {
+                continue;
+            }
+            out.append(first ? "" : ", ").append(String.format(Locale.ROOT, "%s: n=%d, %.1f KB/min, app-side feed CPU %.1f ms/min (codec not measured)",
+                    profile.getLabel(), recordings, getKilobytesPerMinute(profile), getFeedCpuMillisPerMinute(profile)));
+            first = false;
+        }
+        return out.append('}').toString();
+    }
+}
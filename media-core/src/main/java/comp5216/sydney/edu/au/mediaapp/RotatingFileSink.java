@@ -0,0 +1,117 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Appends each {@link TelemetryReport} as one JSON line to {@code <name>.jsonl} in
+ * {@code dir}. Once the file would pass {@code maxBytes} it is rotated to
+ * {@code <name>.1.jsonl}, older files shift up by one and the oldest of {@code maxFiles} goes.
+ * Idle reports are not written.
+ */
+public class RotatingFileSink implements Telemetry.Sink {
+
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private final File dir;
+    private final String name;
+    private final long maxBytes;
+    private final int maxFiles;
+
+    public RotatingFileSink(File dir, String name, long maxBytes, int maxFiles) {
+        this.dir = dir;
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    @Override
+    public synchronized void publish(TelemetryReport report) throws IOException {
+        if (report.isIdle()) {
+            return;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        byte[] line = (format(report) + "\n").getBytes(StandardCharsets.UTF_8);
+        File current = file(0);
+        if (current.length() > 0 && current.length() + line.length > maxBytes) {
+            rotate();
+        }
+        try (FileOutputStream out = new FileOutputStream(current, true)) {
+            out.write(line);
+        }
+    }
+
+    // The current file first, then older ones
+    public File file(int generation) {
+        return new File(dir, generation == 0 ? name + ".jsonl" : name + "." + generation + ".jsonl");
+    }
+
+    private void rotate() throws IOException {
+        File oldest = file(maxFiles - 1);
+        if (oldest.exists() && !oldest.delete()) {
+            throw new IOException("Could not delete " + oldest);
+        }
+        for (int generation = maxFiles - 2; generation >= 0; generation--) {
+            File from = file(generation);
+            if (from.exists() && !from.renameTo(file(generation + 1))) {
+                throw new IOException("Could not rotate " + from);
+            }
+        }
+    }
+
+    static String format(TelemetryReport report) {
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"start\":").append(report.getStartMillis())
+                .append(",\"end\":").append(report.getEndMillis())
+                .append(",\"counters\":{");
+        appendLongs(json, report.getCounters());
+        json.append("},\"gauges\":{");
+        appendLongs(json, report.getGauges());
+        json.append("},\"histograms\":{");
+        boolean first = true;
+        for (Map.Entry<String, Histogram.Snapshot> entry : report.getHistograms().entrySet()) {
+            Histogram.Snapshot snapshot = entry.getValue();
+            if (snapshot.getCount() == 0) {
+                continue;
+            }
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            appendName(json, entry.getKey());
+            json.append("{\"count\":").append(snapshot.getCount())
+                    .append(",\"mean\":").append(String.format(Locale.ROOT, "%.1f", snapshot.getMean()));
+            for (double percentile : PERCENTILES) {
+                json.append(",\"p").append((int) percentile).append("\":")
+                        .append(snapshot.getValueAtPercentile(percentile));
+            }
+            json.append(",\"max\":").append(snapshot.getMax()).append('}');
+        }
+        return json.append("}}").toString();
+    }
+
+    private static void appendLongs(StringBuilder json, Map<String, Long> values) {
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            appendName(json, entry.getKey());
+            json.append(entry.getValue());
+        }
+    }
+
+    // Metric names are code constants, only quotes and backslashes need escaping
+    private static void appendName(StringBuilder json, String name) {
+        json.append('"').append(name.replace("\\", "\\\\").replace("\"", "\\\"")).append("\":");
+    }
+}
@@ -0,0 +1,53 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.util.Locale;
+
+/**
+ * Records shutter-to-image latency and shot-to-shot interval of a capture session over the
+ * last {@code capacity} shots. Samples go into {@link LatencyRing}s, so recording a shot does
+ * not allocate. Thread-safe.
+ */
+public class ShotLatencyTracker {
+
+    private final LatencyRing capture;
+    private final LatencyRing interval;
+    private long lastCompletedAt = -1;
+
+    public ShotLatencyTracker(int capacity) {
+        this.capture = new LatencyRing(capacity);
+        this.interval = new LatencyRing(capacity);
+    }
+
+    // requestedAt is when takePicture was called, completedAt when the image was on disk
+    public synchronized void record(long requestedAtNanos, long completedAtNanos) {
+        capture.record(completedAtNanos - requestedAtNanos);
+        if (lastCompletedAt >= 0) {
+            interval.record(completedAtNanos - lastCompletedAt);
+        }
+        lastCompletedAt = completedAtNanos;
+    }
+
+    // A new burst starts, the gap since the previous one is not a shot-to-shot interval
+    public synchronized void resetInterval() {
+        lastCompletedAt = -1;
+    }
+
+    public long getShots() {
+        return capture.getCount();
+    }
+
+    public double getCapturePercentileMs(double percentile) {
+        return capture.getPercentileMs(percentile);
+    }
+
+    public double getIntervalPercentileMs(double percentile) {
+        return interval.getPercentileMs(percentile);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d shots, capture p50 %.0f ms p95 %.0f ms, shot-to-shot p50 %.0f ms p95 %.0f ms",
+                getShots(), getCapturePercentileMs(50), getCapturePercentileMs(95),
+                getIntervalPercentileMs(50), getIntervalPercentileMs(95));
+    }
+}
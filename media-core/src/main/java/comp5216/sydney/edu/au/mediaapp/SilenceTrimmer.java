@@ -0,0 +1,101 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link PcmEncoder} decorator that drops silence before it reaches the encoder.
+ *
+ * A buffer counts as voice when its RMS level is at or above {@code thresholdDb}. Buffers are
+ * kept while there is voice and for {@code hangoverUs} after it, so word endings and short
+ * pauses survive; everything else is dropped, which trims leading and trailing silence and
+ * shortens long pauses. The last dropped buffer is held back and sent ahead of the next voice
+ * so the onset of a word is not clipped. Timestamps are rewritten so the output has no gaps.
+ */
+public class SilenceTrimmer implements PcmEncoder {
+
+    public static final float DEFAULT_THRESHOLD_DB = -45f;
+    public static final long DEFAULT_HANGOVER_US = 500000;
+
+    private final PcmEncoder delegate;
+    private final RecordingConfig config;
+    private final float thresholdDb;
+    private final long hangoverUs;
+    private final ByteBuffer preRoll;  // last silent buffer, allocated once
+
+    private boolean hasPreRoll;
+    private boolean heardVoice;
+    private long lastVoiceUs;
+    private long framesIn;
+    private long framesOut;
+
+    public SilenceTrimmer(PcmEncoder delegate, RecordingConfig config, float thresholdDb, long hangoverUs) {
+        this.delegate = delegate;
+        this.config = config;
+        this.thresholdDb = thresholdDb;
+        this.hangoverUs = hangoverUs;
+        this.preRoll = ByteBuffer.allocateDirect(config.getBufferSize()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public SilenceTrimmer(PcmEncoder delegate, RecordingConfig config) {
+        this(delegate, config, DEFAULT_THRESHOLD_DB, DEFAULT_HANGOVER_US);
+    }
+
+    @Override
+    public void start() throws IOException {
+        delegate.start();
+    }
+
+    @Override
+    public void encode(ByteBuffer pcm, long presentationTimeUs) throws IOException {
+        framesIn += pcm.remaining() / config.getFrameSize();
+        if (LevelMeter.rmsDb(pcm) >= thresholdDb) {
+            heardVoice = true;
+            lastVoiceUs = presentationTimeUs;
+        }
+        if (heardVoice && presentationTimeUs - lastVoiceUs <= hangoverUs) {
+            if (hasPreRoll) {
+                hasPreRoll = false;
+                emit(preRoll);
+            }
+            emit(pcm);
+        } else if (pcm.remaining() <= preRoll.capacity()) {
+            int position = pcm.position();
+            preRoll.clear();
+            preRoll.put(pcm);
+            preRoll.flip();
+            pcm.position(position);
+            hasPreRoll = true;
+        }
+    }
+
+    @Override
+    public boolean setBitRate(int bitRate) {
+        return delegate.setBitRate(bitRate);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        delegate.finish();
+    }
+
+    @Override
+    public void release() {
+        delegate.release();
+    }
+
+    public long getFramesIn() {
+        return framesIn;
+    }
+
+    public long getFramesDropped() {
+        return framesIn - framesOut;
+    }
+
+    private void emit(ByteBuffer pcm) throws IOException {
+        long frames = pcm.remaining() / config.getFrameSize();
+        delegate.encode(pcm, config.framesToUs(framesOut));
+        framesOut += frames;
+    }
+}
@@ -0,0 +1,20 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.File;
+
+/**
+ * Where a capture lives on the device and in Cloud Storage.
+ */
+public interface StorageLayout {
+
+    // The local file a capture is written to; its directory exists when this returns
+    File localFile(MediaType type, String fileName);
+
+    // Object path in Storage, city may be empty while the location is not known yet
+    String remotePath(String city, MediaType type, String fileName);
+
+    // As above for media captured at capturedAtMillis (0 if unknown), for layouts partitioned by time
+    default String remotePath(String city, MediaType type, String fileName, long capturedAtMillis) {
+        return remotePath(city, type, fileName);
+    }
+}
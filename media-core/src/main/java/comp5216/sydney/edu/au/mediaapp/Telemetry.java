@@ -0,0 +1,83 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Named counters, histograms and gauges for the capture and upload paths.
+ *
+ * Counters are LongAdders and histograms {@link Histogram}s, so recording from any number of
+ * threads is lock-free and allocation-free; callers look a metric up once and keep it.
+ * Nothing is reported per event: {@link #flush(long)} takes one {@link TelemetryReport} of
+ * everything since the previous flush and hands it to the registered {@link Sink}s.
+ */
+public class Telemetry {
+
+    private static final Logger LOG = Logger.getLogger("Telemetry");
+
+    public interface Sink {
+        void publish(TelemetryReport report) throws IOException;
+    }
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final List<Sink> sinks = new CopyOnWriteArrayList<>();
+    private long lastFlushMillis;
+
+    public Telemetry(long nowMillis) {
+        this.lastFlushMillis = nowMillis;
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    // Sampled at every flush; the supplier must be cheap and safe to call from any thread
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public void addSink(Sink sink) {
+        sinks.add(sink);
+    }
+
+    // Collects everything since the previous flush and publishes it; one sink failing does not stop the others
+    public synchronized TelemetryReport flush(long nowMillis) {
+        Map<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().sumThenReset());
+        }
+        Map<String, Long> gaugeValues = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            gaugeValues.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        Map<String, Histogram.Snapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshotAndReset());
+        }
+        TelemetryReport report = new TelemetryReport(lastFlushMillis, nowMillis, counterValues, gaugeValues, snapshots);
+        lastFlushMillis = nowMillis;
+
+        for (Sink sink : sinks) {
+            try {
+                sink.publish(report);
+            } catch (IOException | RuntimeException e) {
+                LOG.log(Level.WARNING, "Telemetry sink failed", e);
+            }
+        }
+        return report;
+    }
+}
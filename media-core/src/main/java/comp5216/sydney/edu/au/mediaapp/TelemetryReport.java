@@ -0,0 +1,80 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Everything {@link Telemetry} saw over one interval: counter deltas, the last value of each
+ * gauge and a histogram snapshot per metric. Immutable, names in sorted order.
+ */
+public class TelemetryReport {
+
+    private final long startMillis;
+    private final long endMillis;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+    private final Map<String, Histogram.Snapshot> histograms;
+
+    TelemetryReport(long startMillis, long endMillis, Map<String, Long> counters, Map<String, Long> gauges,
+                    Map<String, Histogram.Snapshot> histograms) {
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.gauges = Collections.unmodifiableMap(gauges);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getEndMillis() {
+        return endMillis;
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    public Map<String, Histogram.Snapshot> getHistograms() {
+        return histograms;
+    }
+
+    // True when no counter moved and no histogram recorded anything
+    public boolean isIdle() {
+        for (long value : counters.values()) {
+            if (value != 0) {
+                return false;
+            }
+        }
+        for (Histogram.Snapshot snapshot : histograms.values()) {
+            if (snapshot.getCount() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // One report covering both intervals; gauges keep the later value
+    public TelemetryReport merge(TelemetryReport later) {
+        Map<String, Long> mergedCounters = new TreeMap<>(counters);
+        for (Map.Entry<String, Long> entry : later.counters.entrySet()) {
+            Long previous = mergedCounters.get(entry.getKey());
+            mergedCounters.put(entry.getKey(), entry.getValue() + (previous == null ? 0 : previous));
+        }
+        Map<String, Long> mergedGauges = new TreeMap<>(gauges);
+        mergedGauges.putAll(later.gauges);
+        Map<String, Histogram.Snapshot> mergedHistograms = new TreeMap<>(histograms);
+        for (Map.Entry<String, Histogram.Snapshot> entry : later.histograms.entrySet()) {
+            Histogram.Snapshot previous = mergedHistograms.get(entry.getKey());
+            mergedHistograms.put(entry.getKey(), previous == null ? entry.getValue() : previous.merge(entry.getValue()));
+        }
+        return new TelemetryReport(Math.min(startMillis, later.startMillis), Math.max(endMillis, later.endMillis),
+                mergedCounters, mergedGauges, mergedHistograms);
+    }
+}
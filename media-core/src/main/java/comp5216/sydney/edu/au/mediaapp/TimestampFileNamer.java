@@ -0,0 +1,45 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Names captures after the local time they were taken, e.g. {@code IMG_20231020_143015.jpg}.
+ * {@link #withMillis()} adds milliseconds for bursts, where several shots share a second.
+ */
+public class TimestampFileNamer implements FileNamer {
+
+    private static final String PATTERN = "yyyyMMdd_HHmmss";
+
+    private static final String PATTERN_MILLIS = PATTERN + "_SSS";
+
+    private final TimeZone zone;
+    private final String pattern;
+
+    public TimestampFileNamer() {
+        this(TimeZone.getDefault());
+    }
+
+    public TimestampFileNamer(TimeZone zone) {
+        this(zone, PATTERN);
+    }
+
+    private TimestampFileNamer(TimeZone zone, String pattern) {
+        this.zone = zone;
+        this.pattern = pattern;
+    }
+
+    public static TimestampFileNamer withMillis() {
+        return new TimestampFileNamer(TimeZone.getDefault(), PATTERN_MILLIS);
+    }
+
+    @Override
+    public String name(MediaType type, long timeMillis) {
+        // SimpleDateFormat is not thread-safe, a fresh one per name is cheap next to a capture
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(zone);
+        return type.getPrefix() + format.format(new Date(timeMillis)) + type.getExtension();
+    }
+}
@@ -0,0 +1,45 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals for the pre-upload transcoding stages: bytes in and out, and encode time
+ * normalised per megapixel so devices and photo sizes can be compared.
+ */
+public class TranscodeStats {
+
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private final AtomicLong pixels = new AtomicLong();
+
+    public void record(long inputBytes, long outputBytes, long nanos, long sourcePixels) {
+        items.incrementAndGet();
+        bytesIn.addAndGet(inputBytes);
+        bytesOut.addAndGet(outputBytes);
+        encodeNanos.addAndGet(nanos);
+        pixels.addAndGet(sourcePixels);
+    }
+
+    public long getItems() {
+        return items.get();
+    }
+
+    public long getBytesSaved() {
+        return bytesIn.get() - bytesOut.get();
+    }
+
+    public double getMillisPerMegapixel() {
+        long px = pixels.get();
+        return px == 0 ? 0 : (encodeNanos.get() / 1e6) / (px / 1e6);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "TranscodeStats{items=%d, in=%d KB, out=%d KB, saved=%d KB, %.1f ms/MP}",
+                getItems(), bytesIn.get() / 1024, bytesOut.get() / 1024, getBytesSaved() / 1024,
+                getMillisPerMegapixel());
+    }
+}
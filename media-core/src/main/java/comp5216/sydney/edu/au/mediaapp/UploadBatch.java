@@ -0,0 +1,123 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of a set of uploads taken as one, such as a multi-select from the gallery.
+ *
+ * Register it with {@link UploadQueue#addListener} before its items are enqueued. Outcomes are
+ * counted as the queue reports them; byte progress is not pushed per chunk but read from the
+ * items whenever {@link #getProgress()} is called, so a UI can poll it at its own frame rate.
+ */
+public class UploadBatch implements UploadQueue.Listener {
+
+    public interface Listener {
+        // Called once, on the queue's dispatch thread, when every item has succeeded or failed for good
+        void onBatchFinished(UploadBatch batch);
+    }
+
+    /**
+     * One reading of a batch's progress.
+     */
+    public static final class Progress {
+        private final int total;
+        private final int succeeded;
+        private final int failed;
+        private final double fraction;
+
+        Progress(int total, int succeeded, int failed, double fraction) {
+            this.total = total;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.fraction = fraction;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        // 0..1, finished items count whole, items in flight by their bytes sent
+        public double getFraction() {
+            return fraction;
+        }
+
+        public boolean isFinished() {
+            return succeeded + failed == total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d/%d uploaded, %d failed (%.0f%%)", succeeded, total, failed,
+                    fraction * 100);
+        }
+    }
+
+    private final Map<String, UploadItem> items;
+    private final Set<String> finished = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final Listener listener;
+
+    public UploadBatch(Collection<UploadItem> items, Listener listener) {
+        Map<String, UploadItem> byId = new LinkedHashMap<>();
+        for (UploadItem item : items) {
+            byId.put(item.getId(), item);
+        }
+        this.items = Collections.unmodifiableMap(byId);
+        this.listener = listener;
+    }
+
+    public boolean contains(UploadItem item) {
+        return items.containsKey(item.getId());
+    }
+
+    @Override
+    public void onUploadSucceeded(UploadItem item) {
+        if (contains(item) && finished.add(item.getId())) {
+            succeeded.incrementAndGet();
+            finishIfDone();
+        }
+    }
+
+    @Override
+    public void onUploadFailed(UploadItem item, Exception e, boolean willRetry) {
+        if (!willRetry && contains(item) && finished.add(item.getId())) {
+            failed.incrementAndGet();
+            finishIfDone();
+        }
+    }
+
+    public Progress getProgress() {
+        double done = 0;
+        for (UploadItem item : items.values()) {
+            if (finished.contains(item.getId())) {
+                done += 1;
+            } else if (item.getTotalBytes() > 0) {
+                done += Math.min(1, (double) item.getBytesTransferred() / item.getTotalBytes());
+            }
+        }
+        int total = items.size();
+        return new Progress(total, succeeded.get(), failed.get(), total == 0 ? 1 : done / total);
+    }
+
+    private void finishIfDone() {
+        if (finished.size() == items.size() && listener != null) {
+            listener.onBatchFinished(this);
+        }
+    }
+}
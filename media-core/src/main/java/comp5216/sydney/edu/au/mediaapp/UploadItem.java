@@ -0,0 +1,173 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.util.UUID;
+
+/**
+ * One entry of the upload queue: a local source (file or content Uri string) and the
+ * Storage path it should end up at. Instances are owned by the queue's dispatch thread.
+ *
+ * An item may cover just a byte range of its source, and may belong to a group. A group's
+ * commit item is held back until every other item of the group has been uploaded.
+ */
+public class UploadItem {
+
+    public static final long WHOLE_FILE = -1;
+
+    private final String id;
+    private final String source;
+    private final String remotePath;
+    private final long offset;
+    private final long length;  // WHOLE_FILE or the number of bytes from offset
+    private final String group;
+    private final boolean commit;
+    private int attempts;
+    private String sessionUri;  // Firebase resumable upload session, null until the first chunk is accepted
+    private volatile String contentHash;  // SHA-256 worked out by the dedup stage, not journaled
+    private volatile String storedPath;  // where identical content already was, set by the dedup stage
+    private volatile String uploadSource;  // what a stage produced to send instead of source, not journaled
+    private volatile String contentType;
+    private volatile long capturedAtMillis;  // when the media was captured, 0 if unknown
+    private volatile long bytesTransferred;  // of the current attempt, for progress only
+    private volatile long totalBytes;
+
+    public UploadItem(String id, String source, String remotePath) {
+        this(id, source, remotePath, 0, WHOLE_FILE, null, false, 0, null);
+    }
+
+    UploadItem(String id, String source, String remotePath, long offset, long length,
+               String group, boolean commit, int attempts, String sessionUri) {
+        this.id = id;
+        this.source = source;
+        this.remotePath = remotePath;
+        this.offset = offset;
+        this.length = length;
+        this.group = group;
+        this.commit = commit;
+        this.attempts = attempts;
+        this.sessionUri = sessionUri;
+    }
+
+    public static UploadItem forFile(String source, String remotePath) {
+        return new UploadItem(UUID.randomUUID().toString(), source, remotePath);
+    }
+
+    public static UploadItem forRange(String source, String remotePath, long offset, long length, String group) {
+        return new UploadItem(UUID.randomUUID().toString(), source, remotePath, offset, length, group, false, 0, null);
+    }
+
+    public static UploadItem forCommit(String source, String remotePath, String group) {
+        return new UploadItem(UUID.randomUUID().toString(), source, remotePath, 0, WHOLE_FILE, group, true, 0, null);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getRemotePath() {
+        return remotePath;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public boolean isRange() {
+        return length != WHOLE_FILE;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public boolean isCommit() {
+        return commit;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getSessionUri() {
+        return sessionUri;
+    }
+
+    void setSessionUri(String sessionUri) {
+        this.sessionUri = sessionUri;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    // Where the content actually is in Storage: remotePath, unless an identical upload was reused
+    public String getStoredPath() {
+        return storedPath != null ? storedPath : remotePath;
+    }
+
+    void setStoredPath(String storedPath) {
+        this.storedPath = storedPath;
+    }
+
+    // The bytes to send: a stage's output if there is one, otherwise the original source
+    public String getUploadSource() {
+        return uploadSource != null ? uploadSource : source;
+    }
+
+    public boolean hasPreparedSource() {
+        return uploadSource != null;
+    }
+
+    public void setPreparedSource(String uploadSource, String contentType) {
+        this.uploadSource = uploadSource;
+        this.contentType = contentType;
+    }
+
+    // MIME type of the upload source, or null to let Storage infer it
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getCapturedAtMillis() {
+        return capturedAtMillis;
+    }
+
+    public void setCapturedAtMillis(long capturedAtMillis) {
+        this.capturedAtMillis = capturedAtMillis;
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    // 0 until the transport has reported the size
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    void setProgress(long bytesTransferred, long totalBytes) {
+        this.bytesTransferred = bytesTransferred;
+        this.totalBytes = totalBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadItem{" + id + " " + source + (isRange() ? " [" + offset + "+" + length + "]" : "")
+                + " -> " + remotePath + ", attempts=" + attempts + "}";
+    }
+}
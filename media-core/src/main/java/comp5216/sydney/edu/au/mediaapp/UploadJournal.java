@@ -0,0 +1,158 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Small append-only journal backing the upload queue.
+ *
+ * Every change to an item is written as a full "PUT" line, a finished item as a "DEL" line.
+ * Replaying the file keeps the last record per id, so a torn last line only loses that one
+ * update. The file is rewritten with just the live items once it grows well past them.
+ */
+public class UploadJournal {
+
+    private static final String PUT = "PUT";
+    private static final String DEL = "DEL";
+    private static final int COMPACT_MIN_LINES = 64;
+
+    private final File file;
+    private final Map<String, UploadItem> live = new LinkedHashMap<>();
+    private Writer writer;
+    private int lines;
+
+    public UploadJournal(File file) {
+        this.file = file;
+    }
+
+    // Replays the journal from disk and returns the items that were not finished yet
+    public List<UploadItem> load() throws IOException {
+        live.clear();
+        lines = 0;
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    apply(line);
+                }
+            }
+        }
+        compactIfNeeded();
+        return new ArrayList<>(live.values());
+    }
+
+    public void put(UploadItem item) throws IOException {
+        live.put(item.getId(), item);
+        append(format(item));
+    }
+
+    public void remove(String id) throws IOException {
+        if (live.remove(id) != null) {
+            append(DEL + "\t" + escape(id));
+            compactIfNeeded();
+        }
+    }
+
+    public boolean contains(String id) {
+        return live.containsKey(id);
+    }
+
+    public Collection<UploadItem> items() {
+        return live.values();
+    }
+
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private void apply(String line) {
+        String[] fields = line.split("\t", -1);
+        if ((fields.length == 6 || fields.length == 10 || fields.length == 11) && PUT.equals(fields[0])) {
+            try {
+                String session = unescape(fields[5]);
+                boolean extended = fields.length >= 10;
+                String group = extended ? unescape(fields[8]) : "";
+                UploadItem item = new UploadItem(unescape(fields[1]), unescape(fields[2]), unescape(fields[3]),
+                        extended ? Long.parseLong(fields[6]) : 0,
+                        extended ? Long.parseLong(fields[7]) : UploadItem.WHOLE_FILE,
+                        group.isEmpty() ? null : group,
+                        extended && "1".equals(fields[9]),
+                        Integer.parseInt(fields[4]), session.isEmpty() ? null : session);
+                if (fields.length == 11) {
+                    item.setCapturedAtMillis(Long.parseLong(fields[10]));
+                }
+                live.put(item.getId(), item);
+            } catch (NumberFormatException e) {
+                // torn or corrupted record, skip it
+            }
+        } else if (fields.length == 2 && DEL.equals(fields[0])) {
+            live.remove(unescape(fields[1]));
+        }
+    }
+
+    private void append(String record) throws IOException {
+        if (writer == null) {
+            writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+        }
+        writer.write(record);
+        writer.write('\n');
+        writer.flush();
+        lines++;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (lines < COMPACT_MIN_LINES || lines < live.size() * 4) {
+            return;
+        }
+        close();
+        File tmp = new File(file.getPath() + ".tmp");
+        List<UploadItem> items = new ArrayList<>(live.values());
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            for (UploadItem item : items) {
+                w.write(format(item));
+                w.write('\n');
+            }
+            w.flush();
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("failed to replace " + file);
+        }
+        lines = items.size();
+    }
+
+    private static String format(UploadItem item) {
+        return PUT + "\t" + escape(item.getId()) + "\t" + escape(item.getSource()) + "\t"
+                + escape(item.getRemotePath()) + "\t" + item.getAttempts() + "\t"
+                + escape(item.getSessionUri() == null ? "" : item.getSessionUri()) + "\t"
+                + item.getOffset() + "\t" + item.getLength() + "\t"
+                + escape(item.getGroup() == null ? "" : item.getGroup()) + "\t" + (item.isCommit() ? "1" : "0")
+                + "\t" + item.getCapturedAtMillis();
+    }
+
+    private static String escape(String value) {
+        return value.replace("%", "%25").replace("\t", "%09").replace("\n", "%0A");
+    }
+
+    private static String unescape(String value) {
+        return value.replace("%0A", "\n").replace("%09", "\t").replace("%25", "%");
+    }
+}
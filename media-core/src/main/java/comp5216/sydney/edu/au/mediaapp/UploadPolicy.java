@@ -0,0 +1,125 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * When each kind of media may be uploaded and how many of it may be in flight at once.
+ *
+ * An item's kind is the {@link MediaType} whose Storage folder its remote path is filed
+ * under. Anything else gets the fallback rule. Items of a group, the chunks of a video
+ * streamed while it is recorded and its manifest, follow the grouped rule when one is set:
+ * streaming is only worth it if the chunks go out as they are written, not once the device
+ * is back on Wi-Fi.
+ */
+public class UploadPolicy {
+
+    public enum Network {
+        ANY,
+        UNMETERED,
+        UNMETERED_OR_CHARGING
+    }
+
+    /**
+     * One set of conditions. The name identifies the rule to the scheduler and must stay
+     * stable across releases.
+     */
+    public static final class Rule {
+        private final String name;
+        private final Network network;
+        private final boolean batteryNotLow;
+        private final int maxConcurrent;
+
+        public Rule(String name, Network network, boolean batteryNotLow, int maxConcurrent) {
+            if (maxConcurrent <= 0) {
+                throw new IllegalArgumentException("maxConcurrent must be positive");
+            }
+            this.name = name;
+            this.network = network;
+            this.batteryNotLow = batteryNotLow;
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Network getNetwork() {
+            return network;
+        }
+
+        public boolean requiresBatteryNotLow() {
+            return batteryNotLow;
+        }
+
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        public boolean allows(DeviceConditions conditions) {
+            if (!conditions.isConnected()) {
+                return false;
+            }
+            if (batteryNotLow && conditions.isBatteryLow() && !conditions.isCharging()) {
+                return false;
+            }
+            switch (network) {
+                case UNMETERED:
+                    return conditions.isUnmetered();
+                case UNMETERED_OR_CHARGING:
+                    return conditions.isUnmetered() || conditions.isCharging();
+                default:
+                    return true;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final Map<MediaType, Rule> rules = new EnumMap<>(MediaType.class);
+    private final Rule fallback;
+    private Rule grouped;
+
+    public UploadPolicy(Rule fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * Photos and audio on any network; video on Wi-Fi, or on cellular while charging, one at a
+     * time. A video the user chose to stream while recording goes on any network, two chunks at once.
+     */
+    public static UploadPolicy defaults() {
+        Rule any = new Rule("any", Network.ANY, false, Integer.MAX_VALUE);
+        return new UploadPolicy(any)
+                .with(MediaType.PHOTO, any)
+                .with(MediaType.AUDIO, any)
+                .with(MediaType.VIDEO, new Rule("video", Network.UNMETERED_OR_CHARGING, true, 1))
+                .withGrouped(new Rule("streamed", Network.ANY, false, 2));
+    }
+
+    public UploadPolicy with(MediaType type, Rule rule) {
+        rules.put(type, rule);
+        return this;
+    }
+
+    public UploadPolicy withGrouped(Rule rule) {
+        grouped = rule;
+        return this;
+    }
+
+    public Rule ruleFor(UploadItem item) {
+        if (grouped != null && item.getGroup() != null) {
+            return grouped;
+        }
+        MediaType type = MediaType.inRemotePath(item.getRemotePath());
+        Rule rule = type == null ? null : rules.get(type);
+        return rule != null ? rule : fallback;
+    }
+
+    public boolean allows(UploadItem item, DeviceConditions conditions) {
+        return ruleFor(item).allows(conditions);
+    }
+}
@@ -0,0 +1,570 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Durable upload queue.
+ *
+ * Items are recorded in an {@link UploadJournal} before anything is sent, at most
+ * {@code maxConcurrent} uploads run at once (or as many as an {@link AdaptiveConcurrencyLimit}
+ * set with {@link #setConcurrencyLimit} allows) and a failed upload is retried with exponential
+ * backoff. A group's commit item only goes out once the rest of its group has been uploaded,
+ * and is dropped if any of them fails for good. Before it is sent an item runs through the
+ * registered {@link UploadStage}s on {@code stageExecutor}; up to {@code maxPreparing} items are
+ * prepared ahead of the upload slots so processing and network overlap. A prepared item is only sent
+ * when its {@link UploadPolicy} rule allows it under the current {@link DeviceConditions} and
+ * the rule has a slot free; otherwise it is parked until {@link #updateConditions} lets it go.
+ * All state lives on the single-threaded
+ * {@code dispatcher}, transport callbacks are hopped back onto it, so nothing here needs locking.
+ * Timings, throughput, retries and queue depth go to the {@link Telemetry} set with
+ * {@link #setTelemetry(Telemetry)}.
+ */
+public class UploadQueue implements UploadScheduler {
+
+    private static final Logger LOG = Logger.getLogger("UploadQueue");
+    private static final UploadTransport.Handle NOT_STARTED = () -> { };
+
+    public interface Listener {
+        void onUploadSucceeded(UploadItem item);
+
+        void onUploadFailed(UploadItem item, Exception e, boolean willRetry);
+    }
+
+    private final UploadJournal journal;
+    private final UploadTransport transport;
+    private final ScheduledExecutorService dispatcher;
+    private final ExecutorService stageExecutor;
+    private final List<UploadStage> stages = new CopyOnWriteArrayList<>();
+    private final int maxPreparing;
+    private final int maxAttempts;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+
+    private final ArrayDeque<UploadItem> ready = new ArrayDeque<>();
+    private final List<UploadItem> blocked = new ArrayList<>();  // commit items waiting on their group
+    private final ArrayDeque<UploadItem> prepared = new ArrayDeque<>();  // through the stages, waiting for a slot
+    private final ArrayDeque<UploadItem> parked = new ArrayDeque<>();  // through the stages, waiting for conditions
+    private final Map<String, UploadTransport.Handle> running = new HashMap<>();  // everything in flight
+    private final Map<String, UploadPolicy.Rule> uploading = new HashMap<>();  // id -> the rule it was sent under
+    private final List<Runnable> settledWaiters = new ArrayList<>();
+    private final Map<String, ScheduledFuture<?>> retryTimers = new HashMap<>();  // id -> its pending backoff
+    private UploadPolicy policy = new UploadPolicy(
+            new UploadPolicy.Rule("any", UploadPolicy.Network.ANY, false, Integer.MAX_VALUE));
+    private DeviceConditions conditions = DeviceConditions.UNRESTRICTED;
+    private AdaptiveConcurrencyLimit concurrency;
+    private int preparing;
+    private boolean closed;  // set by shutdown(), after which nothing is journaled or sent
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Random jitter = new Random();
+
+    // Unreported until setTelemetry() swaps in the process-wide registry
+    private LongAdder enqueued;
+    private LongAdder succeeded;
+    private LongAdder failed;
+    private LongAdder retries;
+    private LongAdder bytesSent;
+    private Histogram captureToDoneMs;
+    private Histogram transferMs;
+    private Histogram bytesPerSecond;
+    private Histogram attemptsPerUpload;
+    private volatile int depth;  // written on the dispatcher, sampled by the telemetry flush
+    private volatile int inFlight;
+    private volatile int waiting;
+    private volatile int currentLimit;
+
+    public UploadQueue(UploadJournal journal, UploadTransport transport, ScheduledExecutorService dispatcher,
+                       ExecutorService stageExecutor, int maxConcurrent, int maxPreparing, int maxAttempts,
+                       long baseBackoffMs, long maxBackoffMs) {
+        this.journal = journal;
+        this.transport = transport;
+        this.dispatcher = dispatcher;
+        this.stageExecutor = stageExecutor;
+        this.concurrency = AdaptiveConcurrencyLimit.fixed(maxConcurrent);
+        this.maxPreparing = maxPreparing;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMs = baseBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        setTelemetry(new Telemetry(0));
+    }
+
+    // Call before start()
+    public void setTelemetry(Telemetry telemetry) {
+        enqueued = telemetry.counter("upload.enqueued");
+        succeeded = telemetry.counter("upload.succeeded");
+        failed = telemetry.counter("upload.failed");
+        retries = telemetry.counter("upload.retries");
+        bytesSent = telemetry.counter("upload.bytes");
+        captureToDoneMs = telemetry.histogram("upload.capture_to_done_ms");
+        transferMs = telemetry.histogram("upload.transfer_ms");
+        bytesPerSecond = telemetry.histogram("upload.bytes_per_sec");
+        attemptsPerUpload = telemetry.histogram("upload.attempts");
+        telemetry.gauge("upload.queue_depth", () -> depth);
+        telemetry.gauge("upload.in_flight", () -> inFlight);
+        telemetry.gauge("upload.parked", () -> waiting);
+        telemetry.gauge("upload.concurrency_limit", () -> currentLimit);
+    }
+
+    // Call before start(); replaces the fixed maxConcurrent
+    public void setConcurrencyLimit(AdaptiveConcurrencyLimit limit) {
+        this.concurrency = limit;
+    }
+
+    // Call before start(); without a policy everything goes out as soon as there is a slot
+    public void setPolicy(UploadPolicy policy) {
+        this.policy = policy;
+    }
+
+    public UploadPolicy getPolicy() {
+        return policy;
+    }
+
+    // Unfinished items as of the last dispatch, readable from any thread
+    public int getDepth() {
+        return depth;
+    }
+
+    public void updateConditions(final DeviceConditions updated) {
+        dispatcher.execute(() -> {
+            if (updated.equals(conditions)) {
+                return;
+            }
+            LOG.fine("Upload conditions now " + updated);
+            conditions = updated;
+            prepared.addAll(parked);
+            parked.clear();
+            pump();
+        });
+    }
+
+    /**
+     * Runs {@code callback} on the dispatcher once nothing can make progress under the current
+     * conditions: everything left is parked, waiting on its group, or waiting out a retry.
+     */
+    public void whenSettled(final Runnable callback) {
+        dispatcher.execute(() -> {
+            settledWaiters.add(callback);
+            notifyIfSettled();
+        });
+    }
+
+    // Hands a copy of every unfinished item to consumer, on the dispatcher
+    public void withPending(final Consumer<List<UploadItem>> consumer) {
+        dispatcher.execute(() -> consumer.accept(new ArrayList<>(journal.items())));
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Stages run in registration order; register them before start()
+    public void addStage(UploadStage stage) {
+        stages.add(stage);
+    }
+
+    // Replays the journal and resumes everything that was still pending when the process died
+    public void start() {
+        dispatcher.execute(() -> {
+            try {
+                ready.addAll(journal.load());
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Could not replay upload journal", e);
+            }
+            pump();
+        });
+    }
+
+    @Override
+    public UploadItem enqueue(String source, String remotePath) {
+        return enqueue(UploadItem.forFile(source, remotePath));
+    }
+
+    @Override
+    public UploadItem enqueue(final UploadItem item) {
+        enqueued.increment();
+        dispatcher.execute(() -> {
+            persist(item);
+            ready.add(item);
+            pump();
+        });
+        return item;
+    }
+
+    // Drops every pending item of a group and cancels the ones in flight
+    @Override
+    public void cancelGroup(final String group) {
+        dispatcher.execute(() -> {
+            for (UploadItem item : new ArrayList<>(journal.items())) {
+                if (group.equals(item.getGroup())) {
+                    UploadTransport.Handle handle = running.remove(item.getId());
+                    if (handle != null) {
+                        handle.cancel();
+                    }
+                    uploading.remove(item.getId());
+                    ready.remove(item);
+                    prepared.remove(item);
+                    parked.remove(item);
+                    blocked.remove(item);
+                    drop(item);
+                }
+            }
+            // Their slots are free again
+            pump();
+        });
+    }
+
+    /**
+     * Cancels what is in flight and closes the journal. Pending retries are cancelled too, a
+     * scheduled executor still runs delayed tasks after {@code shutdown()} by default, and any
+     * callback already queued on the dispatcher finds the queue closed and does nothing.
+     */
+    public void shutdown() {
+        dispatcher.execute(() -> {
+            closed = true;
+            for (ScheduledFuture<?> retry : retryTimers.values()) {
+                retry.cancel(false);
+            }
+            retryTimers.clear();
+            for (UploadTransport.Handle handle : running.values()) {
+                handle.cancel();
+            }
+            running.clear();
+            uploading.clear();
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Could not close upload journal", e);
+            }
+        });
+        dispatcher.shutdown();
+        stageExecutor.shutdownNow();
+    }
+
+    private void pump() {
+        if (closed) {
+            return;
+        }
+        // Items that are through their stages go first
+        sendPrepared();
+        while (!ready.isEmpty()) {
+            boolean direct = stages.isEmpty();
+            if (direct ? prepared.size() >= concurrency.getLimit()
+                    : preparing >= maxPreparing || prepared.size() >= maxPreparing) {
+                break;
+            }
+            UploadItem item = ready.poll();
+            if (running.containsKey(item.getId()) || !isLive(item)) {
+                continue;
+            }
+            if (item.isCommit() && hasPendingInGroup(item)) {
+                blocked.add(item);
+                continue;
+            }
+            item.setAttempts(item.getAttempts() + 1);
+            persist(item);
+            if (direct) {
+                // Nothing to prepare, straight to the send step where the policy applies
+                running.put(item.getId(), NOT_STARTED);
+                prepared.add(item);
+                sendPrepared();
+            } else {
+                preparing++;
+                running.put(item.getId(), prepare(item));
+            }
+        }
+        depth = journal.items().size();
+        inFlight = uploading.size();
+        waiting = parked.size();
+        currentLimit = concurrency.getLimit();
+        notifyIfSettled();
+    }
+
+    // A prepared item that its rule holds back does not stop the ones behind it
+    private void sendPrepared() {
+        Iterator<UploadItem> it = prepared.iterator();
+        while (uploading.size() < concurrency.getLimit() && it.hasNext()) {
+            UploadItem item = it.next();
+            if (!running.containsKey(item.getId())) {
+                it.remove();
+                continue;
+            }
+            UploadPolicy.Rule rule = policy.ruleFor(item);
+            if (!rule.allows(conditions)) {
+                it.remove();
+                parked.add(item);
+            } else if (sendingUnder(rule) < rule.getMaxConcurrent()) {
+                it.remove();
+                send(item, rule);
+            }
+        }
+    }
+
+    private int sendingUnder(UploadPolicy.Rule rule) {
+        int count = 0;
+        for (UploadPolicy.Rule sending : uploading.values()) {
+            if (sending == rule) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void send(UploadItem item, UploadPolicy.Rule rule) {
+        concurrency.onStarted(System.nanoTime(), uploading.isEmpty());
+        uploading.put(item.getId(), rule);
+        running.put(item.getId(), transport.start(item, new ItemCallback(item)));
+    }
+
+    private void notifyIfSettled() {
+        if (settledWaiters.isEmpty() || !ready.isEmpty() || preparing > 0 || !prepared.isEmpty()
+                || !uploading.isEmpty()) {
+            return;
+        }
+        List<Runnable> waiters = new ArrayList<>(settledWaiters);
+        settledWaiters.clear();
+        for (Runnable waiter : waiters) {
+            waiter.run();
+        }
+    }
+
+    // Runs the stages off the dispatch thread, then hands the result back to it
+    private UploadTransport.Handle prepare(final UploadItem item) {
+        // The stage task reporting back and a cancel race; whichever comes first gives the slot back
+        final AtomicBoolean reported = new AtomicBoolean();
+        final Future<?> future = stageExecutor.submit(() -> {
+            UploadItem prepared = item;
+            Exception failure = null;
+            try {
+                for (UploadStage stage : stages) {
+                    prepared = stage.prepare(prepared);
+                    if (prepared == null) {
+                        break;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+            final UploadItem result = prepared;
+            final Exception error = failure;
+            if (reported.compareAndSet(false, true)) {
+                dispatcher.execute(() -> onPrepared(item, result, error));
+            }
+        });
+        return () -> {
+            future.cancel(true);
+            // Handles are cancelled on the dispatcher; a task cancelled before it ran never reports back
+            if (reported.compareAndSet(false, true)) {
+                preparing--;
+            }
+        };
+    }
+
+    private void onPrepared(UploadItem item, UploadItem result, Exception failure) {
+        preparing--;
+        if (!running.containsKey(item.getId())) {
+            pump();
+            return;  // cancelled while preparing
+        }
+        if (failure != null) {
+            onFailure(item, failure, false);
+        } else if (result == null) {
+            // Nothing to send, a stage already took care of it
+            onSuccess(item, 0);
+        } else {
+            prepared.add(result);
+            pump();
+        }
+    }
+
+    // bytes is what the transport sent, 0 when a stage took care of the item
+    private void onSuccess(UploadItem item, long bytes) {
+        if (uploading.remove(item.getId()) != null) {
+            concurrency.onCompleted(bytes, System.nanoTime());
+        }
+        if (running.remove(item.getId()) == null) {
+            return;  // cancelled while the last bytes were in flight
+        }
+        drop(item);
+        succeeded.increment();
+        attemptsPerUpload.record(item.getAttempts());
+        if (item.getCapturedAtMillis() > 0) {
+            captureToDoneMs.record(System.currentTimeMillis() - item.getCapturedAtMillis());
+        }
+        for (UploadStage stage : stages) {
+            stage.onUploaded(item);
+        }
+        for (Listener listener : listeners) {
+            listener.onUploadSucceeded(item);
+        }
+        if (item.getGroup() != null) {
+            // The group may now be complete, let its commit item be reconsidered
+            ready.addAll(blocked);
+            blocked.clear();
+        }
+        pump();
+    }
+
+    private void onFailure(final UploadItem item, Exception e, boolean staleSession) {
+        if (uploading.remove(item.getId()) != null) {
+            concurrency.onFailed(System.nanoTime());
+        }
+        if (running.remove(item.getId()) == null) {
+            return;
+        }
+        boolean willRetry = item.getAttempts() < maxAttempts;
+        if (staleSession) {
+            // Resuming went nowhere, the session has most likely expired; start over next time
+            item.setSessionUri(null);
+        }
+        if (willRetry) {
+            retries.increment();
+            persist(item);
+            retryTimers.put(item.getId(), dispatcher.schedule(() -> {
+                retryTimers.remove(item.getId());
+                ready.add(item);
+                pump();
+            }, backoffMs(item.getAttempts()), TimeUnit.MILLISECONDS));
+        } else {
+            failed.increment();
+            drop(item);
+            for (UploadStage stage : stages) {
+                stage.onFailed(item);
+            }
+        }
+        for (Listener listener : listeners) {
+            listener.onUploadFailed(item, e, willRetry);
+        }
+        if (!willRetry && item.getGroup() != null && !item.isCommit()) {
+            failCommits(item.getGroup(), e);
+        }
+        pump();
+    }
+
+    // A group with a missing member must not be committed
+    private void failCommits(String group, Exception cause) {
+        for (UploadItem item : new ArrayList<>(journal.items())) {
+            if (item.isCommit() && group.equals(item.getGroup())) {
+                ready.remove(item);
+                blocked.remove(item);
+                drop(item);
+                for (Listener listener : listeners) {
+                    listener.onUploadFailed(item, cause, false);
+                }
+            }
+        }
+    }
+
+    private boolean hasPendingInGroup(UploadItem commit) {
+        for (UploadItem item : journal.items()) {
+            if (!item.isCommit() && commit.getGroup().equals(item.getGroup())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Cancelled items can still have a retry scheduled, those are skipped
+    private boolean isLive(UploadItem item) {
+        return journal.contains(item.getId());
+    }
+
+    private void drop(UploadItem item) {
+        if (closed) {
+            return;  // left in the journal for the next start()
+        }
+        try {
+            journal.remove(item.getId());
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not drop upload " + item.getId(), e);
+        }
+    }
+
+    // base * 2^(attempt - 1), capped, with up to 25% jitter so retries do not line up
+    long backoffMs(int attempt) {
+        long delay = baseBackoffMs << Math.min(attempt - 1, 20);
+        delay = Math.min(delay, maxBackoffMs);
+        return delay + (long) (jitter.nextDouble() * delay * 0.25);
+    }
+
+    private void persist(UploadItem item) {
+        if (closed) {
+            return;  // writing would reopen the closed journal
+        }
+        try {
+            journal.put(item);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not journal upload " + item.getId(), e);
+        }
+    }
+
+    private class ItemCallback implements UploadTransport.Callback {
+        private final UploadItem item;
+        private final boolean resumed;
+        private final long startedAtNanos = System.nanoTime();
+        private volatile boolean progressed;
+        private volatile long bytes;
+
+        ItemCallback(UploadItem item) {
+            this.item = item;
+            this.resumed = item.getSessionUri() != null;
+        }
+
+        @Override
+        public void onSessionStarted(final String sessionUri) {
+            dispatcher.execute(() -> {
+                item.setSessionUri(sessionUri);
+                persist(item);
+            });
+        }
+
+        @Override
+        public void onProgress(long bytesTransferred, long totalBytes) {
+            if (bytesTransferred > 0) {
+                progressed = true;
+                bytes = bytesTransferred;
+            }
+            item.setProgress(bytesTransferred, totalBytes);
+        }
+
+        @Override
+        public void onSuccess() {
+            // Throughput of this attempt alone; a resumed upload only counts what it sent itself
+            long nanos = System.nanoTime() - startedAtNanos;
+            transferMs.record(nanos / 1000000);
+            if (bytes > 0) {
+                bytesSent.add(bytes);
+                if (nanos > 0) {
+                    bytesPerSecond.record((long) (bytes * 1e9 / nanos));
+                }
+            }
+            final long sent = bytes;
+            dispatcher.execute(() -> UploadQueue.this.onSuccess(item, sent));
+        }
+
+        @Override
+        public void onFailure(final Exception e) {
+            dispatcher.execute(() -> UploadQueue.this.onFailure(item, e, resumed && !progressed));
+        }
+    }
+}
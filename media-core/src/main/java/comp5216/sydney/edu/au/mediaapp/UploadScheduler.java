@@ -0,0 +1,15 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+/**
+ * Where captured media is handed off for upload. {@link UploadQueue} is the real one; a
+ * stub or an in-memory implementation lets capture code run without a network.
+ */
+public interface UploadScheduler {
+
+    UploadItem enqueue(String source, String remotePath);
+
+    UploadItem enqueue(UploadItem item);
+
+    // Drops every item of the group that has not been uploaded yet
+    void cancelGroup(String group);
+}
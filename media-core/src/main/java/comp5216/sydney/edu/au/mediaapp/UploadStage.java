@@ -0,0 +1,22 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.IOException;
+
+/**
+ * A processing step the {@link UploadQueue} runs on its stage executor before an item is sent.
+ */
+public interface UploadStage {
+
+    /**
+     * Returns the item to send on to the next stage, or null when nothing needs to be uploaded.
+     * May block; runs off the queue's dispatch thread.
+     */
+    UploadItem prepare(UploadItem item) throws IOException;
+
+    // Called on the dispatch thread once the item has been uploaded
+    void onUploaded(UploadItem item);
+
+    // Called on the dispatch thread once the item has failed for good and will not be retried
+    default void onFailed(UploadItem item) {
+    }
+}
@@ -0,0 +1,25 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+/**
+ * Sends the bytes of one {@link UploadItem} somewhere. The queue only talks to this
+ * interface, so it can run against Firebase, the Storage emulator or a fake.
+ */
+public interface UploadTransport {
+
+    interface Callback {
+        // Called once the backend has handed out a resumable session for this upload
+        void onSessionStarted(String sessionUri);
+
+        void onProgress(long bytesTransferred, long totalBytes);
+
+        void onSuccess();
+
+        void onFailure(Exception e);
+    }
+
+    interface Handle {
+        void cancel();
+    }
+
+    Handle start(UploadItem item, Callback callback);
+}
@@ -0,0 +1,79 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent record of content already in Storage: SHA-256 -> the path it was first uploaded
+ * to. Other paths the same content was later requested under are appended as aliases.
+ */
+public class UploadedContentIndex {
+
+    private final File file;
+    private final Map<String, String> uploaded = new HashMap<>();
+    private boolean loaded;
+
+    public UploadedContentIndex(File file) {
+        this.file = file;
+    }
+
+    // Remote path already holding this content, or null
+    public synchronized String find(String sha256) {
+        load();
+        return uploaded.get(sha256);
+    }
+
+    public synchronized void recordUpload(String sha256, String remotePath) {
+        load();
+        if (uploaded.containsKey(sha256)) {
+            return;
+        }
+        uploaded.put(sha256, remotePath);
+        append("U\t" + sha256 + "\t" + remotePath);
+    }
+
+    // Remembers that remotePath refers to content that was uploaded elsewhere
+    public synchronized void recordAlias(String sha256, String remotePath) {
+        append("A\t" + sha256 + "\t" + remotePath);
+    }
+
+    private void append(String record) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            writer.write(record);
+            writer.write('\n');
+        } catch (IOException e) {
+            // The in-memory index still applies for this run
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length == 3 && "U".equals(fields[0]) && !uploaded.containsKey(fields[1])) {
+                    uploaded.put(fields[1], fields[2]);
+                }
+            }
+        } catch (IOException e) {
+            // Start from whatever was read
+        }
+    }
+}
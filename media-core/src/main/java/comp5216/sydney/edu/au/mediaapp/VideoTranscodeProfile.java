@@ -0,0 +1,62 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+/**
+ * Target resolution and bitrate for compressing captured videos before upload.
+ */
+public class VideoTranscodeProfile {
+
+    private final int maxShortEdge;
+    private final int videoBitRate;
+    private final int frameRate;
+    private final int keyFrameIntervalSeconds;
+
+    public VideoTranscodeProfile(int maxShortEdge, int videoBitRate, int frameRate, int keyFrameIntervalSeconds) {
+        if (maxShortEdge <= 0 || videoBitRate <= 0 || frameRate <= 0 || keyFrameIntervalSeconds <= 0) {
+            throw new IllegalArgumentException("Invalid video profile");
+        }
+        this.maxShortEdge = maxShortEdge;
+        this.videoBitRate = videoBitRate;
+        this.frameRate = frameRate;
+        this.keyFrameIntervalSeconds = keyFrameIntervalSeconds;
+    }
+
+    // 720p at 4 Mbit/s
+    public static VideoTranscodeProfile hd720() {
+        return new VideoTranscodeProfile(720, 4000000, 30, 2);
+    }
+
+    // 480p at 1.5 Mbit/s, for slow links
+    public static VideoTranscodeProfile sd480() {
+        return new VideoTranscodeProfile(480, 1500000, 30, 2);
+    }
+
+    public int getMaxShortEdge() {
+        return maxShortEdge;
+    }
+
+    public int getVideoBitRate() {
+        return videoBitRate;
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    public int getKeyFrameIntervalSeconds() {
+        return keyFrameIntervalSeconds;
+    }
+
+    // Worth re-encoding if the source is larger or noticeably more expensive than the profile
+    public boolean shouldTranscode(int width, int height, int bitRate) {
+        return Math.min(width, height) > maxShortEdge || bitRate > videoBitRate * 5 / 4;
+    }
+
+    // Output size with the short edge capped, aspect ratio kept and both sides even
+    public int[] targetSize(int width, int height) {
+        int shortEdge = Math.min(width, height);
+        double scale = shortEdge > maxShortEdge ? (double) maxShortEdge / shortEdge : 1.0;
+        int targetWidth = (int) Math.round(width * scale) & ~1;
+        int targetHeight = (int) Math.round(height * scale) & ~1;
+        return new int[]{Math.max(2, targetWidth), Math.max(2, targetHeight)};
+    }
+}
@@ -0,0 +1,195 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveBitrateTest {
+
+    private static final RecordingProfile PROFILE = RecordingProfile.MUSIC;
+    private static final int FULL = PROFILE.getBitRate();
+    private static final int REDUCED = (PROFILE.getBitRate() + PROFILE.getMinBitRate()) / 2;
+    private static final int MINIMUM = PROFILE.getMinBitRate();
+    private static final long PLENTY = 8L * 1024 * 1024 * 1024;
+    private static final long CHECK_US = 1000000;
+
+    private final Device device = new Device();
+
+    @Test
+    public void startsAtTheStepPickedBeforeTheCodecStarts() throws IOException {
+        device.freeBytes = AdaptiveBitrate.DEFAULT_STORAGE_LOW_BYTES - 1;
+        Recorder codec = new Recorder(false);
+        AdaptiveBitrate adaptive = adaptive(codec);
+
+        adaptive.start();
+
+        assertEquals(list("bitrate " + REDUCED, "start"), codec.calls);
+        assertEquals(REDUCED, adaptive.getBitRate());
+        assertEquals(1, adaptive.getSwitches());
+    }
+
+    @Test
+    public void storageSteps() throws IOException {
+        Recorder codec = new Recorder(true);
+        AdaptiveBitrate adaptive = adaptive(codec);
+        adaptive.start();
+        assertEquals(FULL, adaptive.getBitRate());
+
+        device.freeBytes = AdaptiveBitrate.DEFAULT_STORAGE_LOW_BYTES - 1;
+        encodeAt(adaptive, CHECK_US);
+        assertEquals(REDUCED, adaptive.getBitRate());
+
+        device.freeBytes = AdaptiveBitrate.DEFAULT_STORAGE_CRITICAL_BYTES - 1;
+        encodeAt(adaptive, 2 * CHECK_US);
+        assertEquals(MINIMUM, adaptive.getBitRate());
+
+        // Room again, given back at once: storage has no hysteresis
+        device.freeBytes = PLENTY;
+        encodeAt(adaptive, 3 * CHECK_US);
+        assertEquals(FULL, adaptive.getBitRate());
+        assertEquals(3, adaptive.getSwitches());
+    }
+
+    @Test
+    public void onlyChecksOncePerInterval() throws IOException {
+        Recorder codec = new Recorder(true);
+        AdaptiveBitrate adaptive = adaptive(codec);
+        adaptive.start();
+
+        device.backlog = AdaptiveBitrate.DEFAULT_BACKLOG_CRITICAL;
+        encodeAt(adaptive, CHECK_US - 1);
+        assertEquals(FULL, adaptive.getBitRate());
+        encodeAt(adaptive, CHECK_US);
+        assertEquals(MINIMUM, adaptive.getBitRate());
+    }
+
+    @Test
+    public void backlogStepIsKeptUntilHalfDrained() throws IOException {
+        Recorder codec = new Recorder(true);
+        AdaptiveBitrate adaptive = adaptive(codec);
+        adaptive.start();
+        long us = 0;
+
+        device.backlog = AdaptiveBitrate.DEFAULT_BACKLOG_HIGH;
+        encodeAt(adaptive, us += CHECK_US);
+        assertEquals(REDUCED, adaptive.getBitRate());
+
+        // Sitting just under the threshold does not toggle the codec
+        for (int i = 0; i < 5; i++) {
+            device.backlog = i % 2 == 0 ? AdaptiveBitrate.DEFAULT_BACKLOG_HIGH - 1 : AdaptiveBitrate.DEFAULT_BACKLOG_HIGH;
+            encodeAt(adaptive, us += CHECK_US);
+            assertEquals(REDUCED, adaptive.getBitRate());
+        }
+        device.backlog = AdaptiveBitrate.DEFAULT_BACKLOG_HIGH / 2 + 1;
+        encodeAt(adaptive, us += CHECK_US);
+        assertEquals(REDUCED, adaptive.getBitRate());
+        device.backlog = AdaptiveBitrate.DEFAULT_BACKLOG_HIGH / 2;
+        encodeAt(adaptive, us += CHECK_US);
+        assertEquals(FULL, adaptive.getBitRate());
+
+        // The minimum is released at half the critical backlog, to the step that backlog calls for
+        device.backlog = AdaptiveBitrate.DEFAULT_BACKLOG_CRITICAL;
+        encodeAt(adaptive, us += CHECK_US);
+        assertEquals(MINIMUM, adaptive.getBitRate());
+        device.backlog = AdaptiveBitrate.DEFAULT_BACKLOG_CRITICAL / 2 + 1;
+        encodeAt(adaptive, us += CHECK_US);
+        assertEquals(MINIMUM, adaptive.getBitRate());
+        device.backlog = AdaptiveBitrate.DEFAULT_BACKLOG_CRITICAL / 2;
+        encodeAt(adaptive, us += CHECK_US);
+        assertEquals(REDUCED, adaptive.getBitRate());
+        assertEquals(4, adaptive.getSwitches());
+    }
+
+    @Test
+    public void encoderThatCannotChangeKeepsItsBitRate() throws IOException {
+        Recorder codec = new Recorder(false);
+        AdaptiveBitrate adaptive = adaptive(codec);
+        adaptive.start();
+
+        device.backlog = AdaptiveBitrate.DEFAULT_BACKLOG_CRITICAL;
+        encodeAt(adaptive, CHECK_US);
+        // Refused: not counted, not reported, and not asked again
+        assertEquals(FULL, adaptive.getBitRate());
+        assertEquals(0, adaptive.getSwitches());
+        device.freeBytes = 0;
+        encodeAt(adaptive, 2 * CHECK_US);
+        encodeAt(adaptive, 3 * CHECK_US);
+        assertEquals(list("start", "bitrate " + MINIMUM, "encode", "encode", "encode"), codec.calls);
+    }
+
+    private AdaptiveBitrate adaptive(PcmEncoder codec) {
+        return new AdaptiveBitrate(codec, PROFILE, device, AdaptiveBitrate.DEFAULT_BACKLOG_HIGH,
+                AdaptiveBitrate.DEFAULT_BACKLOG_CRITICAL, AdaptiveBitrate.DEFAULT_STORAGE_LOW_BYTES,
+                AdaptiveBitrate.DEFAULT_STORAGE_CRITICAL_BYTES, CHECK_US);
+    }
+
+    private static void encodeAt(AdaptiveBitrate adaptive, long presentationTimeUs) throws IOException {
+        adaptive.encode(ByteBuffer.allocate(4), presentationTimeUs);
+    }
+
+    private static List<String> list(String... calls) {
+        List<String> list = new ArrayList<>();
+        for (String call : calls) {
+            list.add(call);
+        }
+        return list;
+    }
+
+    private static final class Device implements AdaptiveBitrate.Conditions {
+        int backlog;
+        long freeBytes = PLENTY;
+
+        @Override
+        public int getUploadBacklog() {
+            return backlog;
+        }
+
+        @Override
+        public long getFreeStorageBytes() {
+            return freeBytes;
+        }
+    }
+
+    // Accepts bitrate changes before it starts, and after too if adjustable, as MediaCodecAudioEncoder does not
+    private static final class Recorder implements PcmEncoder {
+        final List<String> calls = new ArrayList<>();
+        private final boolean adjustable;
+        private boolean started;
+
+        Recorder(boolean adjustable) {
+            this.adjustable = adjustable;
+        }
+
+        @Override
+        public void start() {
+            started = true;
+            calls.add("start");
+        }
+
+        @Override
+        public void encode(ByteBuffer pcm, long presentationTimeUs) {
+            calls.add("encode");
+        }
+
+        @Override
+        public boolean setBitRate(int bitRate) {
+            calls.add("bitrate " + bitRate);
+            return !started || adjustable;
+        }
+
+        @Override
+        public void finish() {
+            calls.add("finish");
+        }
+
+        @Override
+        public void release() {
+            calls.add("release");
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private static final long SECOND = 1000000000L;
+    private static final long MB = 1024 * 1024;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void initialOutsideTheRangeIsRejected() {
+        new AdaptiveConcurrencyLimit(9, 1, 8);
+    }
+
+    @Test
+    public void opensASlotWhileThroughputKeepsUp() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 8);
+        long now = 0;
+        limit.onStarted(now, true);
+        // Every upload moves a megabyte a second, so each wider window keeps up with the last
+        for (int window = 0; window < 3; window++) {
+            int uploads = limit.getLimit();
+            now += SECOND;
+            for (int i = 0; i < uploads; i++) {
+                limit.onCompleted(MB, now);
+            }
+        }
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void windowWaitsForAsManyCompletionsAsTheLimit() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(3, 1, 8);
+        limit.onStarted(0, true);
+        limit.onCompleted(MB, SECOND);
+        limit.onCompleted(MB, SECOND);
+        assertEquals(3, limit.getLimit());
+        limit.onCompleted(MB, SECOND);
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    public void backsOffWhenThroughputFalls() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 8);
+        limit.onStarted(0, true);
+        for (int i = 0; i < 4; i++) {
+            limit.onCompleted(MB, SECOND);
+        }
+        assertEquals(5, limit.getLimit());
+        // Five more connections moved half as much in the same time
+        for (int i = 0; i < 5; i++) {
+            limit.onCompleted(MB / 2 * 4 / 5, 2 * SECOND);
+        }
+        assertEquals(3, limit.getLimit());
+    }
+
+    @Test
+    public void failureHalvesTheLimitDownToTheMinimum() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(8, 2, 8);
+        limit.onFailed(0);
+        assertEquals(4, limit.getLimit());
+        limit.onFailed(0);
+        limit.onFailed(0);
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void fixedNeverMoves() {
+        AdaptiveConcurrencyLimit limit = AdaptiveConcurrencyLimit.fixed(3);
+        limit.onStarted(0, true);
+        for (int i = 0; i < 30; i++) {
+            limit.onCompleted(MB, SECOND * (i + 1));
+        }
+        limit.onFailed(0);
+        assertEquals(3, limit.getLimit());
+    }
+}
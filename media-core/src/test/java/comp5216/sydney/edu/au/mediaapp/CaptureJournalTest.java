@@ -0,0 +1,180 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureJournalTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService syncer;
+    private File file;
+
+    @Before
+    public void setUp() {
+        syncer = Executors.newSingleThreadScheduledExecutor();
+        file = new File(folder.getRoot(), "captures.log");
+    }
+
+    @After
+    public void tearDown() {
+        syncer.shutdownNow();
+    }
+
+    @Test
+    public void capturesThatNeverReachedTheQueueAreOrphansOnce() throws IOException {
+        CaptureJournal earlier = journal();
+        earlier.started(session("photo", MediaType.PHOTO));
+        earlier.started(session("returned", MediaType.VIDEO));
+        earlier.returned("returned");
+        earlier.started(session("queued", MediaType.PHOTO));
+        earlier.queued("queued", "Sydney/images/queued.jpg");
+        earlier.started(session("pending-result", MediaType.VIDEO));
+        earlier.close();
+
+        // The next process, with the result for pending-result on its way back
+        CaptureJournal journal = journal();
+        assertEquals(4, journal.getLiveCount());
+        List<CaptureSession> orphans = journal.takeOrphans("pending-result");
+        assertEquals(Arrays.asList("photo", "returned"), ids(orphans));
+        CaptureSession photo = orphans.get(0);
+        assertEquals(MediaType.PHOTO, photo.getType());
+        assertEquals("photo.jpg", photo.getFileName());
+        assertEquals(new File(folder.getRoot(), "photo.jpg"), photo.getFile());
+        assertEquals(1000, photo.getStartedAtMillis());
+        assertTrue(journal.takeOrphans("pending-result").isEmpty());
+
+        // Still findable until the caller finishes them
+        assertEquals(photo.getId(), journal.find("photo").getId());
+        journal.finished("photo");
+        assertNull(journal.find("photo"));
+    }
+
+    @Test
+    public void sessionsOfThisProcessAreNeverOrphans() throws IOException {
+        CaptureJournal journal = journal();
+        journal.started(session("photo", MediaType.PHOTO));
+        assertTrue(journal.takeOrphans(null).isEmpty());
+    }
+
+    @Test
+    public void settleClosesQueuedSessionsTheQueueNoLongerHolds() throws IOException {
+        CaptureJournal earlier = journal();
+        earlier.started(session("done", MediaType.PHOTO));
+        earlier.queued("done", "Sydney/images/done.jpg");
+        earlier.started(session("waiting", MediaType.PHOTO));
+        earlier.queued("waiting", "Sydney/images/waiting.jpg");
+        earlier.close();
+
+        CaptureJournal journal = journal();
+        journal.settle(Collections.singletonList(UploadItem.forFile("file:///waiting.jpg", "Sydney/images/waiting.jpg")));
+        assertNull(journal.find("done"));
+        assertEquals(1, journal.getLiveCount());
+
+        // Settled for good, the next process does not see it either
+        journal.close();
+        assertEquals(1, journal().getLiveCount());
+    }
+
+    @Test
+    public void uploadOutcomesCloseTheQueuedSession() throws IOException {
+        CaptureJournal journal = journal();
+        journal.started(session("photo", MediaType.PHOTO));
+        journal.queued("photo", "Sydney/images/photo.jpg");
+        journal.started(session("video", MediaType.VIDEO));
+        journal.queued("video", "Sydney/videos/video.mp4");
+        journal.started(session("audio", MediaType.AUDIO));
+        journal.queued("audio", "Sydney/audios/audio.m4a");
+
+        journal.onUploadSucceeded(UploadItem.forFile("file:///photo.jpg", "Sydney/images/photo.jpg"));
+        // A chunk is not the recording
+        journal.onUploadSucceeded(UploadItem.forRange("file:///video.mp4", "Sydney/videos/video.mp4", 0, 10, "g"));
+        journal.onUploadFailed(UploadItem.forFile("file:///audio.m4a", "Sydney/audios/audio.m4a"),
+                new IOException("Injected failure"), true);
+        assertNull(journal.find("photo"));
+        assertEquals(2, journal.getLiveCount());
+
+        journal.onUploadFailed(UploadItem.forFile("file:///audio.m4a", "Sydney/audios/audio.m4a"),
+                new IOException("Injected failure"), false);
+        assertNull(journal.find("audio"));
+        assertEquals(1, journal.getLiveCount());
+    }
+
+    @Test
+    public void compactionKeepsOpenSessionsAndTheirState() throws IOException {
+        CaptureJournal journal = journal();
+        journal.started(session("returned", MediaType.VIDEO));
+        journal.returned("returned");
+        journal.started(session("queued", MediaType.PHOTO));
+        journal.queued("queued", "Sydney/images/queued.jpg");
+        for (int i = 0; i < 40; i++) {
+            journal.started(session("done-" + i, MediaType.PHOTO));
+            journal.finished("done-" + i);
+        }
+        journal.close();
+
+        // START and RETURN, START and QUEUE, and whatever came after the last rewrite
+        assertTrue(lines() + " lines", lines() < 64);
+        CaptureJournal next = journal();
+        assertEquals(2, next.getLiveCount());
+        assertEquals(Collections.singletonList("returned"), ids(next.takeOrphans(null)));
+        next.settle(Collections.<UploadItem>emptyList());
+        assertNull(next.find("queued"));
+    }
+
+    @Test
+    public void tornLastLineIsSkipped() throws IOException {
+        CaptureJournal earlier = journal();
+        earlier.started(session("photo", MediaType.PHOTO));
+        earlier.close();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write("START\tvideo\tVIDEO\tvideo.mp4\t/tmp/vid".getBytes(StandardCharsets.UTF_8));
+        }
+
+        CaptureJournal journal = journal();
+        assertEquals(Collections.singletonList("photo"), ids(journal.takeOrphans(null)));
+    }
+
+    private CaptureJournal journal() throws IOException {
+        CaptureJournal journal = new CaptureJournal(file, syncer, 10);
+        journal.load();
+        return journal;
+    }
+
+    private CaptureSession session(String id, MediaType type) {
+        String name = id + (type == MediaType.VIDEO ? ".mp4" : type == MediaType.AUDIO ? ".m4a" : ".jpg");
+        return new CaptureSession(id, type, name, new File(folder.getRoot(), name), 1000);
+    }
+
+    private int lines() throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size();
+    }
+
+    private static List<String> ids(List<CaptureSession> sessions) {
+        List<String> ids = new ArrayList<>();
+        for (CaptureSession session : sessions) {
+            ids.add(session.getId());
+        }
+        return ids;
+    }
+}
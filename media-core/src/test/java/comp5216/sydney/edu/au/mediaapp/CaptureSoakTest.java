@@ -0,0 +1,277 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Soak of the capture to upload path as MainActivity drives it: each capture is journaled,
+ * written by a stand-in camera, returned and queued. The stand-in Storage injects latency and
+ * fails one attempt in ten. Halfway through the process "dies" with a few captures still in
+ * the camera app, and a new queue and capture journal are built from the files on disk, as on
+ * the next launch. Fails unless every capture with content reached Storage, every journal
+ * session was closed and no file or heap was left held.
+ */
+public class CaptureSoakTest {
+
+    private static final int CAPTURES = 300;
+    private static final double FAILURE_RATE = 0.1;
+    private static final long MEAN_LATENCY_MS = 20;
+    private static final int IN_CAMERA_AT_DEATH = 5;
+    private static final int MIN_CAPTURE_BYTES = 16 * 1024;
+    private static final int MAX_CAPTURE_BYTES = 256 * 1024;
+    private static final long SETTLE_TIMEOUT_MS = 60000;
+    // Far below what 20 ms uploads two or more at a time give, a stall or lost wake-up still fails it
+    private static final double MIN_CAPTURES_PER_SECOND = 10;
+    private static final long MAX_RETAINED_HEAP_BYTES = 16 * 1024 * 1024;
+    private static final String CITY = "Sydney";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void everyCaptureIsUploadedAcrossAProcessDeath() throws IOException, InterruptedException {
+        File dir = folder.newFolder("soak");
+        long heapBefore = usedHeap();
+        StandInStorage storage = new StandInStorage();
+        List<CaptureSession> made = new ArrayList<>(CAPTURES);
+        long startedAt = System.currentTimeMillis();
+
+        Process process = new Process(dir, storage);
+        int deathAt = CAPTURES / 2;
+        for (int i = 0; i < deathAt; i++) {
+            made.add(capture(process, startedAt + i));
+        }
+        // Handed to the camera app, then the process is gone; the last one never got written
+        List<CaptureSession> inCamera = new ArrayList<>();
+        for (int i = 0; i < IN_CAMERA_AT_DEATH; i++) {
+            CaptureSession session = process.mediaCapture.begin(MediaType.PHOTO, startedAt + deathAt + i);
+            process.captures.started(session);
+            inCamera.add(session);
+            if (i < IN_CAMERA_AT_DEATH - 1) {
+                writeCapture(session.getFile());
+                made.add(session);
+            }
+        }
+        process.kill();
+
+        // Next launch: the queue resumes from its journal, orphans are found and sent
+        process = new Process(dir, storage);
+        int recovered = 0;
+        for (CaptureSession orphan : process.captures.takeOrphans(null)) {
+            if (orphan.getFile().length() == 0) {
+                process.captures.finished(orphan.getId());
+                continue;
+            }
+            process.upload(orphan);
+            recovered++;
+        }
+        for (int i = deathAt + IN_CAMERA_AT_DEATH; i < CAPTURES; i++) {
+            made.add(capture(process, startedAt + i));
+        }
+        awaitEmpty(process.queue);
+        // Outcomes are heard on the dispatcher, one more round trip to see them all
+        final CountDownLatch drained = new CountDownLatch(1);
+        process.queue.withPending(pending -> drained.countDown());
+        assertTrue(drained.await(SETTLE_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        double seconds = (System.currentTimeMillis() - startedAt) / 1000.0;
+        process.shutdown();
+
+        assertEquals(IN_CAMERA_AT_DEATH - 1, recovered);
+        for (CaptureSession session : made) {
+            assertTrue("Never uploaded: " + session, storage.stored.contains(session.getFile().toURI().toString()));
+            assertNull("Journal session left open: " + session, process.captures.find(session.getId()));
+        }
+        // The empty one was closed too, not sent
+        assertNull(process.captures.find(inCamera.get(IN_CAMERA_AT_DEATH - 1).getId()));
+        assertEquals(0, process.captures.getLiveCount());
+        assertEquals(made.size(), storage.stored.size());
+        assertTrue("Only " + storage.failures.get() + " failures injected", storage.failures.get() > 0);
+
+        assertTrue(String.format("%.1f captures/s", made.size() / seconds),
+                made.size() / seconds >= MIN_CAPTURES_PER_SECOND);
+        long retained = usedHeap() - heapBefore;
+        assertTrue("Heap still held after the soak: " + retained / 1024 + " KB", retained < MAX_RETAINED_HEAP_BYTES);
+        assertEquals("Journal or capture files left open", 0, openFilesUnder(dir));
+    }
+
+    // One app process: its queue, journals and threads
+    private static final class Process {
+        final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor();
+        final ExecutorService stageExecutor = Executors.newSingleThreadExecutor();
+        final ScheduledExecutorService network = Executors.newScheduledThreadPool(4);
+        final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor();
+        final UploadJournal uploadJournal;
+        final CaptureJournal captures;
+        final UploadQueue queue;
+        final MediaCapture mediaCapture;
+
+        Process(File dir, StandInStorage storage) throws IOException {
+            uploadJournal = new UploadJournal(new File(dir, "upload-journal.log"));
+            captures = new CaptureJournal(new File(dir, "capture-journal.log"), syncer, 500);
+            captures.load();
+            queue = new UploadQueue(uploadJournal, storage.on(network), dispatcher, stageExecutor,
+                    2, 1, 10, 10, 200);
+            queue.setConcurrencyLimit(new AdaptiveConcurrencyLimit(2, 1, 8));
+            queue.addListener(captures);
+            mediaCapture = new MediaCapture(TimestampFileNamer.withMillis(),
+                    new PartitionedStorageLayout(new File(dir, "media"), ObjectKeyScheme.defaults()), queue);
+            queue.start();
+            queue.withPending(captures::settle);
+        }
+
+        // What onActivityResult and uploadFileToFirebase do with a returned capture
+        void upload(CaptureSession session) {
+            File file = session.getFile();
+            final String id = session.getId();
+            final String remotePath = mediaCapture.remotePath(CITY, session.getType(), session.getFileName(),
+                    file.lastModified());
+            mediaCapture.uploadTo(file.toURI().toString(), remotePath, file.lastModified());
+            queue.withPending(pending -> captures.queued(id, remotePath));
+        }
+
+        // Killed: nothing is shut down in order, in-flight work is lost
+        void kill() throws IOException, InterruptedException {
+            dispatcher.shutdownNow();
+            stageExecutor.shutdownNow();
+            network.shutdownNow();
+            syncer.shutdownNow();
+            awaitTermination(dispatcher, stageExecutor, network, syncer);
+            // The OS closes a dead process's files
+            uploadJournal.close();
+            captures.close();
+        }
+
+        void shutdown() throws IOException, InterruptedException {
+            queue.shutdown();
+            network.shutdownNow();
+            syncer.shutdownNow();
+            awaitTermination(dispatcher, stageExecutor, network, syncer);
+            captures.close();
+        }
+    }
+
+    private CaptureSession capture(Process process, long nowMillis) throws IOException {
+        CaptureSession session = process.mediaCapture.begin(MediaType.PHOTO, nowMillis);
+        process.captures.started(session);
+        writeCapture(session.getFile());
+        process.captures.returned(session.getId());
+        process.upload(session);
+        return session;
+    }
+
+    // The camera app writing the photo
+    private void writeCapture(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        byte[] content = new byte[MIN_CAPTURE_BYTES + random.nextInt(MAX_CAPTURE_BYTES - MIN_CAPTURE_BYTES)];
+        random.nextBytes(content);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+    }
+
+    private static void awaitEmpty(UploadQueue queue) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+        while (queue.getDepth() > 0) {
+            assertTrue(queue.getDepth() + " uploads still pending", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitTermination(ExecutorService... executors) throws InterruptedException {
+        for (ExecutorService executor : executors) {
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Descriptors of this process open on files under dir; none where /proc is not available
+    private static int openFilesUnder(File dir) throws IOException {
+        String[] fds = new File("/proc/self/fd").list();
+        if (fds == null) {
+            return 0;
+        }
+        String prefix = dir.getCanonicalPath() + File.separator;
+        int open = 0;
+        for (String fd : fds) {
+            try {
+                if (Files.readSymbolicLink(Paths.get("/proc/self/fd", fd)).toString().startsWith(prefix)) {
+                    open++;
+                }
+            } catch (IOException e) {
+                // Closed while listing
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Remembers the source of every upload that succeeded, after a random delay; a tenth of
+     * attempts fail instead. Shared by both processes, as Storage outlives the app.
+     */
+    private static final class StandInStorage {
+        final Set<String> stored = ConcurrentHashMap.newKeySet();
+        final AtomicLong failures = new AtomicLong();
+        private final Random random = new Random(7);
+
+        UploadTransport on(final ScheduledExecutorService network) {
+            return (item, callback) -> {
+                long delayMs = (long) (-MEAN_LATENCY_MS * Math.log(1 - nextDouble()));
+                final boolean fail = nextDouble() < FAILURE_RATE;
+                final ScheduledFuture<?> done = network.schedule(() -> {
+                    if (fail) {
+                        failures.incrementAndGet();
+                        callback.onFailure(new IOException("Injected failure"));
+                        return;
+                    }
+                    long bytes = new File(URI.create(item.getSource())).length();
+                    if (bytes == 0) {
+                        callback.onFailure(new IOException("Empty upload " + item.getSource()));
+                        return;
+                    }
+                    callback.onProgress(bytes, bytes);
+                    stored.add(item.getSource());
+                    callback.onSuccess();
+                }, delayMs, TimeUnit.MILLISECONDS);
+                return () -> done.cancel(false);
+            };
+        }
+
+        private synchronized double nextDouble() {
+            return random.nextDouble();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DownsampleMathTest {
+
+    @Test
+    public void twelveMegapixelPhotoIntoAPreview() {
+        // 4000x3000 into a 1024 edge: 4 gives 1000x750, 2 is the last that stays above
+        assertEquals(2, DownsampleMath.calculateInSampleSize(4000, 3000, 1024, 768));
+        assertEquals(4, DownsampleMath.calculateInSampleSize(4000, 3000, 1000, 750));
+    }
+
+    @Test
+    public void bothDimensionsStayAtOrAboveTheRequest() {
+        int[][] cases = {{4032, 3024, 512, 384}, {3024, 4032, 300, 300}, {1080, 1920, 1024, 1024}, {8000, 100, 64, 64}};
+        for (int[] c : cases) {
+            int sample = DownsampleMath.calculateInSampleSize(c[0], c[1], c[2], c[3]);
+            assertEquals("power of two", 0, sample & (sample - 1));
+            assertTrue(c[0] / sample >= c[2] || sample == 1);
+            assertTrue(c[1] / sample >= c[3] || sample == 1);
+            // One step further would go below the request
+            assertTrue(c[0] / (sample * 2) < c[2] || c[1] / (sample * 2) < c[3]);
+        }
+    }
+
+    @Test
+    public void smallOrUnknownSizesAreNotSampled() {
+        assertEquals(1, DownsampleMath.calculateInSampleSize(800, 600, 1024, 1024));
+        assertEquals(1, DownsampleMath.calculateInSampleSize(0, 600, 100, 100));
+        assertEquals(1, DownsampleMath.calculateInSampleSize(800, 600, 0, 100));
+        assertEquals(1, DownsampleMath.calculateInSampleSize(-1, -1, 100, 100));
+    }
+
+    @Test
+    public void sampledSizeRoundsUp() {
+        assertEquals(1000, DownsampleMath.sampledSize(4000, 4));
+        assertEquals(1001, DownsampleMath.sampledSize(4001, 4));
+        assertEquals(1, DownsampleMath.sampledSize(1, 8));
+    }
+
+    @Test
+    public void byteBudgetOfADecode() {
+        // 2016x1512 ARGB_8888 for a 4032x3024 photo at sample size 2
+        assertEquals(2016L * 1512 * 4, DownsampleMath.decodedByteCount(4032, 3024, 2, 4));
+        assertEquals(1001L * 751 * 2, DownsampleMath.decodedByteCount(4001, 3001, 4, 2));
+        // A full-size 108 MP decode does not overflow
+        assertEquals(12000L * 9000 * 4, DownsampleMath.decodedByteCount(12000, 9000, 1, 4));
+    }
+}
@@ -0,0 +1,79 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void smallValuesHaveTheirOwnBucket() {
+        for (int value = 0; value < Histogram.SUB_BUCKETS; value++) {
+            assertEquals(value, Histogram.bucketOf(value));
+            assertEquals(value, Histogram.highestValueIn(value));
+        }
+    }
+
+    @Test
+    public void everyValueFallsWithinItsBucket() {
+        long[] values = {32, 33, 63, 64, 65, 1000, 1023, 1024, 123456789L, 1L << 40, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue("bucket " + bucket + " of " + value, bucket < Histogram.BUCKETS);
+            assertTrue(value <= Histogram.highestValueIn(bucket));
+            assertTrue(value > Histogram.highestValueIn(bucket - 1));
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, Histogram.highestValueIn(Histogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void bucketsAreWithinAboutThreePercent() {
+        for (long value = Histogram.SUB_BUCKETS; value < 1L << 20; value = value * 17 / 16 + 1) {
+            long highest = Histogram.highestValueIn(Histogram.bucketOf(value));
+            assertTrue(value + " reported as " + highest, (highest - value) <= value / Histogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void percentilesMeanAndMax() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);  // counted as zero
+        Histogram.Snapshot snapshot = histogram.snapshotAndReset();
+
+        assertEquals(101, snapshot.getCount());
+        assertEquals(100, snapshot.getMax());
+        assertEquals(5050 / 101.0, snapshot.getMean(), 1e-9);
+        assertEquals(0, snapshot.getValueAtPercentile(0));
+        assertEquals(100, snapshot.getValueAtPercentile(100));
+        long median = snapshot.getValueAtPercentile(50);
+        assertTrue("median " + median, median >= 50 && median <= 52);
+    }
+
+    @Test
+    public void snapshotResetsAndMerges() {
+        Histogram histogram = new Histogram();
+        histogram.record(10);
+        Histogram.Snapshot first = histogram.snapshotAndReset();
+        assertEquals(0, histogram.snapshotAndReset().getCount());
+
+        histogram.record(1000);
+        Histogram.Snapshot merged = first.merge(histogram.snapshotAndReset());
+        assertEquals(2, merged.getCount());
+        assertEquals(1000, merged.getMax());
+        assertEquals(505, merged.getMean(), 1e-9);
+        assertEquals(10, merged.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void emptySnapshotReportsZero() {
+        Histogram.Snapshot snapshot = new Histogram().snapshotAndReset();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(99), 0);
+        assertEquals(0, snapshot.getMean(), 0);
+    }
+}
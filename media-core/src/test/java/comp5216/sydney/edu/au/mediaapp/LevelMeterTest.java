@@ -0,0 +1,103 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LevelMeterTest {
+
+    private static final RecordingConfig CONFIG = RecordingProfile.VOICE_HIGH.toConfig();
+    // Whole cycles in every 20 ms read at 48 kHz
+    private static final double HZ = 1000;
+    private static final int FRAMES_PER_READ = CONFIG.getBufferSize() / CONFIG.getFrameSize();
+    private static final long READ_US = CONFIG.framesToUs(FRAMES_PER_READ);
+    private static final long INTERVAL_US = 100000;
+    private static final double DB_TOLERANCE = 0.05;
+
+    @Test
+    public void fullScaleSine() {
+        ByteBuffer sine = PcmFixtures.sine(CONFIG, FRAMES_PER_READ, HZ, Short.MAX_VALUE);
+        // RMS of a sine is peak / sqrt(2), 3 dB down
+        assertEquals(-3.01, LevelMeter.rmsDb(sine), DB_TOLERANCE);
+        assertEquals(0, sine.position());
+    }
+
+    @Test
+    public void halfScaleSine() {
+        ByteBuffer sine = PcmFixtures.sine(CONFIG, FRAMES_PER_READ, HZ, 16384);
+        assertEquals(-9.03, LevelMeter.rmsDb(sine), DB_TOLERANCE);
+    }
+
+    @Test
+    public void digitalSilence() {
+        assertEquals(LevelMeter.SILENCE_DB, LevelMeter.rmsDb(PcmFixtures.constant(CONFIG, FRAMES_PER_READ, 0)), 0);
+        assertEquals(LevelMeter.SILENCE_DB, LevelMeter.rmsDb(PcmFixtures.constant(CONFIG, 0, 0)), 0);
+        assertEquals(LevelMeter.SILENCE_DB, LevelMeter.toDb(0), 0);
+        assertEquals(0, LevelMeter.toDb(32768), 1e-6);
+    }
+
+    @Test
+    public void reportsOncePerIntervalAndPassesEveryBufferOn() throws IOException {
+        Levels levels = new Levels();
+        Counting sink = new Counting();
+        LevelMeter meter = new LevelMeter(sink, levels, INTERVAL_US);
+        ByteBuffer silence = PcmFixtures.constant(CONFIG, FRAMES_PER_READ, 0);
+        ByteBuffer halfScale = PcmFixtures.sine(CONFIG, FRAMES_PER_READ, HZ, 16384);
+
+        // One second: silence, then a half-scale tone from 500 ms on
+        int reads = (int) (1000000 / READ_US);
+        for (int i = 0; i < reads; i++) {
+            ByteBuffer pcm = i < reads / 2 ? silence : halfScale;
+            pcm.rewind();
+            meter.encode(pcm, i * READ_US);
+        }
+
+        // The first read opens the window, one report per 100 ms after that
+        assertEquals(9, levels.rms.size());
+        assertEquals(reads, sink.buffers);
+        assertEquals((long) reads * CONFIG.getBufferSize(), sink.bytes);
+        assertEquals(LevelMeter.SILENCE_DB, levels.rms.get(0), 0);
+        assertEquals(LevelMeter.SILENCE_DB, levels.peak.get(0), 0);
+        assertEquals(-9.03, levels.rms.get(8), DB_TOLERANCE);
+        assertEquals(-6.02, levels.peak.get(8), DB_TOLERANCE);
+    }
+
+    private static final class Levels implements LevelMeter.Listener {
+        final List<Float> rms = new ArrayList<>();
+        final List<Float> peak = new ArrayList<>();
+
+        @Override
+        public void onLevel(float rmsDb, float peakDb) {
+            rms.add(rmsDb);
+            peak.add(peakDb);
+        }
+    }
+
+    private static final class Counting implements PcmEncoder {
+        int buffers;
+        long bytes;
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void encode(ByteBuffer pcm, long presentationTimeUs) {
+            buffers++;
+            bytes += pcm.remaining();
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
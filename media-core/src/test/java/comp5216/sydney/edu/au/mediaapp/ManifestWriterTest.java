@@ -0,0 +1,127 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ManifestWriterTest {
+
+    // 2023-10-20T03:30:15Z
+    private static final long CAPTURED_AT = 1697772615000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Scheduled uploads = new Scheduled();
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = new File(folder.getRoot(), "manifests");
+    }
+
+    @Test
+    public void flushListsWholeUploadsAndQueuesTheManifest() throws IOException {
+        ManifestWriter writer = new ManifestWriter(dir, ObjectKeyScheme.defaults(), uploads, 100);
+        UploadItem photo = UploadItem.forFile("file:///a.jpg", "Sydney/images/2023-10-20/03/A_a.jpg");
+        photo.setCapturedAtMillis(CAPTURED_AT);
+        photo.setContentHash("9f2c");
+        UploadItem duplicate = UploadItem.forFile("file:///b.jpg", "Sydney/images/2023-10-20/03/B_b.jpg");
+        duplicate.setStoredPath("Sydney/images/2023-10-20/03/A_a.jpg");
+        writer.onUploadSucceeded(photo);
+        writer.onUploadSucceeded(duplicate);
+        // A chunk of a streamed video is not listed, its manifest.json is
+        writer.onUploadSucceeded(UploadItem.forRange("file:///v.mp4", "Sydney/videos/v.mp4/chunk-0", 0, 10, "g"));
+
+        assertTrue(writer.flush());
+        assertEquals(1, uploads.items.size());
+        UploadItem manifest = uploads.items.get(0);
+        assertTrue(manifest.getRemotePath(), ObjectKeyScheme.isManifestKey(manifest.getRemotePath()));
+        String json = read(new File(URI.create(manifest.getSource())));
+        assertTrue(json, json.startsWith("{\"v\":1,\"created\":"));
+        assertTrue(json, json.endsWith(",\"items\":["
+                + "{\"path\":\"Sydney/images/2023-10-20/03/A_a.jpg\",\"folder\":\"images\","
+                + "\"capturedAt\":" + CAPTURED_AT + ",\"sha256\":\"9f2c\"},"
+                + "{\"path\":\"Sydney/images/2023-10-20/03/B_b.jpg\","
+                + "\"storedAt\":\"Sydney/images/2023-10-20/03/A_a.jpg\",\"folder\":\"images\"}]}"));
+
+        // Nothing left for the next one
+        assertFalse(writer.flush());
+        assertEquals(1, uploads.items.size());
+    }
+
+    @Test
+    public void flushesOnItsOwnAtMaxEntries() {
+        ManifestWriter writer = new ManifestWriter(dir, ObjectKeyScheme.defaults(), uploads, 2);
+        writer.onUploadSucceeded(UploadItem.forFile("file:///a.jpg", "Sydney/images/a.jpg"));
+        assertTrue(uploads.items.isEmpty());
+        writer.onUploadSucceeded(UploadItem.forFile("file:///b.jpg", "Sydney/images/b.jpg"));
+        assertEquals(1, uploads.items.size());
+    }
+
+    @Test
+    public void picksUpEntriesLeftByAnEarlierProcess() throws IOException {
+        assertTrue(dir.mkdirs());
+        try (FileOutputStream out = new FileOutputStream(new File(dir, "pending.jsonl"))) {
+            // The second line was torn by a crash mid-append
+            out.write("{\"path\":\"Sydney/images/a.jpg\"}\n{\"path\":\"Sydn".getBytes(StandardCharsets.UTF_8));
+        }
+        ManifestWriter writer = new ManifestWriter(dir, ObjectKeyScheme.defaults(), uploads, 100);
+
+        assertTrue(writer.flush());
+        String json = read(new File(URI.create(uploads.items.get(0).getSource())));
+        assertTrue(json, json.endsWith(",\"items\":[{\"path\":\"Sydney/images/a.jpg\"}]}"));
+    }
+
+    @Test
+    public void sentManifestIsDeleted() throws IOException {
+        ManifestWriter writer = new ManifestWriter(dir, ObjectKeyScheme.defaults(), uploads, 100);
+        writer.onUploadSucceeded(UploadItem.forFile("file:///a.jpg", "Sydney/images/a.jpg"));
+        writer.flush();
+        UploadItem manifest = uploads.items.get(0);
+        File local = new File(URI.create(manifest.getSource()));
+        assertTrue(local.exists());
+
+        writer.onUploadSucceeded(manifest);
+        assertFalse(local.exists());
+        // And not listed in the next manifest
+        assertFalse(writer.flush());
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static final class Scheduled implements UploadScheduler {
+        final List<UploadItem> items = new ArrayList<>();
+
+        @Override
+        public UploadItem enqueue(String source, String remotePath) {
+            return enqueue(UploadItem.forFile(source, remotePath));
+        }
+
+        @Override
+        public UploadItem enqueue(UploadItem item) {
+            items.add(item);
+            return item;
+        }
+
+        @Override
+        public void cancelGroup(String group) {
+        }
+    }
+}
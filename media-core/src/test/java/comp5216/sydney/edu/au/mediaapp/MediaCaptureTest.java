@@ -0,0 +1,124 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MediaCaptureTest {
+
+    // 2023-10-20 14:30:15.123 in Sydney, 03:30 UTC
+    private static final long TAKEN_AT = 1697772615123L;
+    private static final TimeZone SYDNEY = TimeZone.getTimeZone("Australia/Sydney");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File mediaDir;
+    private Recording uploads;
+
+    @Before
+    public void setUp() {
+        mediaDir = new File(folder.getRoot(), "media");
+        uploads = new Recording();
+    }
+
+    @Test
+    public void filesAreNamedAfterTheLocalTime() {
+        TimestampFileNamer namer = new TimestampFileNamer(SYDNEY);
+        assertEquals("IMG_20231020_143015.jpg", namer.name(MediaType.PHOTO, TAKEN_AT));
+        assertEquals("VIDEO_20231020_143015.mp4", namer.name(MediaType.VIDEO, TAKEN_AT));
+        assertEquals("AUDIO_20231020_143015.m4a", namer.name(MediaType.AUDIO, TAKEN_AT));
+        // Bursts share a second, the millisecond tells them apart
+        String burst = TimestampFileNamer.withMillis().name(MediaType.PHOTO, TAKEN_AT);
+        assertTrue(burst, burst.matches("IMG_\\d{8}_\\d{6}_123\\.jpg"));
+    }
+
+    @Test
+    public void flatLayout() {
+        FlatStorageLayout layout = new FlatStorageLayout(mediaDir);
+
+        File file = layout.localFile(MediaType.VIDEO, "VIDEO_x.mp4");
+        assertEquals(new File(mediaDir, "VIDEO_x.mp4"), file);
+        assertTrue("Directory not created", mediaDir.isDirectory());
+        assertEquals("Sydney/images/IMG_x.jpg", layout.remotePath("Sydney", MediaType.PHOTO, "IMG_x.jpg"));
+        assertEquals("Sydney/audios/AUDIO_x.m4a",
+                layout.remotePath("Sydney", MediaType.AUDIO, "AUDIO_x.m4a", TAKEN_AT));
+    }
+
+    @Test
+    public void partitionedLayoutFilesByCaptureTime() {
+        PartitionedStorageLayout layout = new PartitionedStorageLayout(mediaDir, ObjectKeyScheme.defaults());
+
+        assertEquals(new File(mediaDir, "IMG_x.jpg"), layout.localFile(MediaType.PHOTO, "IMG_x.jpg"));
+        String path = layout.remotePath("Sydney", MediaType.PHOTO, "IMG_x.jpg", TAKEN_AT);
+        assertTrue(path, path.matches("Sydney/images/2023-10-20/03/[0-9A-Z]{26}_IMG_x\\.jpg"));
+        // A new key per call
+        assertNotEquals(path, layout.remotePath("Sydney", MediaType.PHOTO, "IMG_x.jpg", TAKEN_AT));
+    }
+
+    @Test
+    public void beginNamesAndPlacesTheCapture() {
+        MediaCapture capture = new MediaCapture(new TimestampFileNamer(SYDNEY), new FlatStorageLayout(mediaDir),
+                uploads);
+
+        CaptureSession session = capture.begin(MediaType.PHOTO, TAKEN_AT);
+
+        assertEquals(MediaType.PHOTO, session.getType());
+        assertEquals("IMG_20231020_143015.jpg", session.getFileName());
+        assertEquals(new File(mediaDir, "IMG_20231020_143015.jpg"), session.getFile());
+        assertEquals(TAKEN_AT, session.getStartedAtMillis());
+        assertEquals(26, session.getId().length());
+        assertNotEquals(session.getId(), capture.begin(MediaType.PHOTO, TAKEN_AT).getId());
+        // Nothing is queued until the capture comes back
+        assertTrue(uploads.items.isEmpty());
+    }
+
+    @Test
+    public void uploadHandsTheItemToTheScheduler() {
+        MediaCapture capture = new MediaCapture(new TimestampFileNamer(SYDNEY), new FlatStorageLayout(mediaDir),
+                uploads);
+        assertSame(uploads, capture.getUploads());
+
+        UploadItem item = capture.upload("content://media/1", "Sydney", MediaType.VIDEO, "VIDEO_x.mp4", TAKEN_AT);
+        UploadItem worked = capture.uploadTo("file:///a.m4a",
+                capture.remotePath("", MediaType.AUDIO, "AUDIO_a.m4a"), 0);
+
+        assertEquals(2, uploads.items.size());
+        assertSame(item, uploads.items.get(0));
+        assertEquals("content://media/1", item.getSource());
+        assertEquals("Sydney/videos/VIDEO_x.mp4", item.getRemotePath());
+        assertEquals(TAKEN_AT, item.getCapturedAtMillis());
+        assertEquals("/audios/AUDIO_a.m4a", worked.getRemotePath());
+    }
+
+    // Keeps what it is given, in order
+    private static final class Recording implements UploadScheduler {
+        final List<UploadItem> items = new ArrayList<>();
+
+        @Override
+        public UploadItem enqueue(String source, String remotePath) {
+            return enqueue(UploadItem.forFile(source, remotePath));
+        }
+
+        @Override
+        public UploadItem enqueue(UploadItem item) {
+            items.add(item);
+            return item;
+        }
+
+        @Override
+        public void cancelGroup(String group) {
+        }
+    }
+}
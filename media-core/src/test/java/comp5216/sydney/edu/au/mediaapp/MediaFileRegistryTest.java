@@ -0,0 +1,168 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MediaFileRegistryTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<FileChannel> channels = new ArrayList<>();
+    private String a;
+    private String b;
+
+    @Before
+    public void setUp() throws IOException {
+        a = write("a.mp4", bytes(1000)).getPath();
+        b = write("b.mp4", bytes(10)).getPath();
+    }
+
+    @Test
+    public void holdersShareOneDescriptor() throws IOException {
+        MediaFileRegistry registry = registry(2);
+        MappedMediaFile hashing = registry.open(a);
+        MappedMediaFile uploading = registry.open(a);
+
+        assertSame(hashing, uploading);
+        assertEquals(1, registry.getOpenCount());
+        hashing.close();
+        uploading.close();
+        // Kept idle for the upload that usually follows
+        assertTrue(channels.get(0).isOpen());
+        assertSame(hashing, registry.open(a));
+        assertEquals(1, registry.getOpenCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedIdleFileIsClosedFirst() throws IOException {
+        MediaFileRegistry registry = registry(1);
+        MappedMediaFile first = registry.open(a);
+        MappedMediaFile second = registry.open(b);
+        first.close();
+        second.close();
+
+        assertFalse(channels.get(0).isOpen());
+        assertTrue(channels.get(1).isOpen());
+        assertNotSame(first, registry.open(a));
+        assertEquals(3, registry.getOpenCount());
+    }
+
+    @Test
+    public void evictIdleLeavesFilesStillHeld() throws IOException {
+        MediaFileRegistry registry = registry(4);
+        MappedMediaFile held = registry.open(a);
+        registry.open(b).close();
+
+        registry.evictIdle();
+        assertTrue(channels.get(0).isOpen());
+        assertFalse(channels.get(1).isOpen());
+        // Still usable, and closed as usual once let go
+        assertEquals(1000, held.slice(0, 1000).remaining());
+        held.close();
+        registry.evictIdle();
+        assertFalse(channels.get(0).isOpen());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closingMoreOftenThanOpenedIsRejected() throws IOException {
+        MappedMediaFile file = registry(2).open(a);
+        file.close();
+        file.close();
+    }
+
+    @Test
+    public void slicesAreIndependentViewsOfTheFile() throws IOException {
+        try (MappedMediaFile file = registry(2).open(a)) {
+            ByteBuffer head = file.slice(0, 10);
+            ByteBuffer middle = file.slice(500, 100);
+            assertEquals(0, head.position());
+            assertEquals(100, middle.remaining());
+            assertEquals((byte) 500, middle.get(0));
+            head.get(new byte[10]);
+            assertEquals(100, file.slice(500, 100).remaining());
+
+            byte[] read = new byte[100];
+            InputStream in = new ByteBufferInputStream(file.slice(500, 100));
+            assertEquals(100, in.read(read));
+            assertEquals(-1, in.read());
+            byte[] expected = new byte[100];
+            System.arraycopy(bytes(1000), 500, expected, 0, 100);
+            assertArrayEquals(expected, read);
+        }
+    }
+
+    @Test
+    public void growingFileIsMappedAgain() throws IOException {
+        MediaFileRegistry registry = registry(2);
+        try (MappedMediaFile file = registry.open(a)) {
+            file.slice(0, 1000);
+            try {
+                file.slice(900, 200);
+                fail("Read past the end");
+            } catch (EOFException expected) {
+                // nothing there yet
+            }
+            // A recording in progress appends more
+            try (FileOutputStream out = new FileOutputStream(a, true)) {
+                out.write(bytes(200));
+            }
+            assertEquals(1200, file.size());
+            assertEquals((byte) 100, file.slice(1100, 100).get(0));
+        }
+    }
+
+    @Test
+    public void mappedHashMatchesTheStreamedOne() throws IOException {
+        try (MappedMediaFile file = registry(2).open(a);
+             FileChannel channel = FileChannel.open(new File(a).toPath(), StandardOpenOption.READ)) {
+            assertEquals(new ContentHasher().sha256(channel), new ContentHasher().sha256(file));
+        }
+    }
+
+    private MediaFileRegistry registry(int maxIdle) {
+        return new MediaFileRegistry(source -> {
+            FileChannel channel = FileChannel.open(new File(source).toPath(), StandardOpenOption.READ);
+            channels.add(channel);
+            return channel;
+        }, maxIdle);
+    }
+
+    private File write(String name, byte[] content) throws IOException {
+        File file = folder.newFile(name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    // Each byte is its own offset, truncated
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+}
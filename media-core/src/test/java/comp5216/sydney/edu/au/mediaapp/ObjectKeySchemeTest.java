@@ -0,0 +1,80 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ObjectKeySchemeTest {
+
+    // 2023-10-20T03:30:15Z
+    private static final long CAPTURED_AT = 1697772615000L;
+
+    @Test
+    public void defaultKeyIsPartitionedByCityDateAndHour() {
+        String key = ObjectKeyScheme.defaults().key("Sydney", MediaType.PHOTO, "IMG_1.jpg", CAPTURED_AT);
+        assertTrue(key, key.matches("Sydney/images/2023-10-20/03/[0-9A-HJKMNP-TV-Z]{26}_IMG_1\\.jpg"));
+    }
+
+    @Test
+    public void missingCityIsUnknown() {
+        assertTrue(ObjectKeyScheme.defaults().key(" ", MediaType.VIDEO, "v.mp4", CAPTURED_AT)
+                .startsWith(ObjectKeyScheme.UNKNOWN_CITY + "/videos/"));
+        assertTrue(ObjectKeyScheme.defaults().key(null, MediaType.VIDEO, "v.mp4", CAPTURED_AT)
+                .startsWith(ObjectKeyScheme.UNKNOWN_CITY + "/videos/"));
+    }
+
+    @Test
+    public void segmentsCannotEscapeTheirPartition() {
+        assertEquals("a_b", ObjectKeyScheme.segment("a/b"));
+        assertEquals("_", ObjectKeyScheme.segment(".."));
+        assertEquals("_", ObjectKeyScheme.segment("  "));
+        assertEquals("x__y", ObjectKeyScheme.segment("x#?y"));
+        String key = new ObjectKeyScheme("{folder}/{name}_{id}").key("", MediaType.AUDIO, "../a", CAPTURED_AT);
+        assertEquals(2, key.split("/").length);
+    }
+
+    @Test
+    public void idsAreTimeOrderedAndUnique() {
+        String earlier = ObjectKeyScheme.newId(CAPTURED_AT);
+        String later = ObjectKeyScheme.newId(CAPTURED_AT + 1);
+        assertEquals(26, earlier.length());
+        assertTrue(earlier.compareTo(later) < 0);
+        // Same millisecond: the time prefix matches, the random part tells them apart
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String id = ObjectKeyScheme.newId(CAPTURED_AT);
+            assertEquals(earlier.substring(0, 10), id.substring(0, 10));
+            ids.add(id);
+        }
+        assertEquals(1000, ids.size());
+    }
+
+    @Test
+    public void manifestsAreKeptApart() {
+        String key = ObjectKeyScheme.defaults().manifestKey(CAPTURED_AT);
+        assertTrue(key, key.matches("manifests/2023-10-20/03/[0-9A-Z]{26}\\.json"));
+        assertTrue(ObjectKeyScheme.isManifestKey(key));
+        assertFalse(ObjectKeyScheme.isManifestKey(
+                ObjectKeyScheme.defaults().key("Sydney", MediaType.PHOTO, "a.jpg", CAPTURED_AT)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void patternWithoutIdIsRejected() {
+        new ObjectKeyScheme("{city}/{folder}/{name}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownTokenIsRejected() {
+        new ObjectKeyScheme("{folder}/{id}_{minute}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void patternInsideManifestsIsRejected() {
+        new ObjectKeyScheme("manifests/{folder}/{id}");
+    }
+}
@@ -0,0 +1,42 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// 16-bit little-endian PCM as AudioRecord delivers it, the same sample on every channel
+final class PcmFixtures {
+
+    private PcmFixtures() {
+    }
+
+    // frames of a sine at hz, starting at phase zero
+    static ByteBuffer sine(RecordingConfig config, int frames, double hz, double amplitude) {
+        ByteBuffer pcm = allocate(config, frames);
+        for (int frame = 0; frame < frames; frame++) {
+            double sample = amplitude * Math.sin(2 * Math.PI * hz * frame / config.getSampleRate());
+            put(pcm, config, (short) Math.round(sample));
+        }
+        pcm.flip();
+        return pcm;
+    }
+
+    // frames all at one sample value, 0 for digital silence
+    static ByteBuffer constant(RecordingConfig config, int frames, int value) {
+        ByteBuffer pcm = allocate(config, frames);
+        for (int frame = 0; frame < frames; frame++) {
+            put(pcm, config, (short) value);
+        }
+        pcm.flip();
+        return pcm;
+    }
+
+    private static ByteBuffer allocate(RecordingConfig config, int frames) {
+        return ByteBuffer.allocate(frames * config.getFrameSize()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void put(ByteBuffer pcm, RecordingConfig config, short sample) {
+        for (int channel = 0; channel < config.getChannelCount(); channel++) {
+            pcm.putShort(sample);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PcmRingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(1024, new PcmRingBuffer(1000, 0).getCapacity());
+        assertEquals(1024, new PcmRingBuffer(1024, 0).getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void retainingMoreThanTheRingIsRejected() {
+        new PcmRingBuffer(16, 32);
+    }
+
+    @Test
+    public void overwritesTheOldestAudioWithoutAReader() {
+        PcmRingBuffer ring = new PcmRingBuffer(8, 8);
+        assertEquals(6, ring.write(bytes(0, 6)));
+        assertEquals(6, ring.write(bytes(6, 6)));
+        ring.attach();
+        ring.close();
+
+        // Only the newest eight bytes survived
+        assertArrayEquals(bytes(4, 8).array(), readAll(ring, 16));
+        assertEquals(0, ring.getDroppedBytes());
+    }
+
+    @Test
+    public void attachingKeepsOnlyTheRetainedPast() {
+        PcmRingBuffer ring = new PcmRingBuffer(16, 4);
+        ring.write(bytes(0, 10));
+        ring.attach();
+        ring.write(bytes(10, 2));
+        ring.close();
+
+        assertArrayEquals(bytes(6, 6).array(), readAll(ring, 16));
+    }
+
+    @Test
+    public void dropsWritesThatDoNotFitWhileAttached() {
+        PcmRingBuffer ring = new PcmRingBuffer(8, 0);
+        ring.attach();
+        assertEquals(6, ring.write(bytes(0, 6)));
+        assertEquals(0, ring.write(bytes(6, 4)));
+        assertEquals(4, ring.getDroppedBytes());
+
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        assertEquals(4, ring.read(dst, 0));
+        // Room again once the reader caught up, and the copy wraps around the end
+        assertEquals(4, ring.write(bytes(6, 4)));
+        ring.close();
+        assertArrayEquals(bytes(4, 6).array(), readAll(ring, 16));
+    }
+
+    @Test
+    public void readTimesOutWithoutAudio() {
+        PcmRingBuffer ring = new PcmRingBuffer(8, 0);
+        ring.attach();
+        assertEquals(0, ring.read(ByteBuffer.allocate(4), TimeUnit.MILLISECONDS.toNanos(5)));
+    }
+
+    @Test
+    public void readerSeesEveryByteAcrossThreads() throws InterruptedException {
+        final PcmRingBuffer ring = new PcmRingBuffer(256, 0);
+        final int total = 64 * 1024;
+        ring.attach();
+        Thread writer = new Thread(() -> {
+            int written = 0;
+            while (written < total) {
+                ByteBuffer chunk = bytes(written, Math.min(48, total - written));
+                int taken = ring.write(chunk);
+                if (taken == 0) {
+                    Thread.yield();
+                }
+                written += taken;
+            }
+            ring.close();
+        });
+        writer.start();
+
+        byte[] read = readAll(ring, total);
+        writer.join();
+        assertArrayEquals(bytes(0, total).array(), read);
+    }
+
+    // Reads until the ring reports its end
+    private static byte[] readAll(PcmRingBuffer ring, int max) {
+        ByteBuffer out = ByteBuffer.allocate(max);
+        ByteBuffer dst = ByteBuffer.allocate(64);
+        while (true) {
+            dst.clear();
+            int n = ring.read(dst, TimeUnit.SECONDS.toNanos(5));
+            if (n < 0) {
+                break;
+            }
+            dst.flip();
+            out.put(dst);
+        }
+        out.flip();
+        byte[] result = new byte[out.remaining()];
+        out.get(result);
+        return result;
+    }
+
+    // length bytes counting up from start
+    private static ByteBuffer bytes(int start, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) (start + i));
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,165 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PreRollCaptureTest {
+
+    private static final RecordingConfig CONFIG = RecordingProfile.VOICE_LOW.toConfig();
+    private static final long PRE_ROLL_MS = 100;
+    private static final int PRE_ROLL_BYTES = (int) (PRE_ROLL_MS * CONFIG.getSampleRate() / 1000 * CONFIG.getFrameSize());
+    private static final long TIMEOUT_MS = 5000;
+
+    private final CountingSource source = new CountingSource();
+    private final PreRollCapture capture = new PreRollCapture(CONFIG, source, PRE_ROLL_MS, 1000);
+
+    @After
+    public void tearDown() {
+        capture.disarm();
+    }
+
+    @Test
+    public void recordingStartsWithThePreRollAndCarriesOnWithoutAGap() throws InterruptedException {
+        capture.arm();
+        assertTrue(capture.isArmed());
+        awaitProduced(2L * PRE_ROLL_BYTES);
+
+        long before = source.produced.get();
+        PcmSource recording = capture.openRecording();
+        long after = source.produced.get();
+        List<Integer> words = readWords(recording, PRE_ROLL_BYTES + 10 * CONFIG.getBufferSize());
+        recording.release();
+
+        // The source counts in 4-byte words, so the first word says where in the stream the recording begins
+        long firstByte = 4L * words.get(0);
+        long handedOverAt = firstByte + PRE_ROLL_BYTES;
+        assertTrue(handedOverAt + " not in [" + (before - CONFIG.getBufferSize()) + ", " + after + "]",
+                handedOverAt >= before - CONFIG.getBufferSize() && handedOverAt <= after);
+        for (int i = 1; i < words.size(); i++) {
+            assertEquals("Gap at word " + i, words.get(i - 1) + 1, (int) words.get(i));
+        }
+    }
+
+    @Test
+    public void releasingLeavesTheCaptureArmedForTheNextRecording() throws InterruptedException {
+        capture.arm();
+        awaitProduced(PRE_ROLL_BYTES);
+        PcmSource first = capture.openRecording();
+        readWords(first, CONFIG.getBufferSize());
+        first.release();
+
+        PcmSource second = capture.openRecording();
+        assertFalse(readWords(second, CONFIG.getBufferSize()).isEmpty());
+        second.release();
+        assertTrue(capture.isArmed());
+    }
+
+    @Test
+    public void disarmingEndsAnOpenRecording() throws IOException, InterruptedException {
+        capture.arm();
+        awaitProduced(PRE_ROLL_BYTES);
+        PcmSource recording = capture.openRecording();
+        capture.disarm();
+
+        assertFalse(capture.isArmed());
+        assertTrue(source.released);
+        // What was left in the ring, then the end
+        ByteBuffer buffer = ByteBuffer.allocate(CONFIG.getBufferSize());
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            buffer.clear();
+            if (recording.read(buffer) < 0) {
+                break;
+            }
+            assertTrue("Recording never ended", System.currentTimeMillis() < deadline);
+        }
+        recording.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void openingBeforeArmingIsRejected() {
+        capture.openRecording();
+    }
+
+    private void awaitProduced(long bytes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (source.produced.get() < bytes) {
+            assertTrue("Source never got going", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static List<Integer> readWords(PcmSource recording, int bytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (buffer.hasRemaining()) {
+            try {
+                if (recording.read(buffer) < 0) {
+                    fail("Recording ended early");
+                }
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            assertTrue("Recording stalled", System.currentTimeMillis() < deadline);
+        }
+        buffer.flip();
+        List<Integer> words = new ArrayList<>();
+        while (buffer.remaining() >= 4) {
+            words.add(buffer.getInt());
+        }
+        return words;
+    }
+
+    // Consecutive ints at about real time, a buffer a millisecond, until stopped
+    private static final class CountingSource implements PcmSource {
+        final AtomicLong produced = new AtomicLong();
+        private volatile boolean stopped;
+        volatile boolean released;
+        private int next;
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            if (stopped) {
+                return -1;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            int bytes = buffer.remaining() / 4 * 4;
+            for (int i = 0; i < bytes; i += 4) {
+                buffer.putInt(next++);
+            }
+            produced.addAndGet(bytes);
+            return bytes;
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+}
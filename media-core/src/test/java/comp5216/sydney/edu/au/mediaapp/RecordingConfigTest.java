@@ -0,0 +1,43 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RecordingConfigTest {
+
+    @Test
+    public void bufferIsWholeFrames() {
+        RecordingConfig stereo = new RecordingConfig(44100, 2, 128000, 3531);
+        assertEquals(4, stereo.getFrameSize());
+        assertEquals(3528, stereo.getBufferSize());
+        // Never less than one frame
+        assertEquals(4, new RecordingConfig(44100, 2, 128000, 3).getBufferSize());
+    }
+
+    @Test
+    public void framesToTimestamps() {
+        RecordingConfig config = RecordingConfig.defaults();
+        assertEquals(RecordingProfile.Codec.AAC, config.getCodec());
+        assertEquals(0, config.framesToUs(0));
+        assertEquals(20000, config.framesToUs(config.getBufferSize() / config.getFrameSize()));
+        assertEquals(1000000, config.framesToUs(44100));
+        // An hour at 48 kHz does not overflow
+        assertEquals(3600L * 1000000, new RecordingConfig(48000, 1, 24000, 1920).framesToUs(3600L * 48000));
+    }
+
+    @Test
+    public void profilesReadTwentyMillisecondsAtATime() {
+        for (RecordingProfile profile : RecordingProfile.values()) {
+            RecordingConfig config = profile.toConfig();
+            assertEquals(profile.getCodec(), config.getCodec());
+            assertEquals(profile.getBitRate(), config.getBitRate());
+            assertEquals(profile.getLabel(), 20000, config.framesToUs(config.getBufferSize() / config.getFrameSize()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveSettings() {
+        new RecordingConfig(0, 1, 96000, 1764);
+    }
+}
@@ -0,0 +1,267 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingEngineTest {
+
+    private static final RecordingConfig CONFIG = RecordingProfile.VOICE_HIGH.toConfig();
+    private static final int FRAMES_PER_READ = CONFIG.getBufferSize() / CONFIG.getFrameSize();
+    private static final long TIMEOUT_MS = 5000;
+
+    // Everything source, encoder and listener are asked to do, in order; reads and encodes are left out
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch released = new CountDownLatch(2);
+
+    @Test
+    public void everyFrameIsEncodedWithItsTimestamp() throws InterruptedException {
+        // One second of a tone, read as full, short and empty reads
+        ByteBuffer tone = PcmFixtures.sine(CONFIG, CONFIG.getSampleRate(), 440, 8000);
+        SineSource source = new SineSource(tone, new int[]{FRAMES_PER_READ, FRAMES_PER_READ / 2, 0, 7});
+        Capturing encoder = new Capturing();
+        Outcome outcome = new Outcome();
+
+        new RecordingEngine(CONFIG, source, encoder, outcome).start();
+        awaitReleased();
+
+        assertEquals(Long.valueOf(CONFIG.getSampleRate()), outcome.frames.get());
+        assertNull(outcome.error.get());
+        // Timestamps follow the frames written, short reads included
+        long frames = 0;
+        for (int i = 0; i < encoder.frames.size(); i++) {
+            assertEquals(CONFIG.framesToUs(frames), (long) encoder.timestamps.get(i));
+            frames += encoder.frames.get(i);
+        }
+        assertEquals(CONFIG.getSampleRate(), frames);
+        // And what arrived is the tone, sample for sample
+        tone.rewind();
+        assertEquals(tone, ByteBuffer.wrap(encoder.pcm.toByteArray()).order(tone.order()));
+        assertEquals(Arrays.asList("encoder.start", "source.start", "source.stop", "encoder.finish",
+                "finished", "source.release", "encoder.release"), calls);
+    }
+
+    @Test
+    public void stopFinishesTheOutputBeforeReturning() throws InterruptedException {
+        LiveSource source = new LiveSource();
+        Capturing encoder = new Capturing();
+        Outcome outcome = new Outcome();
+        RecordingEngine engine = new RecordingEngine(CONFIG, source, encoder, outcome);
+
+        engine.start();
+        assertTrue(engine.isRunning());
+        assertTrue(source.reads.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        engine.stop();
+
+        assertFalse(engine.isRunning());
+        assertEquals(0, released.getCount());
+        assertTrue(calls.indexOf("encoder.finish") < calls.indexOf("finished"));
+        assertTrue(calls.indexOf("finished") < calls.indexOf("encoder.release"));
+        long frames = 0;
+        for (long read : encoder.frames) {
+            frames += read;
+        }
+        assertEquals(Long.valueOf(frames), outcome.frames.get());
+        assertTrue(frames >= 3 * FRAMES_PER_READ);
+    }
+
+    @Test
+    public void sourceFailureIsReportedAndEverythingReleased() throws InterruptedException {
+        final IOException failure = new IOException("Microphone gone");
+        ByteBuffer tone = PcmFixtures.sine(CONFIG, CONFIG.getSampleRate(), 440, 8000);
+        SineSource source = new SineSource(tone, new int[]{FRAMES_PER_READ}) {
+            private int reads;
+
+            @Override
+            public int read(ByteBuffer buffer) throws IOException {
+                if (reads++ == 5) {
+                    throw failure;
+                }
+                return super.read(buffer);
+            }
+        };
+        Capturing encoder = new Capturing();
+        Outcome outcome = new Outcome();
+        RecordingEngine engine = new RecordingEngine(CONFIG, source, encoder, outcome);
+
+        engine.start();
+        awaitReleased();
+
+        assertSame(failure, outcome.error.get());
+        assertNull(outcome.frames.get());
+        assertFalse(engine.isRunning());
+        assertEquals(5, encoder.frames.size());
+        // Not finished, the output is incomplete; released all the same
+        assertEquals(Arrays.asList("encoder.start", "source.start", "failed", "source.release", "encoder.release"),
+                calls);
+    }
+
+    @Test
+    public void encoderFailureAtStartNeverOpensTheSource() throws InterruptedException {
+        final IOException failure = new IOException("No codec");
+        SineSource source = new SineSource(PcmFixtures.constant(CONFIG, FRAMES_PER_READ, 0), new int[]{FRAMES_PER_READ});
+        Capturing encoder = new Capturing() {
+            @Override
+            public void start() throws IOException {
+                super.start();
+                throw failure;
+            }
+        };
+        Outcome outcome = new Outcome();
+
+        new RecordingEngine(CONFIG, source, encoder, outcome).start();
+        awaitReleased();
+
+        assertSame(failure, outcome.error.get());
+        assertEquals(Arrays.asList("encoder.start", "failed", "source.release", "encoder.release"), calls);
+    }
+
+    private void awaitReleased() throws InterruptedException {
+        assertTrue("Engine never released its source and encoder", released.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private final class Outcome implements RecordingEngine.Listener {
+        final AtomicReference<Long> frames = new AtomicReference<>();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+
+        @Override
+        public void onRecordingFinished(long framesWritten) {
+            calls.add("finished");
+            frames.set(framesWritten);
+        }
+
+        @Override
+        public void onRecordingFailed(Exception e) {
+            calls.add("failed");
+            error.set(e);
+        }
+    }
+
+    // Plays a fixture back in reads of the given sizes, in turn, and ends with it
+    private class SineSource implements PcmSource {
+        private final ByteBuffer pcm;
+        private final int[] readFrames;
+        private int readCount;
+
+        SineSource(ByteBuffer pcm, int[] readFrames) {
+            this.pcm = pcm;
+            this.readFrames = readFrames;
+        }
+
+        @Override
+        public void start() {
+            calls.add("source.start");
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            if (!pcm.hasRemaining()) {
+                return -1;
+            }
+            int bytes = Math.min(readFrames[readCount++ % readFrames.length] * CONFIG.getFrameSize(),
+                    Math.min(pcm.remaining(), buffer.remaining()));
+            ByteBuffer slice = pcm.duplicate();
+            slice.limit(slice.position() + bytes);
+            buffer.put(slice);
+            pcm.position(pcm.position() + bytes);
+            return bytes;
+        }
+
+        @Override
+        public void stop() {
+            calls.add("source.stop");
+        }
+
+        @Override
+        public void release() {
+            calls.add("source.release");
+            released.countDown();
+        }
+    }
+
+    // Silence in 20 ms reads until stopped, as AudioRecord delivers it
+    private final class LiveSource implements PcmSource {
+        final CountDownLatch reads = new CountDownLatch(3);
+        private volatile boolean stopped;
+
+        @Override
+        public void start() {
+            calls.add("source.start");
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            if (stopped) {
+                return -1;
+            }
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            int bytes = buffer.remaining();
+            buffer.put(new byte[bytes]);
+            reads.countDown();
+            return bytes;
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+            calls.add("source.stop");
+        }
+
+        @Override
+        public void release() {
+            calls.add("source.release");
+            released.countDown();
+        }
+    }
+
+    // Copies what it is given, the engine reuses its buffer
+    private class Capturing implements PcmEncoder {
+        final ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        final List<Long> timestamps = new ArrayList<>();
+        final List<Long> frames = new ArrayList<>();
+
+        @Override
+        public void start() throws IOException {
+            calls.add("encoder.start");
+        }
+
+        @Override
+        public void encode(ByteBuffer buffer, long presentationTimeUs) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            pcm.write(bytes, 0, bytes.length);
+            timestamps.add(presentationTimeUs);
+            frames.add((long) bytes.length / CONFIG.getFrameSize());
+        }
+
+        @Override
+        public void finish() {
+            calls.add("encoder.finish");
+        }
+
+        @Override
+        public void release() {
+            calls.add("encoder.release");
+            released.countDown();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingStatsTest {
+
+    private static final long MINUTE_US = 60000000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void normalisedPerMinuteOfAudio() {
+        RecordingStats stats = new RecordingStats();
+        // 30 s at 90 KB and 90 s at 270 KB: 180 KB a minute either way
+        stats.record(RecordingProfile.VOICE_LOW, MINUTE_US / 2, 90 * 1024, 3000000);
+        stats.record(RecordingProfile.VOICE_LOW, MINUTE_US * 3 / 2, 270 * 1024, 9000000);
+
+        assertEquals(2, stats.getRecordings(RecordingProfile.VOICE_LOW));
+        assertEquals(180, stats.getKilobytesPerMinute(RecordingProfile.VOICE_LOW), 1e-9);
+        assertEquals(6, stats.getFeedCpuMillisPerMinute(RecordingProfile.VOICE_LOW), 1e-9);
+        // Kept apart per profile
+        assertEquals(0, stats.getRecordings(RecordingProfile.MUSIC));
+        assertEquals(0, stats.getKilobytesPerMinute(RecordingProfile.MUSIC), 0);
+        assertEquals(0, stats.getFeedCpuMillisPerMinute(RecordingProfile.MUSIC), 0);
+    }
+
+    @Test
+    public void printsOnlyProfilesRecordedAndSaysTheCodecIsNotMeasured() {
+        RecordingStats stats = new RecordingStats();
+        stats.record(RecordingProfile.MUSIC, MINUTE_US, 960 * 1024, 0);
+
+        String printed = stats.toString();
+        assertTrue(printed, printed.contains("music: n=1, 960.0 KB/min"));
+        assertTrue(printed, printed.contains("codec not measured"));
+        assertFalse(printed, printed.contains("voice"));
+    }
+
+    @Test
+    public void encodeMeterRecordsWhatReachedTheCodec() throws IOException {
+        final File output = folder.newFile("out.m4a");
+        RecordingConfig config = RecordingProfile.VOICE_HIGH.toConfig();
+        RecordingStats stats = new RecordingStats();
+        final long[] clock = {0};
+        PcmEncoder codec = new PcmEncoder() {
+            @Override
+            public void start() {
+                clock[0] += 1000;
+            }
+
+            @Override
+            public void encode(ByteBuffer pcm, long presentationTimeUs) throws IOException {
+                clock[0] += 10;
+                try (FileOutputStream out = new FileOutputStream(output, true)) {
+                    out.write(new byte[pcm.remaining() / 8]);
+                }
+                pcm.position(pcm.limit());
+            }
+
+            @Override
+            public void finish() {
+                clock[0] += 500;
+            }
+
+            @Override
+            public void release() {
+            }
+        };
+        EncodeMeter meter = new EncodeMeter(codec, RecordingProfile.VOICE_HIGH, config, output, stats,
+                () -> clock[0]);
+
+        meter.start();
+        // One second of 20 ms reads
+        long frames = 0;
+        for (int i = 0; i < 50; i++) {
+            ByteBuffer pcm = ByteBuffer.allocate(config.getBufferSize());
+            frames += pcm.remaining() / config.getFrameSize();
+            meter.encode(pcm, config.framesToUs(frames));
+            clock[0] += 7;  // the engine's own work, not charged
+        }
+        meter.finish();
+
+        assertEquals(config.getSampleRate(), frames);
+        assertEquals(1, stats.getRecordings(RecordingProfile.VOICE_HIGH));
+        assertEquals(output.length() / 1024.0 * 60, stats.getKilobytesPerMinute(RecordingProfile.VOICE_HIGH), 1e-6);
+        // 1000 + 50 * 10 + 500 ns in a second of audio
+        assertEquals(2000 / 1e6 * 60, stats.getFeedCpuMillisPerMinute(RecordingProfile.VOICE_HIGH), 1e-9);
+    }
+}
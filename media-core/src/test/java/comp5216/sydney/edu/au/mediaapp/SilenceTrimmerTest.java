@@ -0,0 +1,151 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SilenceTrimmerTest {
+
+    private static final RecordingConfig CONFIG = RecordingProfile.VOICE_LOW.toConfig();
+    private static final int FRAMES_PER_READ = CONFIG.getBufferSize() / CONFIG.getFrameSize();
+    private static final long READ_US = CONFIG.framesToUs(FRAMES_PER_READ);
+    private static final int HANGOVER_READS = (int) (SilenceTrimmer.DEFAULT_HANGOVER_US / READ_US);
+    // Room noise well under the -45 dBFS threshold; each read gets its own level so it can be told apart
+    private static final int MAX_NOISE = 100;
+    private static final double VOICE_AMPLITUDE = 8000;
+
+    private Capturing sink;
+    private SilenceTrimmer trimmer;
+    private long nextUs;
+    private int noise;
+
+    @Before
+    public void setUp() throws IOException {
+        sink = new Capturing();
+        trimmer = new SilenceTrimmer(sink, CONFIG);
+        trimmer.start();
+    }
+
+    @Test
+    public void trimsLeadingAndTrailingSilence() throws IOException {
+        silence(50);
+        voice(50);
+        silence(100);
+        trimmer.finish();
+
+        // The read before the voice, the voice, and the hangover after it
+        int kept = 1 + 50 + HANGOVER_READS;
+        assertEquals(kept, sink.reads.size());
+        assertEquals(200, trimmer.getFramesIn() / FRAMES_PER_READ);
+        assertEquals((200L - kept) * FRAMES_PER_READ, trimmer.getFramesDropped());
+        assertTrue(sink.finished);
+    }
+
+    @Test
+    public void preRollIsTheReadJustBeforeTheVoice() throws IOException {
+        silence(50);
+        voice(1);
+
+        assertEquals(2, sink.reads.size());
+        // The last of the 50 silent reads, not an earlier one
+        assertEquals(50, sink.reads.get(0).firstSample);
+        assertTrue(sink.reads.get(0).level < SilenceTrimmer.DEFAULT_THRESHOLD_DB);
+        assertTrue(sink.reads.get(1).level >= SilenceTrimmer.DEFAULT_THRESHOLD_DB);
+    }
+
+    @Test
+    public void hangoverKeepsShortPausesAndShortensLongOnes() throws IOException {
+        voice(10);
+        silence(HANGOVER_READS);  // a pause within the hangover
+        voice(10);
+        silence(100);  // two seconds
+        voice(10);
+
+        // The short pause whole; of the long one the hangover and the read before the next word
+        assertEquals(10 + HANGOVER_READS + 10 + HANGOVER_READS + 1 + 10, sink.reads.size());
+        assertEquals((100L - HANGOVER_READS - 1) * FRAMES_PER_READ, trimmer.getFramesDropped());
+    }
+
+    @Test
+    public void timestampsHaveNoGaps() throws IOException {
+        silence(30);
+        voice(20);
+        silence(100);
+        voice(20);
+        silence(60);
+
+        long expectedUs = 0;
+        for (Read read : sink.reads) {
+            assertEquals(expectedUs, read.presentationTimeUs);
+            expectedUs += CONFIG.framesToUs(read.frames);
+        }
+        long framesOut = trimmer.getFramesIn() - trimmer.getFramesDropped();
+        assertEquals(CONFIG.framesToUs(framesOut), expectedUs);
+        assertTrue(trimmer.getFramesDropped() > 0);
+    }
+
+    private void silence(int reads) throws IOException {
+        for (int i = 0; i < reads; i++) {
+            noise = noise % MAX_NOISE + 1;
+            feed(PcmFixtures.constant(CONFIG, FRAMES_PER_READ, noise));
+        }
+    }
+
+    private void voice(int reads) throws IOException {
+        for (int i = 0; i < reads; i++) {
+            feed(PcmFixtures.sine(CONFIG, FRAMES_PER_READ, 440, VOICE_AMPLITUDE));
+        }
+    }
+
+    private void feed(ByteBuffer pcm) throws IOException {
+        trimmer.encode(pcm, nextUs);
+        nextUs += READ_US;
+    }
+
+    private static final class Read {
+        final long presentationTimeUs;
+        final long frames;
+        final int firstSample;
+        final float level;
+
+        Read(ByteBuffer pcm, long presentationTimeUs) {
+            ByteBuffer samples = pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.presentationTimeUs = presentationTimeUs;
+            this.frames = samples.remaining() / CONFIG.getFrameSize();
+            this.firstSample = samples.getShort(samples.position());
+            this.level = LevelMeter.rmsDb(samples);
+        }
+    }
+
+    // Keeps what it is given, read right away since the buffer is reused
+    private static final class Capturing implements PcmEncoder {
+        final List<Read> reads = new ArrayList<>();
+        boolean finished;
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void encode(ByteBuffer pcm, long presentationTimeUs) {
+            reads.add(new Read(pcm, presentationTimeUs));
+        }
+
+        @Override
+        public void finish() {
+            finished = true;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
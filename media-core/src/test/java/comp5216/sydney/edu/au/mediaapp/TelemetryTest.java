@@ -0,0 +1,123 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetryTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void flushReportsTheIntervalAndResets() {
+        Telemetry telemetry = new Telemetry(1000);
+        final long[] depth = {3};
+        telemetry.counter("upload.succeeded").add(2);
+        telemetry.histogram("upload.transfer_ms").record(40);
+        telemetry.gauge("upload.queue_depth", () -> depth[0]);
+
+        TelemetryReport first = telemetry.flush(2000);
+        assertEquals(1000, first.getStartMillis());
+        assertEquals(2000, first.getEndMillis());
+        assertEquals(2L, (long) first.getCounters().get("upload.succeeded"));
+        assertEquals(1, first.getHistograms().get("upload.transfer_ms").getCount());
+        assertEquals(3L, (long) first.getGauges().get("upload.queue_depth"));
+        assertFalse(first.isIdle());
+
+        // Counters and histograms start over, gauges are sampled again
+        depth[0] = 0;
+        TelemetryReport second = telemetry.flush(3000);
+        assertEquals(2000, second.getStartMillis());
+        assertEquals(0L, (long) second.getCounters().get("upload.succeeded"));
+        assertEquals(0, second.getHistograms().get("upload.transfer_ms").getCount());
+        assertEquals(0L, (long) second.getGauges().get("upload.queue_depth"));
+        assertTrue(second.isIdle());
+    }
+
+    @Test
+    public void aFailingSinkDoesNotStopTheOthers() {
+        Telemetry telemetry = new Telemetry(0);
+        final List<TelemetryReport> heard = new ArrayList<>();
+        telemetry.addSink(report -> {
+            throw new IOException("Disk full");
+        });
+        telemetry.addSink(heard::add);
+        telemetry.counter("capture.photos").increment();
+
+        telemetry.flush(1000);
+        assertEquals(1, heard.size());
+    }
+
+    @Test
+    public void batchingSinkMergesReports() throws IOException {
+        Telemetry telemetry = new Telemetry(0);
+        final List<TelemetryReport> heard = new ArrayList<>();
+        BatchingSink batching = new BatchingSink(heard::add, 3);
+        telemetry.addSink(batching);
+
+        for (int i = 1; i <= 4; i++) {
+            telemetry.counter("upload.succeeded").increment();
+            telemetry.histogram("upload.transfer_ms").record(i * 10);
+            telemetry.flush(i * 1000);
+        }
+        assertEquals(1, heard.size());
+        TelemetryReport batch = heard.get(0);
+        assertEquals(0, batch.getStartMillis());
+        assertEquals(3000, batch.getEndMillis());
+        assertEquals(3L, (long) batch.getCounters().get("upload.succeeded"));
+        assertEquals(30, batch.getHistograms().get("upload.transfer_ms").getMax());
+
+        // The fourth is held until drained
+        batching.drain();
+        assertEquals(2, heard.size());
+        assertEquals(1L, (long) heard.get(1).getCounters().get("upload.succeeded"));
+        batching.drain();
+        assertEquals(2, heard.size());
+    }
+
+    @Test
+    public void fileSinkSkipsIdleReportsAndRotates() throws IOException {
+        File dir = new File(folder.getRoot(), "telemetry");
+        Telemetry telemetry = new Telemetry(0);
+        telemetry.counter("upload.succeeded");
+        RotatingFileSink sink = new RotatingFileSink(dir, "perf", 200, 2);
+        telemetry.addSink(sink);
+
+        telemetry.flush(1000);
+        assertFalse(sink.file(0).exists());
+
+        telemetry.counter("upload.succeeded").increment();
+        telemetry.histogram("upload.transfer_ms").record(25);
+        telemetry.flush(2000);
+        String line = read(sink.file(0));
+        assertTrue(line, line.startsWith("{\"start\":1000,\"end\":2000,\"counters\":{\"upload.succeeded\":1}"));
+        assertTrue(line, line.contains("\"upload.transfer_ms\":{\"count\":1,\"mean\":25.0"));
+
+        // Each line is over half of maxBytes, so every write past the first rotates
+        for (int i = 3; i <= 5; i++) {
+            telemetry.counter("upload.succeeded").increment();
+            telemetry.histogram("upload.transfer_ms").record(25);
+            telemetry.flush(i * 1000);
+        }
+        assertTrue(read(sink.file(0)).contains("\"start\":4000"));
+        assertTrue(read(sink.file(1)).contains("\"start\":3000"));
+        // Only maxFiles are kept
+        assertFalse(sink.file(2).exists());
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
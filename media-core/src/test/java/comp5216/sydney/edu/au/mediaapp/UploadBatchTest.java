@@ -0,0 +1,63 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UploadBatchTest {
+
+    private final UploadItem a = UploadItem.forFile("file:///a.jpg", "Sydney/images/a.jpg");
+    private final UploadItem b = UploadItem.forFile("file:///b.jpg", "Sydney/images/b.jpg");
+    private final UploadItem other = UploadItem.forFile("file:///c.jpg", "Sydney/images/c.jpg");
+    private final AtomicInteger finished = new AtomicInteger();
+    private final UploadBatch batch = new UploadBatch(Arrays.asList(a, b), done -> finished.incrementAndGet());
+
+    @Test
+    public void progressCountsBytesInFlight() {
+        assertEquals(0, batch.getProgress().getFraction(), 0);
+
+        a.setProgress(50, 100);
+        assertEquals(0.25, batch.getProgress().getFraction(), 1e-9);
+        batch.onUploadSucceeded(a);
+        b.setProgress(10, 40);
+        UploadBatch.Progress progress = batch.getProgress();
+        assertEquals(0.625, progress.getFraction(), 1e-9);
+        assertEquals(1, progress.getSucceeded());
+        assertFalse(progress.isFinished());
+    }
+
+    @Test
+    public void finishesOnceWhenEveryItemIsDone() {
+        batch.onUploadFailed(b, new IOException("Injected failure"), true);
+        batch.onUploadSucceeded(other);
+        batch.onUploadSucceeded(a);
+        assertEquals(0, finished.get());
+
+        batch.onUploadFailed(b, new IOException("Injected failure"), false);
+        assertEquals(1, finished.get());
+        UploadBatch.Progress progress = batch.getProgress();
+        assertTrue(progress.isFinished());
+        assertEquals(2, progress.getTotal());
+        assertEquals(1, progress.getSucceeded());
+        assertEquals(1, progress.getFailed());
+        assertEquals(1, progress.getFraction(), 0);
+
+        // Outcomes heard twice are not counted again
+        batch.onUploadSucceeded(a);
+        assertEquals(1, finished.get());
+        assertEquals(1, batch.getProgress().getSucceeded());
+    }
+
+    @Test
+    public void emptyBatchIsComplete() {
+        UploadBatch empty = new UploadBatch(Arrays.<UploadItem>asList(), null);
+        assertTrue(empty.getProgress().isFinished());
+        assertEquals(1, empty.getProgress().getFraction(), 0);
+    }
+}
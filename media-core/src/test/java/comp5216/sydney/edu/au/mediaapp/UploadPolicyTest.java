@@ -0,0 +1,44 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UploadPolicyTest {
+
+    private static final DeviceConditions CELLULAR = new DeviceConditions(true, false, false, false);
+    private static final DeviceConditions WIFI = new DeviceConditions(true, true, false, false);
+
+    private final UploadPolicy policy = UploadPolicy.defaults();
+
+    @Test
+    public void ruleFollowsTheMediaFolder() {
+        assertEquals("any", policy.ruleFor(UploadItem.forFile("file:///a.jpg", "Sydney/images/a.jpg")).getName());
+        assertEquals("video", policy.ruleFor(UploadItem.forFile("file:///v.mp4", "Sydney/videos/v.mp4")).getName());
+        assertEquals("any", policy.ruleFor(UploadItem.forFile("file:///m.json", "manifests/m.json")).getName());
+    }
+
+    @Test
+    public void recordedVideoWaitsForWifiButAStreamedOneDoesNot() {
+        UploadItem recorded = UploadItem.forFile("file:///v.mp4", "Sydney/videos/v.mp4");
+        UploadItem chunk = UploadItem.forRange("file:///v.mp4", "Sydney/videos/v.mp4/chunks/00001", 0, 10, "g");
+        UploadItem manifest = UploadItem.forCommit("file:///v.json", "Sydney/videos/v.mp4/manifest.json", "g");
+
+        assertFalse(policy.allows(recorded, CELLULAR));
+        assertTrue(policy.allows(recorded, WIFI));
+        assertTrue(policy.allows(chunk, CELLULAR));
+        assertTrue(policy.allows(manifest, CELLULAR));
+        assertEquals("streamed", policy.ruleFor(chunk).getName());
+        assertEquals(2, policy.ruleFor(chunk).getMaxConcurrent());
+    }
+
+    @Test
+    public void withoutAGroupedRuleChunksFollowTheirType() {
+        UploadPolicy policy = new UploadPolicy(new UploadPolicy.Rule("any", UploadPolicy.Network.ANY, false, 4))
+                .with(MediaType.VIDEO, new UploadPolicy.Rule("video", UploadPolicy.Network.UNMETERED, false, 1));
+        UploadItem chunk = UploadItem.forRange("file:///v.mp4", "Sydney/videos/v.mp4/chunks/00001", 0, 10, "g");
+        assertFalse(policy.allows(chunk, CELLULAR));
+    }
+}
@@ -0,0 +1,318 @@
+package comp5216.sydney.edu.au.mediaapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UploadQueueTest {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final FakeTransport transport = new FakeTransport();
+    private final Outcomes outcomes = new Outcomes();
+    private ScheduledExecutorService dispatcher;
+    private ExecutorService stageExecutor;
+    private UploadQueue queue;
+
+    @Before
+    public void setUp() throws IOException {
+        dispatcher = Executors.newSingleThreadScheduledExecutor();
+        stageExecutor = Executors.newSingleThreadExecutor();
+        queue = new UploadQueue(new UploadJournal(folder.newFile("journal.log")), transport, dispatcher,
+                stageExecutor, 2, 2, MAX_ATTEMPTS, 1, 5);
+        queue.addListener(outcomes);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        queue.shutdown();
+        dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void retriesAFailedUploadUntilItGoesThrough() throws InterruptedException {
+        transport.failuresBeforeSuccess = 2;
+        queue.start();
+        UploadItem item = queue.enqueue("file:///a.jpg", "Sydney/images/a.jpg");
+        awaitSettled();
+
+        assertEquals(3, item.getAttempts());
+        assertEquals(2, outcomes.retried.get());
+        assertEquals(1, outcomes.succeeded.size());
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttemptsAndTellsTheStages() throws InterruptedException {
+        transport.failuresBeforeSuccess = Integer.MAX_VALUE;
+        RecordingStage stage = new RecordingStage();
+        queue.addStage(stage);
+        queue.start();
+        UploadItem item = queue.enqueue("file:///a.jpg", "Sydney/images/a.jpg");
+        awaitSettled();
+
+        assertEquals(MAX_ATTEMPTS, item.getAttempts());
+        assertEquals(1, outcomes.failed.size());
+        assertTrue(stage.failed.contains(item.getId()));
+        assertTrue(stage.uploaded.isEmpty());
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void commitWaitsForItsGroupAndFailsWithIt() throws InterruptedException {
+        transport.failFor = "chunk-1";
+        queue.start();
+        // Held back so the whole group is queued before any of it goes out
+        CountDownLatch gate = pause();
+        queue.enqueue(UploadItem.forRange("file:///v.mp4", "Sydney/videos/v.mp4/chunk-0", 0, 10, "g"));
+        queue.enqueue(UploadItem.forRange("file:///v.mp4", "Sydney/videos/v.mp4/chunk-1", 10, 10, "g"));
+        queue.enqueue(UploadItem.forCommit("file:///v.mp4", "Sydney/videos/v.mp4", "g"));
+        gate.countDown();
+        awaitSettled();
+
+        // The commit never went out, it was dropped once chunk-1 ran out of attempts
+        assertFalse(transport.started.containsKey("Sydney/videos/v.mp4"));
+        assertEquals(2, outcomes.failed.size());
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void cancelGroupStopsUploadsInFlight() throws InterruptedException {
+        transport.hold = true;
+        queue.start();
+        queue.enqueue(UploadItem.forRange("file:///v.mp4", "Sydney/videos/v.mp4/chunk-0", 0, 10, "g"));
+        queue.enqueue(UploadItem.forCommit("file:///v.mp4", "Sydney/videos/v.mp4", "g"));
+        transport.awaitStarted(1);
+        queue.cancelGroup("g");
+        awaitSettled();
+
+        assertEquals(1, transport.cancelled.get());
+        assertTrue(outcomes.succeeded.isEmpty());
+        assertEquals(0, queue.getDepth());
+    }
+
+    // A stage task cancelled before it ran never reported back, so its slot stayed counted as preparing
+    @Test
+    public void cancelBeforeTheStageRanFreesTheSlot() throws InterruptedException {
+        final CountDownLatch inStage = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        queue.addStage(new RecordingStage() {
+            @Override
+            public UploadItem prepare(UploadItem item) throws IOException {
+                if (item.getGroup() == null) {
+                    inStage.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Cancelled");
+                    }
+                }
+                return item;
+            }
+        });
+        queue.start();
+        UploadItem first = queue.enqueue("file:///a.jpg", "Sydney/images/a.jpg");
+        assertTrue(inStage.await(5, TimeUnit.SECONDS));
+        // Waits behind the first on the single stage thread, and is cancelled there
+        queue.enqueue(UploadItem.forRange("file:///v.mp4", "Sydney/videos/v.mp4/chunk-0", 0, 10, "g"));
+        queue.cancelGroup("g");
+        release.countDown();
+        awaitSettled();
+
+        assertEquals(1, outcomes.succeeded.size());
+        assertEquals(first.getId(), outcomes.succeeded.get(0).getId());
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void resumesWhatTheJournalStillHolds() throws IOException, InterruptedException {
+        File earlier = folder.newFile("earlier.log");
+        UploadJournal journal = new UploadJournal(earlier);
+        journal.load();
+        journal.put(UploadItem.forFile("file:///left.jpg", "Sydney/images/left.jpg"));
+        journal.close();
+
+        // The next process: its own threads, the same journal file
+        ScheduledExecutorService nextDispatcher = Executors.newSingleThreadScheduledExecutor();
+        UploadQueue resumed = new UploadQueue(new UploadJournal(earlier), transport, nextDispatcher,
+                Executors.newSingleThreadExecutor(), 2, 1, MAX_ATTEMPTS, 1, 5);
+        resumed.addListener(outcomes);
+        resumed.start();
+        awaitSettled(resumed);
+        resumed.shutdown();
+        nextDispatcher.awaitTermination(5, TimeUnit.SECONDS);
+
+        assertEquals("Sydney/images/left.jpg", outcomes.succeeded.get(0).getRemotePath());
+    }
+
+    @Test
+    public void captureTimeSurvivesAReplay() throws IOException {
+        File earlier = folder.newFile("captured.log");
+        UploadJournal journal = new UploadJournal(earlier);
+        journal.load();
+        UploadItem item = UploadItem.forFile("file:///left.jpg", "Sydney/images/left.jpg");
+        item.setCapturedAtMillis(1700000000000L);
+        journal.put(item);
+        journal.close();
+
+        List<UploadItem> replayed = new UploadJournal(earlier).load();
+        assertEquals(1, replayed.size());
+        assertEquals(1700000000000L, replayed.get(0).getCapturedAtMillis());
+    }
+
+    // A retry due after shutdown used to run anyway: it reopened the closed journal and sent again
+    @Test
+    public void shutdownCancelsPendingRetries() throws IOException, InterruptedException {
+        transport.failuresBeforeSuccess = Integer.MAX_VALUE;
+        File file = folder.newFile("shutdown.log");
+        ScheduledExecutorService ownDispatcher = Executors.newSingleThreadScheduledExecutor();
+        UploadQueue slow = new UploadQueue(new UploadJournal(file), transport, ownDispatcher,
+                Executors.newSingleThreadExecutor(), 2, 1, MAX_ATTEMPTS, 200, 200);
+        slow.start();
+        slow.enqueue("file:///a.jpg", "Sydney/images/a.jpg");
+        transport.awaitStarted(1);
+        slow.shutdown();
+        // Delayed tasks would still hold up termination
+        assertTrue(ownDispatcher.awaitTermination(5, TimeUnit.SECONDS));
+        Thread.sleep(300);
+
+        assertEquals(1, (int) transport.started.get("Sydney/images/a.jpg"));
+        // Left for the next process as it was after the first attempt
+        List<UploadItem> left = new UploadJournal(file).load();
+        assertEquals(1, left.size());
+        assertEquals(1, left.get(0).getAttempts());
+    }
+
+    // Blocks the dispatcher until the returned gate is opened
+    private CountDownLatch pause() {
+        final CountDownLatch gate = new CountDownLatch(1);
+        dispatcher.execute(() -> {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        return gate;
+    }
+
+    private void awaitSettled() throws InterruptedException {
+        awaitSettled(queue);
+    }
+
+    // Settled with nothing left means every outcome has been heard; whenSettled alone also fires on retries
+    private static void awaitSettled(UploadQueue queue) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            final CountDownLatch settled = new CountDownLatch(1);
+            queue.whenSettled(settled::countDown);
+            assertTrue("Queue never settled", settled.await(5, TimeUnit.SECONDS));
+            if (queue.getDepth() == 0) {
+                return;
+            }
+            assertTrue(queue.getDepth() + " uploads still pending", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    // Succeeds on the calling thread, after failuresBeforeSuccess failures per item
+    private static final class FakeTransport implements UploadTransport {
+        volatile int failuresBeforeSuccess;
+        volatile String failFor;
+        volatile boolean hold;
+        final Map<String, Integer> started = new ConcurrentHashMap<>();
+        final AtomicInteger cancelled = new AtomicInteger();
+        private final AtomicInteger starts = new AtomicInteger();
+
+        @Override
+        public Handle start(UploadItem item, final Callback callback) {
+            int attempt = started.merge(item.getRemotePath(), 1, Integer::sum);
+            synchronized (this) {
+                starts.incrementAndGet();
+                notifyAll();
+            }
+            if (hold) {
+                return cancelled::incrementAndGet;
+            }
+            if (attempt <= failuresBeforeSuccess || item.getRemotePath().endsWith("/" + failFor)) {
+                callback.onFailure(new IOException("Injected failure"));
+            } else {
+                callback.onProgress(10, 10);
+                callback.onSuccess();
+            }
+            return () -> { };
+        }
+
+        synchronized void awaitStarted(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (starts.get() < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                assertTrue("Nothing was started", remaining > 0);
+                wait(remaining);
+            }
+        }
+    }
+
+    private static final class Outcomes implements UploadQueue.Listener {
+        final List<UploadItem> succeeded = new CopyOnWriteArrayList<>();
+        final List<UploadItem> failed = new CopyOnWriteArrayList<>();
+        final AtomicInteger retried = new AtomicInteger();
+
+        @Override
+        public void onUploadSucceeded(UploadItem item) {
+            succeeded.add(item);
+        }
+
+        @Override
+        public void onUploadFailed(UploadItem item, Exception e, boolean willRetry) {
+            if (willRetry) {
+                retried.incrementAndGet();
+            } else {
+                failed.add(item);
+            }
+        }
+    }
+
+    private static class RecordingStage implements UploadStage {
+        final List<String> uploaded = new CopyOnWriteArrayList<>();
+        final List<String> failed = new CopyOnWriteArrayList<>();
+
+        @Override
+        public UploadItem prepare(UploadItem item) throws IOException {
+            return item;
+        }
+
+        @Override
+        public void onUploaded(UploadItem item) {
+            uploaded.add(item.getId());
+        }
+
+        @Override
+        public void onFailed(UploadItem item) {
+            failed.add(item.getId());
+        }
+    }
+}